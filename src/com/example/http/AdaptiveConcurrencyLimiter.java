@@ -0,0 +1,129 @@
+package com.example.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应并发限制器（Gradient / Vegas 算法）
+ * 根据观测到的请求耗时自动调整允许同时处理的请求数：
+ * 窗口平均 RTT 接近无排队基线时逐步放大上限，出现排队（RTT 变大）时按比例收缩。
+ */
+public class AdaptiveConcurrencyLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    // RTT 超出基线多少倍以内视为正常波动
+    private final double rttTolerance;
+    // 每个统计窗口的最少样本数
+    private final int windowSize;
+
+    private volatile double limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    // 以下字段仅在 synchronized(this) 中访问
+    private long windowRttSum = 0;
+    private int windowCount = 0;
+    private int windowMaxInFlight = 0;
+    // 无排队基线 RTT：取最近两个周期内单个样本的最小值，周期轮换使基线能随负载变化而更新
+    private long currentPeriodMinRtt = Long.MAX_VALUE;
+    private long previousPeriodMinRtt = Long.MAX_VALUE;
+    private int windowsInPeriod = 0;
+
+    // 每隔多少个统计窗口轮换一次基线周期
+    private static final int BASELINE_PERIOD_WINDOWS = 100;
+    // 新上限的平滑系数
+    private static final double LIMIT_SMOOTHING = 0.2;
+
+    public AdaptiveConcurrencyLimiter() {
+        this(20, 1, 1000, 1.5, 50);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double rttTolerance, int windowSize) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.rttTolerance = rttTolerance;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * 尝试占用一个并发名额
+     *
+     * @return false 表示已达当前上限，调用方应快速失败
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放名额并记录本次请求耗时
+     *
+     * @param rttNanos 请求处理耗时（纳秒）
+     */
+    public void release(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        onSample(rttNanos, current);
+    }
+
+    private synchronized void onSample(long rttNanos, int inFlightAtSample) {
+        windowRttSum += rttNanos;
+        windowCount++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtSample);
+        currentPeriodMinRtt = Math.min(currentPeriodMinRtt, rttNanos);
+        if (windowCount < windowSize) {
+            return;
+        }
+
+        double shortRtt = (double) windowRttSum / windowCount;
+        int maxInFlight = windowMaxInFlight;
+        windowRttSum = 0;
+        windowCount = 0;
+        windowMaxInFlight = 0;
+
+        double baseline = Math.min(currentPeriodMinRtt, previousPeriodMinRtt);
+        if (++windowsInPeriod >= BASELINE_PERIOD_WINDOWS) {
+            previousPeriodMinRtt = currentPeriodMinRtt;
+            currentPeriodMinRtt = Long.MAX_VALUE;
+            windowsInPeriod = 0;
+        }
+
+        double current = limit;
+        double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * baseline / Math.max(shortRtt, 1)));
+        // 请求量远未触及上限时不放大，避免空闲期上限无限增长
+        if (gradient >= 1.0 && maxInFlight < current / 2) {
+            return;
+        }
+
+        double queueSize = Math.sqrt(current);
+        double newLimit = current * gradient + queueSize;
+        newLimit = current * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    // ==================== 监控 ====================
+
+    /** 当前并发上限 */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /** 当前正在处理的请求数 */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /** 因超过上限被拒绝的请求数 */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keep-alive allocation benchmark
+ * Measure bytes allocated per request by the connection thread (read, parse, route, serialize)
+ * using the HotSpot per-thread allocation counter.
+ *
+ * Usage: java com.example.http.AllocationBenchmark [iterations]
+ */
+public class AllocationBenchmark {
+    private static final int WARMUP = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+
+        String browserGet = "GET /index?lang=zh&page=1 HTTP/1.1\r\n" +
+                "Host: localhost:8080\r\n" +
+                "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n" +
+                "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+                "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n" +
+                "Accept-Encoding: gzip, deflate\r\n" +
+                "Connection: keep-alive\r\n" +
+                "\r\n";
+        String formPost = "POST /login HTTP/1.1\r\n" +
+                "Host: localhost:8080\r\n" +
+                "Content-Type: application/x-www-form-urlencoded\r\n" +
+                "Content-Length: 35\r\n" +
+                "\r\n" +
+                "username=testuser&password=testpass";
+
+        // Router returning a preallocated response: isolates the per-connection framework path
+        HttpResponse fixed = HttpResponse.okText("hello");
+        Router fixedRouter = request -> fixed;
+
+        System.out.println("=== Keep-alive Allocation Benchmark (" + iterations + " requests) ===");
+        for (boolean channel : new boolean[]{false, true}) {
+            String mode = channel ? "[channel] " : "[stream]  ";
+            report(mode + "GET, fixed response", fixedRouter, browserGet, iterations, channel);
+            report(mode + "POST form, fixed response", fixedRouter, formPost, iterations, channel);
+            // Pre-serialized error response (CannedResponse): one shared buffer write
+            report(mode + "GET, canned 404", request -> HttpResponse.notFound(), browserGet, iterations, channel);
+        }
+        BufferPool pool = BufferPool.shared();
+        System.out.println(String.format("BufferPool hit rate %.3f, outstanding %d bytes",
+                pool.getHitRate(), pool.getOutstandingBytes()));
+    }
+
+    private static void report(String name, Router router, String request, int iterations,
+                               boolean channel) throws Exception {
+        double perRequest = measure(router, request.getBytes(StandardCharsets.UTF_8), iterations, channel);
+        System.out.println(String.format("%-38s %10.1f bytes/request", name, perRequest));
+    }
+
+    /**
+     * Drive one keep-alive connection in lock-step and return the handler thread's
+     * allocated bytes per request after warm-up.
+     */
+    private static double measure(Router router, byte[] request, int iterations, boolean channel) throws Exception {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Channel-backed server sockets make ClientHandler use pooled direct buffers
+        try (ServerSocket server = channel ? ServerSocketChannel.open().socket() : new ServerSocket();
+             Socket client = new Socket()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            client.connect(server.getLocalSocketAddress());
+            Socket accepted = server.accept();
+            Thread handlerThread = new Thread(new ClientHandler(accepted, router), "bench-handler");
+            handlerThread.start();
+
+            OutputStream out = client.getOutputStream();
+            InputStream in = client.getInputStream();
+            byte[] scratch = new byte[64 * 1024];
+
+            int responseLength = roundTrip(out, in, request, scratch, -1);
+            for (int i = 0; i < WARMUP; i++) {
+                roundTrip(out, in, request, scratch, responseLength);
+            }
+
+            long before = threads.getThreadAllocatedBytes(handlerThread.getId());
+            for (int i = 0; i < iterations; i++) {
+                roundTrip(out, in, request, scratch, responseLength);
+            }
+            long after = threads.getThreadAllocatedBytes(handlerThread.getId());
+
+            client.shutdownOutput();
+            handlerThread.join(5_000);
+            return (double) (after - before) / iterations;
+        }
+    }
+
+    /**
+     * Send one request and read its response; the first call discovers the response length
+     */
+    private static int roundTrip(OutputStream out, InputStream in, byte[] request, byte[] scratch,
+                                 int expectedLength) throws IOException {
+        out.write(request);
+        out.flush();
+        if (expectedLength > 0) {
+            int read = 0;
+            while (read < expectedLength) {
+                int r = in.read(scratch, read, expectedLength - read);
+                if (r < 0) throw new IOException("connection closed");
+                read += r;
+            }
+            return expectedLength;
+        }
+        int read = 0;
+        while (true) {
+            int r = in.read(scratch, read, scratch.length - read);
+            if (r < 0) throw new IOException("connection closed");
+            read += r;
+            String text = new String(scratch, 0, read, StandardCharsets.ISO_8859_1);
+            int headEnd = text.indexOf("\r\n\r\n");
+            int lengthAt = text.indexOf("Content-Length: ");
+            if (headEnd > 0 && lengthAt > 0) {
+                int lengthEnd = text.indexOf("\r\n", lengthAt);
+                int bodyLength = Integer.parseInt(text.substring(lengthAt + 16, lengthEnd));
+                int total = headEnd + 4 + bodyLength;
+                while (read < total) {
+                    r = in.read(scratch, read, total - read);
+                    if (r < 0) throw new IOException("connection closed");
+                    read += r;
+                }
+                return total;
+            }
+        }
+    }
+}
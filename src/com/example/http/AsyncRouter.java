@@ -0,0 +1,47 @@
+package com.example.http;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步路由接口
+ * 处理器可以立即返回一个 future，在 I/O 或耗时计算完成后再补全响应，
+ * 期间不占用连接的读线程。ClientHandler 会按请求顺序写回响应。
+ */
+public interface AsyncRouter {
+
+    CompletableFuture<HttpResponse> routeAsync(HttpRequest request);
+
+    /**
+     * 该请求的请求体是否不读入内存、以流的形式交给路由（在读取请求体之前调用，只能依据请求头判断）。
+     * 默认所有请求体都读入内存；批量导入、文件上传和反向代理等需要处理大请求体的路由按路径覆盖。
+     * 只能由路由决定，不能依据客户端发送的 Content-Type：流式请求体受更宽的 streamTimeoutMs 约束（见 RequestLimits）。
+     */
+    default boolean streamsRequestBody(HttpRequest request) {
+        return false;
+    }
+
+    /**
+     * 将同步路由适配为异步路由：在调用线程上直接执行，返回已完成的 future，streamsRequestBody 交给原路由。
+     * 本身已实现 AsyncRouter 的路由原样返回。
+     */
+    static AsyncRouter adapt(Router router) {
+        if (router instanceof AsyncRouter) {
+            return (AsyncRouter) router;
+        }
+        return new AsyncRouter() {
+            @Override
+            public CompletableFuture<HttpResponse> routeAsync(HttpRequest request) {
+                try {
+                    return CompletableFuture.completedFuture(router.route(request));
+                } catch (Exception e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+
+            @Override
+            public boolean streamsRequestBody(HttpRequest request) {
+                return router.streamsRequestBody(request);
+            }
+        };
+    }
+}
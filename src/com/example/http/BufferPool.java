@@ -0,0 +1,180 @@
+package com.example.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 直接内存缓冲池
+ * 按 4KB / 16KB / 64KB 三个规格缓存 direct ByteBuffer，连接读写时借出、结束时归还。
+ * 每个规格空闲缓冲数量有上限，借出的直接内存总量也有上限（超出后退化为堆缓冲），
+ * 保证大量连接下直接内存占用可预期。
+ *
+ * 调试模式（-Dhttp.bufferpool.debug=true）下记录每个借出缓冲的调用栈，
+ * 用于发现未归还的缓冲和重复归还。
+ */
+public final class BufferPool {
+    public static final int SMALL = 4 * 1024;
+    public static final int MEDIUM = 16 * 1024;
+    public static final int LARGE = 64 * 1024;
+
+    private static final int[] SIZES = {SMALL, MEDIUM, LARGE};
+    private static final BufferPool SHARED = new BufferPool(
+            new int[]{1024, 512, 64}, 64L * 1024 * 1024, Boolean.getBoolean("http.bufferpool.debug"));
+
+    private final List<ArrayBlockingQueue<ByteBuffer>> free;
+    private final long maxOutstandingBytes;
+    private final boolean debug;
+    // 调试模式下记录借出位置（按对象身份，ByteBuffer 的 equals 比较的是内容）
+    private final Map<ByteBuffer, Throwable> borrowed =
+            Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+    private final AtomicLong outstandingBytes = new AtomicLong();
+
+    /**
+     * @param maxFreePerClass     每个规格最多保留的空闲缓冲数
+     * @param maxOutstandingBytes 借出的直接内存总量上限，超过后借出堆缓冲
+     * @param debug               是否记录借出调用栈
+     */
+    public BufferPool(int[] maxFreePerClass, long maxOutstandingBytes, boolean debug) {
+        this.free = new ArrayList<>(SIZES.length);
+        for (int i = 0; i < SIZES.length; i++) {
+            this.free.add(new ArrayBlockingQueue<>(Math.max(1, maxFreePerClass[i])));
+        }
+        this.maxOutstandingBytes = maxOutstandingBytes;
+        this.debug = debug;
+    }
+
+    /** 进程共享的缓冲池 */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * 借出容量不小于 minCapacity 的缓冲（已 clear）
+     * 超过最大规格或直接内存已达上限时返回堆缓冲，归还时会被忽略
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        int cls = classFor(minCapacity);
+        if (cls < 0) {
+            fallbacks.incrementAndGet();
+            return ByteBuffer.allocate(minCapacity);
+        }
+        int size = SIZES[cls];
+        if (outstandingBytes.addAndGet(size) > maxOutstandingBytes) {
+            outstandingBytes.addAndGet(-size);
+            fallbacks.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buffer = free.get(cls).poll();
+        if (buffer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+        buffer.clear();
+        if (debug) {
+            borrowed.put(buffer, new Throwable("Buffer acquired here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲；堆缓冲和非标准规格的缓冲直接丢弃
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        int cls = indexOfSize(buffer.capacity());
+        if (cls < 0) {
+            return;
+        }
+        if (debug && borrowed.remove(buffer) == null) {
+            throw new IllegalStateException("Buffer released twice or not acquired from this pool");
+        }
+        outstandingBytes.addAndGet(-buffer.capacity());
+        buffer.clear();
+        // 空闲队列已满时丢弃，由 GC 回收直接内存
+        free.get(cls).offer(buffer);
+    }
+
+    /**
+     * 调试模式下打印仍未归还的缓冲及其借出位置
+     *
+     * @return 未归还的缓冲数量（非调试模式返回 -1）
+     */
+    public int reportLeaks() {
+        if (!debug) {
+            return -1;
+        }
+        List<Throwable> sites;
+        synchronized (borrowed) {
+            sites = new ArrayList<>(borrowed.values());
+        }
+        for (Throwable site : sites) {
+            System.err.println("BufferPool leak: buffer was never released");
+            site.printStackTrace();
+        }
+        return sites.size();
+    }
+
+    private static int classFor(int minCapacity) {
+        for (int i = 0; i < SIZES.length; i++) {
+            if (minCapacity <= SIZES[i]) return i;
+        }
+        return -1;
+    }
+
+    private static int indexOfSize(int capacity) {
+        for (int i = 0; i < SIZES.length; i++) {
+            if (capacity == SIZES[i]) return i;
+        }
+        return -1;
+    }
+
+    // ==================== 监控 ====================
+
+    /** 从空闲队列命中的借出比例 */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** 因超出直接内存上限或规格而退化为堆缓冲的次数 */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /** 当前借出未归还的直接内存字节数 */
+    public long getOutstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    /** 空闲队列中保留的直接内存字节数 */
+    public long getPooledBytes() {
+        long total = 0;
+        for (int i = 0; i < SIZES.length; i++) {
+            total += (long) free.get(i).size() * SIZES[i];
+        }
+        return total;
+    }
+}
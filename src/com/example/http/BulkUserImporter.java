@@ -0,0 +1,379 @@
+package com.example.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量用户导入
+ * 从流中逐行解析账号，每攒满一批调用一次 UserService.registerBatch，请求体不会整体读入内存。
+ * 支持两种格式：
+ * NDJSON：每行一个 {"username":"...","password":"..."}
+ * CSV：每行 username,password（字段可用双引号包围），首行为 username,password 时视为表头跳过
+ *
+ * 结果为汇总计数，另外记录前 100 条失败行的行号和原因。
+ * 一次导入处理的账号行数有上限：之后再遇到账号行时停止读取，剩余部分不再处理（结果标记为 truncated）。
+ */
+public class BulkUserImporter {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_MAX_ACCOUNTS = 100_000;
+    // 单行长度上限，超过的行记为无效并跳过
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    public enum Format { NDJSON, CSV }
+
+    private final UserService userService;
+    private final int batchSize;
+    private final int maxAccounts;
+
+    public BulkUserImporter(UserService userService) {
+        this(userService, DEFAULT_BATCH_SIZE, DEFAULT_MAX_ACCOUNTS);
+    }
+
+    /**
+     * @param maxAccounts 一次导入最多处理的账号行数
+     */
+    public BulkUserImporter(UserService userService, int batchSize, int maxAccounts) {
+        this.userService = userService;
+        this.batchSize = batchSize;
+        this.maxAccounts = maxAccounts;
+    }
+
+    /**
+     * 按 Content-Type 选择格式：text/csv 为 CSV，其余按 NDJSON 处理
+     */
+    public static Format formatOf(String contentType) {
+        return contentType != null && contentType.toLowerCase().startsWith("text/csv") ? Format.CSV : Format.NDJSON;
+    }
+
+    /**
+     * 读取整个流并导入
+     *
+     * @throws IOException 读取请求体失败（已提交的批次不会回滚）
+     */
+    public Result importFrom(InputStream in, Format format) throws IOException {
+        Run run = new Run(format);
+        byte[] chunk = new byte[16 * 1024];
+        int n;
+        while (!run.result.truncated && (n = in.read(chunk, 0, chunk.length)) >= 0) {
+            int start = 0;
+            for (int i = 0; i < n && !run.result.truncated; i++) {
+                if (chunk[i] == '\n') {
+                    run.appendLine(chunk, start, i - start);
+                    run.endLine();
+                    start = i + 1;
+                }
+            }
+            if (!run.result.truncated) {
+                run.appendLine(chunk, start, n - start);
+            }
+        }
+        // 最后一行可能没有换行符
+        if (!run.result.truncated && (run.lineLength > 0 || run.overlong)) {
+            run.endLine();
+        }
+        run.flush();
+        return run.result;
+    }
+
+    /**
+     * 一次导入的状态：当前行缓冲和待提交的一批账号
+     */
+    private final class Run {
+        final Format format;
+        final Result result = new Result();
+        final String[] usernames = new String[batchSize];
+        final String[] passwords = new String[batchSize];
+        final long[] lineNumbers = new long[batchSize];
+        int count = 0;
+        // 物理行号（含表头和空行），用于错误报告
+        long lineNumber = 0;
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        boolean overlong = false;
+
+        Run(Format format) {
+            this.format = format;
+        }
+
+        void appendLine(byte[] src, int off, int len) {
+            if (overlong || len == 0) return;
+            if (lineLength + len > MAX_LINE_LENGTH) {
+                overlong = true;
+                return;
+            }
+            if (lineLength + len > line.length) {
+                byte[] grown = new byte[Math.max(line.length * 2, lineLength + len)];
+                System.arraycopy(line, 0, grown, 0, lineLength);
+                line = grown;
+            }
+            System.arraycopy(src, off, line, lineLength, len);
+            lineLength += len;
+        }
+
+        void endLine() {
+            if (result.lines >= maxAccounts && (overlong || !isBlank(line, lineLength))) {
+                // 上限之后还有账号行：停止读取
+                result.truncated = true;
+                return;
+            }
+            lineNumber++;
+            String[] account;
+            if (overlong) {
+                result.lines++;
+                result.fail(lineNumber, "line too long");
+                account = null;
+            } else {
+                account = parseLine(line, lineLength, lineNumber, format, result);
+            }
+            lineLength = 0;
+            overlong = false;
+            if (account == null) return;
+            usernames[count] = account[0];
+            passwords[count] = account[1];
+            lineNumbers[count] = lineNumber;
+            if (++count == batchSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (count == 0) return;
+            boolean[] ok = userService.registerBatch(usernames, passwords, count);
+            for (int i = 0; i < count; i++) {
+                if (ok[i]) {
+                    result.imported++;
+                } else {
+                    result.duplicates++;
+                    result.error(lineNumbers[i], "username already exists");
+                }
+            }
+            count = 0;
+        }
+    }
+
+    private static boolean isBlank(byte[] line, int length) {
+        for (int i = 0; i < length; i++) {
+            if (line[i] != ' ' && line[i] != '\t' && line[i] != '\r') return false;
+        }
+        return true;
+    }
+
+    /**
+     * 解析一行账号，空行和表头返回 null 且不计数；格式错误记为无效并返回 null
+     */
+    private static String[] parseLine(byte[] line, int length, long lineNumber, Format format, Result result) {
+        if (length > 0 && line[length - 1] == '\r') length--;
+        String text = new String(line, 0, length, StandardCharsets.UTF_8).trim();
+        if (text.isEmpty()) {
+            return null;
+        }
+        String username;
+        String password;
+        if (format == Format.CSV) {
+            List<String> fields = parseCsv(text);
+            if (lineNumber == 1 && fields != null && fields.size() >= 2
+                    && "username".equalsIgnoreCase(fields.get(0).trim()) && "password".equalsIgnoreCase(fields.get(1).trim())) {
+                // 表头
+                return null;
+            }
+            result.lines++;
+            if (fields == null || fields.size() < 2) {
+                result.fail(lineNumber, "expected username,password");
+                return null;
+            }
+            username = fields.get(0).trim();
+            password = fields.get(1);
+        } else {
+            result.lines++;
+            String[] fields = parseJsonAccount(text);
+            if (fields == null) {
+                result.fail(lineNumber, "invalid JSON object");
+                return null;
+            }
+            username = fields[0];
+            password = fields[1];
+        }
+        if (username == null || username.isEmpty() || password == null || password.isEmpty()) {
+            result.fail(lineNumber, "username and password can not be empty");
+            return null;
+        }
+        return new String[]{username, password};
+    }
+
+    /**
+     * 解析一行 CSV，支持双引号包围的字段和 "" 转义；引号不匹配时返回 null
+     */
+    private static List<String> parseCsv(String text) {
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) return null;
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * 解析只含字符串值的扁平 JSON 对象，返回 {username, password}（缺失的字段为 null）；
+     * 格式错误返回 null。其他键和非字符串值被忽略。
+     */
+    static String[] parseJsonAccount(String text) {
+        String[] account = new String[2];
+        int[] pos = {0};
+        skipWhitespace(text, pos);
+        if (!consume(text, pos, '{')) return null;
+        skipWhitespace(text, pos);
+        if (consume(text, pos, '}')) return account;
+        while (true) {
+            skipWhitespace(text, pos);
+            String key = parseJsonString(text, pos);
+            if (key == null) return null;
+            skipWhitespace(text, pos);
+            if (!consume(text, pos, ':')) return null;
+            skipWhitespace(text, pos);
+            if (pos[0] < text.length() && text.charAt(pos[0]) == '"') {
+                String value = parseJsonString(text, pos);
+                if (value == null) return null;
+                if ("username".equals(key)) account[0] = value;
+                else if ("password".equals(key)) account[1] = value;
+            } else {
+                // 非字符串值（数字、true/false/null）：跳到下一个分隔符
+                while (pos[0] < text.length() && text.charAt(pos[0]) != ',' && text.charAt(pos[0]) != '}') {
+                    char c = text.charAt(pos[0]);
+                    if (c == '{' || c == '[' || c == '"') return null;
+                    pos[0]++;
+                }
+            }
+            skipWhitespace(text, pos);
+            if (consume(text, pos, ',')) continue;
+            if (!consume(text, pos, '}')) return null;
+            skipWhitespace(text, pos);
+            return pos[0] == text.length() ? account : null;
+        }
+    }
+
+    private static String parseJsonString(String text, int[] pos) {
+        if (!consume(text, pos, '"')) return null;
+        StringBuilder sb = new StringBuilder();
+        while (pos[0] < text.length()) {
+            char c = text.charAt(pos[0]++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos[0] >= text.length()) return null;
+            char e = text.charAt(pos[0]++);
+            switch (e) {
+                case '"': case '\\': case '/': sb.append(e); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos[0] + 4 > text.length()) return null;
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        return null;
+                    }
+                    pos[0] += 4;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+
+    private static void skipWhitespace(String text, int[] pos) {
+        while (pos[0] < text.length() && Character.isWhitespace(text.charAt(pos[0]))) pos[0]++;
+    }
+
+    private static boolean consume(String text, int[] pos, char expected) {
+        if (pos[0] < text.length() && text.charAt(pos[0]) == expected) {
+            pos[0]++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 导入结果汇总
+     */
+    public static final class Result {
+        private long lines;
+        private long imported;
+        private long duplicates;
+        private long invalid;
+        private boolean truncated;
+        private final List<String> errors = new ArrayList<>();
+
+        void fail(long line, String reason) {
+            invalid++;
+            error(line, reason);
+        }
+
+        void error(long line, String reason) {
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("{\"line\":" + line + ",\"reason\":\"" + reason + "\"}");
+            }
+        }
+
+        /** 非空的账号行数 */
+        public long getLines() {
+            return lines;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        /** 用户名已存在的行数 */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /** 格式错误或字段为空的行数 */
+        public long getInvalid() {
+            return invalid;
+        }
+
+        /** 达到账号数上限，请求体的剩余部分没有处理 */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public String toJson() {
+            return "{\"lines\":" + lines + ",\"imported\":" + imported + ",\"duplicates\":" + duplicates
+                    + ",\"invalid\":" + invalid + ",\"truncated\":" + truncated
+                    + ",\"errors\":[" + String.join(",", errors) + "]}";
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.http;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 按 8 字节一组查找分隔符（SWAR：在一个 long 里并行比较 8 个字节）
+ * 请求解析中查找 CR、LF、':'、空格、'?'、'&'、'=' 都走这里，结果与逐字节查找完全一致。
+ * 每组先与目标字节重复 8 次的掩码异或，相等的字节变为 0，再用不跨字节进位的公式求出
+ * 每个为 0 的字节的最高位；小端读取时最低的置位即第一个匹配。
+ * 少于 8 字节的部分逐字节比较。
+ */
+final class ByteScanner {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long ONES = 0x0101010101010101L;
+
+    private ByteScanner() {
+    }
+
+    /**
+     * bytes[from, to) 中第一个等于 target 的下标，没有时返回 -1
+     */
+    static int indexOf(byte[] bytes, int from, int to, byte target) {
+        int i = from;
+        if (to - from >= Long.BYTES) {
+            long pattern = ONES * (target & 0xFF);
+            for (int last = to - Long.BYTES; i <= last; i += Long.BYTES) {
+                long match = zeroBytes((long) LONGS.get(bytes, i) ^ pattern);
+                if (match != 0) {
+                    return i + (Long.numberOfTrailingZeros(match) >>> 3);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (bytes[i] == target) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * bytes[from, to) 中第一个等于 a 或 b 的下标，没有时返回 -1
+     */
+    static int indexOfAny(byte[] bytes, int from, int to, byte a, byte b) {
+        int i = from;
+        if (to - from >= Long.BYTES) {
+            long patternA = ONES * (a & 0xFF);
+            long patternB = ONES * (b & 0xFF);
+            for (int last = to - Long.BYTES; i <= last; i += Long.BYTES) {
+                long word = (long) LONGS.get(bytes, i);
+                long match = zeroBytes(word ^ patternA) | zeroBytes(word ^ patternB);
+                if (match != 0) {
+                    return i + (Long.numberOfTrailingZeros(match) >>> 3);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (bytes[i] == a || bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 缓冲区 [from, to)（绝对下标，不改变 position）中第一个等于 target 的下标，没有时返回 -1
+     * 读缓冲通常是 direct 缓冲，按缓冲区自身的字节序读取 long
+     */
+    static int indexOf(ByteBuffer buf, int from, int to, byte target) {
+        int i = from;
+        if (to - from >= Long.BYTES) {
+            long pattern = ONES * (target & 0xFF);
+            boolean little = buf.order() == ByteOrder.LITTLE_ENDIAN;
+            for (int last = to - Long.BYTES; i <= last; i += Long.BYTES) {
+                long match = zeroBytes(buf.getLong(i) ^ pattern);
+                if (match != 0) {
+                    // 大端读取时第一个字节在最高位
+                    int bit = little ? Long.numberOfTrailingZeros(match) : Long.numberOfLeadingZeros(match);
+                    return i + (bit >>> 3);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (buf.get(i) == target) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 为 0 的字节置其最高位，其余位为 0
+     * 先把每个字节的低 7 位加上 0x7F（低 7 位非 0 时进位到最高位，不会进到相邻字节），
+     * 再并上原值：结果最高位为 0 当且仅当该字节为 0
+     */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | x | LOW_SEVEN_BITS);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 不可变的预序列化响应
+ * 状态行、响应头和响应体在创建时编码一次，之后所有线程共享；
+ * 只有 Date 头每秒刷新一次，写出时只需一次缓冲区写入。
+ * 用于 404/405/500 等内容固定、调用量又很大的响应。
+ *
+ * 本类不是 HttpResponse：response() 返回一个引用本对象的普通 HttpResponse，
+ * 未修改时写出直接使用预序列化的字节；修改头部或响应体时才复制出自己的一份（写时复制），
+ * 之后按普通响应序列化，共享的内容不受影响。
+ */
+final class CannedResponse {
+    final int statusCode;
+    final String reason;
+    // 共享的只读头部和响应体，写时复制的 HttpResponse 在修改前读取它们
+    final Map<String, String> headers;
+    final byte[] body;
+    // 不含 Date 头和结尾空行的状态行 + 响应头
+    private final byte[] headPrefix;
+    private volatile Wire wire = new Wire(-1, null);
+
+    CannedResponse(int statusCode, String reason, String contentType, String body, String... extraHeaders) {
+        this.statusCode = statusCode;
+        this.reason = reason;
+        Map<String, String> map = new LinkedHashMap<>();
+        if (contentType != null) {
+            map.put("Content-Type", contentType);
+        }
+        for (int i = 0; i + 1 < extraHeaders.length; i += 2) {
+            map.put(extraHeaders[i], extraHeaders[i + 1]);
+        }
+        this.body = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (body != null) {
+            map.put("Content-Length", String.valueOf(this.body.length));
+        }
+        this.headers = Collections.unmodifiableMap(map);
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(statusCode).append(' ').append(reason).append("\r\n");
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            sb.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+        }
+        this.headPrefix = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 以本响应为内容的新 HttpResponse，调用方可以自由修改
+     */
+    HttpResponse response() {
+        return new HttpResponse(this);
+    }
+
+    /**
+     * 完整的响应报文（含当前 Date 头），返回的数组被共享，调用方不得修改
+     */
+    byte[] wireBytes() {
+        HttpDate.Stamp now = HttpDate.now();
+        Wire w = wire;
+        if (w.second != now.second) {
+            w = new Wire(now.second, encode(now.value));
+            wire = w;
+        }
+        return w.bytes;
+    }
+
+    private byte[] encode(byte[] date) {
+        byte[] res = new byte[headPrefix.length + 6 + date.length + 4 + body.length];
+        int pos = 0;
+        System.arraycopy(headPrefix, 0, res, pos, headPrefix.length);
+        pos += headPrefix.length;
+        for (byte b : "Date: ".getBytes(StandardCharsets.US_ASCII)) res[pos++] = b;
+        System.arraycopy(date, 0, res, pos, date.length);
+        pos += date.length;
+        res[pos++] = '\r';
+        res[pos++] = '\n';
+        res[pos++] = '\r';
+        res[pos++] = '\n';
+        System.arraycopy(body, 0, res, pos, body.length);
+        return res;
+    }
+
+    private static final class Wire {
+        final long second;
+        final byte[] bytes;
+
+        Wire(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,134 +1,560 @@
 package com.example.http;
 
+import javax.net.ssl.SSLException;
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class ClientHandler implements Runnable {
     private final Socket socket;
-    private final Router router;
+    private final AsyncRouter router;
+    private final String remoteAddress;
+    // 非 null 时连接为 HTTPS，读写经过 TlsChannel
+    private final TlsConfig tls;
+    private final RequestLimits limits;
+    // 非 null 时录制该连接上的 HTTP/1.1 请求
+    private final TrafficCapture capture;
+    private final Executor streamExecutor;
+    private final long captureConnection;
     // 连接超时（读取下一请求的阻塞保护），单位毫秒
     private static final int SOCKET_TIMEOUT_MS = 30_000;
+    // 拒绝请求体后关闭连接前，继续丢弃客户端数据的最长时间
+    private static final long LINGER_MS = 2_000;
+    // 同一连接上最多允许多少个已读取但尚未写回的请求（流水线深度）
+    private static final int MAX_PIPELINED = 16;
+    // 连接读、写缓冲的大小（通道模式下从 BufferPool 借出）
+    private static final int IO_BUFFER_SIZE = BufferPool.SMALL;
+    // 路由不流式读取的请求体（定长或 chunked）读入内存的上限，定长请求体超过时回复 413
+    private static final int MAX_BUFFERED_BODY = 10 * 1024 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // 请求超出 RequestLimits 时的响应，之后关闭连接
+    private static final CannedResponse REQUEST_TIMEOUT = new CannedResponse(408, "Request Timeout",
+            "text/plain; charset=utf-8", "408 Request Timeout", "Connection", "close");
+    private static final CannedResponse URI_TOO_LONG = new CannedResponse(414, "URI Too Long",
+            "text/plain; charset=utf-8", "414 URI Too Long", "Connection", "close");
+    private static final CannedResponse HEADERS_TOO_LARGE = new CannedResponse(431, "Request Header Fields Too Large",
+            "text/plain; charset=utf-8", "431 Request Header Fields Too Large", "Connection", "close");
+
+    // 异步完成的响应在服务器的写线程池上写出，不占用完成 future 的线程（调度线程、上游 IO 线程等）；
+    // 同一连接的写按顺序串成一条链，任何时刻最多占用一个写线程，写有截止时间，
+    // 不读数据的客户端最多占用一个写线程一个写超时周期
+    private final Executor writeExecutor;
+
+    // 写回链：每个响应在前一个响应写完且自身完成后才写，保证按请求顺序返回
+    private CompletableFuture<Void> writeTail = CompletableFuture.completedFuture(null);
+    private final ArrayDeque<CompletableFuture<Void>> pendingWrites = new ArrayDeque<>();
+
+    // 以下对象按连接持有并在请求之间复用，稳态下长连接每个请求几乎不分配内存
+    // 请求对象按流水线深度轮转使用：第 i 个请求使用 slots[i % MAX_PIPELINED]，
+    // 流水线深度保证复用某个槽位时它上一次的请求已经写回
+    private final HttpRequest[] slots = new HttpRequest[MAX_PIPELINED];
+    private int nextSlot = 0;
+    private final StringCache stringCache = new StringCache(128);
 
     public ClientHandler(Socket socket, Router router) {
+        this(socket, AsyncRouter.adapt(router));
+    }
+
+    public ClientHandler(Socket socket, AsyncRouter router) {
+        this(socket, router, null);
+    }
+
+    /**
+     * @param tls 非 null 时在该连接上终结 TLS（要求 socket 带有阻塞模式的 SocketChannel）
+     */
+    public ClientHandler(Socket socket, AsyncRouter router, TlsConfig tls) {
+        this(socket, router, tls, RequestLimits.DEFAULT);
+    }
+
+    /**
+     * @param limits 请求头大小和请求读取时间的上限
+     */
+    public ClientHandler(Socket socket, AsyncRouter router, TlsConfig tls, RequestLimits limits) {
+        this(socket, router, tls, limits, null);
+    }
+
+    /**
+     * @param capture 非 null 时把收到的请求写入流量录制文件
+     */
+    public ClientHandler(Socket socket, AsyncRouter router, TlsConfig tls, RequestLimits limits, TrafficCapture capture) {
+        this(socket, router, tls, limits, capture, Http2Connection.defaultStreamExecutor());
+    }
+
+    /**
+     * @param streamExecutor 连接升级为 HTTP/2 后路由各个流的线程池（见 Http2Connection）
+     */
+    public ClientHandler(Socket socket, AsyncRouter router, TlsConfig tls, RequestLimits limits, TrafficCapture capture,
+                         Executor streamExecutor) {
+        this(socket, router, tls, limits, capture, streamExecutor, defaultWriteExecutor());
+    }
+
+    /**
+     * @param writeExecutor 写出异步完成的响应的线程池（见 newWriteExecutor）
+     */
+    public ClientHandler(Socket socket, AsyncRouter router, TlsConfig tls, RequestLimits limits, TrafficCapture capture,
+                         Executor streamExecutor, Executor writeExecutor) {
         this.socket = socket;
+        this.streamExecutor = streamExecutor;
+        this.writeExecutor = writeExecutor;
         this.router = router;
+        this.tls = tls;
+        this.limits = limits;
+        this.capture = capture;
+        this.captureConnection = capture != null ? capture.newConnection() : 0;
+        this.remoteAddress = socket.getInetAddress() != null ? socket.getInetAddress().getHostAddress() : null;
         try {
             this.socket.setSoTimeout(SOCKET_TIMEOUT_MS);
         } catch (IOException ignored) {}
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new HttpRequest();
+        }
     }
 
+    // 连接的读写对象，连接关闭时由 release() 释放
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
+    private RequestReader reader;
+    private ResponseWriter writer;
+    private TlsChannel tlsChannel;
+    private ReadDeadlineWatchdog.Watched writeWatch;
+    // 连接已交给 WebSocketSession 的读线程，由它在连接结束时调用 release()
+    private boolean handedOff = false;
+
     @Override
     public void run() {
-        try (InputStream in = socket.getInputStream();
-             OutputStream out = socket.getOutputStream()) {
-
-            boolean keepAlive = true;
-            while (keepAlive && !socket.isClosed()) {
-                // 1) 读取请求头（按行）
-                String requestLine = readLine(in);
-                if (requestLine == null) break; // 客户端关闭连接
-
-                // 如果是空行（客户端可能发了多余的 CRLF），跳过并尝试继续读取
-                if (requestLine.trim().isEmpty()) {
-                    continue;
+        SocketChannel channel = socket.getChannel();
+        BufferPool pool = BufferPool.shared();
+        try {
+            if (channel != null && channel.isBlocking()) {
+                // 通道模式：读写都使用缓冲池中的 direct 缓冲，读超时交给看门狗
+                readBuffer = pool.acquire(IO_BUFFER_SIZE);
+                writeBuffer = pool.acquire(IO_BUFFER_SIZE);
+                if (tls != null) {
+                    // HTTPS：明文读写经过 TlsChannel，握手在第一次读取时完成
+                    tlsChannel = new TlsChannel(channel, tls);
+                    reader = new RequestReader(tlsChannel, readBuffer, SOCKET_TIMEOUT_MS);
+                    writer = new ResponseWriter(tlsChannel, writeBuffer);
+                } else {
+                    reader = new RequestReader(channel, readBuffer, SOCKET_TIMEOUT_MS);
+                    writer = new ResponseWriter(channel, writeBuffer);
                 }
+                ReadDeadlineWatchdog.get().register(reader);
+                writeWatch = new ReadDeadlineWatchdog.Watched() {
+                    @Override
+                    public long readDeadline() {
+                        return writer.writeDeadline();
+                    }
 
-                StringBuilder headerBlock = new StringBuilder();
-                headerBlock.append(requestLine).append("\r\n");
-
-                // 读取头部直到空行
-                String line;
-                Map<String, String> headers = new HashMap<>();
-                while ((line = readLine(in)) != null && !line.isEmpty()) {
-                    headerBlock.append(line).append("\r\n");
-                    int idx = line.indexOf(":");
-                    if (idx > 0) {
-                        String name = line.substring(0, idx).trim();
-                        String value = line.substring(idx + 1).trim();
-                        headers.put(name.toLowerCase(Locale.ROOT), value);
+                    @Override
+                    public void expire() {
+                        // 写超时：关闭连接，阻塞中的写随之失败
+                        try { socket.close(); } catch (IOException ignored) {}
                     }
-                }
-                headerBlock.append("\r\n");
+                };
+                ReadDeadlineWatchdog.get().register(writeWatch);
+            } else if (tls != null) {
+                throw new IOException("TLS requires a blocking SocketChannel");
+            } else {
+                reader = new RequestReader(socket.getInputStream());
+                writer = new ResponseWriter(socket.getOutputStream(), IO_BUFFER_SIZE);
+            }
+            reader.setLimits(limits);
+            try {
+                serve(reader, writer);
+            } finally {
+                awaitPendingWrites();
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        } finally {
+            if (!handedOff) {
+                release();
+            }
+        }
+    }
+
+    /**
+     * 连接结束时的异常：超时、对端关闭和服务器关闭属于正常结束，不打印
+     */
+    static void handleIOException(IOException e) {
+        if (e instanceof SocketTimeoutException) {
+            // 读超时，关闭连接
+        } else if (e instanceof EOFException) {
+            // 客户端在请求中途关闭连接
+        } else if (e instanceof ClosedByInterruptException) {
+            // 服务器关闭时中断了阻塞中的读取（长连接和 HTTP/2 连接空闲时）
+        } else if (e instanceof SSLException) {
+            // TLS 握手失败或收到非法记录（如明文 HTTP 连到 HTTPS 端口），已计入握手失败统计
+        } else {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 关闭连接并归还缓冲
+     */
+    private void release() {
+        if (readBuffer != null) {
+            ReadDeadlineWatchdog.get().unregister(reader);
+            ReadDeadlineWatchdog.get().unregister(writeWatch);
+        }
+        if (tlsChannel != null && !handedOff && writeTail.isDone()) {
+            // 没有进行中的写时先发送 close_notify（它与写共用一把锁）
+            tlsChannel.closeOutbound();
+        }
+        // 先关闭连接：阻塞在不读数据的客户端上的写随之失败并释放 writer 的锁，下面的 close() 不会无限等待
+        try { socket.close(); } catch (IOException ignored) {}
+        if (writer != null) {
+            // 等待进行中的写结束并拒绝后续写入，之后才能归还写缓冲
+            writer.close();
+        }
+        BufferPool pool = BufferPool.shared();
+        pool.release(readBuffer);
+        pool.release(writeBuffer);
+        if (tlsChannel != null) {
+            tlsChannel.release();
+        }
+    }
+
+    /**
+     * 连接上的请求循环：读取、解析、路由并按顺序写回，直到不再保持连接
+     */
+    private void serve(RequestReader reader, ResponseWriter writer) throws IOException {
+        boolean keepAlive = true;
+        while (keepAlive && !socket.isClosed()) {
+            // 1) 读取请求头（请求行 + 头部 + 空行）；没有 JFR 录制且未启用 Server-Timing 时 trace 为 null
+            RequestTrace trace = RequestTrace.begin();
+            int headLength;
+            try {
+                headLength = reader.readHead(trace);
+            } catch (RequestReader.LimitExceeded e) {
+                reject(writer, e);
+                return;
+            }
+            if (headLength < 0) break; // 客户端关闭连接
+            if (trace != null) {
+                trace.headRead();
+            }
+
+            HttpRequest request = slots[nextSlot];
+            nextSlot = (nextSlot + 1) % slots.length;
+            request.reset();
+
+            CompletableFuture<HttpResponse> future;
+            RequestBodyStream bodyStream = null;
+            boolean tooLarge = false;
+            String webSocketPath = null;
+            try {
+                HttpRequestParser.parseHead(reader.getHead(), headLength, request, stringCache);
+                request.finishHeaders();
 
                 // 2) 读取 body（如果有）
-                int contentLength = 0;
-                if (headers.containsKey("content-length")) {
+                long contentLength = 0;
+                String contentLengthHeader = request.getHeader("content-length");
+                if (contentLengthHeader != null) {
                     try {
-                        contentLength = Integer.parseInt(headers.get("content-length"));
+                        contentLength = Long.parseLong(contentLengthHeader.trim());
                     } catch (NumberFormatException ignored) { contentLength = 0; }
                 }
-                byte[] body = new byte[0];
-                if (contentLength > 0) {
-                    body = readBytes(in, contentLength);
+                String transferEncoding = request.getHeader("transfer-encoding");
+                boolean chunked = transferEncoding != null && transferEncoding.toLowerCase().contains("chunked");
+                // 是否流式只由路由按路径决定，客户端不能靠 Content-Type 绕开请求体截止时间
+                boolean streaming = (chunked || contentLength > 0) && router.streamsRequestBody(request);
+                tooLarge = !chunked && !streaming && contentLength > MAX_BUFFERED_BODY;
+                if ((chunked || contentLength > 0) && !tooLarge && "100-continue".equalsIgnoreCase(request.getHeader("expect"))) {
+                    flushPendingWrites();
+                    writer.writeRaw(CONTINUE, 0, CONTINUE.length, true);
                 }
-
-                String rawRequest = headerBlock.toString() + (body.length > 0 ? new String(body, StandardCharsets.UTF_8) : "");
-                // 3) 将请求交给路由模块处理（router 返回 HttpResponse）
-                HttpResponse response;
-                try {
-                    response = router.route(HttpRequestParser.parse(rawRequest));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    response = HttpResponse.internalServerError();
+                if (chunked || streaming) {
+                    bodyStream = new RequestBodyStream(reader, chunked ? -1 : contentLength);
+                    if (streaming) {
+                        // 流式上传：请求体不读入内存，由路由在处理时边到达边读，到 drain() 结束受 streamTimeoutMs 约束
+                        reader.startStream();
+                        request.setBodyStream(bodyStream);
+                    } else {
+                        // 其他 chunked 请求体解码后读入内存，与定长请求体一致
+                        reader.startBody();
+                        readChunkedBody(bodyStream, request);
+                        reader.endBody();
+                    }
+                } else if (tooLarge) {
+                    // 超过上限的请求体不读入内存：不经过路由直接回复 413，之后丢弃已到达的部分并关闭连接
+                    bodyStream = new RequestBodyStream(reader, contentLength);
+                } else if (contentLength > 0) {
+                    int length = (int) contentLength;
+                    reader.startBody();
+                    reader.readFully(request.prepareBody(length), length);
+                    reader.endBody();
+                }
+                if (capture != null) {
+                    // 请求头缓冲只在读取下一个请求头时改写，此时仍是本请求的原始字节
+                    int flags = (chunked ? TrafficCapture.FLAG_CHUNKED : 0)
+                            | (request.isBodyStreamed() || tooLarge ? TrafficCapture.FLAG_BODY_OMITTED : 0);
+                    capture.record(captureConnection, reader.getHead(), headLength, request.getHeader("content-type"),
+                            request.getBodyBytes(), request.getBodyLength(), flags);
+                }
+                HttpRequestParser.parseBodyParameters(request, stringCache);
+                request.finishReuse();
+                request.setRemoteAddress(remoteAddress);
+                if (trace != null) {
+                    trace.parsed(request);
                 }
 
-                // 4) 写回响应
-                out.write(response.toBytes());
-                out.flush();
+                // 3) 将请求交给路由模块处理（router 返回 HttpResponse 的 future）
+                //    HTTP/2 连接前言、h2c 升级请求和已注册端点的 WebSocket 升级请求不经过路由，由下面切换协议处理
+                boolean http2 = Http2Connection.isPreface(request) || Http2Connection.isUpgrade(request);
+                if (!http2 && WebSocketSession.isUpgrade(request)) {
+                    String path = request.getPath();
+                    int query = path.indexOf('?');
+                    path = query >= 0 ? path.substring(0, query) : path;
+                    if (WebSocketHub.shared().hasEndpoint(path)) {
+                        webSocketPath = path;
+                    }
+                }
+                if (tooLarge) {
+                    future = CompletableFuture.completedFuture(HttpResponse.payloadTooLarge(
+                            "Request body exceeds " + MAX_BUFFERED_BODY + " bytes"));
+                } else {
+                    future = http2 || webSocketPath != null ? null : router.routeAsync(request);
+                }
+            } catch (RequestReader.LimitExceeded e) {
+                reject(writer, e);
+                return;
+            } catch (EOFException e) {
+                throw e;
+            } catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
 
-                // 5) decide keep-alive: 优先看请求头 Connection，若没有，则看 HTTP/1.1 默认 keep-alive
-                String connHeader = headers.getOrDefault("connection", "");
-                if (connHeader.equalsIgnoreCase("close")) {
-                    keepAlive = false;
-                } else if (connHeader.equalsIgnoreCase("keep-alive")) {
-                    keepAlive = true;
+            if (future == null) {
+                // 先写完已排队的 HTTP/1.1 响应，之后连接交给 WebSocketHub 或 Http2Connection 直到关闭
+                flushPendingWrites();
+                if (webSocketPath != null) {
+                    // 握手成功后连接由会话自己的读线程服务，工作线程立即返回线程池
+                    WebSocketSession session = WebSocketHub.shared()
+                            .accept(request, webSocketPath, reader, writer, socket, remoteAddress, socket.getLocalPort());
+                    if (session != null) {
+                        handedOff = true;
+                        session.start(this::release);
+                    }
+                    return;
+                }
+                Http2Connection http2 = new Http2Connection(reader, writer, router, remoteAddress, stringCache, streamExecutor);
+                if (Http2Connection.isPreface(request)) {
+                    http2.servePriorKnowledge();
                 } else {
-                    // 没有明确 Connection 字段，则根据版本判断：如果请求行含 HTTP/1.1 默认 keep-alive
-                    if (requestLine.contains("HTTP/1.1")) keepAlive = true;
-                    else keepAlive = false;
+                    http2.serveUpgrade(request);
                 }
+                return;
+            }
+
+            // 4) 按顺序写回响应（同步路由返回的 future 已完成，会在当前线程直接写出）
+            if (request.isBodyStreamed()) {
+                // 路由读取请求体时超过 streamTimeoutMs：无论路由返回什么都回复 408
+                CompletableFuture<HttpResponse> routed = future;
+                future = routed.handle((r, e) -> r).thenCompose(r -> reader.isRequestTimedOut()
+                        ? CompletableFuture.completedFuture(REQUEST_TIMEOUT.response()) : routed);
+            }
+            if (trace != null) {
+                future = trace.routed(future);
+            }
+            enqueueWrite(writer, request, future, trace);
+            if (bodyStream != null) {
+                // 请求体直接从连接读取：等处理结束后丢弃未读部分，才能读取下一个请求
+                HttpResponse response = future.handle((r, e) -> r).join();
+                if (response != null && response.closesConnection()) {
+                    // 路由拒绝了请求体（如 413）：不再读完剩余数据，写完响应后关闭连接
+                    lingeringClose(reader, bodyStream);
+                    return;
+                }
+                try {
+                    bodyStream.drain();
+                } catch (RequestReader.LimitExceeded e) {
+                    // 丢弃剩余请求体时超过 streamTimeoutMs：输入已关闭，写完已排队的响应后关闭连接
+                    return;
+                }
+                reader.endBody();
+            }
+
+            // 5) decide keep-alive: 优先看请求头 Connection，若没有，则看 HTTP/1.1 默认 keep-alive
+            String connHeader = request.getHeader("connection");
+            if ("close".equalsIgnoreCase(connHeader)) {
+                keepAlive = false;
+            } else if ("keep-alive".equalsIgnoreCase(connHeader)) {
+                keepAlive = true;
+            } else {
+                // 没有明确 Connection 字段，则根据版本判断：HTTP/1.1 默认 keep-alive
+                keepAlive = "HTTP/1.1".equals(request.getProtocol());
             }
-        } catch (SocketTimeoutException e) {
-            // 读超时，关闭连接
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try { socket.close(); } catch (IOException ignored) {}
         }
     }
 
-    // 逐行读取（CRLF 结尾），返回不包含 CRLF 的行（或 null 表示流结束）
-    private String readLine(InputStream in) throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        int previous = -1;
-        while (true) {
-            int b = in.read();
-            if (b == -1) {
-                if (buf.size() == 0) return null;
-                break;
-            }
-            if (b == '\n') {
-                break;
+    /**
+     * 请求超出 RequestLimits：写完之前的流水线响应后回复错误并结束连接（剩余数据无法再按请求解析）
+     */
+    private void reject(ResponseWriter writer, RequestReader.LimitExceeded e) throws IOException {
+        flushPendingWrites();
+        if (e.status == 408) {
+            writer.write(REQUEST_TIMEOUT.response());
+        } else if (e.status == 414) {
+            writer.write(URI_TOO_LONG.response());
+        } else {
+            writer.write(HEADERS_TOO_LARGE.response());
+        }
+        // 先发送 FIN，客户端能读到错误响应后再关闭连接
+        try {
+            socket.shutdownOutput();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * 写完响应后发送 FIN，再在 LINGER_MS 内丢弃客户端仍在发送的请求体：
+     * 直接关闭还有未读数据的连接会发出 RST，客户端可能来不及读到响应
+     */
+    private void lingeringClose(RequestReader reader, RequestBodyStream bodyStream) {
+        awaitPendingWrites();
+        try {
+            socket.shutdownOutput();
+            reader.startDiscard(LINGER_MS);
+            bodyStream.drain();
+        } catch (IOException ignored) {
+            // 超时或客户端关闭，之后直接关闭连接
+        }
+    }
+
+    private static void readChunkedBody(RequestBodyStream in, HttpRequest request) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk, 0, chunk.length)) >= 0) {
+            if (body.size() + n > MAX_BUFFERED_BODY) {
+                throw new IOException("Chunked request body too large");
             }
-            if (b != '\r') {
-                buf.write(b);
+            body.write(chunk, 0, n);
+        }
+        byte[] bytes = body.toByteArray();
+        System.arraycopy(bytes, 0, request.prepareBody(bytes.length), 0, bytes.length);
+    }
+
+    /**
+     * 等待所有已排队的响应写完（协议切换、100 Continue 之前）
+     */
+    private void flushPendingWrites() throws IOException {
+        while (!pendingWrites.isEmpty()) {
+            checkWrite(pendingWrites.pollFirst());
+        }
+    }
+
+    /**
+     * 把响应接到写回链末尾；流水线已满时先等待最早的响应写完
+     */
+    private void enqueueWrite(ResponseWriter writer, HttpRequest request, CompletableFuture<HttpResponse> future,
+                              RequestTrace trace) throws IOException {
+        // 快速路径：前面没有待写的响应且本响应已完成，直接在当前线程写出，不创建回调链
+        if (pendingWrites.isEmpty() && writeTail.isDone() && future.isDone() && !future.isCompletedExceptionally()) {
+            write(writer, future.join(), trace);
+            request.trimBody();
+            return;
+        }
+
+        CompletableFuture<HttpResponse> safe = future.exceptionally(e -> {
+            e.printStackTrace();
+            return HttpResponse.internalServerError();
+        });
+        writeTail = writeTail.thenCombine(safe, (ignored, response) -> response)
+                .thenAcceptAsync(response -> {
+                    try {
+                        if (socket.isClosed()) {
+                            // 连接已关闭（写超时、服务器关闭等）：排在后面的响应不再占用写线程
+                            throw new IOException("Socket closed");
+                        }
+                        write(writer, response, trace);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        // 请求对象要等 MAX_PIPELINED 个请求之后才复用，写完后先放掉大的请求体缓冲
+                        request.trimBody();
+                    }
+                }, writeExecutor);
+        pendingWrites.addLast(writeTail);
+
+        while (!pendingWrites.isEmpty() && pendingWrites.peekFirst().isDone()) {
+            checkWrite(pendingWrites.pollFirst());
+        }
+        if (pendingWrites.size() >= MAX_PIPELINED) {
+            checkWrite(pendingWrites.pollFirst());
+        }
+    }
+
+    /**
+     * 每个连接最多占用一个写线程，线程数与服务器的连接线程数相同即可
+     */
+    static ThreadPoolExecutor newWriteExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "response-writer");
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 没有指定写线程池时（预热、基准测试等直接创建 ClientHandler 的场合）共用的线程池
+     */
+    static Executor defaultWriteExecutor() {
+        return DefaultWriteExecutor.INSTANCE;
+    }
+
+    private static final class DefaultWriteExecutor {
+        static final ThreadPoolExecutor INSTANCE = newWriteExecutor(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    private static void write(ResponseWriter writer, HttpResponse response, RequestTrace trace) throws IOException {
+        if (trace == null) {
+            writer.write(response);
+            return;
+        }
+        RequestTrace.ResponseWritten event = trace.beforeWrite(response);
+        writer.write(response);
+        trace.written(event, response);
+    }
+
+    private void checkWrite(CompletableFuture<Void> write) throws IOException {
+        try {
+            write.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
             }
-            previous = b;
+            throw new IOException(e.getCause());
         }
-        return buf.toString(StandardCharsets.UTF_8.name());
     }
 
-    private byte[] readBytes(InputStream in, int length) throws IOException {
-        byte[] data = new byte[length];
-        int read = 0;
-        while (read < length) {
-            int r = in.read(data, read, length - read);
-            if (r == -1) throw new EOFException("Unexpected EOF when reading body");
-            read += r;
+    /**
+     * 关闭连接前等待尚未写回的响应，最多等待一个读超时周期
+     */
+    private void awaitPendingWrites() {
+        try {
+            writeTail.get(SOCKET_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException ignored) {
+            // 写失败或超时，直接关闭连接
         }
-        return data;
     }
 }
@@ -1,9 +1,27 @@
 package com.example.http;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 完整路由实现
@@ -11,9 +29,198 @@ import java.util.Locale;
  */
 public class CompleteRouter implements Router {
     private final UserService userService;
+    // 预热用的路由：不限流、不推送用户数、不打印请求日志
+    private final boolean standalone;
+    // GET /users 列出全部用户名，属于管理功能，默认关闭（-Dusers.listing=true 或 setUserListingEnabled 开启）
+    private volatile boolean userListingEnabled = Boolean.getBoolean("users.listing");
+    // POST /users/import 可一次注册大量账号，属于管理功能，默认关闭（-Dusers.import=true 或 setImportEnabled 开启）
+    private volatile boolean importEnabled = Boolean.getBoolean("users.import");
+    // 一次导入最多处理的账号行数，超过时停止读取并返回 413
+    private volatile int maxImportAccounts = Integer.getInteger("users.import.maxAccounts",
+            BulkUserImporter.DEFAULT_MAX_ACCOUNTS);
+    // 按路径配置的客户端限流（在访问用户存储之前检查）
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    // POST /upload 把文件保存到服务器磁盘，默认关闭（-Dupload.enabled=true 或 setUploadEnabled 开启）
+    private volatile boolean uploadEnabled;
+    // 上传文件的保存目录（-Dupload.dir 可配置），part 超过内存阈值时先写入同一目录下的临时文件
+    private volatile Path uploadDirectory = Paths.get(System.getProperty("upload.dir",
+            Paths.get(System.getProperty("java.io.tmpdir"), "uploads").toString()));
+    // 上传大小上限：单个 part、单个请求全部 part 合计（超出返回 413），以及上传目录的总大小（已满返回 507）
+    private volatile long maxUploadPartSize = Long.getLong("upload.maxPartSize", 64L * 1024 * 1024);
+    private volatile long maxUploadRequestSize = Long.getLong("upload.maxRequestSize", 256L * 1024 * 1024);
+    private volatile long maxUploadDirectorySize = Long.getLong("upload.maxDirectorySize", 1024L * 1024 * 1024);
+    // 保存的文件超过这个时间后由定时清理删除
+    private volatile long uploadRetentionMs = Long.getLong("upload.retentionMs", 24L * 60 * 60 * 1000);
+    private volatile long uploadSweepIntervalMs = Long.getLong("upload.sweepIntervalMs", 10L * 60 * 1000);
+    // 上传目录中文件的总字节数：定时清理时重新统计，两次清理之间加上新保存的文件；-1 表示尚未统计
+    private final AtomicLong uploadBytesUsed = new AtomicLong(-1);
+    // 上传开启期间运行的定时清理，关闭时取消
+    private ScheduledFuture<?> uploadSweeper;
+    // 连接时发送当前用户数
+    private final WebSocketListener userCountSocket = new WebSocketListener() {
+        @Override
+        public void onOpen(WebSocketSession session) {
+            session.send(userCountMessage());
+        }
+    };
+
+    // 用户数推送端点：连接时发送当前用户数，之后每次注册成功推送一次，替代轮询 GET /user/count
+    public static final String USER_COUNT_SOCKET = "/ws/user-count";
+    // GET /users 每页的默认和最大条数
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 10_000;
+    // 所有路由的上传目录清理共用一个守护线程
+    private static final ScheduledExecutorService UPLOAD_SWEEP_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "upload-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+    // 首页只有用户总数会变化，其余部分预先编码一次
+    private static final PageTemplate HOME_PAGE = PageTemplate.compile("<html><body>" +
+            "<h1>HTTP服务器 - 注册登录系统</h1>" +
+            "<p>用户总数: {{count:int}}</p>" +
+            "<h2>API接口:</h2>" +
+            "<ul>" +
+            "<li>POST /register - 用户注册 (参数: username, password)</li>" +
+            "<li>POST /login - 用户登录 (参数: username, password)</li>" +
+            "<li>GET /user/count - 获取用户总数</li>" +
+            "<li>GET /users - 分页列出用户名 (参数: limit, cursor；管理功能，默认关闭)</li>" +
+            "<li>WebSocket /ws/user-count - 推送用户总数</li>" +
+            "</ul>" +
+            "<h2>架构说明:</h2>" +
+            "<p>遵循模块分离原则，解析和业务逻辑分开处理</p>" +
+            "</body></html>");
 
     public CompleteRouter() {
-        this.userService = new UserService();
+        this(new UserService());
+    }
+
+    /**
+     * @param userService 用户存储（集群模式下为 ShardedUserService）
+     */
+    public CompleteRouter(UserService userService) {
+        this(userService, false);
+    }
+
+    private CompleteRouter(UserService userService, boolean standalone) {
+        this.userService = userService;
+        this.standalone = standalone;
+        if (standalone) {
+            // 预热使用独立的用户存储，列出用户名不会泄露真实数据
+            userListingEnabled = true;
+            return;
+        }
+        rateLimiters.put("/login", new RateLimiter(5, 10));
+        rateLimiters.put("/register", new RateLimiter(1, 5));
+        // 一次导入可注册大量账号，按请求限流：每个客户端连续两次，之后每 30 秒一次
+        rateLimiters.put("/users/import", new RateLimiter(1.0 / 30, 2));
+        // 预热用的路由（上面已返回）不开启上传，不会往磁盘写文件
+        setUploadEnabled(Boolean.getBoolean("upload.enabled"));
+    }
+
+    /**
+     * 用户数推送端点的回调，由启动服务器的一方注册到 USER_COUNT_SOCKET：
+     * WebSocketHub.shared().addEndpoint(CompleteRouter.USER_COUNT_SOCKET, router.userCountSocket())
+     * 只有回调已注册的路由在注册成功后推送用户数
+     */
+    public WebSocketListener userCountSocket() {
+        return userCountSocket;
+    }
+
+    /**
+     * 预热用的路由（见 Warmup）：使用独立的用户存储，不影响共享的用户数据，也不推送用户数
+     */
+    static CompleteRouter standalone() {
+        return new CompleteRouter(UserService.isolated(), true);
+    }
+
+    /**
+     * 为指定路径设置限流器，传入 null 表示不限流
+     */
+    public void setRateLimiter(String path, RateLimiter limiter) {
+        if (limiter == null) {
+            rateLimiters.remove(path);
+        } else {
+            rateLimiters.put(path, limiter);
+        }
+    }
+
+    /**
+     * 开启或关闭 GET /users（关闭时返回 404）
+     */
+    public void setUserListingEnabled(boolean enabled) {
+        this.userListingEnabled = enabled;
+    }
+
+    /**
+     * 开启或关闭 POST /users/import（关闭时返回 404）
+     */
+    public void setImportEnabled(boolean enabled) {
+        this.importEnabled = enabled;
+    }
+
+    /**
+     * 设置一次导入最多处理的账号行数
+     */
+    public void setMaxImportAccounts(int maxImportAccounts) {
+        this.maxImportAccounts = maxImportAccounts;
+    }
+
+    /**
+     * 开启或关闭 POST /upload（关闭时返回 404）；开启期间定时清理上传目录中过期的文件
+     */
+    public synchronized void setUploadEnabled(boolean enabled) {
+        this.uploadEnabled = enabled;
+        if (uploadSweeper != null) {
+            uploadSweeper.cancel(false);
+            uploadSweeper = null;
+        }
+        if (enabled) {
+            long interval = uploadSweepIntervalMs;
+            uploadSweeper = UPLOAD_SWEEP_EXECUTOR.scheduleWithFixedDelay(this::sweepUploads,
+                    interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 设置定时清理上传目录的间隔，上传已开启时立即按新间隔重新调度
+     */
+    public synchronized void setUploadSweepIntervalMs(long intervalMs) {
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("sweep interval must be positive");
+        }
+        this.uploadSweepIntervalMs = intervalMs;
+        if (uploadEnabled) {
+            setUploadEnabled(true);
+        }
+    }
+
+    public void setUploadDirectory(Path uploadDirectory) {
+        this.uploadDirectory = uploadDirectory;
+        uploadBytesUsed.set(-1);
+    }
+
+    /**
+     * 设置上传大小上限
+     *
+     * @param maxPartSize      单个 part 的最大字节数
+     * @param maxRequestSize   一次上传全部 part 合计的最大字节数
+     * @param maxDirectorySize 上传目录中保存文件的合计最大字节数
+     */
+    public void setUploadLimits(long maxPartSize, long maxRequestSize, long maxDirectorySize) {
+        if (maxPartSize <= 0 || maxRequestSize <= 0 || maxDirectorySize <= 0) {
+            throw new IllegalArgumentException("upload limits must be positive");
+        }
+        this.maxUploadPartSize = maxPartSize;
+        this.maxUploadRequestSize = maxRequestSize;
+        this.maxUploadDirectorySize = maxDirectorySize;
+    }
+
+    /**
+     * 设置上传文件的保留时间，过期的文件在之后的定时清理中删除
+     */
+    public void setUploadRetentionMs(long retentionMs) {
+        this.uploadRetentionMs = retentionMs;
     }
 
     @Override
@@ -22,7 +229,9 @@ public class CompleteRouter implements Router {
             String method = request.getMethod();
             String path = request.getPath();
 
-            System.out.println("handle request:  " + method + " " + path);
+            if (!standalone) {
+                System.out.println("handle request:  " + method + " " + path);
+            }
 
             // 路由分发
             if ("GET".equals(method)) {
@@ -33,12 +242,28 @@ public class CompleteRouter implements Router {
                 return HttpResponse.methodNotAllowed();
             }
 
+        } catch (UncheckedIOException e) {
+            // 集群模式下用户所在的节点不可达
+            System.err.println(e.getMessage());
+            return HttpResponse.serviceUnavailable(1);
         } catch (Exception e) {
             e.printStackTrace();
             return HttpResponse.internalServerError();
         }
     }
     
+    /**
+     * 批量导入和文件上传（启用时）的请求体不读入内存，由处理方法边到达边读
+     */
+    @Override
+    public boolean streamsRequestBody(HttpRequest request) {
+        if (!"POST".equals(request.getMethod())) {
+            return false;
+        }
+        String path = request.getPath();
+        return (importEnabled && "/users/import".equals(path)) || (uploadEnabled && "/upload".equals(path));
+    }
+
     /**
      * 处理GET请求
      */
@@ -47,6 +272,8 @@ public class CompleteRouter implements Router {
             return homePage();
         } else if ("/user/count".equals(path)) {
             return userCountPage();
+        } else if (userListingEnabled && ("/users".equals(path) || path.startsWith("/users?"))) {
+            return listUsers(request);
         } else {
             return HttpResponse.notFound();
         }
@@ -55,11 +282,21 @@ public class CompleteRouter implements Router {
     /**
      * 处理POST请求
      */
-    private HttpResponse handlePostRequest(String path, HttpRequest request) {
+    private HttpResponse handlePostRequest(String path, HttpRequest request) throws IOException {
+        RateLimiter limiter = rateLimiters.get(path);
+        String client = request.getRemoteAddress();
+        if (limiter != null && client != null && !limiter.tryAcquire(client)) {
+            return HttpResponse.tooManyRequests(limiter.getRetryAfterSeconds());
+        }
+
         if ("/register".equals(path)) {
             return handleRegister(request);
         } else if ("/login".equals(path)) {
             return handleLogin(request);
+        } else if (importEnabled && "/users/import".equals(path)) {
+            return handleImport(request);
+        } else if (uploadEnabled && "/upload".equals(path)) {
+            return handleUpload(request);
         } else {
             return HttpResponse.notFound();
         }
@@ -77,16 +314,172 @@ public class CompleteRouter implements Router {
             return HttpResponse.badRequest("username and password can not be empty");
         }
 
-        if (userService.isUsernameExists(username)) {
+        // 参数已校验，注册失败只可能是用户名已存在（检查与插入在 register 中原子完成）
+        if (userService.register(username, password)) {
+            publishUserCount();
+            return HttpResponse.okText("Welcome back " + username);
+        } else {
             return HttpResponse.conflict();
         }
+    }
 
-        boolean success = userService.register(username, password);
-        if (success) {
-            return HttpResponse.okText("Welcome back " + username);
-        } else {
-            return HttpResponse.internalServerError();
+    /**
+     * 批量导入用户：请求体为 NDJSON 或 CSV（text/csv），边读边按批注册，返回 JSON 汇总
+     * 账号行数超过上限时返回 413（汇总中是已导入的部分），剩余的请求体不再读取
+     */
+    private HttpResponse handleImport(HttpRequest request) throws IOException {
+        BulkUserImporter importer = new BulkUserImporter(userService, BulkUserImporter.DEFAULT_BATCH_SIZE,
+                maxImportAccounts);
+        BulkUserImporter.Result result = importer.importFrom(request.getBodyStream(),
+                BulkUserImporter.formatOf(request.getHeader("content-type")));
+        if (result.getImported() > 0) {
+            publishUserCount();
+        }
+        if (result.isTruncated()) {
+            HttpResponse response = new HttpResponse(413, "Payload Too Large");
+            response.setHeader("Content-Type", "application/json; charset=utf-8");
+            response.setHeader("Connection", "close");
+            response.setBody(result.toJson().getBytes(StandardCharsets.UTF_8));
+            return response;
+        }
+        return HttpResponse.okJson(result.toJson());
+    }
+
+    /**
+     * 文件上传：multipart/form-data 请求体边读边解析，文件保存到上传目录，返回各 part 的 JSON 汇总
+     * 超出大小上限时返回 413，本次已保存的文件一并删除；上传目录剩余空间不足时返回 507
+     */
+    private HttpResponse handleUpload(HttpRequest request) throws IOException {
+        if (MultipartParser.boundaryOf(request.getHeader("content-type")) == null) {
+            return HttpResponse.badRequest("multipart/form-data with boundary required");
+        }
+        Path directory = uploadDirectory;
+        Files.createDirectories(directory);
+        // 并发上传各自按开始时的剩余空间计算，目录总大小最多超出同时进行的上传量
+        long available = maxUploadDirectorySize - uploadUsage(directory);
+        if (available <= 0) {
+            return HttpResponse.insufficientStorage("upload directory is full");
+        }
+        long requestLimit = maxUploadRequestSize;
+        boolean quotaBound = available < requestLimit;
+        StringBuilder json = new StringBuilder("{\"parts\":[");
+        List<Path> stored = new ArrayList<>();
+        long storedBytes = 0;
+        try (MultipartParser parser = MultipartParser.of(request, MultipartParser.DEFAULT_MEMORY_THRESHOLD, directory)) {
+            parser.setLimits(maxUploadPartSize, Math.min(requestLimit, available));
+            MultipartParser.Part part;
+            int count = 0;
+            while ((part = parser.next()) != null) {
+                if (count++ > 0) json.append(',');
+                json.append("{\"name\":").append(jsonString(part.getName()))
+                        .append(",\"size\":").append(part.getSize());
+                if (part.getFilename() != null) {
+                    // 保存名由服务端生成，原文件名只保留安全字符，避免路径穿越
+                    Path target = Files.createTempFile(directory, "upload-", "-" + safeFilename(part.getFilename()));
+                    stored.add(target);
+                    part.moveTo(target);
+                    storedBytes += part.getSize();
+                    json.append(",\"filename\":").append(jsonString(part.getFilename()))
+                            .append(",\"stored\":").append(jsonString(target.getFileName().toString()));
+                } else {
+                    json.append(",\"value\":").append(jsonString(part.getString()));
+                }
+                json.append('}');
+            }
+        } catch (MultipartParser.TooLarge e) {
+            deleteQuietly(stored);
+            return e.isTotal() && quotaBound ? HttpResponse.insufficientStorage("upload directory is full")
+                    : HttpResponse.payloadTooLarge(e.getMessage());
+        } catch (IOException e) {
+            deleteQuietly(stored);
+            return HttpResponse.badRequest("malformed multipart body: " + e.getMessage());
+        }
+        uploadBytesUsed.addAndGet(storedBytes);
+        return HttpResponse.okJson(json.append("]}").toString());
+    }
+
+    /**
+     * 上传目录中文件的总字节数，尚未统计时（开启后的第一次上传、更换目录后）遍历一次目录
+     */
+    private long uploadUsage(Path directory) throws IOException {
+        long used = uploadBytesUsed.get();
+        if (used >= 0) {
+            return used;
+        }
+        used = sweepUploads(directory);
+        uploadBytesUsed.compareAndSet(-1, used);
+        return used;
+    }
+
+    /**
+     * 定时清理：删除过期文件并重新统计目录大小（清理期间完成的上传可能被计入两次，直到下一次清理）
+     */
+    private void sweepUploads() {
+        Path directory = uploadDirectory;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try {
+            uploadBytesUsed.set(sweepUploads(directory));
+        } catch (IOException e) {
+            System.err.println("Upload sweep failed: " + e);
+        }
+    }
+
+    /**
+     * 删除上传目录中超过保留时间的文件（包括中断的上传留下的临时文件），返回剩余文件的总字节数
+     */
+    private long sweepUploads(Path directory) throws IOException {
+        long expiredBefore = System.currentTimeMillis() - uploadRetentionMs;
+        long used = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (!attributes.isRegularFile()) continue;
+                    if (attributes.lastModifiedTime().toMillis() < expiredBefore) {
+                        Files.deleteIfExists(file);
+                    } else {
+                        used += attributes.size();
+                    }
+                } catch (IOException e) {
+                    // 文件被并发删除或无法读取时跳过
+                }
+            }
         }
+        return used;
+    }
+
+    private static void deleteQuietly(List<Path> files) {
+        for (Path file : files) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // 删除失败的文件在保留时间过后再清理
+            }
+        }
+    }
+
+    private static String safeFilename(String filename) {
+        String base = filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1);
+        String safe = base.replaceAll("[^A-Za-z0-9._-]", "_");
+        return safe.length() > 64 ? safe.substring(safe.length() - 64) : safe;
+    }
+
+    private static String jsonString(String value) {
+        if (value == null) return "null";
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
     }
 
     /**
@@ -109,29 +502,86 @@ public class CompleteRouter implements Router {
         }
     }
 
+    /**
+     * 分页列出用户名：GET /users?limit=100&cursor=...
+     * 按用户名排序，cursor 取上一页响应中的 next（最后一个用户名的 base64url 编码），没有下一页时 next 为 null。
+     * 响应边遍历索引边编码写出，不在内存中构造整页 JSON。
+     */
+    private HttpResponse listUsers(HttpRequest request) {
+        int limit = DEFAULT_PAGE_SIZE;
+        String limitParam = request.getParameter("limit");
+        if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 1 || limit > MAX_PAGE_SIZE) {
+                return HttpResponse.badRequest("limit must be between 1 and " + MAX_PAGE_SIZE);
+            }
+        }
+        String after = null;
+        String cursor = request.getParameter("cursor");
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                after = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return HttpResponse.badRequest("invalid cursor");
+            }
+        }
+        NavigableSet<String> page = userService.usernamesAfter(after);
+        int pageSize = limit;
+        return HttpResponse.okJson(json -> {
+            json.beginObject().name("users").beginArray();
+            Iterator<String> it = page.iterator();
+            String last = null;
+            int count = 0;
+            while (count < pageSize && it.hasNext()) {
+                last = it.next();
+                json.value(last);
+                count++;
+            }
+            json.endArray().name("count").value(count).name("next");
+            if (it.hasNext()) {
+                json.value(Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8)));
+            } else {
+                json.nullValue();
+            }
+            json.endObject();
+        });
+    }
+
      /**
      * 首页
      */
     private HttpResponse homePage() {
-        String html = "<html><body>" +
-                     "<h1>HTTP服务器 - 注册登录系统</h1>" +
-                     "<p>用户总数: " + userService.getUserCount() + "</p>" +
-                     "<h2>API接口:</h2>" +
-                     "<ul>" +
-                     "<li>POST /register - 用户注册 (参数: username, password)</li>" +
-                     "<li>POST /login - 用户登录 (参数: username, password)</li>" +
-                     "<li>GET /user/count - 获取用户总数</li>" +
-                     "</ul>" +
-                     "<h2>架构说明:</h2>" +
-                     "<p>遵循模块分离原则，解析和业务逻辑分开处理</p>" +
-                     "</body></html>";
-        
         HttpResponse response = new HttpResponse(200, "OK");
         response.setHeader("Content-Type", "text/html; charset=utf-8");
-        response.setBody(html.getBytes(StandardCharsets.UTF_8));
+        response.setBody(HOME_PAGE.newPage().set("count", userService.getUserCount()));
         return response;
     }
     
+    private void publishUserCount() {
+        if (standalone) {
+            return;
+        }
+        WebSocketHub hub = WebSocketHub.shared();
+        if (hub.getSessionCount(USER_COUNT_SOCKET) > 0 && hub.hasEndpoint(USER_COUNT_SOCKET, userCountSocket)) {
+            String message;
+            try {
+                message = userCountMessage();
+            } catch (RuntimeException e) {
+                // 用户已经写入，取不到数量只跳过这次推送，不能让注册请求失败
+                return;
+            }
+            hub.broadcast(USER_COUNT_SOCKET, message);
+        }
+    }
+
+    private String userCountMessage() {
+        return "{\"users\":" + userService.getUserCount() + "}";
+    }
+
     /**
      * 用户数量页面
      */
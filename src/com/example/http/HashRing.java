@@ -0,0 +1,89 @@
+package com.example.http;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一致性哈希环
+ * 每个节点在环上放置若干虚拟节点，键归属于顺时针方向第一个虚拟节点所在的节点。
+ * 增删一个节点时只有约 1/N 的键改变归属，其余键仍在原节点上。
+ * 环在构造后不再变化，查找是对有序数组的二分查找，无锁、不分配对象。
+ */
+final class HashRing {
+    static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final String[] nodes;
+    // 虚拟节点的哈希值（升序）及其所属节点下标
+    private final long[] points;
+    private final int[] owners;
+
+    HashRing(List<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param nodes        节点名（集群中所有节点必须使用相同的列表）
+     * @param virtualNodes 每个节点的虚拟节点数，越多分布越均匀
+     */
+    HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("hash ring needs at least one node and one virtual node");
+        }
+        this.nodes = nodes.toArray(new String[0]);
+        int total = this.nodes.length * virtualNodes;
+        long[] keyed = new long[total];
+        long[] hashes = new long[total];
+        for (int n = 0, k = 0; n < this.nodes.length; n++) {
+            for (int v = 0; v < virtualNodes; v++, k++) {
+                hashes[k] = hash(this.nodes[n] + "#" + v);
+            }
+        }
+        // 按哈希排序时带上节点下标：排序下标数组
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+        this.points = new long[total];
+        this.owners = new int[total];
+        for (int i = 0; i < total; i++) {
+            points[i] = hashes[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+    /**
+     * 键所属节点的下标
+     */
+    int ownerOf(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+            if (i == points.length) i = 0;
+        }
+        return owners[i];
+    }
+
+    String node(int index) {
+        return nodes[index];
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    /**
+     * 64 位 FNV-1a（按 char 计算，不编码为字节）再做 murmur3 的末尾混合，让相近的键分散到整个环上
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,409 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * HPACK 头部压缩（RFC 7541）
+ * Decoder 按连接持有，维护对端编码器对应的动态表，支持 Huffman 解码；
+ * Encoder 只使用静态表和"不索引的字面量"，不维护动态表，因此不需要与对端同步表大小。
+ * Decoder 只在连接的读线程使用；Encoder 不跨响应共享状态，每个响应各用一个。
+ */
+final class Hpack {
+
+    /** 解码出的头部超过该字节数时视为压缩炸弹，按连接错误处理 */
+    static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+    private Hpack() {
+    }
+
+    // ==================== 静态表 ====================
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""},
+    };
+
+    /**
+     * 静态表中名称的第一个索引（1 起），没有时返回 0
+     */
+    static int staticNameIndex(String name) {
+        for (int i = 0; i < STATIC_TABLE.length; i++) {
+            if (STATIC_TABLE[i][0].equals(name)) return i + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * 名称和值都匹配的静态表索引（1 起），没有时返回 0
+     */
+    static int staticIndex(String name, String value) {
+        for (int i = 0; i < STATIC_TABLE.length; i++) {
+            if (STATIC_TABLE[i][0].equals(name) && STATIC_TABLE[i][1].equals(value)) return i + 1;
+        }
+        return 0;
+    }
+
+    // ==================== 解码 ====================
+
+    static final class Decoder {
+        // 动态表：队首是最新插入的条目（索引 62）
+        private final ArrayDeque<String[]> dynamic = new ArrayDeque<>();
+        private int dynamicSize = 0;
+        private int maxDynamicSize;
+        // 本端通过 SETTINGS_HEADER_TABLE_SIZE 允许的上限
+        private final int settingsMaxSize;
+
+        Decoder(int settingsMaxSize) {
+            this.settingsMaxSize = settingsMaxSize;
+            this.maxDynamicSize = settingsMaxSize;
+        }
+
+        /**
+         * 解码一个完整的头部块，按出现顺序把 (名称, 值) 追加到 out
+         *
+         * @throws IOException 压缩数据格式错误（连接级 COMPRESSION_ERROR）
+         */
+        void decode(byte[] block, int off, int len, List<String[]> out) throws IOException {
+            int[] pos = {off};
+            int end = off + len;
+            int listSize = 0;
+            while (pos[0] < end) {
+                int b = block[pos[0]] & 0xFF;
+                String name;
+                String value;
+                if ((b & 0x80) != 0) {
+                    // 索引头字段
+                    String[] entry = lookup(readInt(block, pos, end, 7));
+                    name = entry[0];
+                    value = entry[1];
+                } else if ((b & 0x40) != 0) {
+                    // 带增量索引的字面量
+                    int index = readInt(block, pos, end, 6);
+                    name = index == 0 ? readString(block, pos, end) : lookup(index)[0];
+                    value = readString(block, pos, end);
+                    add(name, value);
+                } else if ((b & 0x20) != 0) {
+                    // 动态表大小更新
+                    int size = readInt(block, pos, end, 5);
+                    if (size > settingsMaxSize) {
+                        throw new IOException("HPACK table size update exceeds limit: " + size);
+                    }
+                    maxDynamicSize = size;
+                    evict(0);
+                    continue;
+                } else {
+                    // 不索引 / 永不索引的字面量
+                    int index = readInt(block, pos, end, 4);
+                    name = index == 0 ? readString(block, pos, end) : lookup(index)[0];
+                    value = readString(block, pos, end);
+                }
+                listSize += 32 + name.length() + value.length();
+                if (listSize > MAX_HEADER_LIST_SIZE) {
+                    throw new IOException("Header list too large");
+                }
+                out.add(new String[]{name, value});
+            }
+        }
+
+        private String[] lookup(int index) throws IOException {
+            if (index <= 0) {
+                throw new IOException("Invalid HPACK index: " + index);
+            }
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            int i = index - STATIC_TABLE.length - 1;
+            if (i >= dynamic.size()) {
+                throw new IOException("Invalid HPACK index: " + index);
+            }
+            Iterator<String[]> it = dynamic.iterator();
+            while (i-- > 0) it.next();
+            return it.next();
+        }
+
+        private void add(String name, String value) {
+            int size = entrySize(name, value);
+            if (size > maxDynamicSize) {
+                // 条目比整张表还大：清空表，不插入
+                dynamic.clear();
+                dynamicSize = 0;
+                return;
+            }
+            evict(size);
+            dynamic.addFirst(new String[]{name, value});
+            dynamicSize += size;
+        }
+
+        private void evict(int incoming) {
+            while (dynamicSize + incoming > maxDynamicSize && !dynamic.isEmpty()) {
+                String[] oldest = dynamic.removeLast();
+                dynamicSize -= entrySize(oldest[0], oldest[1]);
+            }
+        }
+
+        private static int entrySize(String name, String value) {
+            return 32 + name.length() + value.length();
+        }
+    }
+
+    /**
+     * 读取 N 位前缀整数（RFC 7541 5.1）
+     */
+    static int readInt(byte[] bytes, int[] pos, int end, int prefixBits) throws IOException {
+        int max = (1 << prefixBits) - 1;
+        int value = bytes[pos[0]++] & max;
+        if (value < max) return value;
+        int shift = 0;
+        while (true) {
+            if (pos[0] >= end || shift > 28) {
+                throw new IOException("Invalid HPACK integer");
+            }
+            int b = bytes[pos[0]++] & 0xFF;
+            value += (b & 0x7F) << shift;
+            if (value < 0) {
+                throw new IOException("HPACK integer overflow");
+            }
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+        }
+    }
+
+    private static String readString(byte[] bytes, int[] pos, int end) throws IOException {
+        if (pos[0] >= end) {
+            throw new IOException("Truncated HPACK string");
+        }
+        boolean huffman = (bytes[pos[0]] & 0x80) != 0;
+        int length = readInt(bytes, pos, end, 7);
+        if (length > end - pos[0]) {
+            throw new IOException("Truncated HPACK string");
+        }
+        int start = pos[0];
+        pos[0] += length;
+        if (huffman) {
+            return huffmanDecode(bytes, start, length);
+        }
+        return new String(bytes, start, length, StandardCharsets.UTF_8);
+    }
+
+    // ==================== 编码 ====================
+
+    /**
+     * 编码器：只输出静态表索引和不索引的字面量（不使用 Huffman），编码结果只依赖输入
+     */
+    static final class Encoder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        /** 名称必须是小写 */
+        void encode(String name, String value) {
+            int full = staticIndex(name, value);
+            if (full > 0) {
+                writeInt(0x80, 7, full);
+                return;
+            }
+            int nameIndex = staticNameIndex(name);
+            writeInt(0x00, 4, nameIndex);
+            if (nameIndex == 0) {
+                writeString(name);
+            }
+            writeString(value);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(0x00, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void writeInt(int flags, int prefixBits, int value) {
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                out.write(flags | value);
+                return;
+            }
+            out.write(flags | max);
+            value -= max;
+            while (value >= 0x80) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    // ==================== Huffman ====================
+
+    // RFC 7541 附录 B：符号 0..255 与 EOS(256) 的编码（右对齐）和位长
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    // 解码树：节点 n 的两个子节点为 TREE[2n] / TREE[2n+1]，
+    // 正数表示内部节点编号，负数 -(symbol + 1) 表示叶子，0 表示不存在
+    private static final int[] TREE = buildTree();
+
+    private static int[] buildTree() {
+        int[] tree = new int[2 * 512];
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int length = HUFFMAN_LENGTHS[symbol];
+            int node = 0;
+            for (int bit = length - 1; bit > 0; bit--) {
+                int slot = 2 * node + ((code >>> bit) & 1);
+                if (tree[slot] == 0) {
+                    tree[slot] = nodes++;
+                }
+                node = tree[slot];
+            }
+            tree[2 * node + (code & 1)] = -(symbol + 1);
+        }
+        return tree;
+    }
+
+    static String huffmanDecode(byte[] bytes, int off, int len) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(len * 8 / 5 + 1);
+        int node = 0;
+        int depth = 0;
+        boolean allOnes = true;
+        for (int i = off; i < off + len; i++) {
+            int b = bytes[i] & 0xFF;
+            for (int bit = 7; bit >= 0; bit--) {
+                int value = (b >>> bit) & 1;
+                int next = TREE[2 * node + value];
+                if (next < 0) {
+                    int symbol = -next - 1;
+                    if (symbol == 256) {
+                        throw new IOException("EOS in Huffman string");
+                    }
+                    out.write(symbol);
+                    node = 0;
+                    depth = 0;
+                    allOnes = true;
+                } else if (next == 0) {
+                    throw new IOException("Invalid Huffman code");
+                } else {
+                    node = next;
+                    depth++;
+                    allOnes &= value == 1;
+                }
+            }
+        }
+        // 末尾填充必须是不超过 7 位的 EOS 前缀（全 1）
+        if (depth > 7 || !allOnes) {
+            throw new IOException("Invalid Huffman padding");
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,1149 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 明文 HTTP/2（h2c）连接
+ * 支持两种进入方式：客户端直接发送连接前言（prior knowledge），
+ * 或在 HTTP/1.1 请求上携带 Upgrade: h2c 升级（该请求作为流 1 处理）。
+ *
+ * 连接的读线程负责读帧、HPACK 解码和组装请求；每个流收齐后交给服务器的流线程池（有界）路由，
+ * 多个流并发处理，响应按完成顺序写回。帧写出经 ResponseWriter 串行化，
+ * 发送方向遵守连接级和流级流量控制窗口：整块响应体在窗口耗尽时把剩余部分挂在流上、归还线程，
+ * 收到 WINDOW_UPDATE 后再交给流线程池继续写；边生成边写的响应体只能在连接对象上等待，
+ * 每个连接同时等待的线程数和等待时间都有上限。
+ * 接收方向请求体整块缓存在内存中（单个流和整个连接各有上限），读入即归还窗口；
+ * 对端发送的数据超过本端通告的接收窗口时按流量控制错误处理。流线程池已满时新流以 REFUSED_STREAM 拒绝。
+ */
+final class Http2Connection {
+    /** 客户端连接前言 */
+    static final byte[] CLIENT_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // prior knowledge 时请求头读取器读到的是 "PRI * HTTP/2.0\r\n\r\n"，剩余部分需要单独读取
+    private static final byte[] PREFACE_TAIL = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    // 帧类型
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    // 帧标志
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    // 错误码
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int CANCEL = 0x8;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    // SETTINGS 参数
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int DEFAULT_WINDOW_SIZE = 65_535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+    private static final int HEADER_TABLE_SIZE = 4096;
+    /** 本端允许的最大并发流数（通过 SETTINGS 通告） */
+    static final int MAX_CONCURRENT_STREAMS = 100;
+    // 单个请求体的上限：流窗口只归还到这个上限为止，到达上限仍未结束的流被重置
+    private static final int MAX_BODY_SIZE = 10 * 1024 * 1024;
+    // 一个连接上所有流缓存的请求体合计上限，超过后以 REFUSED_STREAM 重置新收到数据的流
+    private static final long MAX_CONNECTION_BODY_BYTES = 16L * 1024 * 1024;
+    // 流线程池每个线程对应的排队任务数
+    private static final int STREAM_QUEUE_PER_THREAD = 64;
+    // 发送方向等待窗口的最长时间，超时后放弃该流
+    private static final long WINDOW_WAIT_MS = 5_000;
+    // 每个连接同时阻塞等待窗口的流线程数上限，超过时直接放弃该流，慢速对端占不满流线程池
+    private static final int MAX_BLOCKED_WRITERS = 4;
+
+    private static final CannedResponse SWITCHING_PROTOCOLS =
+            new CannedResponse(101, "Switching Protocols", null, null, "Connection", "Upgrade", "Upgrade", "h2c");
+
+    private final RequestReader reader;
+    private final ResponseWriter writer;
+    private final AsyncRouter router;
+    // 流的路由和响应写出在该线程池中进行，与连接读线程分离，
+    // 否则读线程在等待发送窗口时无法读到对端的 WINDOW_UPDATE
+    private final Executor streamExecutor;
+    private final String remoteAddress;
+    private final StringCache stringCache;
+    private final Hpack.Decoder decoder = new Hpack.Decoder(HEADER_TABLE_SIZE);
+
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private int lastStreamId = 0;
+
+    // 正在接收的头部块（HEADERS + CONTINUATION）
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    private int headerStreamId = 0;
+    private boolean headerEndStream = false;
+
+    // 发送方向的流量控制状态，受 this 保护
+    private long connectionSendWindow = DEFAULT_WINDOW_SIZE;
+    private int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+    private volatile int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private boolean closed = false;
+    // 正在阻塞等待发送窗口的线程数
+    private int blockedWriters = 0;
+
+    // 接收方向已消费、尚未通过 WINDOW_UPDATE 归还的字节数
+    private int connectionUnacked = 0;
+    // 接收方向对端还可以发送的字节数（本端通告的连接窗口），只由读线程访问
+    private int connectionRecvWindow = DEFAULT_WINDOW_SIZE;
+    // 所有流缓存的请求体字节数，受 this 保护
+    private long bufferedBodyBytes = 0;
+
+    private static final AtomicInteger OPENED = new AtomicInteger();
+
+    Http2Connection(RequestReader reader, ResponseWriter writer, AsyncRouter router,
+                    String remoteAddress, StringCache stringCache, Executor streamExecutor) {
+        this.reader = reader;
+        this.writer = writer;
+        this.router = router;
+        this.streamExecutor = streamExecutor;
+        this.remoteAddress = remoteAddress;
+        this.stringCache = stringCache;
+    }
+
+    /**
+     * 请求行是否为 prior knowledge 连接前言的开头（PRI * HTTP/2.0）
+     */
+    static boolean isPreface(HttpRequest request) {
+        return "PRI".equals(request.getMethod()) && "*".equals(request.getPath())
+                && "HTTP/2.0".equals(request.getProtocol());
+    }
+
+    /**
+     * 是否为 h2c 升级请求（RFC 7540 3.2）
+     */
+    static boolean isUpgrade(HttpRequest request) {
+        String upgrade = request.getHeader("upgrade");
+        String connection = request.getHeader("connection");
+        return upgrade != null && "h2c".equalsIgnoreCase(upgrade.trim())
+                && request.getHeader("http2-settings") != null
+                && connection != null && connection.toLowerCase().contains("upgrade");
+    }
+
+    /**
+     * 创建有界的流线程池：线程数固定，排队任务数有上限，队列满时新流被拒绝
+     */
+    static ThreadPoolExecutor newStreamExecutor(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(threads * STREAM_QUEUE_PER_THREAD), new ThreadFactoryImpl());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 没有指定流线程池时（预热、基准测试等直接创建 ClientHandler 的场合）共用的线程池
+     */
+    static Executor defaultStreamExecutor() {
+        return DefaultStreamExecutor.INSTANCE;
+    }
+
+    private static final class DefaultStreamExecutor {
+        static final ThreadPoolExecutor INSTANCE = newStreamExecutor(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+    }
+
+    /** 累计建立的 HTTP/2 连接数 */
+    static int getOpenedCount() {
+        return OPENED.get();
+    }
+
+    /**
+     * prior knowledge：请求头读取器已经读到 "PRI * HTTP/2.0\r\n\r\n"
+     */
+    void servePriorKnowledge() throws IOException {
+        byte[] tail = new byte[PREFACE_TAIL.length];
+        reader.readFully(tail, 0, tail.length);
+        if (!Arrays.equals(tail, PREFACE_TAIL)) {
+            throw new IOException("Invalid HTTP/2 connection preface");
+        }
+        OPENED.incrementAndGet();
+        writeSettings();
+        serveFrames();
+    }
+
+    /**
+     * Upgrade: h2c：回复 101 后发送 SETTINGS，升级请求作为流 1 处理，然后读取客户端前言
+     *
+     * @param request 已完整读取（含请求体）的升级请求
+     */
+    void serveUpgrade(HttpRequest request) throws IOException {
+        byte[] settings;
+        try {
+            settings = Base64.getUrlDecoder().decode(request.getHeader("http2-settings").trim());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid HTTP2-Settings header", e);
+        }
+        writer.write(SWITCHING_PROTOCOLS.response());
+        OPENED.incrementAndGet();
+        writeSettings();
+        try {
+            applySettings(settings, settings.length);
+        } catch (ConnectionError e) {
+            goAway(e.code);
+            return;
+        }
+
+        // 升级请求：流 1，对端方向已关闭
+        lastStreamId = 1;
+        Stream stream = new Stream(1, initialSendWindow());
+        streams.put(1, stream);
+        request.getHeaders().remove("upgrade");
+        request.getHeaders().remove("http2-settings");
+        request.getHeaders().remove("connection");
+        request.setProtocol("HTTP/2.0");
+        dispatch(stream, request);
+
+        byte[] preface = new byte[CLIENT_PREFACE.length];
+        reader.readFully(preface, 0, preface.length);
+        if (!Arrays.equals(preface, CLIENT_PREFACE)) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        serveFrames();
+    }
+
+    // ==================== 读取 ====================
+
+    private void serveFrames() throws IOException {
+        byte[] header = new byte[9];
+        byte[] payload = new byte[DEFAULT_MAX_FRAME_SIZE];
+        boolean first = true;
+        try {
+            while (true) {
+                try {
+                    reader.readFully(header, 0, header.length);
+                } catch (EOFException e) {
+                    break; // 对端关闭连接
+                }
+                int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+                int type = header[3] & 0xFF;
+                int flags = header[4] & 0xFF;
+                int streamId = readInt31(header, 5);
+                if (length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new ConnectionError(FRAME_SIZE_ERROR, "Frame too large: " + length);
+                }
+                reader.readFully(payload, 0, length);
+
+                if (first && (type != SETTINGS || (flags & FLAG_ACK) != 0)) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Expected SETTINGS after preface");
+                }
+                first = false;
+                if (headerStreamId != 0 && type != CONTINUATION) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Expected CONTINUATION");
+                }
+                onFrame(type, flags, streamId, payload, length);
+            }
+        } catch (ConnectionError e) {
+            goAway(e.code);
+        } finally {
+            awaitStreams();
+        }
+    }
+
+    private void onFrame(int type, int flags, int streamId, byte[] p, int length) throws IOException {
+        switch (type) {
+            case DATA:
+                onData(flags, streamId, p, length);
+                break;
+            case HEADERS:
+                onHeaders(flags, streamId, p, length);
+                break;
+            case CONTINUATION:
+                if (streamId != headerStreamId) {
+                    throw new ConnectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                }
+                appendHeaderBlock(p, 0, length);
+                if ((flags & FLAG_END_HEADERS) != 0) {
+                    onHeaderBlock();
+                }
+                break;
+            case PRIORITY:
+                // 不实现优先级调度，按完成顺序写回
+                if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "PRIORITY on stream 0");
+                if (length != 5) resetStream(streamId, FRAME_SIZE_ERROR);
+                break;
+            case RST_STREAM:
+                if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM on stream 0");
+                if (length != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad RST_STREAM length");
+                Stream reset = streams.remove(streamId);
+                if (reset != null) {
+                    synchronized (this) {
+                        reset.reset = true;
+                        releaseBody(reset);
+                        notifyAll();
+                    }
+                }
+                break;
+            case SETTINGS:
+                if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on stream " + streamId);
+                if ((flags & FLAG_ACK) != 0) {
+                    if (length != 0) throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with payload");
+                    break;
+                }
+                if (length % 6 != 0) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad SETTINGS length");
+                applySettings(p, length);
+                writeFrame(SETTINGS, FLAG_ACK, 0, p, 0, 0);
+                break;
+            case PUSH_PROMISE:
+                throw new ConnectionError(PROTOCOL_ERROR, "Client sent PUSH_PROMISE");
+            case PING:
+                if (streamId != 0) throw new ConnectionError(PROTOCOL_ERROR, "PING on stream " + streamId);
+                if (length != 8) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad PING length");
+                if ((flags & FLAG_ACK) == 0) {
+                    writeFrame(PING, FLAG_ACK, 0, p, 0, 8);
+                }
+                break;
+            case GOAWAY:
+                // 对端不再创建新流；已有的流照常完成，继续读取直到对端关闭
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, p, length);
+                break;
+            default:
+                // 未知帧类型必须忽略
+                break;
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] p, int length) throws IOException {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Invalid stream id for HEADERS: " + streamId);
+        }
+        int off = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad HEADERS padding");
+            end -= p[0] & 0xFF;
+            off = 1;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            off += 5;
+        }
+        if (off > end) {
+            throw new ConnectionError(PROTOCOL_ERROR, "Bad HEADERS padding");
+        }
+        Stream existing = streams.get(streamId);
+        if (streamId <= lastStreamId && (existing == null || existing.remoteClosed)) {
+            throw new ConnectionError(STREAM_CLOSED, "HEADERS on closed stream " + streamId);
+        }
+        headerStreamId = streamId;
+        headerEndStream = (flags & FLAG_END_STREAM) != 0;
+        headerBlock.reset();
+        appendHeaderBlock(p, off, end - off);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onHeaderBlock();
+        }
+    }
+
+    private void appendHeaderBlock(byte[] p, int off, int len) throws ConnectionError {
+        if (headerBlock.size() + len > 2 * Hpack.MAX_HEADER_LIST_SIZE) {
+            throw new ConnectionError(ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        headerBlock.write(p, off, len);
+    }
+
+    /**
+     * 头部块接收完整：解码（即使随后拒绝该流也必须解码，以保持 HPACK 动态表同步）
+     */
+    private void onHeaderBlock() throws IOException {
+        int streamId = headerStreamId;
+        headerStreamId = 0;
+        List<String[]> fields = new ArrayList<>();
+        try {
+            byte[] block = headerBlock.toByteArray();
+            decoder.decode(block, 0, block.length, fields);
+        } catch (IOException e) {
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            // 请求尾部（trailers）：忽略内容，只结束该流
+            if (!headerEndStream) throw new ConnectionError(PROTOCOL_ERROR, "Trailers without END_STREAM");
+            dispatch(stream, stream.request);
+            return;
+        }
+
+        lastStreamId = streamId;
+        if (streams.size() >= MAX_CONCURRENT_STREAMS) {
+            resetStream(streamId, REFUSED_STREAM);
+            return;
+        }
+        stream = new Stream(streamId, initialSendWindow());
+        HttpRequest request = stream.request;
+        request.setProtocol("HTTP/2.0");
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            if (name.startsWith(":")) {
+                switch (name) {
+                    case ":method": request.setMethod(value); break;
+                    case ":path": request.setPath(value); break;
+                    case ":authority":
+                        if (request.getHeader("host") == null) request.addLowerCaseHeader("host", value);
+                        break;
+                    default: break;
+                }
+                continue;
+            }
+            String previous = request.getHeaders().get(name);
+            if (previous != null) {
+                value = previous + ("cookie".equals(name) ? "; " : ", ") + value;
+            }
+            request.addLowerCaseHeader(name, value);
+        }
+        if (request.getMethod() == null || request.getPath() == null) {
+            resetStream(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        streams.put(streamId, stream);
+        if (headerEndStream) {
+            dispatch(stream, request);
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] p, int length) throws IOException {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        int off = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (length < 1) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad DATA padding");
+            end -= p[0] & 0xFF;
+            off = 1;
+            if (off > end) throw new ConnectionError(PROTOCOL_ERROR, "Bad DATA padding");
+        }
+        // 整帧长度（含填充）都计入连接窗口，读入即归还
+        if (length > connectionRecvWindow) {
+            throw new ConnectionError(FLOW_CONTROL_ERROR, "DATA exceeds the connection receive window");
+        }
+        connectionRecvWindow -= length;
+        connectionUnacked += length;
+        if (connectionUnacked >= DEFAULT_WINDOW_SIZE / 2) {
+            writeWindowUpdate(0, connectionUnacked);
+            connectionRecvWindow += connectionUnacked;
+            connectionUnacked = 0;
+        }
+
+        Stream stream = streams.get(streamId);
+        if (stream == null || stream.remoteClosed) {
+            if (streamId > lastStreamId) throw new ConnectionError(PROTOCOL_ERROR, "DATA on idle stream");
+            resetStream(streamId, STREAM_CLOSED);
+            return;
+        }
+        if (length > stream.recvWindow) {
+            closeStream(stream, FLOW_CONTROL_ERROR);
+            return;
+        }
+        stream.recvWindow -= length;
+        int n = end - off;
+        synchronized (this) {
+            if (bufferedBodyBytes + n > MAX_CONNECTION_BODY_BYTES) {
+                n = -1;
+            } else {
+                bufferedBodyBytes += n;
+                stream.buffered += n;
+            }
+        }
+        if (n < 0) {
+            closeStream(stream, REFUSED_STREAM);
+            return;
+        }
+        stream.appendBody(p, off, end - off);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            dispatch(stream, stream.request);
+            return;
+        }
+        stream.unacked += length;
+        if (stream.unacked >= DEFAULT_WINDOW_SIZE / 2 || stream.recvWindow == 0) {
+            // 只归还请求体上限以内的窗口：遵守流控的对端发出的请求体不会超过上限
+            int grant = (int) Math.min(stream.unacked, (long) MAX_BODY_SIZE - stream.bodyLength - stream.recvWindow);
+            stream.unacked = 0;
+            if (grant > 0) {
+                writeWindowUpdate(streamId, grant);
+                stream.recvWindow += grant;
+            } else if (stream.recvWindow == 0) {
+                // 请求体已到上限仍未结束
+                closeStream(stream, CANCEL);
+            }
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] p, int length) throws IOException {
+        if (length != 4) throw new ConnectionError(FRAME_SIZE_ERROR, "Bad WINDOW_UPDATE length");
+        int increment = readInt31(p, 0);
+        if (increment == 0) {
+            if (streamId == 0) throw new ConnectionError(PROTOCOL_ERROR, "Zero WINDOW_UPDATE");
+            resetStream(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        List<Stream> resumable;
+        synchronized (this) {
+            if (streamId == 0) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > Integer.MAX_VALUE) {
+                    throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window overflow");
+                }
+                resumable = takeResumable(null);
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream == null) return;
+                stream.sendWindow += increment;
+                if (stream.sendWindow > Integer.MAX_VALUE) {
+                    stream.reset = true;
+                    streams.remove(streamId);
+                    releaseBody(stream);
+                    resetStream(streamId, FLOW_CONTROL_ERROR);
+                    return;
+                }
+                resumable = takeResumable(stream);
+            }
+            notifyAll();
+        }
+        resume(resumable);
+    }
+
+    private void applySettings(byte[] p, int length) throws IOException {
+        for (int i = 0; i + 6 <= length; i += 6) {
+            int id = ((p[i] & 0xFF) << 8) | (p[i + 1] & 0xFF);
+            long value = ((long) (p[i + 2] & 0xFF) << 24) | ((p[i + 3] & 0xFF) << 16)
+                    | ((p[i + 4] & 0xFF) << 8) | (p[i + 5] & 0xFF);
+            switch (id) {
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) throw new ConnectionError(PROTOCOL_ERROR, "Bad ENABLE_PUSH");
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > Integer.MAX_VALUE) throw new ConnectionError(FLOW_CONTROL_ERROR, "Bad INITIAL_WINDOW_SIZE");
+                    List<Stream> resumable;
+                    synchronized (this) {
+                        // 新的初始窗口对所有已有流按差值生效
+                        int delta = (int) value - peerInitialWindowSize;
+                        peerInitialWindowSize = (int) value;
+                        for (Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                        }
+                        resumable = takeResumable(null);
+                        notifyAll();
+                    }
+                    resume(resumable);
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "Bad MAX_FRAME_SIZE");
+                    }
+                    peerMaxFrameSize = (int) value;
+                    break;
+                default:
+                    // HEADER_TABLE_SIZE：编码器不使用动态表，无需处理；其余参数忽略
+                    break;
+            }
+        }
+    }
+
+    // ==================== 路由与响应 ====================
+
+    /**
+     * 对端方向已结束：补全请求并交给流线程池路由
+     */
+    private void dispatch(Stream stream, HttpRequest request) throws IOException {
+        stream.remoteClosed = true;
+        if (stream.bodyLength > 0) {
+            System.arraycopy(stream.body, 0, request.prepareBody(stream.bodyLength), 0, stream.bodyLength);
+            stream.body = null;
+        }
+        HttpRequestParser.parseTargetParameters(request, stringCache);
+        HttpRequestParser.parseBodyParameters(request, stringCache);
+        request.setRemoteAddress(remoteAddress);
+
+        try {
+            streamExecutor.execute(() -> {
+                CompletableFuture<HttpResponse> future;
+                try {
+                    future = router.routeAsync(request);
+                } catch (Exception e) {
+                    future = CompletableFuture.failedFuture(e);
+                }
+                if (future.isDone()) {
+                    respond(stream, request, future);
+                } else {
+                    CompletableFuture<HttpResponse> f = future;
+                    future.whenComplete((r, e) -> {
+                        try {
+                            streamExecutor.execute(() -> respond(stream, request, f));
+                        } catch (RejectedExecutionException rejected) {
+                            // 路由已经执行，不能再拒绝该流：在完成它的线程上直接写出
+                            respond(stream, request, f);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 流线程池已满：拒绝该流，对端可以重试
+            closeStream(stream, REFUSED_STREAM);
+        }
+    }
+
+    private void respond(Stream stream, HttpRequest request, CompletableFuture<HttpResponse> future) {
+        HttpResponse response;
+        try {
+            response = future.join();
+        } catch (Exception e) {
+            e.printStackTrace();
+            response = HttpResponse.internalServerError();
+        }
+        InputStream bodyStream = response.getBodyStream();
+        boolean finished = true;
+        try {
+            if (bodyStream != null) {
+                writeStreamed(stream, request, response, bodyStream);
+                return;
+            }
+            if (response.getBodyWriter() != null) {
+                writeGenerated(stream, request, response);
+                return;
+            }
+            // 帧需要复制进帧缓冲，模板渲染的响应体在这里整块生成
+            byte[] body = response.bodyBytes();
+            boolean noBody = body.length == 0 || "HEAD".equals(request.getMethod());
+            writeHeaders(stream.id, encodeHeaders(response, body.length), noBody);
+            if (!noBody) {
+                // 窗口不足时剩余部分挂在流上，由 WINDOW_UPDATE 触发 resume() 继续写
+                finished = sendBody(stream, body, 0, body.length);
+            }
+        } catch (IOException e) {
+            // 连接已关闭，放弃该流
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (bodyStream != null) {
+                try {
+                    bodyStream.close();
+                } catch (IOException ignored) {}
+            }
+            if (finished) {
+                finishStream(stream);
+            }
+        }
+    }
+
+    /**
+     * 流的响应写完或被放弃：移出流表并释放缓存的请求体
+     */
+    private void finishStream(Stream stream) {
+        streams.remove(stream.id);
+        synchronized (this) {
+            releaseBody(stream);
+            notifyAll();
+        }
+    }
+
+    /**
+     * 在窗口允许的范围内写出整块响应体的 DATA 帧，最后一帧带 END_STREAM。
+     * 窗口耗尽时把剩余部分记在流上并返回 false，不等待；流被重置或连接关闭时返回 true。
+     */
+    private boolean sendBody(Stream stream, byte[] body, int off, int end) throws IOException {
+        while (off < end) {
+            int n;
+            synchronized (this) {
+                if (stream.reset || closed) return true;
+                n = sendable(stream, end - off);
+                if (n == 0) {
+                    stream.pendingBody = body;
+                    stream.pendingOff = off;
+                    stream.pendingEnd = end;
+                    return false;
+                }
+            }
+            writeFrame(DATA, off + n == end ? FLAG_END_STREAM : 0, stream.id, body, off, n);
+            off += n;
+        }
+        return true;
+    }
+
+    /**
+     * 窗口增大后取出可以继续写的挂起响应体；调用方持有 this 锁，返回的流在释放锁后交给 resume()
+     *
+     * @param stream 只检查该流；null 表示检查所有流（连接窗口或初始窗口变化）
+     */
+    private List<Stream> takeResumable(Stream stream) {
+        if (connectionSendWindow <= 0) {
+            return null;
+        }
+        List<Stream> resumable = null;
+        for (Stream s : stream != null ? List.of(stream) : streams.values()) {
+            if (s.pendingBody != null && s.sendWindow > 0) {
+                if (resumable == null) resumable = new ArrayList<>();
+                resumable.add(s);
+            }
+        }
+        return resumable;
+    }
+
+    /**
+     * 把挂起的响应体交给流线程池继续写；不能持有 this 锁调用（线程池已满时在当前线程写出）
+     */
+    private void resume(List<Stream> resumable) {
+        if (resumable == null) return;
+        for (Stream stream : resumable) {
+            byte[] body;
+            int off;
+            int end;
+            synchronized (this) {
+                body = stream.pendingBody;
+                off = stream.pendingOff;
+                end = stream.pendingEnd;
+                stream.pendingBody = null;
+            }
+            if (body == null) continue;
+            Runnable task = () -> {
+                boolean finished = true;
+                try {
+                    finished = sendBody(stream, body, off, end);
+                } catch (IOException e) {
+                    // 连接已关闭，放弃该流
+                } finally {
+                    if (finished) {
+                        finishStream(stream);
+                    }
+                }
+            };
+            try {
+                streamExecutor.execute(task);
+            } catch (RejectedExecutionException rejected) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * 本次可以写出的字节数（受剩余长度、帧大小、连接窗口和流窗口约束），并从两个窗口中扣除；调用方持有 this 锁
+     */
+    private int sendable(Stream stream, int remaining) {
+        int n = (int) Math.min(Math.min(remaining, peerMaxFrameSize), Math.min(connectionSendWindow, stream.sendWindow));
+        if (n <= 0) {
+            return 0;
+        }
+        connectionSendWindow -= n;
+        stream.sendWindow -= n;
+        return n;
+    }
+
+    /**
+     * 本端重置尚未交给线程池的流：移出流表并释放缓存的请求体
+     */
+    private void closeStream(Stream stream, int errorCode) throws IOException {
+        streams.remove(stream.id);
+        synchronized (this) {
+            stream.reset = true;
+            releaseBody(stream);
+            notifyAll();
+        }
+        resetStream(stream.id, errorCode);
+    }
+
+    /**
+     * 流结束，它缓存的请求体不再计入连接的上限；调用方持有 this 锁，重复调用无影响
+     */
+    private void releaseBody(Stream stream) {
+        bufferedBodyBytes -= stream.buffered;
+        stream.buffered = 0;
+    }
+
+    /**
+     * 流式响应体：每次读到的数据按流控窗口写成 DATA 帧，读完后以空 DATA 帧结束流；
+     * 长度未知时不发送 content-length（HTTP/2 不使用 chunked）
+     */
+    private void writeStreamed(Stream stream, HttpRequest request, HttpResponse response, InputStream body)
+            throws IOException, InterruptedException {
+        long length = response.getBodyStreamLength();
+        boolean noBody = length == 0 || "HEAD".equals(request.getMethod());
+        writeHeaders(stream.id, encodeHeaders(response, length), noBody);
+        if (noBody) return;
+        byte[] chunk = new byte[DEFAULT_MAX_FRAME_SIZE];
+        int n;
+        try {
+            while ((n = body.read(chunk, 0, chunk.length)) > 0) {
+                writeData(stream, chunk, 0, n, false);
+                if (stream.reset || closed) return;
+            }
+        } catch (IOException e) {
+            // 上游出错：响应不完整，取消该流，不影响连接上的其他流
+            resetStream(stream.id, INTERNAL_ERROR);
+            return;
+        }
+        writeFrame(DATA, FLAG_END_STREAM, stream.id, chunk, 0, 0);
+    }
+
+    /**
+     * 写出时生成的响应体：生成的字节攒满一帧写成 DATA 帧，生成结束后以空 DATA 帧结束流
+     */
+    private void writeGenerated(Stream stream, HttpRequest request, HttpResponse response)
+            throws IOException, InterruptedException {
+        boolean noBody = "HEAD".equals(request.getMethod());
+        writeHeaders(stream.id, encodeHeaders(response, -1), noBody);
+        if (noBody) return;
+        DataFrameOutput body = new DataFrameOutput(stream);
+        try {
+            response.getBodyWriter().writeTo(body);
+            body.flush();
+        } catch (IOException | RuntimeException e) {
+            if (stream.reset || closed) return;
+            // 生成过程中出错：响应不完整，取消该流
+            resetStream(stream.id, INTERNAL_ERROR);
+            return;
+        }
+        writeFrame(DATA, FLAG_END_STREAM, stream.id, body.frame, 0, 0);
+    }
+
+    /**
+     * 把 BodyWriter 写入的字节按帧大小分成 DATA 帧（不带 END_STREAM）
+     */
+    private final class DataFrameOutput extends OutputStream {
+        private final Stream stream;
+        private final byte[] frame = new byte[DEFAULT_MAX_FRAME_SIZE];
+        private int count = 0;
+
+        DataFrameOutput(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == frame.length) flush();
+            frame[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] src, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == frame.length) flush();
+                int n = Math.min(len, frame.length - count);
+                System.arraycopy(src, off, frame, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count == 0) return;
+            try {
+                writeData(stream, frame, 0, count, false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for flow control window");
+            }
+            count = 0;
+            if (stream.reset || closed) {
+                // 对端已取消该流，停止生成
+                throw new IOException("Stream " + stream.id + " closed");
+            }
+        }
+    }
+
+    /**
+     * HTTP/2 禁止连接级头部；Content-Length 按实际长度重新生成
+     */
+    private static boolean isExcludedHeader(String name) {
+        switch (name) {
+            case "connection":
+            case "keep-alive":
+            case "proxy-connection":
+            case "transfer-encoding":
+            case "upgrade":
+            case "content-length":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param contentLength 响应体长度，-1 表示未知（不发送 content-length）
+     */
+    private static byte[] encodeHeaders(HttpResponse response, long contentLength) {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        encoder.encode(":status", Integer.toString(response.getStatusCode()));
+        boolean hasDate = false;
+        for (Map.Entry<String, String> e : response.getHeaders().entrySet()) {
+            String name = e.getKey().toLowerCase();
+            if (isExcludedHeader(name)) {
+                continue;
+            }
+            hasDate |= name.equals("date");
+            encoder.encode(name, e.getValue());
+        }
+        List<String> extra = response.getExtraHeaders();
+        if (extra != null) {
+            // addHeader 追加的取值（Set-Cookie 等），每个取值一个头部字段
+            for (int i = 0; i + 1 < extra.size(); i += 2) {
+                String name = extra.get(i).toLowerCase();
+                if (!isExcludedHeader(name)) {
+                    encoder.encode(name, extra.get(i + 1));
+                }
+            }
+        }
+        if (contentLength >= 0) {
+            encoder.encode("content-length", Long.toString(contentLength));
+        }
+        if (!hasDate) {
+            encoder.encode("date", new String(HttpDate.now().value, StandardCharsets.US_ASCII));
+        }
+        return encoder.toByteArray();
+    }
+
+    /**
+     * 写出 HEADERS（必要时拆成 CONTINUATION），同一头部块的帧之间不能插入其他帧
+     */
+    private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+        int maxFrame = peerMaxFrameSize;
+        synchronized (writer) {
+            int off = 0;
+            int type = HEADERS;
+            int flags = endStream ? FLAG_END_STREAM : 0;
+            do {
+                int n = Math.min(maxFrame, block.length - off);
+                boolean last = off + n == block.length;
+                writeFrame(type, flags | (last ? FLAG_END_HEADERS : 0), streamId, block, off, n);
+                off += n;
+                type = CONTINUATION;
+                flags = 0;
+            } while (off < block.length);
+        }
+    }
+
+    /**
+     * 按发送窗口分帧写出边生成边写的 DATA，窗口不足时阻塞等待对端 WINDOW_UPDATE。
+     * 同一连接上已有 MAX_BLOCKED_WRITERS 个线程在等待，或等待超过 WINDOW_WAIT_MS 时放弃该流。
+     */
+    private void writeData(Stream stream, byte[] body, int off, int length, boolean endStream)
+            throws IOException, InterruptedException {
+        int end = off + length;
+        while (off < end) {
+            int n;
+            synchronized (this) {
+                if (stream.reset || closed) return;
+                n = sendable(stream, end - off);
+                if (n == 0) {
+                    if (blockedWriters >= MAX_BLOCKED_WRITERS) {
+                        stream.reset = true;
+                        resetStream(stream.id, CANCEL);
+                        return;
+                    }
+                    long deadline = System.currentTimeMillis() + WINDOW_WAIT_MS;
+                    blockedWriters++;
+                    try {
+                        while (n == 0) {
+                            if (stream.reset || closed) return;
+                            long wait = deadline - System.currentTimeMillis();
+                            if (wait <= 0) {
+                                stream.reset = true;
+                                resetStream(stream.id, CANCEL);
+                                return;
+                            }
+                            wait(wait);
+                            n = sendable(stream, end - off);
+                        }
+                    } finally {
+                        blockedWriters--;
+                    }
+                }
+            }
+            boolean last = endStream && off + n == end;
+            writeFrame(DATA, last ? FLAG_END_STREAM : 0, stream.id, body, off, n);
+            off += n;
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] p = new byte[18];
+        putSetting(p, 0, SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+        putSetting(p, 6, SETTINGS_ENABLE_PUSH, 0);
+        putSetting(p, 12, SETTINGS_HEADER_TABLE_SIZE, HEADER_TABLE_SIZE);
+        writeFrame(SETTINGS, 0, 0, p, 0, p.length);
+    }
+
+    private static void putSetting(byte[] p, int off, int id, int value) {
+        p[off] = (byte) (id >>> 8);
+        p[off + 1] = (byte) id;
+        putInt(p, off + 2, value);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] p = new byte[4];
+        putInt(p, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, p, 0, 4);
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        byte[] p = new byte[4];
+        putInt(p, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, p, 0, 4);
+    }
+
+    private void goAway(int errorCode) {
+        byte[] p = new byte[8];
+        putInt(p, 0, lastStreamId);
+        putInt(p, 4, errorCode);
+        try {
+            writeFrame(GOAWAY, 0, 0, p, 0, p.length);
+        } catch (IOException ignored) {
+            // 连接已不可用
+        }
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int off, int len) throws IOException {
+        byte[] header = new byte[9];
+        header[0] = (byte) (len >>> 16);
+        header[1] = (byte) (len >>> 8);
+        header[2] = (byte) len;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        putInt(header, 5, streamId);
+        synchronized (writer) {
+            writer.writeRaw(header, 0, header.length, false);
+            writer.writeRaw(payload, off, len, true);
+        }
+    }
+
+    /**
+     * 读取结束后等待进行中的流写完，最多等待一个窗口等待周期
+     */
+    private void awaitStreams() {
+        long deadline = System.currentTimeMillis() + WINDOW_WAIT_MS;
+        synchronized (this) {
+            try {
+                while (!streams.isEmpty()) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) break;
+                    wait(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            closed = true;
+            notifyAll();
+        }
+        if (streams.isEmpty()) {
+            goAway(NO_ERROR);
+        }
+    }
+
+    private synchronized int initialSendWindow() {
+        return peerInitialWindowSize;
+    }
+
+    private static int readInt31(byte[] b, int off) {
+        return ((b[off] & 0x7F) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static void putInt(byte[] b, int off, int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    /**
+     * 流状态：sendWindow、reset、buffered 与 pendingBody 等挂起状态受连接对象锁保护，其余字段只由读线程访问
+     */
+    private static final class Stream {
+        final int id;
+        final HttpRequest request = new HttpRequest();
+        byte[] body = new byte[0];
+        int bodyLength = 0;
+        int unacked = 0;
+        // 对端在该流上还可以发送的字节数（本端通告的流窗口）
+        int recvWindow = DEFAULT_WINDOW_SIZE;
+        // 计入连接上限的请求体字节数，流结束时归还
+        int buffered = 0;
+        boolean remoteClosed = false;
+        long sendWindow;
+        boolean reset = false;
+        // 窗口耗尽时尚未写出的整块响应体 pendingBody[pendingOff..pendingEnd)，null 表示没有挂起
+        byte[] pendingBody;
+        int pendingOff;
+        int pendingEnd;
+
+        Stream(int id, int initialWindow) {
+            this.id = id;
+            this.sendWindow = initialWindow;
+        }
+
+        void appendBody(byte[] src, int off, int len) {
+            if (bodyLength + len > body.length) {
+                body = Arrays.copyOf(body, Math.max(body.length * 2, bodyLength + len));
+            }
+            System.arraycopy(src, off, body, bodyLength, len);
+            bodyLength += len;
+        }
+    }
+
+    /**
+     * 连接级错误：发送 GOAWAY 后关闭连接
+     */
+    private static final class ConnectionError extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        ConnectionError(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+
+    private static final class ThreadFactoryImpl implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "h2-stream-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
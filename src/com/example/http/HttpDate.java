@@ -0,0 +1,44 @@
+package com.example.http;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * HTTP Date 头的缓存值
+ * 日期只精确到秒，每秒最多格式化一次，其余请求直接复用已编码的字节
+ */
+final class HttpDate {
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile Stamp current = new Stamp(-1, new byte[0]);
+
+    private HttpDate() {}
+
+    /**
+     * 当前秒对应的 Date 头值
+     */
+    static Stamp now() {
+        long second = System.currentTimeMillis() / 1000;
+        Stamp s = current;
+        if (s.second != second) {
+            // 多个线程同时刷新时各自格式化一次，结果相同，无需加锁
+            s = new Stamp(second, FORMAT.format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.US_ASCII));
+            current = s;
+        }
+        return s;
+    }
+
+    static final class Stamp {
+        final long second;
+        final byte[] value;
+
+        Stamp(long second, byte[] value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+}
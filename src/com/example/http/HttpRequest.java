@@ -1,25 +1,80 @@
 package com.example.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * HTTP请求数据对象
  * 存储解析后的HTTP请求信息
+ *
+ * ClientHandler 会在同一连接上复用请求对象（见 reset()），
+ * 路由在返回响应后不应再持有 HttpRequest 的引用。
  */
 public class HttpRequest {
+    // 响应写出后仍保留的请求体缓冲上限，更大的缓冲随即丢弃，连接上轮转的请求对象不长期占用大块内存
+    private static final int MAX_RETAINED_BODY = 64 * 1024;
+    private static final byte[] EMPTY_BODY = new byte[0];
+
     private String method;
     private String path;
     private String protocol;
     private Map<String, String> headers;
     private String body;
     private Map<String, String> parameters;
+    // 客户端地址（由 ClientHandler 从 Socket 填入，进程内构造的请求为 null）
+    private String remoteAddress;
+
+    // 原始请求体字节（复用的缓冲区），body 字符串在首次访问时才解码
+    private byte[] bodyBytes = EMPTY_BODY;
+    private int bodyLength = 0;
+    // 流式请求体（大批量导入等），非 null 时请求体没有读入内存，只能通过 getBodyStream() 读取一次
+    private InputStream bodyStream;
+
+    // 复用时记录本次解析写入过的键，解析结束后删除上一个请求残留的键
+    private final KeyTracker headerKeys = new KeyTracker();
+    private final KeyTracker parameterKeys = new KeyTracker();
 
     public HttpRequest() {
         this.headers = new HashMap<>();
         this.parameters = new HashMap<>();
     }
 
+    /**
+     * 重置为空请求以便复用。
+     * 头和参数字典暂不清空：同一连接上的请求通常带有相同的键，覆盖写入不会分配新节点，
+     * 请求头解析完成后由 finishHeaders()、请求体参数解析完成后由 finishReuse() 删除本次没有出现的键。
+     */
+    void reset() {
+        method = null;
+        path = null;
+        protocol = null;
+        body = null;
+        bodyLength = 0;
+        bodyStream = null;
+        remoteAddress = null;
+        headerKeys.begin();
+        parameterKeys.begin();
+    }
+
+    /**
+     * 删除上一个请求残留、本次没有写入的头
+     * 必须在读取请求体之前调用，否则上一个请求的 Content-Length / Transfer-Encoding 会被当作本次请求的
+     */
+    void finishHeaders() {
+        headerKeys.prune(headers);
+    }
+
+    /**
+     * 删除上一个请求残留、本次没有写入的头和参数
+     */
+    void finishReuse() {
+        headerKeys.prune(headers);
+        parameterKeys.prune(parameters);
+    }
+
     // Getters and Setters
     public String getMethod() {
         return method;
@@ -50,7 +105,15 @@ public class HttpRequest {
     }
 
     public void addHeader(String name, String value) {
-        this.headers.put(name.toLowerCase(), value);
+        addLowerCaseHeader(name.toLowerCase(), value);
+    }
+
+    /**
+     * 名称已是小写时使用，省去一次 toLowerCase
+     */
+    void addLowerCaseHeader(String lowerCaseName, String value) {
+        this.headers.put(lowerCaseName, value);
+        headerKeys.add(lowerCaseName);
     }
 
     public String getHeader(String name) {
@@ -58,11 +121,69 @@ public class HttpRequest {
     }
 
     public String getBody() {
+        if (body == null && bodyLength > 0) {
+            body = new String(bodyBytes, 0, bodyLength, StandardCharsets.UTF_8);
+        }
         return body;
     }
 
     public void setBody(String body) {
         this.body = body;
+        this.bodyLength = 0;
+    }
+
+    /**
+     * 准备长度为 length 的请求体缓冲区并返回，由调用方填充
+     */
+    byte[] prepareBody(int length) {
+        if (bodyBytes.length < length) {
+            bodyBytes = new byte[length];
+        }
+        bodyLength = length;
+        body = null;
+        return bodyBytes;
+    }
+
+    /**
+     * 响应已写出：请求体缓冲超过 MAX_RETAINED_BODY 时丢弃（连同解码出的字符串），下次需要时重新分配
+     */
+    void trimBody() {
+        if (bodyBytes.length > MAX_RETAINED_BODY) {
+            bodyBytes = EMPTY_BODY;
+            bodyLength = 0;
+            body = null;
+        }
+    }
+
+    byte[] getBodyBytes() {
+        return bodyBytes;
+    }
+
+    int getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * 以流的形式读取请求体
+     * 路由选择流式读取（AsyncRouter#streamsRequestBody）时直接从连接读取，处理期间边到达边读；
+     * 其余请求返回内存中请求体的视图
+     */
+    public InputStream getBodyStream() {
+        if (bodyStream != null) {
+            return bodyStream;
+        }
+        return new ByteArrayInputStream(bodyBytes, 0, bodyLength);
+    }
+
+    void setBodyStream(InputStream bodyStream) {
+        this.bodyStream = bodyStream;
+        this.bodyLength = 0;
+        this.body = null;
+    }
+
+    /** 请求体是否为尚未读入内存的流 */
+    public boolean isBodyStreamed() {
+        return bodyStream != null;
     }
 
     public Map<String, String> getParameters() {
@@ -71,21 +192,72 @@ public class HttpRequest {
 
     public void addParameter(String name, String value) {
         this.parameters.put(name, value);
+        parameterKeys.add(name);
     }
 
     public String getParameter(String name) {
         return parameters.get(name);
     }
 
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public void setRemoteAddress(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
     @Override
     public String toString() {
+        String b = getBody();
         return "HttpRequest{" +
                 "method='" + method + '\'' +
                 ", path='" + path + '\'' +
                 ", protocol='" + protocol + '\'' +
+                ", remoteAddress='" + remoteAddress + '\'' +
                 ", headers=" + headers +
-                ", bodyLength=" + (body != null ? body.length() : 0) +
+                ", bodyLength=" + (b != null ? b.length() : 0) +
                 ", parameters=" + parameters +
                 '}';
     }
-}
\ No newline at end of file
+
+    /**
+     * 记录一轮解析中写入过的键（按引用比较，键来自连接的 StringCache）
+     */
+    private static final class KeyTracker {
+        private String[] keys = new String[16];
+        private int count = 0;
+        private boolean tracking = false;
+
+        void begin() {
+            count = 0;
+            tracking = true;
+        }
+
+        void add(String key) {
+            if (!tracking) return;
+            for (int i = 0; i < count; i++) {
+                if (keys[i] == key || keys[i].equals(key)) return;
+            }
+            if (count == keys.length) {
+                String[] grown = new String[count * 2];
+                System.arraycopy(keys, 0, grown, 0, count);
+                keys = grown;
+            }
+            keys[count++] = key;
+        }
+
+        void prune(Map<String, String> map) {
+            if (tracking && map.size() > count) {
+                map.keySet().removeIf(k -> !contains(k));
+            }
+        }
+
+        private boolean contains(String key) {
+            for (int i = 0; i < count; i++) {
+                if (keys[i].equals(key)) return true;
+            }
+            return false;
+        }
+    }
+}
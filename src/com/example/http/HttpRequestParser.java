@@ -82,6 +82,125 @@ public class HttpRequestParser {
         return request;
     }
 
+    /**
+     * 解析请求行和请求头（长连接复用路径）
+     * 直接在字节上查找分隔符（ByteScanner 每次比较 8 个字节），路径、头名称和头值等字符串经连接的 StringCache 复用
+     *
+     * @param head    请求行 + 请求头的原始字节（以空行结尾）
+     * @param length  有效字节数
+     * @param request 要填充的请求对象（已 reset）
+     * @param cache   连接持有的字符串缓存
+     * @throws IOException 如果请求行格式错误
+     */
+    static void parseHead(byte[] head, int length, HttpRequest request, StringCache cache) throws IOException {
+        // 1. 解析请求行
+        int lineEnd = indexOf(head, 0, length, (byte) '\n');
+        if (lineEnd < 0) lineEnd = length;
+        int end = trimCR(head, 0, lineEnd);
+        if (end == 0) {
+            throw new IOException("无效的请求行");
+        }
+        int sp1 = indexOf(head, 0, end, (byte) ' ');
+        if (sp1 < 0) {
+            throw new IOException("请求行格式错误: " + new String(head, 0, end, StandardCharsets.UTF_8));
+        }
+        int sp2 = indexOf(head, sp1 + 1, end, (byte) ' ');
+        int targetEnd = sp2 < 0 ? end : sp2;
+        request.setMethod(cache.get(head, 0, sp1).toUpperCase());
+        request.setPath(cache.get(head, sp1 + 1, targetEnd - sp1 - 1));
+        request.setProtocol(sp2 < 0 ? "HTTP/1.1" : cache.get(head, sp2 + 1, end - sp2 - 1));
+
+        // 2. 解析请求头
+        int pos = lineEnd + 1;
+        while (pos < length) {
+            int eol = indexOf(head, pos, length, (byte) '\n');
+            if (eol < 0) eol = length;
+            int lineStop = trimCR(head, pos, eol);
+            if (lineStop == pos) break;
+            int colon = indexOf(head, pos, lineStop, (byte) ':');
+            if (colon > pos) {
+                int nameStart = skipSpaces(head, pos, colon);
+                int nameEnd = trimSpaces(head, nameStart, colon);
+                int valueStart = skipSpaces(head, colon + 1, lineStop);
+                int valueEnd = trimSpaces(head, valueStart, lineStop);
+                request.addLowerCaseHeader(cache.getLowerCase(head, nameStart, nameEnd - nameStart),
+                        cache.get(head, valueStart, valueEnd - valueStart));
+            }
+            pos = eol + 1;
+        }
+
+        // 3. 解析查询参数（如果有）
+        int queryIndex = indexOf(head, sp1 + 1, targetEnd, (byte) '?');
+        if (queryIndex > sp1 + 1) {
+            parseQueryString(head, queryIndex + 1, targetEnd, request, cache);
+        }
+    }
+
+    /**
+     * 解析请求体中的表单参数（长连接复用路径，请求体已读入 request 的缓冲区）
+     */
+    static void parseBodyParameters(HttpRequest request, StringCache cache) {
+        if (!"POST".equals(request.getMethod()) || request.getBodyLength() == 0) {
+            return;
+        }
+        String contentType = request.getHeader("content-type");
+        if (contentType != null && contentType.contains("application/x-www-form-urlencoded")) {
+            parseQueryString(request.getBodyBytes(), 0, request.getBodyLength(), request, cache);
+        }
+    }
+
+    /**
+     * 解析路径中的查询参数（HTTP/2 请求的 :path 以字符串形式给出）
+     */
+    static void parseTargetParameters(HttpRequest request, StringCache cache) {
+        String path = request.getPath();
+        int queryIndex = path.indexOf('?');
+        if (queryIndex > 0) {
+            byte[] target = path.getBytes(StandardCharsets.UTF_8);
+            int q = indexOf(target, 0, target.length, (byte) '?');
+            parseQueryString(target, q + 1, target.length, request, cache);
+        }
+    }
+
+    /**
+     * 解析字节形式的查询字符串 a=1&b=2（不做 URL 解码，与字符串版本一致）
+     */
+    private static void parseQueryString(byte[] bytes, int from, int to, HttpRequest request, StringCache cache) {
+        int pos = from;
+        while (pos < to) {
+            // 一次扫描同时找 '&' 和 '='：先遇到 '&' 说明这一对没有 '='，跳过
+            int eq = ByteScanner.indexOfAny(bytes, pos, to, (byte) '=', (byte) '&');
+            if (eq < 0) break;
+            if (bytes[eq] == '&') {
+                pos = eq + 1;
+                continue;
+            }
+            int amp = indexOf(bytes, eq + 1, to, (byte) '&');
+            int pairEnd = amp < 0 ? to : amp;
+            request.addParameter(cache.get(bytes, pos, eq - pos),
+                    cache.get(bytes, eq + 1, pairEnd - eq - 1));
+            pos = pairEnd + 1;
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte target) {
+        return ByteScanner.indexOf(bytes, from, to, target);
+    }
+
+    private static int trimCR(byte[] bytes, int from, int to) {
+        return (to > from && bytes[to - 1] == '\r') ? to - 1 : to;
+    }
+
+    private static int skipSpaces(byte[] bytes, int from, int to) {
+        while (from < to && (bytes[from] == ' ' || bytes[from] == '\t')) from++;
+        return from;
+    }
+
+    private static int trimSpaces(byte[] bytes, int from, int to) {
+        while (to > from && (bytes[to - 1] == ' ' || bytes[to - 1] == '\t')) to--;
+        return to;
+    }
+
     /**
      * 解析请求行
      */
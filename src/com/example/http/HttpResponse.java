@@ -1,39 +1,187 @@
 package com.example.http;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class HttpResponse {
     private int statusCode;
     private String reason;
     private Map<String,String> headers = new HashMap<>();
-    private byte[] body = new byte[0];
+    // 同名头部的其余取值（Set-Cookie 等不能按逗号合并的头部），名称、值交替存放；没有时为 null
+    private List<String> extraHeaders;
+    private byte[] body = EMPTY_BODY;
+    // 流式响应体（反向代理转发上游响应等），非 null 时写出时从流中读取，body 不使用
+    private InputStream bodyStream;
+    private long bodyStreamLength = -1;
+    // 写出时生成的响应体（流式 JSON 等），非 null 时 body 和 bodyStream 都不使用
+    private BodyWriter bodyWriter;
+    // 预编译模板的一次渲染，非 null 时写出时从模板片段生成；getBody() 按需渲染为字节数组
+    private PageTemplate.Page templateBody;
+    // 非 null 时内容与该预序列化响应相同（头部和响应体与它共享），写出时直接拷贝其字节；
+    // 任何修改先复制出自己的头部（写时复制）并清空此字段
+    private CannedResponse canned;
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+    private static final String TEXT_PLAIN = "text/plain; charset=utf-8";
+
+    // 内容固定的响应预先序列化，所有线程共享；工厂方法返回写时复制的 HttpResponse（见 CannedResponse）
+    private static final CannedResponse NOT_FOUND =
+            new CannedResponse(404, "Not Found", TEXT_PLAIN, "404 Not Found");
+    private static final CannedResponse METHOD_NOT_ALLOWED =
+            new CannedResponse(405, "Method Not Allowed", TEXT_PLAIN, "405 Method Not Allowed");
+    private static final CannedResponse INTERNAL_SERVER_ERROR =
+            new CannedResponse(500, "Internal Server Error", TEXT_PLAIN, "500 Internal Server Error");
+    private static final CannedResponse CREATED =
+            new CannedResponse(201, "Created", TEXT_PLAIN, "Created");
+    private static final CannedResponse BAD_REQUEST =
+            new CannedResponse(400, "Bad Request", TEXT_PLAIN, "Bad Request");
+    private static final CannedResponse UNAUTHORIZED =
+            new CannedResponse(401, "Unauthorized", TEXT_PLAIN, "Unauthorized");
+    private static final CannedResponse CONFLICT =
+            new CannedResponse(409, "Conflict", TEXT_PLAIN, "Conflict");
+    private static final CannedResponse NOT_MODIFIED =
+            new CannedResponse(304, "Not Modified", null, null);
+
+    // 429/503 按 Retry-After 秒数缓存（常见取值很少）
+    private static final int MAX_CACHED_RETRY_AFTER = 60;
+    private static final AtomicReferenceArray<CannedResponse> TOO_MANY_REQUESTS =
+            new AtomicReferenceArray<>(MAX_CACHED_RETRY_AFTER + 1);
+    private static final AtomicReferenceArray<CannedResponse> SERVICE_UNAVAILABLE =
+            new AtomicReferenceArray<>(MAX_CACHED_RETRY_AFTER + 1);
 
     public HttpResponse(int statusCode, String reason) {
         this.statusCode = statusCode;
         this.reason = reason;
     }
 
+    HttpResponse(CannedResponse canned) {
+        this.statusCode = canned.statusCode;
+        this.reason = canned.reason;
+        this.headers = canned.headers;
+        this.body = canned.body;
+        this.canned = canned;
+    }
+
+    /**
+     * 修改前与共享的预序列化响应脱离
+     */
+    private void detach() {
+        if (canned != null) {
+            headers = new HashMap<>(headers);
+            canned = null;
+        }
+    }
+
     public void setBody(byte[] body) {
+        detach();
         this.body = body;
+        this.templateBody = null;
         this.headers.put("Content-Length", String.valueOf(body.length));
     }
 
-    public void setHeader(String k, String v) { headers.put(k, v); }
+    /**
+     * 设置由预编译模板渲染的响应体：静态片段不复制，长度在设置时计算
+     */
+    public void setBody(PageTemplate.Page page) {
+        detach();
+        this.templateBody = page;
+        this.body = EMPTY_BODY;
+        this.bodyStream = null;
+        this.bodyStreamLength = -1;
+        this.bodyWriter = null;
+        this.headers.put("Content-Length", String.valueOf(page.length()));
+    }
+
+    /**
+     * 设置流式响应体，写出时边读边发送，写完（或连接出错）后关闭流
+     *
+     * @param length 响应体长度；-1 表示未知，HTTP/1.1 下以 chunked 编码发送
+     */
+    public void setBodyStream(InputStream bodyStream, long length) {
+        detach();
+        this.bodyStream = bodyStream;
+        this.bodyStreamLength = length;
+        this.bodyWriter = null;
+        this.templateBody = null;
+        this.body = EMPTY_BODY;
+        if (length >= 0) {
+            this.headers.put("Content-Length", String.valueOf(length));
+        } else {
+            this.headers.remove("Content-Length");
+        }
+    }
 
-    public byte[] toBytes() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("HTTP/1.1 ").append(statusCode).append(" ").append(reason).append("\r\n");
+    /**
+     * 设置写出时才生成的响应体：内容直接写入连接的写缓冲，HTTP/1.1 下以 chunked 编码发送，
+     * 不需要先在内存中构造完整的响应体
+     */
+    public void setBodyWriter(BodyWriter bodyWriter) {
+        detach();
+        this.bodyWriter = bodyWriter;
+        this.bodyStream = null;
+        this.bodyStreamLength = -1;
+        this.templateBody = null;
+        this.body = EMPTY_BODY;
+        this.headers.remove("Content-Length");
+    }
+
+    public void setHeader(String k, String v) {
+        detach();
+        headers.put(k, v);
+        if (extraHeaders != null) {
+            removeExtra(k);
+        }
+    }
+
+    /**
+     * 追加一个头部取值：名称已存在时另起一行发送，不替换也不按逗号合并（用于 Set-Cookie）
+     */
+    public void addHeader(String k, String v) {
+        detach();
+        if (headers.putIfAbsent(k, v) == null) {
+            return;
+        }
+        if (extraHeaders == null) {
+            extraHeaders = new ArrayList<>();
+        }
+        extraHeaders.add(k);
+        extraHeaders.add(v);
+    }
+
+    private void removeExtra(String k) {
+        for (int i = extraHeaders.size() - 2; i >= 0; i -= 2) {
+            if (extraHeaders.get(i).equals(k)) {
+                extraHeaders.remove(i + 1);
+                extraHeaders.remove(i);
+            }
+        }
+    }
 
-        headers.forEach((k, v) -> sb.append(k).append(": ").append(v).append("\r\n"));
+    /**
+     * 重置为新的状态码并清空响应头和响应体，便于复用同一个响应对象
+     */
+    public void reset(int statusCode, String reason) {
+        detach();
+        this.statusCode = statusCode;
+        this.reason = reason;
+        this.headers.clear();
+        this.extraHeaders = null;
+        this.body = EMPTY_BODY;
+        this.bodyStream = null;
+        this.bodyStreamLength = -1;
+        this.bodyWriter = null;
+        this.templateBody = null;
+    }
 
-        sb.append("\r\n");
-        byte[] head = sb.toString().getBytes(StandardCharsets.UTF_8);
-        byte[] res = new byte[head.length + body.length];
-        System.arraycopy(head, 0, res, 0, head.length);
-        System.arraycopy(body, 0, res, head.length, body.length);
-        return res;
+    public byte[] toBytes() {
+        return ResponseWriter.toBytes(this);
     }
     
     // Getter methods for testing
@@ -41,14 +189,71 @@ public class HttpResponse {
         return statusCode;
     }
 
+    /**
+     * 内存中的响应体；模板渲染的响应体在第一次调用时渲染成字节数组（写出时仍直接使用模板片段）
+     * 预序列化的响应先复制出自己的响应体再返回，调用方修改返回的数组不影响共享的响应
+     */
     public byte[] getBody() {
+        if (canned != null) {
+            detach();
+            body = body.clone();
+        }
+        return bodyBytes();
+    }
+
+    /**
+     * 写出用的响应体，不复制（预序列化响应返回共享数组，调用方不得修改）
+     */
+    byte[] bodyBytes() {
+        if (templateBody != null && body.length == 0 && templateBody.length() > 0) {
+            body = templateBody.toBytes();
+        }
         return body;
     }
 
+    /** 流式响应体，没有时为 null */
+    public InputStream getBodyStream() {
+        return bodyStream;
+    }
+
+    /** 流式响应体的长度，-1 表示未知 */
+    public long getBodyStreamLength() {
+        return bodyStreamLength;
+    }
+
+    /** 写出时生成的响应体，没有时为 null */
+    public BodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+
+    /** 模板渲染的响应体，没有时为 null */
+    public PageTemplate.Page getTemplateBody() {
+        return templateBody;
+    }
+
     public String getReason() {
         return reason;
     }
 
+    Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /** addHeader 追加的同名头部取值（名称、值交替），没有时为 null */
+    List<String> getExtraHeaders() {
+        return extraHeaders;
+    }
+
+    /** 响应带 Connection: close，发送后关闭连接 */
+    boolean closesConnection() {
+        return "close".equalsIgnoreCase(headers.get("Connection"));
+    }
+
+    /** 未修改过的预序列化响应，没有时为 null */
+    CannedResponse getCanned() {
+        return canned;
+    }
+
     public static HttpResponse okText(String text) {
         HttpResponse r = new HttpResponse(200, "OK");
         r.setHeader("Content-Type", "text/plain; charset=utf-8");
@@ -57,36 +262,24 @@ public class HttpResponse {
     }
 
     public static HttpResponse notFound() {
-        HttpResponse r = new HttpResponse(404, "Not Found");
-        r.setHeader("Content-Type", "text/plain; charset=utf-8");
-        r.setBody("404 Not Found".getBytes(StandardCharsets.UTF_8));
-        return r;
+        return NOT_FOUND.response();
     }
 
     public static HttpResponse methodNotAllowed() {
-        HttpResponse r = new HttpResponse(405, "Method Not Allowed");
-        r.setHeader("Content-Type", "text/plain; charset=utf-8");
-        r.setBody("405 Method Not Allowed".getBytes(StandardCharsets.UTF_8));
-        return r;
+        return METHOD_NOT_ALLOWED.response();
     }
 
     public static HttpResponse internalServerError() {
-        HttpResponse r = new HttpResponse(500, "Internal Server Error");
-        r.setHeader("Content-Type", "text/plain; charset=utf-8");
-        r.setBody("500 Internal Server Error".getBytes(StandardCharsets.UTF_8));
-        return r;
+        return INTERNAL_SERVER_ERROR.response();
     }
 
-    //新增一些注册登录会用到的状态码
+    //新增一些注册登录会用到的状态码（内容固定，返回共享的预序列化响应）
     public static HttpResponse created() {
-        HttpResponse r = new HttpResponse(201, "Created");
-        r.setHeader("Content-Type", "text/plain; charset=utf-8");
-        r.setBody("Created".getBytes(StandardCharsets.UTF_8));
-        return r;
+        return CREATED.response();
     }
 
     public static HttpResponse badRequest() {
-        return badRequest("Bad Request");
+        return BAD_REQUEST.response();
     }
 
     public static HttpResponse badRequest(String message) {
@@ -97,19 +290,73 @@ public class HttpResponse {
     }
 
     public static HttpResponse unauthorized() {
-        HttpResponse r = new HttpResponse(401, "Unauthorized");
+        return UNAUTHORIZED.response();
+    }
+
+    public static HttpResponse conflict() {
+        return CONFLICT.response();
+    }
+
+    /**
+     * 413 请求体过大；带 Connection: close，剩余的请求体不再读取
+     */
+    public static HttpResponse payloadTooLarge(String message) {
+        HttpResponse r = new HttpResponse(413, "Payload Too Large");
         r.setHeader("Content-Type", "text/plain; charset=utf-8");
-        r.setBody("Unauthorized".getBytes(StandardCharsets.UTF_8));
+        r.setHeader("Connection", "close");
+        r.setBody(message.getBytes(StandardCharsets.UTF_8));
         return r;
     }
 
-    public static HttpResponse conflict() {
-        HttpResponse r = new HttpResponse(409, "Conflict");
+    /**
+     * 507 存储空间不足（上传目录已满）；带 Connection: close，剩余的请求体不再读取
+     */
+    public static HttpResponse insufficientStorage(String message) {
+        HttpResponse r = new HttpResponse(507, "Insufficient Storage");
         r.setHeader("Content-Type", "text/plain; charset=utf-8");
-        r.setBody("Conflict".getBytes(StandardCharsets.UTF_8));
+        r.setHeader("Connection", "close");
+        r.setBody(message.getBytes(StandardCharsets.UTF_8));
         return r;
     }
 
+    /**
+     * 429 请求过多（触发限流）
+     *
+     * @param retryAfterSeconds 建议客户端重试的间隔秒数（Retry-After 头）
+     */
+    public static HttpResponse tooManyRequests(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0 || retryAfterSeconds > MAX_CACHED_RETRY_AFTER) {
+            return new CannedResponse(429, "Too Many Requests", TEXT_PLAIN, "429 Too Many Requests",
+                    "Retry-After", String.valueOf(retryAfterSeconds)).response();
+        }
+        CannedResponse r = TOO_MANY_REQUESTS.get(retryAfterSeconds);
+        if (r == null) {
+            TOO_MANY_REQUESTS.compareAndSet(retryAfterSeconds, null, new CannedResponse(429, "Too Many Requests", TEXT_PLAIN,
+                    "429 Too Many Requests", "Retry-After", String.valueOf(retryAfterSeconds)));
+            r = TOO_MANY_REQUESTS.get(retryAfterSeconds);
+        }
+        return r.response();
+    }
+
+    /**
+     * 503 服务不可用（过载保护时快速失败）
+     *
+     * @param retryAfterSeconds 建议客户端重试的间隔秒数（Retry-After 头）
+     */
+    public static HttpResponse serviceUnavailable(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0 || retryAfterSeconds > MAX_CACHED_RETRY_AFTER) {
+            return new CannedResponse(503, "Service Unavailable", TEXT_PLAIN, "503 Service Unavailable",
+                    "Retry-After", String.valueOf(retryAfterSeconds)).response();
+        }
+        CannedResponse r = SERVICE_UNAVAILABLE.get(retryAfterSeconds);
+        if (r == null) {
+            SERVICE_UNAVAILABLE.compareAndSet(retryAfterSeconds, null, new CannedResponse(503, "Service Unavailable", TEXT_PLAIN,
+                    "503 Service Unavailable", "Retry-After", String.valueOf(retryAfterSeconds)));
+            r = SERVICE_UNAVAILABLE.get(retryAfterSeconds);
+        }
+        return r.response();
+    }
+
     // ==================== 新增：重定向状态码 ====================
 
     /**
@@ -138,9 +385,8 @@ public class HttpResponse {
      * 304 未修改（用于缓存）
      */
     public static HttpResponse notModified() {
-        HttpResponse r = new HttpResponse(304, "Not Modified");
         // 304 响应不应包含body
-        return r;
+        return NOT_MODIFIED.response();
     }
 
     // ==================== 新增：非文本MIME类型支持 ====================
@@ -155,6 +401,20 @@ public class HttpResponse {
         return r;
     }
 
+    /**
+     * 返回边生成边发送的 JSON 响应
+     */
+    public static HttpResponse okJson(JsonWriter.Body body) {
+        HttpResponse r = new HttpResponse(200, "OK");
+        r.setHeader("Content-Type", "application/json; charset=utf-8");
+        r.setBodyWriter(out -> {
+            JsonWriter json = new JsonWriter(out);
+            body.writeTo(json);
+            json.finish();
+        });
+        return r;
+    }
+
     /**
      * 返回图片响应（非文本类型）
      */
@@ -209,4 +469,12 @@ public class HttpResponse {
     public void setLastModified(String lastModified) {
         setHeader("Last-Modified", lastModified);
     }
+
+    /**
+     * 写出时生成响应体；out 由服务器提供，不需要关闭
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
 }
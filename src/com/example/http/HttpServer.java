@@ -1,32 +1,151 @@
 package com.example.http;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class HttpServer {
     private final int port;
     private volatile boolean running = false;
+    private final AtomicBoolean stopped = new AtomicBoolean();
     private ServerSocket serverSocket;
-    private final ExecutorService pool;
+    private final ThreadPoolExecutor pool;
+    // HTTP/2 流的路由和写出线程池（有界，见 Http2Connection）
+    private final ThreadPoolExecutor streamExecutor;
+    private final ThreadPoolExecutor writeExecutor;
+    // 有界等待队列：排满后新连接直接 503，而不是无限堆积
+    private final BlockingQueue<Runnable> queue;
+    private final long maxQueueWaitNanos;
+    // 工作线程正在服务的连接，shutdown() 关闭它们的读方向让阻塞在读请求上的线程退出
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    // 所有连接共享的路由（默认 CompleteRouter）
+    private AsyncRouter router = AsyncRouter.adapt(new CompleteRouter());
+    // 非 null 时该监听为 HTTPS
+    private TlsConfig tls;
+    private RequestLimits requestLimits = RequestLimits.DEFAULT;
+    // 非 null 时录制收到的请求（见 TrafficCapture）
+    private volatile TrafficCapture trafficCapture;
+    // 非 null 时 start() 先预热再打开端口（见 Warmup）
+    private Warmup warmup;
+    private volatile Warmup.Result warmupResult;
+
+    // 过载保护统计
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final long DEFAULT_MAX_QUEUE_WAIT_MS = 2_000;
+    private static final int RETRY_AFTER_SECONDS = 1;
+    // 过载时回给被丢弃连接的预序列化响应
+    private static final CannedResponse SHED_RESPONSE = new CannedResponse(503, "Service Unavailable",
+            "text/plain; charset=utf-8", "503 Service Unavailable",
+            "Retry-After", String.valueOf(RETRY_AFTER_SECONDS), "Connection", "close");
 
     // 可配置线程池大小
     public HttpServer(int port, int nThreads) {
+        this(port, nThreads, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_QUEUE_WAIT_MS);
+    }
+
+    /**
+     * @param queueCapacity  等待队列上限，超过后立即返回 503
+     * @param maxQueueWaitMs 连接在队列中允许等待的最长时间，超时后不再处理而是返回 503
+     */
+    public HttpServer(int port, int nThreads, int queueCapacity, long maxQueueWaitMs) {
         this.port = port;
-        this.pool = Executors.newFixedThreadPool(nThreads);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs);
+        this.pool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                queue, this::reject);
+        // HTTP/2 流的线程数与连接线程数相同（每条 HTTP/2 连接本身占用一个连接线程读帧）
+        this.streamExecutor = Http2Connection.newStreamExecutor(nThreads);
+        // 异步完成的响应由本服务器自己的写线程写出，其他服务器上不读数据的客户端占不到这些线程
+        this.writeExecutor = ClientHandler.newWriteExecutor(nThreads);
+    }
+
+    /**
+     * 设置路由，需在 start() 之前调用
+     */
+    public void setRouter(Router router) {
+        this.router = AsyncRouter.adapt(router);
+    }
+
+    /**
+     * 设置异步路由，需在 start() 之前调用
+     */
+    public void setAsyncRouter(AsyncRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * 启用 HTTPS（在本监听上终结 TLS），需在 start() 之前调用
+     */
+    public void setTls(TlsConfig tls) {
+        this.tls = tls;
+    }
+
+    /**
+     * 设置请求头大小与请求读取时间的上限，需在 start() 之前调用
+     */
+    public void setRequestLimits(RequestLimits requestLimits) {
+        this.requestLimits = requestLimits;
+    }
+
+    /**
+     * 把之后建立的连接上收到的请求写入录制文件，传入 null 停止录制；录制对象由调用方关闭
+     */
+    public void setTrafficCapture(TrafficCapture trafficCapture) {
+        this.trafficCapture = trafficCapture;
+    }
+
+    /**
+     * 启动时先执行预热，热点路径稳定（或达到请求数上限）后才打开端口，需在 start() 之前调用
+     */
+    public void setWarmup(Warmup warmup) {
+        this.warmup = warmup;
+    }
+
+    /** 启动时的预热结果，未配置预热或预热尚未结束时为 null */
+    public Warmup.Result getWarmupResult() {
+        return warmupResult;
+    }
+
+    /** HTTPS 配置与握手统计，未启用时为 null */
+    public TlsConfig getTls() {
+        return tls;
+    }
+
+    /**
+     * 实际监听的端口（构造时传入 0 则由系统分配），未启动时返回 -1
+     */
+    public int getLocalPort() {
+        ServerSocket s = serverSocket;
+        return s != null ? s.getLocalPort() : -1;
     }
 
     public void start() throws IOException {
-        serverSocket = new ServerSocket(port);
+        if (warmup != null) {
+            warmupResult = warmup.run(requestLimits);
+            System.out.println(warmupResult);
+        }
+        // 通过 ServerSocketChannel 打开监听，接受的连接带有 SocketChannel，可直接使用缓冲池中的 direct 缓冲读写
+        serverSocket = ServerSocketChannel.open().socket();
+        serverSocket.bind(new InetSocketAddress(port));
         running = true;
-        System.out.println("HTTP Server started on port " + port);
+        System.out.println((tls != null ? "HTTPS" : "HTTP") + " Server started on port " + serverSocket.getLocalPort());
 
         while (running) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                // 提交到线程池处理
-                pool.submit(new ClientHandler(clientSocket, new CompleteRouter()));
+                // 提交到线程池处理（队列满时由 reject 直接回 503）
+                pool.execute(new QueuedConnection(clientSocket));
             } catch (IOException e) {
                 if (!running) break;
                 e.printStackTrace();
@@ -35,25 +154,209 @@ public class HttpServer {
         shutdown();
     }
 
+    /**
+     * 停止服务：不再接受连接，正在处理的请求写完响应后连接关闭，空闲的长连接立即关闭；
+     * 返回时工作线程和 HTTP/2 流线程都已结束（最多等待 5 秒，之后强制关闭连接）
+     */
     public void shutdown() {
         running = false;
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
         if (serverSocket != null && !serverSocket.isClosed()) {
             try { serverSocket.close(); } catch (IOException ignored) {}
         }
+        // 通知本监听上的 WebSocket 客户端服务器正在停止（1001），关闭帧由发送线程写出
+        if (serverSocket != null) {
+            WebSocketHub.shared().closeAll(serverSocket.getLocalPort(), WebSocketSession.CLOSE_GOING_AWAY,
+                    "server shutting down");
+        }
         pool.shutdown();
+        // 阻塞在读下一个请求上的线程读到 EOF 后退出，已读到的请求照常写回响应
+        for (Socket socket : connections) {
+            try { socket.shutdownInput(); } catch (IOException ignored) {}
+        }
         try {
             if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                // 写不出去的响应（客户端不读）不再等待
+                for (Socket socket : connections) {
+                    try { socket.close(); } catch (IOException ignored) {}
+                }
                 pool.shutdownNow();
             }
         } catch (InterruptedException e) {
             pool.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        // 连接都已结束，剩余的流任务和写任务没有连接可以写回
+        streamExecutor.shutdownNow();
+        writeExecutor.shutdownNow();
         System.out.println("HTTP Server stopped.");
     }
 
+    // ==================== 队列监控 ====================
+
+    /** 当前排队等待处理的连接数 */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /** 正在被工作线程处理的连接数 */
+    public int getActiveCount() {
+        return pool.getActiveCount();
+    }
+
+    /** 因队列已满被拒绝的连接数 */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /** 因排队超时被丢弃的连接数 */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * 队列已满（或线程池已关闭）时的拒绝策略：在 accept 线程上直接回 503
+     */
+    private void reject(Runnable task, ThreadPoolExecutor executor) {
+        if (!(task instanceof QueuedConnection)) {
+            throw new RejectedExecutionException("Worker queue full");
+        }
+        rejectedCount.incrementAndGet();
+        ((QueuedConnection) task).shed();
+    }
+
+    /**
+     * 排队中的连接，记录入队时间，出队时已超过等待上限则直接回 503
+     */
+    private class QueuedConnection implements Runnable {
+        private final Socket socket;
+        private final long enqueuedAt = System.nanoTime();
+        // JFR 录制中时记录排队等待时间，否则为 null
+        private final RequestTrace.ConnectionAccepted accepted = RequestTrace.connectionAccepted();
+
+        QueuedConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            if (System.nanoTime() - enqueuedAt > maxQueueWaitNanos) {
+                expiredCount.incrementAndGet();
+                shed();
+                return;
+            }
+            // 先登记再检查 running：shutdown() 要么看到这个连接，要么这里看到 running 已为 false
+            connections.add(socket);
+            try {
+                if (!running) {
+                    shed();
+                    return;
+                }
+                RequestTrace.connectionStarted(accepted, remoteAddress(), tls != null, false);
+                new ClientHandler(socket, router, tls, requestLimits, trafficCapture, streamExecutor, writeExecutor).run();
+            } finally {
+                connections.remove(socket);
+            }
+        }
+
+        void shed() {
+            RequestTrace.connectionStarted(accepted, remoteAddress(), tls != null, true);
+            try {
+                OutputStream out = socket.getOutputStream();
+                out.write(SHED_RESPONSE.wireBytes());
+                out.flush();
+                socket.shutdownOutput();
+            } catch (IOException ignored) {
+            } finally {
+                try { socket.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        private String remoteAddress() {
+            return socket.getInetAddress() != null ? socket.getInetAddress().getHostAddress() : null;
+        }
+    }
+
     public static void main(String[] args) throws IOException {
-        HttpServer server = new HttpServer(8080, 10);
+        // 线程数只决定可同时保持的连接数，真正并发处理的请求数由自适应限制器根据延迟自动调整
+        int nThreads = Runtime.getRuntime().availableProcessors() * 16;
+        // 指定 -Dcluster.nodes 时按用户名分片：各节点列出所有节点的分片服务地址，-Dcluster.self 为本节点的地址
+        // 如 -Dcluster.nodes=127.0.0.1:9101,127.0.0.1:9102,127.0.0.1:9103 -Dcluster.self=127.0.0.1:9101
+        // 节点之间用 -Dcluster.secret 给出的共享密钥互相认证（必填，所有节点相同）
+        UserService users = new UserService();
+        String clusterNodes = System.getProperty("cluster.nodes");
+        if (clusterNodes != null) {
+            ShardedUserService sharded = ShardedUserService.fromSpec(clusterNodes, System.getProperty("cluster.self"),
+                    System.getProperty("cluster.secret"));
+            sharded.start();
+            users = sharded;
+        }
+        CompleteRouter complete = new CompleteRouter(users);
+        WebSocketHub.shared().addEndpoint(CompleteRouter.USER_COUNT_SOCKET, complete.userCountSocket());
+        Router app = complete;
+        // 指定 -Dproxy.routes 时作为反向代理：匹配前缀的请求转发给上游，其余仍由本服务处理
+        // 格式 /api=127.0.0.1:9001,127.0.0.1:9002;/static=127.0.0.1:9003，-Dproxy.balancing=round-robin 改用轮询
+        String proxyRoutes = System.getProperty("proxy.routes");
+        if (proxyRoutes != null) {
+            ProxyRouter.Balancing balancing = "round-robin".equals(System.getProperty("proxy.balancing"))
+                    ? ProxyRouter.Balancing.ROUND_ROBIN : ProxyRouter.Balancing.LEAST_OUTSTANDING;
+            app = ProxyRouter.fromSpec(proxyRoutes, balancing, app);
+        }
+        Router router = new LimitedRouter(app, new AdaptiveConcurrencyLimiter());
+        // 缓冲池是整个进程共享的（HTTP 和 HTTPS 监听都在用），进程退出时才报告未归还的缓冲（调试模式）
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> BufferPool.shared().reportLeaks(), "buffer-leak-report"));
+
+        // 指定 -Dwarmup.requests 或 -Dwarmup.capture 时先预热再打开端口：前者发送合成请求，后者循环发送录制的请求
+        // JIT 状态是整个进程共享的，预热一次后再启动 HTTP 和 HTTPS 两个监听
+        int warmupRequests = Integer.getInteger("warmup.requests", 20_000);
+        String warmupCapture = System.getProperty("warmup.capture");
+        Warmup warmup = null;
+        if (warmupCapture != null) {
+            warmup = Warmup.fromCapture(Paths.get(warmupCapture), warmupRequests);
+        } else if (System.getProperty("warmup.requests") != null) {
+            warmup = Warmup.synthetic(warmupRequests);
+        }
+        if (warmup != null) {
+            System.out.println(warmup.run(RequestLimits.DEFAULT));
+        }
+
+        // 指定 -Dhttps.keystore 时额外开启 HTTPS 监听（默认 8443，密码由 -Dhttps.keystore.password 给出）
+        String keyStore = System.getProperty("https.keystore");
+        if (keyStore != null) {
+            HttpServer https = new HttpServer(Integer.getInteger("https.port", 8443), nThreads);
+            https.setRouter(router);
+            https.setTls(new TlsConfig(keyStore, System.getProperty("https.keystore.password", "").toCharArray()));
+            Thread httpsThread = new Thread(() -> {
+                try {
+                    https.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "https-acceptor");
+            httpsThread.start();
+        }
+
+        HttpServer server = new HttpServer(Integer.getInteger("http.port", 8080), nThreads);
+        server.setRouter(router);
+        // 指定 -Dcapture.file 时录制 HTTP 端口收到的请求，进程退出时写完并关闭文件（回放见 TrafficReplayer）
+        String captureFile = System.getProperty("capture.file");
+        if (captureFile != null) {
+            TrafficCapture capture = new TrafficCapture(Paths.get(captureFile));
+            server.setTrafficCapture(capture);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    capture.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "traffic-capture-close"));
+        }
         server.start();
     }
 }
@@ -0,0 +1,236 @@
+package com.example.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 流式 JSON 编码器
+ * 字符直接按 UTF-8 编码进一个小的暂存数组，满了再写入下层流（响应的写缓冲），
+ * 不构造中间 String，也不需要整个文档在内存中。逗号按嵌套层次自动插入。
+ *
+ * <pre>
+ * json.beginObject().name("users").beginArray();
+ * for (String u : names) json.value(u);
+ * json.endArray().name("next").nullValue().endObject();
+ * </pre>
+ *
+ * 只检查嵌套层数，不校验调用顺序（如对象中缺少 name），调用方负责写出合法的结构。
+ */
+public final class JsonWriter {
+    private static final int MAX_DEPTH = 64;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buf = new byte[1024];
+    private int count = 0;
+    // 每一层是否已写过元素（决定下一个元素前是否加逗号）
+    private final boolean[] hasElement = new boolean[MAX_DEPTH];
+    private int depth = 0;
+    // 刚写完 name，下一个值前不加逗号
+    private boolean afterName = false;
+
+    /**
+     * 生成 JSON 文档的回调（见 HttpResponse.okJson(Body)）
+     */
+    @FunctionalInterface
+    public interface Body {
+        void writeTo(JsonWriter json) throws IOException;
+    }
+
+    public JsonWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * 对象成员的名称，之后必须紧跟一个值
+     */
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        string(name);
+        put(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        string(value);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return this;
+        }
+        if (value < 0) {
+            put('-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            put('0' + (int) ((value / divisor) % 10));
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        ascii(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter nullValue() throws IOException {
+        separate();
+        ascii("null");
+        return this;
+    }
+
+    /**
+     * 把暂存数组中的内容写入下层流并 flush（让已生成的部分尽快发给客户端）
+     */
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * 文档已写完：把暂存内容交给下层流（不 flush，由服务器在响应结束时一起写出）
+     */
+    void finish() throws IOException {
+        if (depth != 0) {
+            throw new IllegalStateException("Unclosed JSON object or array");
+        }
+        drain();
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting deeper than " + MAX_DEPTH);
+        }
+        separate();
+        put(bracket);
+        hasElement[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Unbalanced " + bracket);
+        }
+        depth--;
+        put(bracket);
+        return this;
+    }
+
+    /**
+     * 值或名称之前：同一层已有元素时先写逗号
+     */
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElement[depth - 1]) {
+                put(',');
+            }
+            hasElement[depth - 1] = true;
+        }
+    }
+
+    /**
+     * 带引号的字符串：转义引号、反斜杠和控制字符，其余字符按 UTF-8 编码
+     */
+    private void string(String s) throws IOException {
+        put('"');
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                put(c);
+            } else if (c == '"' || c == '\\') {
+                put('\\');
+                put(c);
+            } else if (c < 0x20) {
+                escapeControl(c);
+            } else if (c < 0x800) {
+                put(0xC0 | (c >> 6));
+                put(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put(0xF0 | (cp >> 18));
+                put(0x80 | ((cp >> 12) & 0x3F));
+                put(0x80 | ((cp >> 6) & 0x3F));
+                put(0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符无法编码为 UTF-8，与 String.getBytes 一样替换为 '?'
+                put('?');
+            } else {
+                put(0xE0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3F));
+                put(0x80 | (c & 0x3F));
+            }
+        }
+        put('"');
+    }
+
+    private void escapeControl(char c) throws IOException {
+        put('\\');
+        switch (c) {
+            case '\n': put('n'); break;
+            case '\r': put('r'); break;
+            case '\t': put('t'); break;
+            case '\b': put('b'); break;
+            case '\f': put('f'); break;
+            default:
+                put('u');
+                put('0');
+                put('0');
+                put(HEX[c >> 4]);
+                put(HEX[c & 0xF]);
+        }
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put(s.charAt(i));
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (count == buf.length) {
+            drain();
+        }
+        buf[count++] = (byte) b;
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.http;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 带并发限制的路由包装
+ * 超过自适应上限的请求直接返回 503，其余请求交给被包装的路由并记录耗时。
+ * 被包装的路由是异步路由时，名额在 future 完成时才释放。
+ */
+public class LimitedRouter implements Router, AsyncRouter {
+    private final Router delegate;
+    private final AsyncRouter asyncDelegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    public LimitedRouter(Router delegate, AdaptiveConcurrencyLimiter limiter) {
+        this.delegate = delegate;
+        this.asyncDelegate = AsyncRouter.adapt(delegate);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public HttpResponse route(HttpRequest request) throws Exception {
+        if (!limiter.tryAcquire()) {
+            return HttpResponse.serviceUnavailable(RETRY_AFTER_SECONDS);
+        }
+        long start = System.nanoTime();
+        try {
+            return delegate.route(request);
+        } finally {
+            limiter.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> routeAsync(HttpRequest request) {
+        if (!limiter.tryAcquire()) {
+            return CompletableFuture.completedFuture(HttpResponse.serviceUnavailable(RETRY_AFTER_SECONDS));
+        }
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse> future;
+        try {
+            future = asyncDelegate.routeAsync(request);
+        } catch (RuntimeException e) {
+            limiter.release(System.nanoTime() - start);
+            throw e;
+        }
+        return future.whenComplete((response, error) -> limiter.release(System.nanoTime() - start));
+    }
+
+    @Override
+    public boolean streamsRequestBody(HttpRequest request) {
+        return asyncDelegate.streamsRequestBody(request);
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+}
@@ -0,0 +1,474 @@
+package com.example.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * multipart/form-data 流式解析器
+ * 从请求体流中逐个解析 part，next() 每次读完一个 part 后返回，请求体不会整体读入内存：
+ * 不超过内存阈值的 part 保存在内存中，超过阈值时改为通过 FileChannel 写入临时文件。
+ * 普通表单字段（没有 filename）始终在内存中，超过内存阈值即拒绝；
+ * setLimits 可再限制单个 part 和全部 part 的字节数，超出时 next() 抛出 TooLarge。
+ *
+ * 用法：
+ * try (MultipartParser parser = MultipartParser.of(request, ...)) {
+ *     MultipartParser.Part part;
+ *     while ((part = parser.next()) != null) { ... }
+ * }
+ * close() 删除没有被 moveTo 取走的临时文件。
+ */
+public final class MultipartParser implements Closeable {
+    public static final int DEFAULT_MEMORY_THRESHOLD = 64 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // 单个 part 头部的长度上限
+    private static final int MAX_PART_HEADER_SIZE = 8192;
+    private static final int MAX_PARTS = 1000;
+
+    private final InputStream in;
+    // 分隔符为 CRLF--boundary；缓冲区开头预置 CRLF，使第一个分隔符与后续的形式一致
+    private final byte[] delimiter;
+    private final int memoryThreshold;
+    private final Path tempDir;
+    private final byte[] buf;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean started = false;
+    private boolean finished = false;
+    private int partCount = 0;
+    private final List<Part> parts = new ArrayList<>();
+    private long maxPartSize = Long.MAX_VALUE;
+    private long maxTotalSize = Long.MAX_VALUE;
+    // 已读入的全部 part 内容字节数
+    private long totalSize = 0;
+
+    /**
+     * @param in              请求体
+     * @param boundary        Content-Type 中的 boundary 参数
+     * @param memoryThreshold part 保存在内存中的最大字节数，超过后写入临时文件
+     * @param tempDir         临时文件目录，null 表示系统临时目录
+     */
+    public MultipartParser(InputStream in, String boundary, int memoryThreshold, Path tempDir) {
+        if (boundary == null || boundary.isEmpty() || boundary.length() > 70) {
+            throw new IllegalArgumentException("invalid multipart boundary");
+        }
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.memoryThreshold = memoryThreshold;
+        this.tempDir = tempDir;
+        this.buf = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+        buf[limit++] = '\r';
+        buf[limit++] = '\n';
+    }
+
+    /**
+     * 设置大小上限（默认不限制）
+     *
+     * @param maxPartSize  单个 part 内容的最大字节数
+     * @param maxTotalSize 全部 part 内容合计的最大字节数
+     */
+    public void setLimits(long maxPartSize, long maxTotalSize) {
+        if (maxPartSize <= 0 || maxTotalSize <= 0) {
+            throw new IllegalArgumentException("multipart limits must be positive");
+        }
+        this.maxPartSize = maxPartSize;
+        this.maxTotalSize = maxTotalSize;
+    }
+
+    /**
+     * 为 multipart/form-data 请求创建解析器（流式请求体直接从连接读取）
+     *
+     * @throws IOException Content-Type 不是 multipart/form-data 或缺少 boundary
+     */
+    public static MultipartParser of(HttpRequest request, int memoryThreshold, Path tempDir) throws IOException {
+        String boundary = boundaryOf(request.getHeader("content-type"));
+        if (boundary == null) {
+            throw new IOException("Not a multipart/form-data request");
+        }
+        return new MultipartParser(request.getBodyStream(), boundary, memoryThreshold, tempDir);
+    }
+
+    /**
+     * 从 Content-Type 中取出 boundary 参数；不是 multipart/form-data 时返回 null
+     */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/form-data")) {
+            return null;
+        }
+        String boundary = parameterOf(contentType, "boundary");
+        return boundary == null || boundary.isEmpty() ? null : boundary;
+    }
+
+    /**
+     * 读取下一个 part 的头部和内容
+     *
+     * @return 下一个 part；已读到结束分隔符时返回 null
+     * @throws IOException 请求体格式错误或提前结束
+     */
+    public Part next() throws IOException {
+        if (finished) return null;
+        if (!started) {
+            // 第一个分隔符之前的 preamble 直接丢弃
+            readUntilDelimiter(null);
+            started = true;
+        }
+        if (readDelimiterSuffix()) {
+            finished = true;
+            return null;
+        }
+        if (++partCount > MAX_PARTS) {
+            throw new IOException("Too many multipart parts");
+        }
+        Part part = new Part(readPartHeaders());
+        parts.add(part);
+        try {
+            readUntilDelimiter(part);
+        } finally {
+            part.closeChannel();
+        }
+        return part;
+    }
+
+    /**
+     * 删除所有未被 moveTo 取走的临时文件
+     */
+    @Override
+    public void close() {
+        for (Part part : parts) {
+            part.delete();
+        }
+        parts.clear();
+    }
+
+    // ==================== 边界扫描 ====================
+
+    /**
+     * 把下一个分隔符之前的字节交给 part（null 表示丢弃），读过分隔符后返回。
+     * 缓冲区末尾不足一个分隔符长度的字节可能是分隔符的前缀，留到下次填充后再判断。
+     */
+    private void readUntilDelimiter(Part sink) throws IOException {
+        while (true) {
+            int match = indexOfDelimiter();
+            if (match >= 0) {
+                if (sink != null) sink.write(buf, pos, match - pos);
+                pos = match + delimiter.length;
+                return;
+            }
+            int safe = limit - delimiter.length + 1;
+            if (safe > pos) {
+                if (sink != null) sink.write(buf, pos, safe - pos);
+                pos = safe;
+            }
+            if (!fill()) {
+                throw new EOFException("Unexpected end of multipart body");
+            }
+        }
+    }
+
+    private int indexOfDelimiter() {
+        byte first = delimiter[0];
+        int last = limit - delimiter.length;
+        outer:
+        for (int i = pos; i <= last; i++) {
+            if (buf[i] != first) continue;
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 分隔符之后：-- 表示结束分隔符，否则跳过行尾空白和 CRLF，之后是 part 头部
+     */
+    private boolean readDelimiterSuffix() throws IOException {
+        int b = readByte();
+        if (b == '-') {
+            if (readByte() != '-') throw new IOException("Malformed multipart delimiter");
+            // 结束分隔符之后的 epilogue 不读取，由 ClientHandler 丢弃
+            return true;
+        }
+        while (b == ' ' || b == '\t') {
+            b = readByte();
+        }
+        if (b == '\r') b = readByte();
+        if (b != '\n') throw new IOException("Malformed multipart delimiter");
+        return false;
+    }
+
+    private Map<String, String> readPartHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        StringBuilder line = new StringBuilder();
+        int total = 0;
+        while (true) {
+            int b = readByte();
+            if (++total > MAX_PART_HEADER_SIZE) {
+                throw new IOException("Multipart part headers too large");
+            }
+            if (b != '\n') {
+                line.append((char) b);
+                continue;
+            }
+            int len = line.length();
+            if (len > 0 && line.charAt(len - 1) == '\r') line.setLength(--len);
+            if (len == 0) return headers;
+            int colon = line.indexOf(":");
+            if (colon > 0) {
+                // 头部按 ISO-8859-1 读入，再按 UTF-8 还原（浏览器以 UTF-8 发送非 ASCII 文件名）
+                String value = new String(line.substring(colon + 1).trim().getBytes(StandardCharsets.ISO_8859_1),
+                        StandardCharsets.UTF_8);
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), value);
+            }
+            line.setLength(0);
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new EOFException("Unexpected end of multipart body");
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    /**
+     * 把未处理的字节移到缓冲区开头并继续读取
+     *
+     * @return false 表示请求体已结束
+     */
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) return false;
+        limit += n;
+        return true;
+    }
+
+    /**
+     * 取出 name="value" 形式的头部参数（支持带引号和不带引号的值）
+     */
+    private static String parameterOf(String header, String name) {
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int eq = header.indexOf('=', i);
+            if (eq < 0) return null;
+            String key = header.substring(i + 1, eq).trim();
+            int start = eq + 1;
+            String value;
+            int next;
+            if (start < header.length() && header.charAt(start) == '"') {
+                StringBuilder sb = new StringBuilder();
+                int j = start + 1;
+                while (j < header.length() && header.charAt(j) != '"') {
+                    char c = header.charAt(j);
+                    if (c == '\\' && j + 1 < header.length()) c = header.charAt(++j);
+                    sb.append(c);
+                    j++;
+                }
+                value = sb.toString();
+                next = header.indexOf(';', j);
+            } else {
+                next = header.indexOf(';', start);
+                value = (next < 0 ? header.substring(start) : header.substring(start, next)).trim();
+            }
+            if (key.equalsIgnoreCase(name)) return value;
+            i = next;
+        }
+        return null;
+    }
+
+    /**
+     * 一个已完整读取的 part
+     */
+    public final class Part {
+        private final Map<String, String> headers;
+        private final String name;
+        private final String filename;
+        private byte[] memory = new byte[256];
+        private long size = 0;
+        private Path file;
+        private FileChannel channel;
+
+        private Part(Map<String, String> headers) {
+            this.headers = headers;
+            String disposition = headers.get("content-disposition");
+            this.name = disposition == null ? null : parameterOf(disposition, "name");
+            this.filename = disposition == null ? null : parameterOf(disposition, "filename");
+        }
+
+        private void write(byte[] src, int off, int len) throws IOException {
+            if (len == 0) return;
+            if (filename == null && size + len > memoryThreshold) {
+                throw new TooLarge(false, "Multipart field exceeds " + memoryThreshold + " bytes");
+            }
+            if (size + len > maxPartSize) {
+                throw new TooLarge(false, "Multipart part exceeds " + maxPartSize + " bytes");
+            }
+            if (totalSize + len > maxTotalSize) {
+                throw new TooLarge(true, "Multipart body exceeds " + maxTotalSize + " bytes");
+            }
+            totalSize += len;
+            if (channel == null && size + len > memoryThreshold) {
+                spill();
+            }
+            if (channel != null) {
+                ByteBuffer data = ByteBuffer.wrap(src, off, len);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            } else {
+                if (size + len > memory.length) {
+                    byte[] grown = new byte[(int) Math.min(memoryThreshold, Math.max(memory.length * 2L, size + len))];
+                    System.arraycopy(memory, 0, grown, 0, (int) size);
+                    memory = grown;
+                }
+                System.arraycopy(src, off, memory, (int) size, len);
+            }
+            size += len;
+        }
+
+        /**
+         * 内容超过内存阈值：创建临时文件，写入已缓存的部分，之后的内容直接写文件
+         */
+        private void spill() throws IOException {
+            file = tempDir == null ? Files.createTempFile("multipart-", ".part")
+                    : Files.createTempFile(tempDir, "multipart-", ".part");
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            ByteBuffer data = ByteBuffer.wrap(memory, 0, (int) size);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            memory = null;
+        }
+
+        private void closeChannel() throws IOException {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+
+        private void delete() {
+            if (file != null) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // 临时文件删除失败不影响请求
+                }
+                file = null;
+            }
+        }
+
+        /** 表单字段名（Content-Disposition 的 name 参数） */
+        public String getName() {
+            return name;
+        }
+
+        /** 上传的文件名；普通表单字段为 null */
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getContentType() {
+            return headers.getOrDefault("content-type", "text/plain");
+        }
+
+        /** part 头部，名称为小写 */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /** true 表示内容在内存中；false 表示已写入临时文件 */
+        public boolean isInMemory() {
+            return file == null && memory != null;
+        }
+
+        /** 临时文件路径；内容在内存中或已被 moveTo 取走时为 null */
+        public Path getFile() {
+            return file;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            if (memory != null) {
+                return new ByteArrayInputStream(memory, 0, (int) size);
+            }
+            if (file == null) {
+                throw new IOException("Part content has been moved");
+            }
+            return Files.newInputStream(file);
+        }
+
+        /**
+         * 以 UTF-8 读取内容（用于普通表单字段，字段不超过内存阈值，总在内存中；文件 part 会整体读入）
+         */
+        public String getString() throws IOException {
+            if (memory != null) {
+                return new String(memory, 0, (int) size, StandardCharsets.UTF_8);
+            }
+            try (InputStream stream = getInputStream()) {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * 把内容保存到目标路径：临时文件直接移动（同一文件系统上不复制数据），内存中的内容写入文件
+         */
+        public void moveTo(Path target) throws IOException {
+            if (file != null) {
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                file = null;
+            } else if (memory != null) {
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer data = ByteBuffer.wrap(memory, 0, (int) size);
+                    while (data.hasRemaining()) {
+                        out.write(data);
+                    }
+                }
+            } else {
+                throw new IOException("Part content has been moved");
+            }
+        }
+    }
+
+    /**
+     * part 超出大小上限：请求体剩余部分不再读取，调用方应回复 413 并关闭连接
+     */
+    public static final class TooLarge extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean total;
+
+        TooLarge(boolean total, String message) {
+            super(message);
+            this.total = total;
+        }
+
+        /** true 表示超出的是全部 part 合计的上限，false 表示单个 part 的上限 */
+        public boolean isTotal() {
+            return total;
+        }
+    }
+}
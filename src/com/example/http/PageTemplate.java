@@ -0,0 +1,323 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的页面模板
+ * 模板只编译一次：占位符之间的静态文本预先按 UTF-8 编码进只读的 direct 缓冲，所有请求共享；
+ * 每次渲染只编码占位符的值。通道模式下静态片段不复制进写缓冲，与响应头、动态值一起用
+ * 聚集写（gathering write）一次交给 SocketChannel，渲染开销只与动态内容的长度有关。
+ *
+ * 占位符语法 {{name:type}}，type 省略时为 text：
+ * <ul>
+ *   <li>int  - 整数，set(name, long)</li>
+ *   <li>text - 文本，按 HTML 转义 &amp; &lt; &gt; &quot; '，set(name, String)</li>
+ *   <li>raw  - 原样输出的 HTML 片段，set(name, String)</li>
+ * </ul>
+ *
+ * <pre>
+ * static final PageTemplate HOME = PageTemplate.compile("&lt;p&gt;用户总数: {{count:int}}&lt;/p&gt;");
+ * response.setBody(HOME.newPage().set("count", n));
+ * </pre>
+ */
+public final class PageTemplate {
+    private static final int INT = 0;
+    private static final int TEXT = 1;
+    private static final int RAW = 2;
+
+    // statics[i] 在第 i 个占位符之前，最后一段在最后一个占位符之后，因此比 slotTypes 多一个
+    private final ByteBuffer[] statics;
+    private final int[] slotTypes;
+    private final String[] slotNames;
+    // 同名占位符可以出现多次，共享同一个值
+    private final int[] slotValues;
+    private final Map<String, Integer> valueIndex;
+    private final int[] valueTypes;
+    private final int staticLength;
+
+    private PageTemplate(List<byte[]> staticParts, List<String> names, List<Integer> types) {
+        int slots = names.size();
+        this.statics = new ByteBuffer[slots + 1];
+        int total = 0;
+        for (int i = 0; i <= slots; i++) {
+            byte[] part = staticParts.get(i);
+            ByteBuffer direct = ByteBuffer.allocateDirect(part.length);
+            direct.put(part).flip();
+            statics[i] = direct.asReadOnlyBuffer();
+            total += part.length;
+        }
+        this.staticLength = total;
+        this.slotTypes = new int[slots];
+        this.slotNames = names.toArray(new String[0]);
+        this.slotValues = new int[slots];
+        this.valueIndex = new HashMap<>();
+        List<Integer> valueTypeList = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            slotTypes[i] = types.get(i);
+            Integer index = valueIndex.get(slotNames[i]);
+            if (index == null) {
+                index = valueTypeList.size();
+                valueIndex.put(slotNames[i], index);
+                valueTypeList.add(slotTypes[i]);
+            } else if (valueTypeList.get(index) == INT ^ slotTypes[i] == INT) {
+                throw new IllegalArgumentException("Placeholder " + slotNames[i] + " used with conflicting types");
+            }
+            slotValues[i] = index;
+        }
+        this.valueTypes = valueTypeList.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * 编译模板
+     *
+     * @throws IllegalArgumentException 占位符未闭合、名称为空或类型未知
+     */
+    public static PageTemplate compile(String source) {
+        List<byte[]> staticParts = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Integer> types = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int open = source.indexOf("{{", pos);
+            if (open < 0) {
+                staticParts.add(source.substring(pos).getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            int close = source.indexOf("}}", open + 2);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at " + open);
+            }
+            staticParts.add(source.substring(pos, open).getBytes(StandardCharsets.UTF_8));
+            String placeholder = source.substring(open + 2, close).trim();
+            int colon = placeholder.indexOf(':');
+            String name = colon < 0 ? placeholder : placeholder.substring(0, colon).trim();
+            String type = colon < 0 ? "text" : placeholder.substring(colon + 1).trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder name at " + open);
+            }
+            names.add(name);
+            switch (type) {
+                case "int": types.add(INT); break;
+                case "text": types.add(TEXT); break;
+                case "raw": types.add(RAW); break;
+                default: throw new IllegalArgumentException("Unknown placeholder type: " + type);
+            }
+            pos = close + 2;
+        }
+        return new PageTemplate(staticParts, names, types);
+    }
+
+    /**
+     * 新的一次渲染，设置全部占位符后交给 HttpResponse.setBody(Page)
+     */
+    public Page newPage() {
+        return new Page();
+    }
+
+    /**
+     * 模板的一次渲染：只保存占位符的值，静态片段仍然是模板共享的缓冲
+     */
+    public final class Page {
+        private final long[] numbers = new long[valueTypes.length];
+        private final String[] strings = new String[valueTypes.length];
+        private final boolean[] assigned = new boolean[valueTypes.length];
+
+        private Page() {
+        }
+
+        public Page set(String name, long value) {
+            int index = index(name, true);
+            numbers[index] = value;
+            assigned[index] = true;
+            return this;
+        }
+
+        public Page set(String name, String value) {
+            int index = index(name, false);
+            if (value == null) {
+                throw new IllegalArgumentException("Null value for placeholder " + name);
+            }
+            strings[index] = value;
+            assigned[index] = true;
+            return this;
+        }
+
+        private int index(String name, boolean number) {
+            Integer index = valueIndex.get(name);
+            if (index == null) {
+                throw new IllegalArgumentException("No placeholder named " + name);
+            }
+            if ((valueTypes[index] == INT) != number) {
+                throw new IllegalArgumentException("Placeholder " + name + " is not of type " + (number ? "int" : "text/raw"));
+            }
+            return index;
+        }
+
+        /**
+         * 渲染后的字节数（响应的 Content-Length）
+         *
+         * @throws IllegalStateException 有占位符没有设置值
+         */
+        public int length() {
+            int total = staticLength;
+            for (int i = 0; i < slotTypes.length; i++) {
+                total += dynamicLength(i);
+            }
+            return total;
+        }
+
+        /** 占位符个数；静态片段比它多一个 */
+        int slotCount() {
+            return slotTypes.length;
+        }
+
+        /**
+         * 第 i 个静态片段的独立视图（position/limit 属于调用方，内容与所有渲染共享）
+         */
+        ByteBuffer staticSegment(int i) {
+            return statics[i].duplicate();
+        }
+
+        /**
+         * 第 i 个占位符编码后的字节数
+         */
+        int dynamicLength(int i) {
+            int value = slotValues[i];
+            if (!assigned[value]) {
+                throw new IllegalStateException("Placeholder " + slotNames[i] + " not set");
+            }
+            switch (slotTypes[i]) {
+                case INT: return decimalLength(numbers[value]);
+                case TEXT: return encodedLength(strings[value], true);
+                default: return encodedLength(strings[value], false);
+            }
+        }
+
+        /**
+         * 把第 i 个占位符的值编码进 dst，调用方保证剩余空间不少于 dynamicLength(i)
+         */
+        void encodeDynamic(int i, ByteBuffer dst) {
+            int value = slotValues[i];
+            switch (slotTypes[i]) {
+                case INT: encodeDecimal(numbers[value], dst); break;
+                case TEXT: encode(strings[value], true, dst); break;
+                default: encode(strings[value], false, dst);
+            }
+        }
+
+        /**
+         * 渲染为独立的字节数组（HTTP/2 等需要整块响应体的场景）
+         */
+        public byte[] toBytes() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(length());
+            for (int i = 0; i <= slotTypes.length; i++) {
+                ByteBuffer segment = staticSegment(i);
+                byte[] part = new byte[segment.remaining()];
+                segment.get(part);
+                bytes.write(part, 0, part.length);
+                if (i < slotTypes.length) {
+                    ByteBuffer dynamic = ByteBuffer.allocate(dynamicLength(i));
+                    encodeDynamic(i, dynamic);
+                    bytes.write(dynamic.array(), 0, dynamic.position());
+                }
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static int decimalLength(long value) {
+        if (value == Long.MIN_VALUE) return 20;
+        int length = value < 0 ? 2 : 1;
+        for (long v = Math.abs(value); v >= 10; v /= 10) length++;
+        return length;
+    }
+
+    private static void encodeDecimal(long value, ByteBuffer dst) {
+        if (value == Long.MIN_VALUE) {
+            dst.put("-9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        if (value < 0) {
+            dst.put((byte) '-');
+            value = -value;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            dst.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    /**
+     * 按 UTF-8（可选 HTML 转义）编码后的字节数，与 encode 逐字符对应
+     */
+    private static int encodedLength(String s, boolean escape) {
+        int length = 0;
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                String entity = escape ? entity(c) : null;
+                length += entity != null ? entity.length() : 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                i++;
+                length += 4;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void encode(String s, boolean escape, ByteBuffer dst) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                String entity = escape ? entity(c) : null;
+                if (entity == null) {
+                    dst.put((byte) c);
+                } else {
+                    for (int k = 0; k < entity.length(); k++) dst.put((byte) entity.charAt(k));
+                }
+            } else if (c < 0x800) {
+                dst.put((byte) (0xC0 | (c >> 6)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst.put((byte) (0xF0 | (cp >> 18)));
+                dst.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                dst.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符无法编码为 UTF-8，与 String.getBytes 一样替换为 '?'
+                dst.put((byte) '?');
+            } else {
+                dst.put((byte) (0xE0 | (c >> 12)));
+                dst.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                dst.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static String entity(char c) {
+        switch (c) {
+            case '&': return "&amp;";
+            case '<': return "&lt;";
+            case '>': return "&gt;";
+            case '"': return "&quot;";
+            case '\'': return "&#39;";
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package com.example.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 反向代理路由
+ * 按路径前缀把请求转发给一组上游（host:port），经每个上游的长连接池发送；
+ * 请求体和响应体都以流的形式转发，不读入内存。未匹配任何前缀的请求交给 fallback 路由。
+ *
+ * 负载均衡：轮询或最少进行中请求。上游的被动健康检查见 Upstream。
+ * 连接失败时换下一个上游重试；复用的空闲连接出错时换新连接重试一次（请求体已流式发送出去的除外）。
+ */
+public class ProxyRouter implements Router, AsyncRouter {
+
+    public enum Balancing { ROUND_ROBIN, LEAST_OUTSTANDING }
+
+    // 逐跳头部，不转发（Connection 中列出的头部同样不转发）
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "keep-alive", "proxy-connection",
+            "transfer-encoding", "te", "trailer", "upgrade", "expect", "content-length", "proxy-authorization");
+
+    private final AsyncRouter fallback;
+    // 按前缀长度从长到短排列，最长前缀优先匹配
+    private final List<Route> routes = new CopyOnWriteArrayList<>();
+    // 同一个 host:port 在多个前缀间共享连接池和健康状态
+    private final Map<String, Upstream> upstreams = new ConcurrentHashMap<>();
+
+    /**
+     * @param fallback 未匹配任何前缀时使用的路由，null 表示返回 404
+     */
+    public ProxyRouter(Router fallback) {
+        this.fallback = fallback == null ? null : AsyncRouter.adapt(fallback);
+    }
+
+    /**
+     * 添加转发规则
+     *
+     * @param prefix    路径前缀，如 /api（匹配 /api 和 /api/...，转发时路径不变）
+     * @param upstreams host:port 列表
+     */
+    public ProxyRouter addRoute(String prefix, Balancing balancing, List<String> upstreams) {
+        if (upstreams.isEmpty()) {
+            throw new IllegalArgumentException("route " + prefix + " has no upstreams");
+        }
+        List<Upstream> group = new ArrayList<>();
+        for (String hostPort : upstreams) {
+            Upstream parsed = Upstream.parse(hostPort);
+            group.add(this.upstreams.computeIfAbsent(parsed.toString(), k -> parsed));
+        }
+        String normalized = prefix.endsWith("/") && prefix.length() > 1 ? prefix.substring(0, prefix.length() - 1) : prefix;
+        List<Route> sorted = new ArrayList<>(routes);
+        sorted.add(new Route(normalized, balancing, group));
+        sorted.sort((a, b) -> b.prefix.length() - a.prefix.length());
+        routes.clear();
+        routes.addAll(sorted);
+        return this;
+    }
+
+    /**
+     * 按配置字符串创建，格式：/api=127.0.0.1:9001,127.0.0.1:9002;/static=127.0.0.1:9003
+     */
+    public static ProxyRouter fromSpec(String spec, Balancing balancing, Router fallback) {
+        ProxyRouter router = new ProxyRouter(fallback);
+        for (String rule : spec.split(";")) {
+            if (rule.isBlank()) continue;
+            int eq = rule.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("proxy rule must be prefix=host:port[,host:port...]: " + rule);
+            }
+            List<String> targets = new ArrayList<>();
+            for (String target : rule.substring(eq + 1).split(",")) {
+                if (!target.isBlank()) targets.add(target.trim());
+            }
+            router.addRoute(rule.substring(0, eq).trim(), balancing, targets);
+        }
+        return router;
+    }
+
+    @Override
+    public HttpResponse route(HttpRequest request) throws Exception {
+        Route route = match(request.getPath());
+        if (route != null) {
+            return forward(route, request);
+        }
+        if (fallback == null) {
+            return HttpResponse.notFound();
+        }
+        return fallback.routeAsync(request).join();
+    }
+
+    /**
+     * 转发在调用线程上阻塞完成（ClientHandler 的连接线程），响应体在写回时才从上游读取
+     */
+    @Override
+    public CompletableFuture<HttpResponse> routeAsync(HttpRequest request) {
+        Route route = match(request.getPath());
+        if (route == null) {
+            return fallback == null ? CompletableFuture.completedFuture(HttpResponse.notFound())
+                    : fallback.routeAsync(request);
+        }
+        try {
+            return CompletableFuture.completedFuture(forward(route, request));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 转发的请求体不读入内存
+     */
+    @Override
+    public boolean streamsRequestBody(HttpRequest request) {
+        if (match(request.getPath()) != null) {
+            return true;
+        }
+        return fallback != null && fallback.streamsRequestBody(request);
+    }
+
+    /** 关闭所有空闲的上游连接 */
+    public void close() {
+        for (Upstream upstream : upstreams.values()) {
+            upstream.closeIdle();
+        }
+    }
+
+    // ==================== 监控 ====================
+
+    /** 上游当前是否未被健康检查摘除 */
+    public boolean isHealthy(String hostPort) {
+        Upstream upstream = upstreams.get(hostPort);
+        return upstream != null && upstream.isAvailable(System.currentTimeMillis());
+    }
+
+    /** 发往该上游的请求总数 */
+    public long getRequestCount(String hostPort) {
+        Upstream upstream = upstreams.get(hostPort);
+        return upstream == null ? 0 : upstream.getRequestCount();
+    }
+
+    /** 到该上游新建的连接总数（与请求数对比可看出连接复用率） */
+    public long getConnectionsOpened(String hostPort) {
+        Upstream upstream = upstreams.get(hostPort);
+        return upstream == null ? 0 : upstream.getConnectionsOpened();
+    }
+
+    public int getOutstanding(String hostPort) {
+        Upstream upstream = upstreams.get(hostPort);
+        return upstream == null ? 0 : upstream.getOutstanding();
+    }
+
+    // ==================== 转发 ====================
+
+    private Route match(String target) {
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+        for (Route route : routes) {
+            if (route.matches(path)) return route;
+        }
+        return null;
+    }
+
+    private HttpResponse forward(Route route, HttpRequest request) {
+        // 请求体已在内存中（或没有请求体）时可以重发
+        boolean replayable = !request.isBodyStreamed();
+        Set<Upstream> tried = new HashSet<>();
+        boolean retriedStale = false;
+        Upstream upstream = route.choose(tried);
+        while (upstream != null) {
+            Upstream.Connection connection;
+            try {
+                connection = upstream.acquire();
+            } catch (IOException e) {
+                upstream.failure();
+                tried.add(upstream);
+                upstream = route.choose(tried);
+                continue;
+            }
+            upstream.begin();
+            List<String> head;
+            try {
+                sendRequest(connection, request);
+                head = readFinalResponseHead(connection);
+            } catch (IOException e) {
+                connection.close();
+                upstream.end();
+                if (connection.reused && replayable && !retriedStale) {
+                    // 空闲连接可能已被上游关闭，换新连接重试同一上游，不计入失败
+                    retriedStale = true;
+                    upstream.closeIdle();
+                    continue;
+                }
+                upstream.failure();
+                if (!replayable) {
+                    return badGateway();
+                }
+                tried.add(upstream);
+                upstream = route.choose(tried);
+                continue;
+            }
+            return buildResponse(upstream, connection, request, head);
+        }
+        return badGateway();
+    }
+
+    private static HttpResponse badGateway() {
+        HttpResponse response = new HttpResponse(502, "Bad Gateway");
+        response.setHeader("Content-Type", "text/plain; charset=utf-8");
+        response.setBody("502 Bad Gateway".getBytes(StandardCharsets.UTF_8));
+        return response;
+    }
+
+    private static void sendRequest(Upstream.Connection connection, HttpRequest request) throws IOException {
+        OutputStream out = connection.out;
+        StringBuilder head = new StringBuilder(256);
+        head.append(request.getMethod()).append(' ').append(request.getPath()).append(" HTTP/1.1\r\n");
+        Set<String> connectionTokens = connectionTokens(request.getHeader("connection"));
+        for (Map.Entry<String, String> e : request.getHeaders().entrySet()) {
+            String name = e.getKey();
+            if (HOP_BY_HOP.contains(name) || connectionTokens.contains(name) || name.equals("x-forwarded-for")) {
+                continue;
+            }
+            head.append(name).append(": ").append(e.getValue()).append("\r\n");
+        }
+        String forwardedFor = request.getHeader("x-forwarded-for");
+        String client = request.getRemoteAddress();
+        if (client != null) {
+            head.append("x-forwarded-for: ").append(forwardedFor == null ? client : forwardedFor + ", " + client).append("\r\n");
+        } else if (forwardedFor != null) {
+            head.append("x-forwarded-for: ").append(forwardedFor).append("\r\n");
+        }
+        String host = request.getHeader("host");
+        if (host != null && request.getHeader("x-forwarded-host") == null) {
+            head.append("x-forwarded-host: ").append(host).append("\r\n");
+        }
+
+        boolean chunked = false;
+        long length;
+        if (request.isBodyStreamed()) {
+            String transferEncoding = request.getHeader("transfer-encoding");
+            chunked = transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+            length = chunked ? -1 : Long.parseLong(request.getHeader("content-length").trim());
+        } else {
+            length = request.getBodyLength();
+        }
+        if (chunked) {
+            head.append("transfer-encoding: chunked\r\n");
+        } else if (length > 0 || request.getHeader("content-length") != null) {
+            head.append("content-length: ").append(length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+
+        if (request.isBodyStreamed()) {
+            InputStream body = request.getBodyStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = body.read(chunk, 0, chunk.length)) > 0) {
+                if (chunked) {
+                    out.write((Integer.toHexString(n) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(chunk, 0, n);
+                    out.write('\r');
+                    out.write('\n');
+                } else {
+                    out.write(chunk, 0, n);
+                }
+            }
+            if (chunked) {
+                out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+        } else if (length > 0) {
+            out.write(request.getBodyBytes(), 0, request.getBodyLength());
+        }
+        out.flush();
+    }
+
+    /**
+     * 读取最终响应头，跳过 1xx 中间响应
+     */
+    private static List<String> readFinalResponseHead(Upstream.Connection connection) throws IOException {
+        while (true) {
+            List<String> head = connection.readResponseHead();
+            int status = parseStatus(head.get(1));
+            if (status >= 200) return head;
+        }
+    }
+
+    private static int parseStatus(String status) throws IOException {
+        try {
+            return Integer.parseInt(status);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid upstream status: " + status);
+        }
+    }
+
+    /**
+     * 把上游响应转换为 HttpResponse，响应体包装为读完后归还连接的流
+     */
+    private static HttpResponse buildResponse(Upstream upstream, Upstream.Connection connection,
+                                              HttpRequest request, List<String> head) {
+        int status = Integer.parseInt(head.get(1));
+        if (status == 502 || status == 503 || status == 504) {
+            upstream.failure();
+        } else {
+            upstream.success();
+        }
+        HttpResponse response = new HttpResponse(status, head.get(2));
+        String connectionHeader = null;
+        String transferEncoding = null;
+        String contentLength = null;
+        for (int i = 3; i + 1 < head.size(); i += 2) {
+            String name = head.get(i);
+            String value = head.get(i + 1);
+            if (name.equals("connection")) connectionHeader = value;
+            else if (name.equals("transfer-encoding")) transferEncoding = value;
+            else if (name.equals("content-length")) contentLength = value;
+        }
+        Set<String> connectionTokens = connectionTokens(connectionHeader);
+        Map<String, String> headers = response.getHeaders();
+        for (int i = 3; i + 1 < head.size(); i += 2) {
+            String name = head.get(i);
+            if (HOP_BY_HOP.contains(name) || connectionTokens.contains(name)) continue;
+            if (name.equals("set-cookie")) {
+                // Set-Cookie 不能合并成一行（RFC 6265），每个取值单独发送
+                response.addHeader("Set-Cookie", head.get(i + 1));
+                continue;
+            }
+            // 其余重复的头部按逗号合并
+            headers.merge(canonicalName(name), head.get(i + 1), (a, b) -> a + ", " + b);
+        }
+
+        boolean keepAlive = !connectionTokens.contains("close") && "HTTP/1.1".equals(head.get(0));
+        boolean chunked = transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+        long length = -1;
+        if (!chunked && contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                length = -1;
+            }
+        }
+        boolean noBody = "HEAD".equals(request.getMethod()) || status == 204 || status == 304;
+        if (noBody || length == 0) {
+            if (contentLength != null) {
+                // HEAD 的响应保留上游给出的长度
+                response.setHeader("Content-Length", noBody ? contentLength.trim() : "0");
+            }
+            finish(upstream, connection, keepAlive);
+            return response;
+        }
+        InputStream body;
+        if (chunked || length > 0) {
+            body = new RequestBodyStream(connection.in, chunked ? -1 : length);
+        } else {
+            // 既没有长度也不是 chunked：读到上游关闭连接为止，连接不能复用
+            body = connection.in;
+            keepAlive = false;
+        }
+        response.setBodyStream(new UpstreamBody(upstream, connection, body, keepAlive), length);
+        return response;
+    }
+
+    private static void finish(Upstream upstream, Upstream.Connection connection, boolean reusable) {
+        upstream.end();
+        if (reusable) {
+            upstream.release(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    private static Set<String> connectionTokens(String connectionHeader) {
+        if (connectionHeader == null) return Collections.emptySet();
+        Set<String> tokens = new HashSet<>();
+        for (String token : connectionHeader.split(",")) {
+            tokens.add(token.trim().toLowerCase(Locale.ROOT));
+        }
+        return tokens;
+    }
+
+    /**
+     * content-type -> Content-Type（与本服务器自身响应的写法一致）
+     */
+    private static String canonicalName(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean upper = true;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sb.append(upper ? Character.toUpperCase(c) : c);
+            upper = c == '-';
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一条转发规则
+     */
+    private static final class Route {
+        final String prefix;
+        final Balancing balancing;
+        final List<Upstream> upstreams;
+        final AtomicInteger next = new AtomicInteger();
+
+        Route(String prefix, Balancing balancing, List<Upstream> upstreams) {
+            this.prefix = prefix;
+            this.balancing = balancing;
+            this.upstreams = upstreams;
+        }
+
+        boolean matches(String path) {
+            if ("/".equals(prefix)) return true;
+            return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+        }
+
+        /**
+         * 在未尝试过的上游中选择一个：优先健康的上游；全部被摘除时选冷却最早结束的一个试探
+         *
+         * @return 没有可尝试的上游时返回 null
+         */
+        Upstream choose(Set<Upstream> tried) {
+            int size = upstreams.size();
+            int start = Math.floorMod(next.getAndIncrement(), size);
+            long now = System.currentTimeMillis();
+            Upstream best = null;
+            Upstream probe = null;
+            for (int i = 0; i < size; i++) {
+                Upstream candidate = upstreams.get((start + i) % size);
+                if (tried.contains(candidate)) continue;
+                if (!candidate.isAvailable(now)) {
+                    if (probe == null || candidate.getDownUntil() < probe.getDownUntil()) probe = candidate;
+                    continue;
+                }
+                if (balancing == Balancing.ROUND_ROBIN) {
+                    return candidate;
+                }
+                // 从轮询位置开始比较，进行中请求数相同时依次轮流
+                if (best == null || candidate.getOutstanding() < best.getOutstanding()) {
+                    best = candidate;
+                }
+            }
+            return best != null ? best : probe;
+        }
+    }
+
+    /**
+     * 上游响应体：读到结尾时归还连接，提前关闭（客户端断开等）时关闭连接
+     */
+    private static final class UpstreamBody extends InputStream {
+        private final Upstream upstream;
+        private final Upstream.Connection connection;
+        private final InputStream body;
+        private final boolean reusable;
+        private boolean finished = false;
+
+        UpstreamBody(Upstream upstream, Upstream.Connection connection, InputStream body, boolean reusable) {
+            this.upstream = upstream;
+            this.connection = connection;
+            this.body = body;
+            this.reusable = reusable;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) return -1;
+            if (len == 0) return 0;
+            int n;
+            try {
+                n = body.read(b, off, len);
+            } catch (IOException e) {
+                upstream.failure();
+                end(false);
+                throw e;
+            }
+            if (n < 0 || (body instanceof RequestBodyStream && ((RequestBodyStream) body).isFinished())) {
+                // 定长响应体读完最后一个字节时写出方不会再读，此时就归还连接
+                end(reusable);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return finished ? 0 : body.available();
+        }
+
+        @Override
+        public void close() {
+            end(false);
+        }
+
+        private void end(boolean reuse) {
+            if (finished) return;
+            finished = true;
+            finish(upstream, connection, reuse);
+        }
+    }
+}
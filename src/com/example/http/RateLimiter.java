@@ -0,0 +1,131 @@
+package com.example.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 按客户端限流的令牌桶
+ * 令牌在访问时按流逝时间惰性补充；桶按 key 哈希分散到多个分段，每段单独加锁，
+ * 空闲到已补满的桶会被回收（回收后重新创建的桶同样是满的，不影响限流结果），
+ * 每段桶数量另有上限，保证内存有界。
+ */
+public class RateLimiter {
+    private final double permitsPerNano;
+    private final double burst;
+    // 桶从空补到满所需时间，超过这个时间没访问的桶可以直接丢弃
+    private final long idleEvictNanos;
+    private final Stripe[] stripes;
+
+    private static final int DEFAULT_STRIPES = 16;
+    private static final int DEFAULT_MAX_BUCKETS = 16_384;
+
+    /**
+     * @param permitsPerSecond 每秒补充的令牌数
+     * @param burst            桶容量（允许的突发请求数）
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, DEFAULT_STRIPES, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * @param stripes    分段数（取 2 的幂）
+     * @param maxBuckets 所有分段合计最多保留的桶数
+     */
+    public RateLimiter(double permitsPerSecond, int burst, int stripes, int maxBuckets) {
+        this.permitsPerNano = permitsPerSecond / 1_000_000_000.0;
+        this.burst = burst;
+        this.idleEvictNanos = (long) (burst / permitsPerNano);
+        int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new Stripe[n];
+        int perStripe = Math.max(1, maxBuckets / n);
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe(perStripe);
+        }
+    }
+
+    /**
+     * 尝试为指定客户端消耗一个令牌
+     *
+     * @param key 客户端标识（通常是远端 IP）
+     * @return true 表示放行，false 表示应被限流
+     */
+    public boolean tryAcquire(String key) {
+        int h = key.hashCode();
+        Stripe stripe = stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(key);
+            if (bucket == null) {
+                stripe.evictIdle(now);
+                bucket = new Bucket(burst, now);
+                stripe.put(key, bucket);
+            } else {
+                bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.lastRefill) * permitsPerNano);
+                bucket.lastRefill = now;
+            }
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 被限流后建议客户端等待的秒数（补充一个令牌所需时间，向上取整）
+     */
+    public int getRetryAfterSeconds() {
+        return (int) Math.max(1, Math.ceil(1.0 / (permitsPerNano * 1_000_000_000.0)));
+    }
+
+    /** 当前保留的桶数量（用于监控） */
+    public int getBucketCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.size();
+            }
+        }
+        return count;
+    }
+
+    private static final class Bucket {
+        double tokens;
+        long lastRefill;
+
+        Bucket(double tokens, long lastRefill) {
+            this.tokens = tokens;
+            this.lastRefill = lastRefill;
+        }
+    }
+
+    /**
+     * 按访问顺序排列的分段，最久未访问的桶在最前面
+     */
+    private final class Stripe extends LinkedHashMap<String, Bucket> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxBuckets;
+
+        Stripe(int maxBuckets) {
+            super(16, 0.75f, true);
+            this.maxBuckets = maxBuckets;
+        }
+
+        void evictIdle(long now) {
+            Iterator<Bucket> it = values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().lastRefill < idleEvictNanos) {
+                    break;
+                }
+                it.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > maxBuckets;
+        }
+    }
+}
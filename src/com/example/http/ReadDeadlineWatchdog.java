@@ -0,0 +1,63 @@
+package com.example.http;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 读超时看门狗
+ * 阻塞模式的 SocketChannel 读取不受 SO_TIMEOUT 约束，改由一个后台线程定期检查
+ * 每个连接登记的读截止时间，超时的连接直接关闭，使阻塞中的 read 立即返回。
+ */
+final class ReadDeadlineWatchdog {
+    // 检查间隔，超时精度约为该值
+    private static final long SCAN_INTERVAL_MS = 250;
+
+    private static final ReadDeadlineWatchdog INSTANCE = new ReadDeadlineWatchdog();
+
+    private final Set<Watched> watched = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 被看管的连接：readDeadline() 返回 System.nanoTime() 形式的截止时间，0 表示当前没有在读
+     */
+    interface Watched {
+        long readDeadline();
+
+        void expire();
+    }
+
+    private ReadDeadlineWatchdog() {
+        Thread thread = new Thread(this::scanLoop, "read-deadline-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static ReadDeadlineWatchdog get() {
+        return INSTANCE;
+    }
+
+    void register(Watched w) {
+        watched.add(w);
+    }
+
+    void unregister(Watched w) {
+        watched.remove(w);
+    }
+
+    private void scanLoop() {
+        while (true) {
+            try {
+                Thread.sleep(SCAN_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Watched w : watched) {
+                long deadline = w.readDeadline();
+                if (deadline != 0 && now - deadline > 0) {
+                    watched.remove(w);
+                    w.expire();
+                }
+            }
+        }
+    }
+}
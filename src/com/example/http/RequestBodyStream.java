@@ -0,0 +1,160 @@
+package com.example.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 直接从连接读取的请求体
+ * 支持 Content-Length 和 Transfer-Encoding: chunked 两种定界方式，读到请求体结尾后返回 -1，
+ * 不会越界读到同一连接上的下一个请求。处理完成后 ClientHandler 调用 drain() 丢弃未读部分。
+ * 只由一个线程使用（路由处理期间连接的读线程在等待，不会同时读取）。
+ * 反向代理读取上游响应体时也使用它（从上游连接的 InputStream 读取）。
+ */
+final class RequestBodyStream extends InputStream {
+    // 分块大小行 / trailer 行的长度上限
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    // 二者只有一个非 null
+    private final RequestReader reader;
+    private final InputStream in;
+    private final boolean chunked;
+    // 当前块（或整个定长请求体）剩余的字节数
+    private long remaining;
+    private boolean eof = false;
+
+    /**
+     * @param contentLength 定长请求体的长度；-1 表示 chunked
+     */
+    RequestBodyStream(RequestReader reader, long contentLength) {
+        this(reader, null, contentLength);
+    }
+
+    /**
+     * @param in 已缓冲的输入流（消息体之前的头部已从中读走）
+     */
+    RequestBodyStream(InputStream in, long contentLength) {
+        this(null, in, contentLength);
+    }
+
+    private RequestBodyStream(RequestReader reader, InputStream in, long contentLength) {
+        this.reader = reader;
+        this.in = in;
+        this.chunked = contentLength < 0;
+        this.remaining = chunked ? 0 : contentLength;
+        if (!chunked && contentLength == 0) {
+            eof = true;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (eof) return -1;
+        if (remaining == 0 && !nextChunk()) {
+            return -1;
+        }
+        int n = source(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("Unexpected EOF when reading body");
+        }
+        remaining -= n;
+        if (remaining == 0) {
+            if (chunked) {
+                expectCRLF();
+            } else {
+                eof = true;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 消息体是否已读完（定长消息体读完最后一个字节时即为 true，不必再读到 -1）
+     */
+    boolean isFinished() {
+        return eof;
+    }
+
+    /**
+     * 不阻塞即可读取的字节数（只统计当前块内已缓冲的数据）
+     */
+    @Override
+    public int available() throws IOException {
+        if (eof || remaining == 0 || in == null) return 0;
+        return (int) Math.min(remaining, in.available());
+    }
+
+    private int source(byte[] b, int off, int len) throws IOException {
+        return reader != null ? reader.read(b, off, len) : in.read(b, off, len);
+    }
+
+    /**
+     * 读完并丢弃剩余的请求体，使连接可以继续读取下一个请求
+     */
+    void drain() throws IOException {
+        byte[] skip = new byte[4096];
+        while (read(skip, 0, skip.length) >= 0) {
+            // 丢弃
+        }
+    }
+
+    /**
+     * 读取下一个块的大小行；遇到大小为 0 的最后一块时读完 trailer 并返回 false
+     */
+    private boolean nextChunk() throws IOException {
+        if (!chunked) {
+            eof = true;
+            return false;
+        }
+        String line = readLine();
+        int semicolon = line.indexOf(';');
+        String size = (semicolon >= 0 ? line.substring(0, semicolon) : line).trim();
+        try {
+            remaining = Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + line);
+        }
+        if (remaining < 0) {
+            throw new IOException("Invalid chunk size: " + line);
+        }
+        if (remaining == 0) {
+            // trailer 头部直到空行，内容忽略
+            while (!readLine().isEmpty()) {
+                // 忽略
+            }
+            eof = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void expectCRLF() throws IOException {
+        if (!readLine().isEmpty()) {
+            throw new IOException("Missing CRLF after chunk data");
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int b = reader != null ? reader.read() : in.read();
+            if (b < 0) throw new EOFException("Unexpected EOF when reading chunked body");
+            if (b == '\n') break;
+            if (sb.length() >= MAX_LINE_LENGTH) throw new IOException("Chunk line too long");
+            sb.append((char) b);
+        }
+        int len = sb.length();
+        if (len > 0 && sb.charAt(len - 1) == '\r') {
+            sb.setLength(len - 1);
+        }
+        return sb.toString();
+    }
+}
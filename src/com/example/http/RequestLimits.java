@@ -0,0 +1,84 @@
+package com.example.http;
+
+/**
+ * 读取请求时的大小与时间上限（防止超长请求头和慢速客户端占住工作线程）
+ * 请求行超长返回 414，请求头总长度或个数超限返回 431；
+ * 请求头从第一个字节到达起必须在 headTimeoutMs 内读完，读入内存的请求体必须在请求头之后 bodyTimeoutMs 内读完，
+ * 超时返回 408。单次 read 的空闲超时（30 秒）仍然有效，两者取先到者。
+ * 流式请求体（路由边读边处理的大上传）从请求头读完到路由处理后丢弃剩余部分，整体必须在 streamTimeoutMs 内读完，
+ * 超时同样返回 408 并关闭连接。
+ *
+ * 默认值可用系统属性覆盖：-Drequest.maxLine、-Drequest.maxHeaderSize、-Drequest.maxHeaders、
+ * -Drequest.headTimeoutMs、-Drequest.bodyTimeoutMs、-Drequest.streamTimeoutMs
+ */
+public final class RequestLimits {
+    private static final long DEFAULT_STREAM_TIMEOUT_MS = 600_000;
+
+    public static final RequestLimits DEFAULT = new RequestLimits(
+            Integer.getInteger("request.maxLine", 8 * 1024),
+            Integer.getInteger("request.maxHeaderSize", 32 * 1024),
+            Integer.getInteger("request.maxHeaders", 100),
+            Long.getLong("request.headTimeoutMs", 10_000),
+            Long.getLong("request.bodyTimeoutMs", 60_000),
+            Long.getLong("request.streamTimeoutMs", DEFAULT_STREAM_TIMEOUT_MS));
+
+    private final int maxRequestLine;
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+    private final long headTimeoutMs;
+    private final long bodyTimeoutMs;
+    private final long streamTimeoutMs;
+
+    /**
+     * @param maxRequestLine 请求行（含 CRLF）的最大字节数
+     * @param maxHeaderSize  请求行之后全部头部（含结尾空行）的最大字节数
+     * @param maxHeaderCount 头部的最大个数
+     * @param headTimeoutMs  从请求头第一个字节到达到请求头读完的最长时间，0 表示不限制
+     * @param bodyTimeoutMs  请求头读完后读入请求体的最长时间，0 表示不限制
+     */
+    public RequestLimits(int maxRequestLine, int maxHeaderSize, int maxHeaderCount,
+                         long headTimeoutMs, long bodyTimeoutMs) {
+        this(maxRequestLine, maxHeaderSize, maxHeaderCount, headTimeoutMs, bodyTimeoutMs, DEFAULT_STREAM_TIMEOUT_MS);
+    }
+
+    /**
+     * @param streamTimeoutMs 请求头读完后读完流式请求体（含处理后丢弃的剩余部分）的最长时间，0 表示不限制
+     */
+    public RequestLimits(int maxRequestLine, int maxHeaderSize, int maxHeaderCount,
+                         long headTimeoutMs, long bodyTimeoutMs, long streamTimeoutMs) {
+        if (maxRequestLine <= 0 || maxHeaderSize <= 0 || maxHeaderCount <= 0 || headTimeoutMs < 0 || bodyTimeoutMs < 0
+                || streamTimeoutMs < 0) {
+            throw new IllegalArgumentException("request limits must be positive");
+        }
+        this.maxRequestLine = maxRequestLine;
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        this.headTimeoutMs = headTimeoutMs;
+        this.bodyTimeoutMs = bodyTimeoutMs;
+        this.streamTimeoutMs = streamTimeoutMs;
+    }
+
+    public int getMaxRequestLine() {
+        return maxRequestLine;
+    }
+
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    public int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    public long getHeadTimeoutMs() {
+        return headTimeoutMs;
+    }
+
+    public long getBodyTimeoutMs() {
+        return bodyTimeoutMs;
+    }
+
+    public long getStreamTimeoutMs() {
+        return streamTimeoutMs;
+    }
+}
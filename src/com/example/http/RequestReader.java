@@ -0,0 +1,306 @@
+package com.example.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 按连接持有的请求读取器
+ * 自带读缓冲（避免逐字节调用 socket read），请求头读入可复用的 head 缓冲区，
+ * 请求体直接读入调用方提供的数组。非线程安全，只由连接的读线程使用。
+ *
+ * 两种读取方式：
+ * 流模式从 InputStream 读入堆缓冲，超时由 SO_TIMEOUT 控制；
+ * 通道模式从 SocketChannel 直接读入缓冲池借来的 direct 缓冲，
+ * 超时由 ReadDeadlineWatchdog 在截止时间到达后关闭通道实现。
+ * 请求头的长度、个数和读取时间受 RequestLimits 约束（整体截止时间只在通道模式下生效）。
+ */
+final class RequestReader implements ReadDeadlineWatchdog.Watched {
+    private final InputStream in;
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buf;
+    private int pos = 0;
+    private int limit = 0;
+
+    private byte[] head = new byte[1024];
+    private int headLength = 0;
+
+    private final long readTimeoutNanos;
+    private volatile long readDeadline = 0;
+    private volatile boolean expired = false;
+
+    private RequestLimits limits = RequestLimits.DEFAULT;
+    // 当前请求头 / 请求体的整体截止时间（System.nanoTime()），0 表示不在读取请求
+    private volatile long requestDeadline = 0;
+    // 整体截止时间已到：只关闭了输入方向，仍可写出 408
+    private volatile boolean requestTimedOut = false;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    RequestReader(InputStream in) {
+        this.in = in;
+        this.channel = null;
+        this.buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        this.readTimeoutNanos = 0;
+    }
+
+    /**
+     * @param buffer        读缓冲（通常是从 BufferPool 借来的 direct 缓冲）
+     * @param readTimeoutMs 单次读取的超时时间
+     */
+    RequestReader(ReadableByteChannel channel, ByteBuffer buffer, int readTimeoutMs) {
+        this.in = null;
+        this.channel = channel;
+        this.buf = buffer;
+        this.readTimeoutNanos = readTimeoutMs * 1_000_000L;
+    }
+
+    /**
+     * 读取一个完整的请求头（请求行 + 头部 + 空行），跳过请求之间多余的空行
+     *
+     * @return 请求头字节数；连接在请求开始前关闭时返回 -1
+     * @throws EOFException 请求头读到一半连接被关闭
+     */
+    int readHead() throws IOException {
+        return readHead(null);
+    }
+
+    /**
+     * @param trace 非 null 时在请求头第一个字节到达时开始 read 阶段计时（不含长连接的空闲等待）
+     */
+    int readHead(RequestTrace trace) throws IOException {
+        headLength = 0;
+        // 跳过客户端可能多发的 CRLF
+        while (true) {
+            if (pos == limit && !fill()) return -1;
+            byte b = buf.get(pos);
+            if (b != '\r' && b != '\n') break;
+            pos++;
+        }
+        if (trace != null) {
+            trace.headStarted();
+        }
+        // 请求头的整体截止时间从第一个字节到达时开始计算，不含长连接的空闲等待
+        startDeadline(limits.getHeadTimeoutMs());
+
+        int lineStart = 0;
+        int requestLineEnd = -1;
+        int headerCount = 0;
+        while (true) {
+            if (pos == limit && !fill()) {
+                throw new EOFException("Unexpected EOF when reading request head");
+            }
+            int nl = indexOf(buf, pos, limit, (byte) '\n');
+            int stop = nl < 0 ? limit : nl + 1;
+            appendHead(stop - pos);
+            pos = stop;
+            // 行尚未结束时也检查长度，超长的请求不会继续读入内存
+            if (requestLineEnd < 0) {
+                if (headLength > limits.getMaxRequestLine()) {
+                    throw new LimitExceeded(414, "URI Too Long");
+                }
+            } else if (headLength - requestLineEnd > limits.getMaxHeaderSize()) {
+                throw new LimitExceeded(431, "Request Header Fields Too Large");
+            }
+            if (nl < 0) continue;
+
+            int lineLength = headLength - lineStart;
+            if (lineLength == 1 || (lineLength == 2 && head[headLength - 2] == '\r')) {
+                requestDeadline = 0;
+                return headLength;
+            }
+            if (requestLineEnd < 0) {
+                requestLineEnd = headLength;
+            } else if (++headerCount > limits.getMaxHeaderCount()) {
+                throw new LimitExceeded(431, "Request Header Fields Too Large");
+            }
+            lineStart = headLength;
+        }
+    }
+
+    /**
+     * 开始读入内存的请求体：之后的读取受请求体截止时间约束，读完后调用 endBody()
+     */
+    void startBody() {
+        startDeadline(limits.getBodyTimeoutMs());
+    }
+
+    /**
+     * 开始流式请求体：路由边读边处理，直到 ClientHandler 丢弃完剩余部分后调用 endBody()
+     */
+    void startStream() {
+        startDeadline(limits.getStreamTimeoutMs());
+    }
+
+    void endBody() {
+        requestDeadline = 0;
+    }
+
+    /**
+     * 当前请求是否因整体截止时间已到而关闭了输入
+     */
+    boolean isRequestTimedOut() {
+        return requestTimedOut;
+    }
+
+    /**
+     * 关闭连接前丢弃剩余数据：之后的读取最多再持续 timeoutMs
+     */
+    void startDiscard(long timeoutMs) {
+        startDeadline(timeoutMs);
+    }
+
+    private void startDeadline(long timeoutMs) {
+        requestDeadline = timeoutMs > 0 ? System.nanoTime() + timeoutMs * 1_000_000L : 0;
+    }
+
+    void setLimits(RequestLimits limits) {
+        this.limits = limits;
+    }
+
+    byte[] getHead() {
+        return head;
+    }
+
+    /**
+     * 读取 length 字节到 dst（先取读缓冲中已有的数据）
+     */
+    void readFully(byte[] dst, int length) throws IOException {
+        readFully(dst, 0, length);
+    }
+
+    /**
+     * 读取 length 字节到 dst[off..]（HTTP/2 帧读取也使用该方法）
+     */
+    void readFully(byte[] dst, int off, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            if (pos == limit) {
+                if (in != null) {
+                    // 流模式剩余部分直接读入目标数组
+                    int r = in.read(dst, off + read, length - read);
+                    if (r == -1) throw new EOFException("Unexpected EOF when reading body");
+                    read += r;
+                    continue;
+                }
+                if (!fill()) throw new EOFException("Unexpected EOF when reading body");
+            }
+            int n = Math.min(length - read, limit - pos);
+            buf.get(pos, dst, off + read, n);
+            pos += n;
+            read += n;
+        }
+    }
+
+    /**
+     * 读取最多 len 字节（至少 1 字节，流式请求体使用）
+     *
+     * @return 读取的字节数，连接关闭时返回 -1
+     */
+    int read(byte[] dst, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (pos == limit) {
+            if (in != null && len >= buf.capacity()) {
+                // 大块读取不经过读缓冲
+                return in.read(dst, off, len);
+            }
+            if (!fill()) return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        buf.get(pos, dst, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * 读取一个字节，连接关闭时返回 -1
+     */
+    int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf.get(pos++) & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int r;
+        if (in != null) {
+            r = in.read(buf.array(), buf.arrayOffset(), buf.capacity());
+        } else {
+            buf.clear();
+            long deadline = System.nanoTime() + readTimeoutNanos;
+            long total = requestDeadline;
+            readDeadline = total != 0 && total - deadline < 0 ? total : deadline;
+            try {
+                r = channel.read(buf);
+            } catch (ClosedChannelException e) {
+                if (expired) throw new SocketTimeoutException("Read timed out");
+                throw e;
+            } finally {
+                readDeadline = 0;
+            }
+        }
+        if (r < 0 && requestTimedOut) {
+            throw new LimitExceeded(408, "Request Timeout");
+        }
+        if (r <= 0) return false;
+        pos = 0;
+        limit = r;
+        return true;
+    }
+
+    private void appendHead(int len) {
+        if (headLength + len > head.length) {
+            byte[] grown = new byte[Math.max(head.length * 2, headLength + len)];
+            System.arraycopy(head, 0, grown, 0, headLength);
+            head = grown;
+        }
+        buf.get(pos, head, headLength, len);
+        headLength += len;
+    }
+
+    private static int indexOf(ByteBuffer bytes, int from, int to, byte target) {
+        return ByteScanner.indexOf(bytes, from, to, target);
+    }
+
+    @Override
+    public long readDeadline() {
+        return readDeadline;
+    }
+
+    @Override
+    public void expire() {
+        long total = requestDeadline;
+        if (total != 0 && System.nanoTime() - total >= 0 && channel instanceof SocketChannel) {
+            // 请求在截止时间内没有读完：只关闭输入，阻塞中的 read 返回 -1，连接仍可回 408
+            requestTimedOut = true;
+            try {
+                ((SocketChannel) channel).shutdownInput();
+                return;
+            } catch (IOException ignored) {
+                // 关闭输入失败时按普通超时处理
+            }
+        }
+        expired = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * 请求超出 RequestLimits：连接上的数据已无法继续解析，由 ClientHandler 回复 status 后关闭连接
+     */
+    static final class LimitExceeded extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        LimitExceeded(int status, String reason) {
+            super(status + " " + reason);
+            this.status = status;
+        }
+    }
+}
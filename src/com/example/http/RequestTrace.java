@@ -0,0 +1,265 @@
+package com.example.http;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 单个 HTTP/1.1 请求的分阶段计时
+ * 阶段：read（收到请求头第一个字节到请求头读完）、parse（解析请求头并读入请求体）、
+ * route（路由处理到响应就绪，异步路由在完成时结束）、write（序列化并写出响应）。
+ * 每个阶段结束时提交一个 JDK Flight Recorder 事件（分类 HTTP Server），可在生产环境随时开启录制：
+ *   jcmd <pid> JFR.start name=http settings=profile duration=60s filename=http.jfr
+ * 启用 -Dserver.timing=true 时同时在响应中加入 Server-Timing 头（read/parse/route 三个阶段，单位毫秒）。
+ * 没有录制且未启用 Server-Timing 时 begin() 返回 null，各调用点只多一次 null 判断。
+ */
+final class RequestTrace {
+    private static volatile boolean serverTiming = Boolean.getBoolean("server.timing");
+
+    private static final EventType ACCEPTED_TYPE = EventType.getEventType(ConnectionAccepted.class);
+    private static final EventType[] PHASE_TYPES = {
+            EventType.getEventType(RequestRead.class),
+            EventType.getEventType(RequestParsed.class),
+            EventType.getEventType(RequestRouted.class),
+            EventType.getEventType(ResponseWritten.class),
+    };
+
+    private final RequestRead read = new RequestRead();
+    private RequestParsed parsed;
+    private RequestRouted routed;
+    private String method;
+    private String path;
+    // System.nanoTime() 形式的阶段边界，用于 Server-Timing
+    private long headStart;
+    private long headEnd;
+    private long parseEnd;
+    private long routeEnd;
+
+    private RequestTrace() {
+    }
+
+    /**
+     * 开始一个请求的计时（在读取请求头之前调用）
+     *
+     * @return 没有正在进行的录制且未启用 Server-Timing 时返回 null
+     */
+    static RequestTrace begin() {
+        if (serverTiming || isRecording()) {
+            return new RequestTrace();
+        }
+        return null;
+    }
+
+    private static boolean isRecording() {
+        for (EventType type : PHASE_TYPES) {
+            if (type.isEnabled()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 开关 Server-Timing 响应头（默认由 -Dserver.timing 决定）
+     */
+    static void setServerTiming(boolean enabled) {
+        serverTiming = enabled;
+    }
+
+    // ==================== 连接 ====================
+
+    /**
+     * 连接被 accept 时调用，返回已开始计时的事件（排队等待工作线程的时间即事件持续时间）
+     *
+     * @return 未在录制时返回 null
+     */
+    static ConnectionAccepted connectionAccepted() {
+        if (!ACCEPTED_TYPE.isEnabled()) return null;
+        ConnectionAccepted event = new ConnectionAccepted();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * 工作线程开始处理连接（或连接因过载被丢弃）时提交事件
+     */
+    static void connectionStarted(ConnectionAccepted event, String remoteAddress, boolean tls, boolean shed) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.remoteAddress = remoteAddress;
+            event.tls = tls;
+            event.shed = shed;
+            event.commit();
+        }
+    }
+
+    // ==================== 请求阶段 ====================
+
+    /**
+     * 请求头的第一个字节已到达（由 RequestReader 在跳过请求之间的空行后调用）
+     */
+    void headStarted() {
+        headStart = System.nanoTime();
+        read.begin();
+    }
+
+    /**
+     * 请求头已完整读入
+     */
+    void headRead() {
+        headEnd = System.nanoTime();
+        read.end();
+        parsed = new RequestParsed();
+        parsed.begin();
+    }
+
+    /**
+     * 请求头已解析、非流式的请求体已读入，即将交给路由
+     */
+    void parsed(HttpRequest request) {
+        parseEnd = System.nanoTime();
+        method = request.getMethod();
+        // 查询串可能带有密码等参数，事件中只记录路径部分
+        String target = request.getPath();
+        int query = target.indexOf('?');
+        path = query < 0 ? target : target.substring(0, query);
+        parsed.end();
+        routed = new RequestRouted();
+        routed.begin();
+        commit(read);
+        commit(parsed);
+    }
+
+    /**
+     * 路由完成时记录 route 阶段；返回的 future 在记录之后才完成，保证写出前已有路由耗时
+     */
+    CompletableFuture<HttpResponse> routed(CompletableFuture<HttpResponse> future) {
+        if (routed == null) {
+            // 解析失败，没有进入路由
+            return future;
+        }
+        if (future.isDone()) {
+            routeDone(future.isCompletedExceptionally() ? null : future.join());
+            return future;
+        }
+        return future.whenComplete((response, e) -> routeDone(response));
+    }
+
+    private void routeDone(HttpResponse response) {
+        routeEnd = System.nanoTime();
+        routed.end();
+        routed.status = response != null ? response.getStatusCode() : 500;
+        commit(routed);
+    }
+
+    /**
+     * 写出前调用：启用时加入 Server-Timing 头，返回写出阶段的事件
+     */
+    ResponseWritten beforeWrite(HttpResponse response) {
+        if (serverTiming && routed != null) {
+            StringBuilder timing = new StringBuilder(64);
+            appendMetric(timing, "read", headEnd - headStart).append(", ");
+            appendMetric(timing, "parse", parseEnd - headEnd).append(", ");
+            appendMetric(timing, "route", (routeEnd != 0 ? routeEnd : System.nanoTime()) - parseEnd);
+            response.setHeader("Server-Timing", timing.toString());
+        }
+        ResponseWritten written = new ResponseWritten();
+        written.begin();
+        return written;
+    }
+
+    /**
+     * 响应已写出
+     */
+    void written(ResponseWritten event, HttpResponse response) {
+        event.end();
+        event.status = response.getStatusCode();
+        commit(event);
+    }
+
+    private void commit(PhaseEvent event) {
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.path = path;
+            event.commit();
+        }
+    }
+
+    /**
+     * name;dur=毫秒（保留三位小数）
+     */
+    private static StringBuilder appendMetric(StringBuilder sb, String name, long nanos) {
+        long micros = Math.max(0, nanos) / 1000;
+        sb.append(name).append(";dur=").append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) sb.append('0');
+        if (fraction < 10) sb.append('0');
+        return sb.append(fraction);
+    }
+
+    // ==================== JFR 事件 ====================
+
+    @Name("com.example.http.ConnectionAccepted")
+    @Label("Connection Accepted")
+    @Category("HTTP Server")
+    @Description("A connection waited in the accept queue until a worker thread picked it up")
+    @StackTrace(false)
+    static final class ConnectionAccepted extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("TLS")
+        boolean tls;
+
+        @Label("Shed")
+        @Description("The connection was answered with 503 instead of being served")
+        boolean shed;
+    }
+
+    @StackTrace(false)
+    abstract static class PhaseEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Path")
+        @Description("Request path without the query string")
+        String path;
+    }
+
+    @Name("com.example.http.RequestRead")
+    @Label("Request Head Read")
+    @Category("HTTP Server")
+    @Description("From the first byte of the request head until the blank line ending it")
+    static final class RequestRead extends PhaseEvent {
+    }
+
+    @Name("com.example.http.RequestParsed")
+    @Label("Request Parsed")
+    @Category("HTTP Server")
+    @Description("Parsing the request head and reading a buffered request body")
+    static final class RequestParsed extends PhaseEvent {
+    }
+
+    @Name("com.example.http.RequestRouted")
+    @Label("Request Routed")
+    @Category("HTTP Server")
+    @Description("From handing the request to the router until its response is ready")
+    static final class RequestRouted extends PhaseEvent {
+        @Label("Status")
+        int status;
+    }
+
+    @Name("com.example.http.ResponseWritten")
+    @Label("Response Written")
+    @Category("HTTP Server")
+    @Description("Serializing the response and writing it to the connection")
+    static final class ResponseWritten extends PhaseEvent {
+        @Label("Status")
+        int status;
+    }
+}
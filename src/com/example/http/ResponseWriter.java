@@ -0,0 +1,454 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按连接持有的响应序列化器
+ * 状态行、响应头和响应体直接按字节写入一个固定大小的缓冲区，写满时先写出再继续，
+ * 缓冲区从不扩容。通道模式下缓冲区是从 BufferPool 借来的 direct 缓冲，
+ * 直接交给 SocketChannel 写出，无需再经过 JDK 内部的临时直接缓冲。
+ * 同一连接上的响应由写回链串行写出；write 与 close 互斥，关闭后缓冲区可安全归还。
+ */
+final class ResponseWriter {
+    private final ByteBuffer buf;
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private boolean closed = false;
+    // 通道模式下正在进行的写的截止时间（System.nanoTime()），0 表示当前没有在写；
+    // 由 ClientHandler 登记到 ReadDeadlineWatchdog，不读数据的客户端不会让写线程无限阻塞
+    private volatile long writeDeadline = 0;
+
+    // 通道写出的截止时间，与连接的读超时相同
+    static final long WRITE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private static final byte[] DATE_PREFIX = "Date: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // 块头预留的长度数字位数（允许前导 0），缓冲区大小远小于 16^6
+    private static final int CHUNK_SIZE_DIGITS = 6;
+    private static final int CHUNK_HEADER = CHUNK_SIZE_DIGITS + 2;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 流模式：堆缓冲 + OutputStream
+     */
+    ResponseWriter(OutputStream out, int bufferSize) {
+        this.buf = ByteBuffer.allocate(bufferSize);
+        this.out = out;
+        this.channel = null;
+    }
+
+    /**
+     * 通道模式：调用方提供的（direct）缓冲 + 可写通道
+     */
+    ResponseWriter(WritableByteChannel channel, ByteBuffer buffer) {
+        this.buf = buffer;
+        this.out = null;
+        this.channel = channel;
+    }
+
+    /**
+     * 正在进行的通道写的截止时间，0 表示当前没有在写
+     */
+    long writeDeadline() {
+        return writeDeadline;
+    }
+
+    /**
+     * 序列化为独立的字节数组（HttpResponse.toBytes 使用）
+     */
+    static byte[] toBytes(HttpResponse response) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            new ResponseWriter(bytes, 256).write(response);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 序列化响应并写出
+     */
+    synchronized void write(HttpResponse response) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        buf.clear();
+        CannedResponse canned = response.getCanned();
+        if (canned != null) {
+            // 未修改的预序列化响应：整块拷贝后一次写出
+            byte[] wire = canned.wireBytes();
+            put(wire, 0, wire.length);
+        } else if (response.getBodyStream() != null) {
+            writeStreamed(response);
+        } else if (response.getBodyWriter() != null) {
+            writeGenerated(response);
+        } else if (response.getTemplateBody() != null) {
+            encodeHead(response);
+            if (!writeGathered(response.getTemplateBody())) {
+                writeTemplate(response.getTemplateBody());
+            }
+        } else {
+            encodeHead(response);
+            byte[] body = response.bodyBytes();
+            if (out != null && body.length > buf.remaining()) {
+                // 流模式下大响应体不再经过缓冲区
+                drain();
+                out.write(body);
+            } else {
+                put(body, 0, body.length);
+            }
+        }
+        drain();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * 写出流式响应体：长度已知时原样复制，未知时按 chunked 编码，每次读到的数据作为一个块。
+     * 流读取失败时响应已无法完整发送，异常向上抛出由调用方关闭连接。
+     */
+    private void writeStreamed(HttpResponse response) throws IOException {
+        try (InputStream in = response.getBodyStream()) {
+            long length = response.getBodyStreamLength();
+            boolean chunked = length < 0;
+            if (chunked) {
+                response.setHeader("Transfer-Encoding", "chunked");
+            }
+            encodeHead(response);
+            byte[] chunk = new byte[8192];
+            long copied = 0;
+            int n;
+            while ((n = in.read(chunk, 0, chunked ? chunk.length : (int) Math.min(chunk.length, length - copied))) > 0) {
+                if (chunked) {
+                    putAscii(Integer.toHexString(n));
+                    putCRLF();
+                    put(chunk, 0, n);
+                    putCRLF();
+                } else {
+                    put(chunk, 0, n);
+                }
+                copied += n;
+                if (in.available() <= 0) {
+                    // 上游暂时没有更多数据：先把已有内容发给客户端，不等缓冲区写满
+                    drain();
+                    if (out != null) {
+                        out.flush();
+                    }
+                }
+            }
+            if (chunked) {
+                putAscii("0\r\n\r\n");
+            } else if (copied < length) {
+                throw new IOException("Response body stream ended early: " + copied + " of " + length + " bytes");
+            }
+        }
+    }
+
+    /**
+     * 写出由 BodyWriter 生成的响应体（chunked）：生成的字节直接进入写缓冲，缓冲区满时作为一块写出。
+     * 生成过程中出错时响应已无法完整发送，异常向上抛出由调用方关闭连接。
+     */
+    private void writeGenerated(HttpResponse response) throws IOException {
+        response.setHeader("Transfer-Encoding", "chunked");
+        encodeHead(response);
+        ChunkedOutput body = new ChunkedOutput();
+        try {
+            response.getBodyWriter().writeTo(body);
+        } catch (RuntimeException e) {
+            throw new IOException("Response body writer failed", e);
+        }
+        body.endChunk();
+        put(LAST_CHUNK, 0, LAST_CHUNK.length);
+    }
+
+    /**
+     * 聚集写出模板渲染的响应体：动态值编码在写缓冲中响应头之后，静态片段直接引用模板的
+     * 共享 direct 缓冲，按顺序一次交给通道。只用于通道模式且动态值能放进写缓冲剩余空间时，
+     * 否则返回 false（此时缓冲区内容未变）。
+     */
+    private boolean writeGathered(PageTemplate.Page page) throws IOException {
+        if (!(channel instanceof GatheringByteChannel)) {
+            return false;
+        }
+        int slots = page.slotCount();
+        int dynamic = 0;
+        for (int i = 0; i < slots; i++) {
+            dynamic += page.dynamicLength(i);
+        }
+        if (dynamic > buf.remaining()) {
+            return false;
+        }
+        // [响应头, 静态 0, 动态 0, 静态 1, ..., 静态 n]，动态值是写缓冲的切片
+        ByteBuffer[] parts = new ByteBuffer[2 * slots + 2];
+        int headEnd = buf.position();
+        for (int i = 0; i < slots; i++) {
+            int start = buf.position();
+            page.encodeDynamic(i, buf);
+            parts[2 * i + 2] = buf.duplicate().position(start).limit(buf.position());
+        }
+        parts[0] = buf.duplicate().position(0).limit(headEnd);
+        for (int i = 0; i <= slots; i++) {
+            parts[2 * i + 1] = page.staticSegment(i);
+        }
+        GatheringByteChannel gathering = (GatheringByteChannel) channel;
+        int first = 0;
+        writeDeadline = System.nanoTime() + WRITE_TIMEOUT_NANOS;
+        try {
+            while (first < parts.length) {
+                gathering.write(parts, first, parts.length - first);
+                while (first < parts.length && !parts[first].hasRemaining()) first++;
+            }
+        } finally {
+            writeDeadline = 0;
+        }
+        buf.clear();
+        return true;
+    }
+
+    /**
+     * 依次把模板的静态片段和动态值写入写缓冲（流模式，或动态值较大时）
+     */
+    private void writeTemplate(PageTemplate.Page page) throws IOException {
+        int slots = page.slotCount();
+        for (int i = 0; i <= slots; i++) {
+            put(page.staticSegment(i));
+            if (i == slots) break;
+            int length = page.dynamicLength(i);
+            if (length > buf.remaining()) {
+                drain();
+            }
+            if (length <= buf.remaining()) {
+                page.encodeDynamic(i, buf);
+            } else {
+                ByteBuffer value = ByteBuffer.allocate(length);
+                page.encodeDynamic(i, value);
+                put(value.array(), 0, length);
+            }
+        }
+    }
+
+    /**
+     * 原样写出一段字节（HTTP/2 帧），flush 为 false 时先留在缓冲区与后续数据合并写出；
+     * 多段需要连续写出时调用方在 writer 上加锁
+     */
+    synchronized void writeRaw(byte[] src, int off, int len, boolean flush) throws IOException {
+        if (closed) {
+            throw new IOException("Connection closed");
+        }
+        put(src, off, len);
+        if (flush) {
+            drain();
+            if (out != null) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * 关闭后不再写出；等待正在进行的写完成后返回，之后缓冲区可以归还
+     */
+    synchronized void close() {
+        closed = true;
+    }
+
+    private void encodeHead(HttpResponse response) throws IOException {
+        putAscii("HTTP/1.1 ");
+        putInt(response.getStatusCode());
+        putByte(' ');
+        putString(response.getReason());
+        putCRLF();
+        Map<String, String> headers = response.getHeaders();
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            putString(e.getKey());
+            putByte(':');
+            putByte(' ');
+            putString(e.getValue());
+            putCRLF();
+        }
+        List<String> extra = response.getExtraHeaders();
+        if (extra != null) {
+            for (int i = 0; i + 1 < extra.size(); i += 2) {
+                putString(extra.get(i));
+                putByte(':');
+                putByte(' ');
+                putString(extra.get(i + 1));
+                putCRLF();
+            }
+        }
+        if (!headers.containsKey("Date")) {
+            put(DATE_PREFIX, 0, DATE_PREFIX.length);
+            byte[] date = HttpDate.now().value;
+            put(date, 0, date.length);
+            putCRLF();
+        }
+        putCRLF();
+    }
+
+    private void putCRLF() throws IOException {
+        putByte('\r');
+        putByte('\n');
+    }
+
+    private void putAscii(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            putByte(s.charAt(i));
+        }
+    }
+
+    /**
+     * 写入字符串：全 ASCII 时逐字符写入，否则按 UTF-8 编码
+     */
+    private void putString(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            if (s.charAt(i) >= 0x80) {
+                byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+                put(encoded, 0, encoded.length);
+                return;
+            }
+        }
+        putAscii(s);
+    }
+
+    private void putInt(int value) throws IOException {
+        if (value < 0) {
+            putByte('-');
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            putByte('0' + (value / divisor) % 10);
+        }
+    }
+
+    private void putByte(int b) throws IOException {
+        if (!buf.hasRemaining()) drain();
+        buf.put((byte) b);
+    }
+
+    private void put(byte[] src, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining()) drain();
+            int n = Math.min(len, buf.remaining());
+            buf.put(src, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void put(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (!buf.hasRemaining()) drain();
+            int n = Math.min(src.remaining(), buf.remaining());
+            buf.put(buf.position(), src, src.position(), n);
+            buf.position(buf.position() + n);
+            src.position(src.position() + n);
+        }
+    }
+
+    /**
+     * 写出缓冲区中已有的数据并清空
+     */
+    private void drain() throws IOException {
+        buf.flip();
+        if (channel != null) {
+            writeDeadline = System.nanoTime() + WRITE_TIMEOUT_NANOS;
+            try {
+                while (buf.hasRemaining()) {
+                    channel.write(buf);
+                }
+            } finally {
+                writeDeadline = 0;
+            }
+        } else if (buf.hasRemaining()) {
+            out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+        }
+        buf.clear();
+    }
+
+    /**
+     * 直接写入写缓冲的 chunked 响应体
+     * 每块开始时在缓冲区中预留固定宽度的块头，数据写在其后；缓冲区写满或 flush 时回填长度、
+     * 补上块尾 CRLF 后写出，数据不需要先复制到别处再计算长度。
+     */
+    private final class ChunkedOutput extends OutputStream {
+        // 当前块的块头位置，-1 表示没有进行中的块
+        private int chunkStart = -1;
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureRoom();
+            buf.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] src, int off, int len) throws IOException {
+            while (len > 0) {
+                ensureRoom();
+                int n = Math.min(len, room());
+                buf.put(src, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * 结束当前块并把缓冲区写出
+         */
+        @Override
+        public void flush() throws IOException {
+            endChunk();
+            drain();
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        // 块尾 CRLF 的 2 字节始终保留
+        private int room() {
+            return buf.remaining() - 2;
+        }
+
+        private void ensureRoom() throws IOException {
+            if (chunkStart >= 0 && room() > 0) return;
+            endChunk();
+            if (buf.remaining() < CHUNK_HEADER + 3) {
+                drain();
+            }
+            chunkStart = buf.position();
+            buf.position(chunkStart + CHUNK_HEADER);
+        }
+
+        void endChunk() {
+            if (chunkStart < 0) return;
+            int size = buf.position() - chunkStart - CHUNK_HEADER;
+            if (size == 0) {
+                // 空块会被当作结束块，撤销预留的块头
+                buf.position(chunkStart);
+            } else {
+                for (int i = CHUNK_SIZE_DIGITS - 1, v = size; i >= 0; i--, v >>>= 4) {
+                    buf.put(chunkStart + i, HEX_DIGITS[v & 0xF]);
+                }
+                buf.put(chunkStart + CHUNK_SIZE_DIGITS, (byte) '\r');
+                buf.put(chunkStart + CHUNK_SIZE_DIGITS + 1, (byte) '\n');
+                buf.put((byte) '\r');
+                buf.put((byte) '\n');
+            }
+            chunkStart = -1;
+        }
+    }
+}
@@ -4,4 +4,11 @@ public interface Router {
 
     HttpResponse route(HttpRequest request) throws Exception;
 
+    /**
+     * 该请求的请求体是否以流的形式交给路由（见 AsyncRouter#streamsRequestBody）
+     */
+    default boolean streamsRequestBody(HttpRequest request) {
+        return false;
+    }
+
 }
@@ -0,0 +1,164 @@
+package com.example.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 可扩容的布隆过滤器（Scalable Bloom Filter）
+ * 由若干级普通布隆过滤器组成：当前级插入数达到容量后新增一级，容量翻倍、误判率减半，
+ * 总误判率收敛到约 2 倍的初始误判率，不需要事先知道元素总数。
+ * mightContain 返回 false 表示"一定不存在"，true 表示"可能存在"，不支持删除。
+ *
+ * 线程安全：位数组用 AtomicLongArray 按位 CAS 置位，新增一级时复制级数组（写时复制）。
+ */
+public final class ScalableBloomFilter {
+    // 每新增一级，容量乘以 GROWTH，误判率乘以 TIGHTENING
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+
+    private final double falsePositiveRate;
+    private volatile Stage[] stages;
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * @param initialCapacity   第一级的容量（预计元素数）
+     * @param falsePositiveRate 目标误判率（0 < p < 1）
+     */
+    public ScalableBloomFilter(long initialCapacity, double falsePositiveRate) {
+        if (initialCapacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("capacity must be > 0 and false positive rate in (0, 1)");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        // 各级误判率为 p0, p0/2, p0/4 ...，总和为 2*p0，因此第一级取目标值的一半
+        this.stages = new Stage[]{new Stage(initialCapacity, falsePositiveRate * (1 - TIGHTENING))};
+    }
+
+    /**
+     * 加入元素；已判定为可能存在（重复加入或误判）时不写入，重复的用户名不会消耗容量、触发扩容
+     */
+    public void add(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        Stage[] current = stages;
+        for (Stage stage : current) {
+            if (stage.mightContain(h1, h2)) return;
+        }
+        Stage last = current[current.length - 1];
+        last.add(h1, h2);
+        size.incrementAndGet();
+        if (last.count.incrementAndGet() >= last.capacity) {
+            grow(last);
+        }
+    }
+
+    /**
+     * @return false 表示一定不存在；true 表示可能存在
+     */
+    public boolean mightContain(String key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (Stage stage : stages) {
+            if (stage.mightContain(h1, h2)) return true;
+        }
+        return false;
+    }
+
+    private synchronized void grow(Stage full) {
+        Stage[] current = stages;
+        if (current[current.length - 1] != full) return; // 其他线程已扩容
+        Stage[] grown = new Stage[current.length + 1];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        grown[current.length] = new Stage(full.capacity * GROWTH, full.falsePositiveRate * TIGHTENING);
+        stages = grown;
+    }
+
+    // ==================== 监控 ====================
+
+    /** 已插入的元素数（不含判定为已存在而跳过的插入） */
+    public long size() {
+        return size.get();
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    /** 所有级的位数组总大小（字节） */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (Stage stage : stages) {
+            bytes += stage.bits.length() * 8L;
+        }
+        return bytes;
+    }
+
+    /** 配置的目标误判率 */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    // ==================== 哈希 ====================
+
+    /**
+     * 64 位 FNV-1a 按字符累积后再做一次 MurmurHash3 fmix64 混合
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 单级布隆过滤器：m = -n ln p / (ln 2)^2 位，k = m/n ln 2 个哈希（双重哈希 h1 + i*h2 生成）
+     */
+    private static final class Stage {
+        final long capacity;
+        final double falsePositiveRate;
+        final AtomicLongArray bits;
+        final long bitCount;
+        final int hashCount;
+        final AtomicLong count = new AtomicLong();
+
+        Stage(long capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) / 64));
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = words * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * Math.log(2)));
+        }
+
+        void add(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old = bits.get(word);
+                while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask)) {
+                    old = bits.get(word);
+                }
+            }
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bitCount);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 到集群中另一个节点分片服务的客户端（协议见 ShardServer）
+ * 持有该节点的空闲长连接池：每次调用取一条连接，完成一次请求/响应后归还。
+ * 从池中取出的连接可能已被对端关闭，此时换一条新连接重试一次；注册类请求不是幂等的，
+ * 请求已写出后才失败时对端可能已经执行，不重试而是把错误交给调用方。
+ * 新连接先用集群共享密钥完成双向认证（见 ShardServer），对端证明不匹配时不发送任何请求。
+ */
+final class ShardPeer {
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int READ_TIMEOUT_MS = 10_000;
+    private static final int IO_BUFFER_SIZE = 8192;
+    private static final int MAX_IDLE_CONNECTIONS = 64;
+    // 需短于分片服务的空闲超时（60 秒）
+    private static final long IDLE_TIMEOUT_NANOS = 30_000_000_000L;
+
+    final String host;
+    final int port;
+    private final String name;
+    private final byte[] secret;
+
+    // 后进先出：最近归还的连接最先复用，多余的连接自然空闲超时
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private volatile boolean closed = false;
+
+    ShardPeer(String host, int port, byte[] secret) {
+        this.host = host;
+        this.port = port;
+        this.name = host + ":" + port;
+        this.secret = secret;
+    }
+
+    boolean register(String username, String password) throws IOException {
+        return callBoolean(ShardServer.OP_REGISTER, username, password);
+    }
+
+    boolean login(String username, String password) throws IOException {
+        return callBoolean(ShardServer.OP_LOGIN, username, password);
+    }
+
+    boolean exists(String username) throws IOException {
+        return callBoolean(ShardServer.OP_EXISTS, username, null);
+    }
+
+    int count() throws IOException {
+        return call(ShardServer.OP_COUNT, null, null, 0, null, null);
+    }
+
+    /**
+     * 批量注册，结果写入 results[offsets[i]]
+     *
+     * @param count 本批账号数，不超过 ShardServer.MAX_BATCH
+     */
+    void registerBatch(String[] usernames, String[] passwords, int count, boolean[] results, int[] offsets)
+            throws IOException {
+        call(ShardServer.OP_REGISTER_BATCH, usernames, passwords, count, results, offsets);
+    }
+
+    private boolean callBoolean(byte op, String username, String password) throws IOException {
+        return call(op, new String[]{username}, password == null ? null : new String[]{password}, 1, null, null) != 0;
+    }
+
+    /**
+     * 发送一个请求并读取响应；单值请求返回布尔结果（0/1）或计数，批量请求把结果写入 results
+     */
+    private int call(byte op, String[] usernames, String[] passwords, int count,
+                     boolean[] results, int[] offsets) throws IOException {
+        if (closed) {
+            throw new IOException("Shard peer " + name + " closed");
+        }
+        Connection c = acquire();
+        boolean sent = false;
+        try {
+            c.send(op, usernames, passwords, count);
+            sent = true;
+            int result = c.receive(op, count, results, offsets);
+            release(c);
+            return result;
+        } catch (IOException e) {
+            c.close();
+            if (!c.reused || (sent && !isIdempotent(op))) {
+                throw e;
+            }
+        }
+        // 复用的连接已失效：换新连接重试一次
+        Connection fresh = open();
+        try {
+            fresh.send(op, usernames, passwords, count);
+            int result = fresh.receive(op, count, results, offsets);
+            release(fresh);
+            return result;
+        } catch (IOException e) {
+            fresh.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 重复执行结果不变的请求；注册执行两次时第二次会返回“用户名已存在”
+     */
+    private static boolean isIdempotent(byte op) {
+        return op == ShardServer.OP_LOGIN || op == ShardServer.OP_EXISTS || op == ShardServer.OP_COUNT;
+    }
+
+    private Connection acquire() throws IOException {
+        long now = System.nanoTime();
+        Connection c;
+        while ((c = idle.pollFirst()) != null) {
+            if (now - c.lastUsed < IDLE_TIMEOUT_NANOS && !c.socket.isClosed()) {
+                c.reused = true;
+                return c;
+            }
+            c.close();
+        }
+        return open();
+    }
+
+    private Connection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+            Connection c = new Connection(socket);
+            handshake(c);
+            connectionsOpened.incrementAndGet();
+            return c;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 客户端握手：先验证对端的证明，再发送自己的证明（随第一个请求一起写出）
+     */
+    private void handshake(Connection c) throws IOException {
+        byte[] clientNonce = ShardServer.newNonce();
+        c.out.writeInt(ShardServer.MAGIC);
+        c.out.write(clientNonce);
+        c.out.flush();
+        byte[] serverNonce = new byte[ShardServer.NONCE_LENGTH];
+        byte[] serverProof = new byte[ShardServer.PROOF_LENGTH];
+        c.in.readFully(serverNonce);
+        c.in.readFully(serverProof);
+        if (!MessageDigest.isEqual(serverProof, ShardServer.proof(secret, ShardServer.ROLE_SERVER, clientNonce, serverNonce))) {
+            throw new IOException("Shard peer " + name + " failed authentication (cluster.secret mismatch)");
+        }
+        c.out.write(ShardServer.proof(secret, ShardServer.ROLE_CLIENT, clientNonce, serverNonce));
+    }
+
+    private void release(Connection c) {
+        if (closed || idle.size() >= MAX_IDLE_CONNECTIONS) {
+            c.close();
+            return;
+        }
+        c.lastUsed = System.nanoTime();
+        idle.offerFirst(c);
+    }
+
+    long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    void close() {
+        closed = true;
+        Connection c;
+        while ((c = idle.pollFirst()) != null) {
+            c.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * 到分片服务的一条连接
+     */
+    private static final class Connection {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        long lastUsed;
+        boolean reused = false;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), IO_BUFFER_SIZE));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), IO_BUFFER_SIZE));
+        }
+
+        /**
+         * 写出请求；抛出异常时请求没有完整到达对端，对端不会执行
+         */
+        void send(byte op, String[] usernames, String[] passwords, int count) throws IOException {
+            out.writeByte(op);
+            if (op == ShardServer.OP_REGISTER_BATCH) {
+                out.writeShort(count);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeUTF(usernames[i]);
+                if (passwords != null) {
+                    out.writeUTF(passwords[i]);
+                }
+            }
+            out.flush();
+        }
+
+        int receive(byte op, int count, boolean[] results, int[] offsets) throws IOException {
+            int status = in.read();
+            switch (status) {
+                case ShardServer.STATUS_FALSE:
+                    return 0;
+                case ShardServer.STATUS_TRUE:
+                    return 1;
+                case ShardServer.STATUS_OK:
+                    if (op == ShardServer.OP_COUNT) {
+                        return in.readInt();
+                    }
+                    for (int i = 0; i < count; i++) {
+                        results[offsets[i]] = in.readByte() != 0;
+                    }
+                    return count;
+                case ShardServer.STATUS_ERROR:
+                    throw new IOException("Shard error: " + in.readUTF());
+                case -1:
+                    throw new IOException("Shard connection closed");
+                default:
+                    throw new IOException("Unexpected shard status " + status);
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
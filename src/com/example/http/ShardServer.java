@@ -0,0 +1,287 @@
+package com.example.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 集群内部的分片服务：接收其他节点转发来的用户操作，在本节点的分片上执行
+ *
+ * 协议（大端，字符串为 DataOutputStream.writeUTF 格式：2 字节长度 + modified UTF-8）：
+ * <pre>
+ * 握手：双方用集群共享密钥（-Dcluster.secret）互相证明身份，密钥本身不在网络上传输
+ *   客户端 → MAGIC(4) + clientNonce(16)
+ *   服务端 → serverNonce(16) + HMAC-SHA256(密钥, 'S' + clientNonce + serverNonce)
+ *   客户端 → HMAC-SHA256(密钥, 'C' + clientNonce + serverNonce)，之后即可发送请求
+ *   MAGIC 或任一方的 HMAC 不匹配时对方直接关闭连接
+ * 请求：op(1) + 参数
+ *   REGISTER / LOGIN      username, password
+ *   EXISTS                username
+ *   COUNT                 无
+ *   REGISTER_BATCH        count(2) + count 组 username, password
+ * 响应：status(1) + 结果
+ *   STATUS_FALSE / STATUS_TRUE           单个布尔结果，无后续数据
+ *   STATUS_OK + count(4)                 COUNT
+ *   STATUS_OK + count 个 0/1 字节        REGISTER_BATCH
+ *   STATUS_ERROR + message               请求无法执行，连接随后关闭
+ * </pre>
+ * 一条连接上的请求串行处理；客户端按连接池复用连接，并发度由连接数决定。
+ * 每条连接占用一个处理线程，线程数有上限（-Dcluster.maxConnections），超出时新连接被直接关闭。
+ * 请求内容（包括密码）不加密，分片端口只应在内网中开放，并绑定到节点列表中本节点的地址。
+ */
+final class ShardServer {
+    static final int MAGIC = 0x55535231; // "USR1"
+
+    static final byte OP_REGISTER = 1;
+    static final byte OP_LOGIN = 2;
+    static final byte OP_EXISTS = 3;
+    static final byte OP_COUNT = 4;
+    static final byte OP_REGISTER_BATCH = 5;
+
+    static final byte STATUS_FALSE = 0;
+    static final byte STATUS_TRUE = 1;
+    static final byte STATUS_OK = 2;
+    static final byte STATUS_ERROR = 3;
+
+    static final int MAX_BATCH = 0xFFFF;
+    static final int NONCE_LENGTH = 16;
+    static final int PROOF_LENGTH = 32;
+    static final byte ROLE_SERVER = 'S';
+    static final byte ROLE_CLIENT = 'C';
+    static final int DEFAULT_MAX_CONNECTIONS = 256;
+    private static final int IO_BUFFER_SIZE = 8192;
+    // 长于客户端连接池的空闲超时，保证客户端先关闭空闲连接
+    private static final int IDLE_TIMEOUT_MS = 60_000;
+    // 握手须在这个时间内完成，未通过认证的连接不会长时间占用处理线程
+    private static final int HANDSHAKE_TIMEOUT_MS = 5_000;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ShardedUserService service;
+    private final InetSocketAddress address;
+    private final byte[] secret;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor handlers;
+    private final AtomicLong rejectedHandshakes = new AtomicLong();
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param address        监听地址（本节点在节点列表中的 host:port）
+     * @param secret         集群共享密钥
+     * @param maxConnections 同时服务的连接数上限（每条连接一个线程）
+     */
+    ShardServer(ShardedUserService service, InetSocketAddress address, byte[] secret, int maxConnections) {
+        this.service = service;
+        this.address = address;
+        this.secret = secret;
+        // 不排队：线程都在服务连接时新连接被拒绝，而不是无限创建线程
+        this.handlers = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread t = new Thread(r, "shard-connection");
+                    t.setDaemon(true);
+                    return t;
+                });
+        this.handlers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 绑定端口并在后台线程中接受连接
+     */
+    void start() throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.setReuseAddress(true);
+        ss.bind(address);
+        serverSocket = ss;
+        Thread acceptor = new Thread(this::acceptLoop, "shard-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        System.out.println("Shard server started on " + ss.getInetAddress().getHostAddress() + ":" + ss.getLocalPort());
+    }
+
+    int getLocalPort() {
+        ServerSocket ss = serverSocket;
+        return ss != null ? ss.getLocalPort() : -1;
+    }
+
+    /** 因 MAGIC 或密钥不匹配被关闭的连接数 */
+    long getRejectedHandshakes() {
+        return rejectedHandshakes.get();
+    }
+
+    void close() {
+        ServerSocket ss = serverSocket;
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException ignored) {}
+        }
+        for (Socket s : connections) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+        handlers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        ServerSocket ss = serverSocket;
+        while (!ss.isClosed()) {
+            try {
+                Socket socket = ss.accept();
+                connections.add(socket);
+                try {
+                    handlers.execute(() -> serve(socket));
+                } catch (RejectedExecutionException e) {
+                    // 连接数已达上限：对端得到连接关闭，按节点不可达处理
+                    connections.remove(socket);
+                    socket.close();
+                }
+            } catch (IOException e) {
+                if (!ss.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), IO_BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), IO_BUFFER_SIZE));
+            if (!handshake(in, out)) {
+                rejectedHandshakes.incrementAndGet();
+                return;
+            }
+            socket.setSoTimeout(IDLE_TIMEOUT_MS);
+            while (true) {
+                int op = in.read();
+                if (op < 0) {
+                    return;
+                }
+                if (!handle((byte) op, in, out)) {
+                    out.flush();
+                    return;
+                }
+                // 客户端已经发来下一个请求时先不 flush，与下一个响应合并写出
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (EOFException | SocketTimeoutException | SocketException e) {
+            // 对端关闭或空闲超时
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * 服务端握手（见类注释）；返回 false 表示 MAGIC 或客户端的证明不匹配
+     */
+    private boolean handshake(DataInputStream in, DataOutputStream out) throws IOException {
+        if (in.readInt() != MAGIC) {
+            return false;
+        }
+        byte[] clientNonce = new byte[NONCE_LENGTH];
+        in.readFully(clientNonce);
+        byte[] serverNonce = newNonce();
+        out.write(serverNonce);
+        out.write(proof(secret, ROLE_SERVER, clientNonce, serverNonce));
+        out.flush();
+        byte[] answer = new byte[PROOF_LENGTH];
+        in.readFully(answer);
+        return MessageDigest.isEqual(answer, proof(secret, ROLE_CLIENT, clientNonce, serverNonce));
+    }
+
+    static byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * HMAC-SHA256(secret, role + clientNonce + serverNonce)；role 区分两个方向，一方的证明不能被反射回去冒充另一方
+     */
+    static byte[] proof(byte[] secret, byte role, byte[] clientNonce, byte[] serverNonce) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(role);
+            mac.update(clientNonce);
+            mac.update(serverNonce);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 是每个 JRE 都必须提供的算法
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 执行一个请求并写出响应；返回 false 表示请求无效，连接应关闭
+     */
+    private boolean handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case OP_REGISTER:
+                writeBoolean(out, service.registerLocal(in.readUTF(), in.readUTF()));
+                return true;
+            case OP_LOGIN:
+                writeBoolean(out, service.loginLocal(in.readUTF(), in.readUTF()));
+                return true;
+            case OP_EXISTS:
+                writeBoolean(out, service.existsLocal(in.readUTF()));
+                return true;
+            case OP_COUNT:
+                out.writeByte(STATUS_OK);
+                out.writeInt(service.countLocal());
+                return true;
+            case OP_REGISTER_BATCH: {
+                int count = in.readUnsignedShort();
+                String[] usernames = new String[count];
+                String[] passwords = new String[count];
+                for (int i = 0; i < count; i++) {
+                    usernames[i] = in.readUTF();
+                    passwords[i] = in.readUTF();
+                }
+                boolean[] results = service.registerBatchLocal(usernames, passwords, count);
+                out.writeByte(STATUS_OK);
+                for (boolean ok : results) {
+                    out.writeByte(ok ? 1 : 0);
+                }
+                return true;
+            }
+            default:
+                out.writeByte(STATUS_ERROR);
+                out.writeUTF("Unknown op " + op);
+                return false;
+        }
+    }
+
+    private static void writeBoolean(DataOutputStream out, boolean value) throws IOException {
+        out.writeByte(value ? STATUS_TRUE : STATUS_FALSE);
+    }
+}
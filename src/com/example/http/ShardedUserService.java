@@ -0,0 +1,251 @@
+package com.example.http;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 按用户名分片的用户服务（集群模式）
+ * 集群由静态配置的节点列表组成，每个节点是一个 HttpServer 进程，另外监听一个分片服务端口。
+ * 用户名按一致性哈希（HashRing）分配给节点，每个节点只存储自己分片内的用户：
+ * 本节点拥有的用户名直接在本地处理，其余的通过分片协议（见 ShardServer）转发给拥有者。
+ * 所有节点必须使用相同的节点列表（顺序也相同）和相同的共享密钥，任一节点都可以接收任何用户的请求。
+ * 分片服务只监听节点列表中本节点的地址，节点之间用共享密钥互相认证。
+ *
+ * 拥有者不可达时 register/login 等抛出 UncheckedIOException（路由返回 503），不会在其他节点上注册。
+ * getUserCount 汇总所有节点，不可达节点按最近一次成功取得的用户数计入，不抛出异常；usernamesAfter（GET /users）只列出本节点分片内的用户名。
+ */
+public class ShardedUserService extends UserService {
+    private final HashRing ring;
+    private final int self;
+    // 下标与 ring 的节点一致，本节点处为 null
+    private final ShardPeer[] peers;
+    // 各节点最近一次成功取得的用户数，节点不可达时 getUserCount 用它代替
+    private final AtomicIntegerArray lastCounts;
+    private final ShardServer server;
+
+    /**
+     * @param nodes  所有节点的分片服务地址 host:port
+     * @param self   本节点的分片服务地址，必须在 nodes 中
+     * @param secret 集群共享密钥，所有节点相同
+     */
+    public ShardedUserService(List<String> nodes, String self, String secret) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("cluster.secret is required in cluster mode");
+        }
+        byte[] key = secret.getBytes(StandardCharsets.UTF_8);
+        this.ring = new HashRing(nodes);
+        this.self = nodes.indexOf(self);
+        if (this.self < 0) {
+            throw new IllegalArgumentException("cluster.self " + self + " is not one of the cluster nodes " + nodes);
+        }
+        this.peers = new ShardPeer[nodes.size()];
+        this.lastCounts = new AtomicIntegerArray(nodes.size());
+        InetSocketAddress local = null;
+        for (int i = 0; i < nodes.size(); i++) {
+            Upstream address = Upstream.parse(nodes.get(i));
+            if (i == this.self) {
+                local = new InetSocketAddress(address.host, address.port);
+            } else {
+                peers[i] = new ShardPeer(address.host, address.port, key);
+            }
+        }
+        this.server = new ShardServer(this, local, key,
+                Integer.getInteger("cluster.maxConnections", ShardServer.DEFAULT_MAX_CONNECTIONS));
+    }
+
+    /**
+     * 由逗号分隔的节点列表创建，如 127.0.0.1:9101,127.0.0.1:9102,127.0.0.1:9103
+     */
+    public static ShardedUserService fromSpec(String nodes, String self, String secret) {
+        List<String> list = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            if (!node.trim().isEmpty()) {
+                list.add(node.trim());
+            }
+        }
+        return new ShardedUserService(list, self == null ? null : self.trim(), secret);
+    }
+
+    /**
+     * 开始接受其他节点转发的请求（绑定本节点的分片服务端口）
+     */
+    public void start() throws IOException {
+        server.start();
+    }
+
+    /**
+     * 停止分片服务并关闭到其他节点的连接
+     */
+    public void close() {
+        server.close();
+        for (ShardPeer peer : peers) {
+            if (peer != null) {
+                peer.close();
+            }
+        }
+    }
+
+    /**
+     * 用户名所属节点在节点列表中的下标
+     */
+    int ownerOf(String username) {
+        return ring.ownerOf(username);
+    }
+
+    @Override
+    public boolean register(String username, String password) {
+        if (username == null || username.isEmpty() ||
+                password == null || password.isEmpty()) {
+            return false;
+        }
+        int owner = ring.ownerOf(username);
+        if (owner == self) {
+            return super.register(username, password);
+        }
+        try {
+            return peers[owner].register(username, password);
+        } catch (IOException e) {
+            throw unavailable(owner, e);
+        }
+    }
+
+    @Override
+    public boolean login(String username, String password) {
+        if (username == null || username.isEmpty() ||
+                password == null || password.isEmpty()) {
+            return false;
+        }
+        int owner = ring.ownerOf(username);
+        if (owner == self) {
+            return super.login(username, password);
+        }
+        try {
+            return peers[owner].login(username, password);
+        } catch (IOException e) {
+            throw unavailable(owner, e);
+        }
+    }
+
+    @Override
+    public boolean isUsernameExists(String username) {
+        if (username == null) {
+            return false;
+        }
+        int owner = ring.ownerOf(username);
+        if (owner == self) {
+            return super.isUsernameExists(username);
+        }
+        try {
+            return peers[owner].exists(username);
+        } catch (IOException e) {
+            throw unavailable(owner, e);
+        }
+    }
+
+    /**
+     * 按拥有者分组：本节点的直接注册，其余每个节点一次往返
+     */
+    @Override
+    public boolean[] registerBatch(String[] usernames, String[] passwords, int count) {
+        boolean[] results = new boolean[count];
+        int nodes = ring.size();
+        String[][] groupUsers = new String[nodes][];
+        String[][] groupPasswords = new String[nodes][];
+        int[][] groupOffsets = new int[nodes][];
+        int[] groupSizes = new int[nodes];
+        for (int i = 0; i < count; i++) {
+            String username = usernames[i];
+            String password = passwords[i];
+            if (username == null || username.isEmpty() || password == null || password.isEmpty()) {
+                continue;
+            }
+            int owner = ring.ownerOf(username);
+            if (owner == self) {
+                results[i] = super.register(username, password);
+                continue;
+            }
+            if (groupUsers[owner] == null) {
+                groupUsers[owner] = new String[count];
+                groupPasswords[owner] = new String[count];
+                groupOffsets[owner] = new int[count];
+            }
+            int n = groupSizes[owner]++;
+            groupUsers[owner][n] = username;
+            groupPasswords[owner][n] = password;
+            groupOffsets[owner][n] = i;
+            if (n + 1 == ShardServer.MAX_BATCH) {
+                sendBatch(owner, groupUsers[owner], groupPasswords[owner], groupOffsets[owner], n + 1, results);
+                groupSizes[owner] = 0;
+            }
+        }
+        for (int owner = 0; owner < nodes; owner++) {
+            if (groupSizes[owner] > 0) {
+                sendBatch(owner, groupUsers[owner], groupPasswords[owner], groupOffsets[owner], groupSizes[owner], results);
+            }
+        }
+        return results;
+    }
+
+    private void sendBatch(int owner, String[] usernames, String[] passwords, int[] offsets, int count, boolean[] results) {
+        try {
+            peers[owner].registerBatch(usernames, passwords, count, results, offsets);
+        } catch (IOException e) {
+            throw unavailable(owner, e);
+        }
+    }
+
+    /**
+     * 所有节点的用户数之和（每个其他节点一次往返）
+     * 节点不可达时计入它最近一次的用户数（从未取得过则为 0），首页等只展示数量的地方不因此失败
+     */
+    @Override
+    public int getUserCount() {
+        int total = super.getUserCount();
+        for (int i = 0; i < peers.length; i++) {
+            if (peers[i] == null) continue;
+            try {
+                int count = peers[i].count();
+                lastCounts.set(i, count);
+                total += count;
+            } catch (IOException e) {
+                total += lastCounts.get(i);
+            }
+        }
+        return total;
+    }
+
+    // ==================== 本节点分片上的操作（ShardServer 调用） ====================
+
+    boolean registerLocal(String username, String password) {
+        return super.register(username, password);
+    }
+
+    boolean loginLocal(String username, String password) {
+        return super.login(username, password);
+    }
+
+    boolean existsLocal(String username) {
+        return super.isUsernameExists(username);
+    }
+
+    int countLocal() {
+        return super.getUserCount();
+    }
+
+    boolean[] registerBatchLocal(String[] usernames, String[] passwords, int count) {
+        boolean[] results = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = super.register(usernames[i], passwords[i]);
+        }
+        return results;
+    }
+
+    private UncheckedIOException unavailable(int owner, IOException e) {
+        return new UncheckedIOException("Shard " + ring.node(owner) + " unavailable", e);
+    }
+}
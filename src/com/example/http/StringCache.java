@@ -0,0 +1,97 @@
+package com.example.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 按连接持有的小型字符串缓存
+ * 长连接上的请求通常重复相同的路径、头名称和头值，解析时先按字节内容查缓存，
+ * 命中则复用已有 String，避免每个请求都重新分配。
+ * 非线程安全，只能由连接的读线程使用。
+ */
+final class StringCache {
+    private final String[] entries;
+    private final int mask;
+
+    StringCache(int size) {
+        int n = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.entries = new String[n];
+        this.mask = n - 1;
+    }
+
+    /**
+     * 返回与 bytes[off, off+len) 内容相同的字符串
+     */
+    String get(byte[] bytes, int off, int len) {
+        if (len == 0) return "";
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + bytes[i];
+        }
+        int slot = (h ^ (h >>> 16)) & mask;
+        String cached = entries[slot];
+        if (cached != null && matches(cached, bytes, off, len, false)) {
+            return cached;
+        }
+        String s = decode(bytes, off, len, false);
+        if (s != null) {
+            entries[slot] = s;
+            return s;
+        }
+        return new String(bytes, off, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 返回 bytes[off, off+len) 转为小写后的字符串（用于头名称）
+     */
+    String getLowerCase(byte[] bytes, int off, int len) {
+        if (len == 0) return "";
+        int h = 0;
+        for (int i = off; i < off + len; i++) {
+            h = 31 * h + toLower(bytes[i]);
+        }
+        int slot = (h ^ (h >>> 16)) & mask;
+        String cached = entries[slot];
+        if (cached != null && matches(cached, bytes, off, len, true)) {
+            return cached;
+        }
+        String s = decode(bytes, off, len, true);
+        if (s != null) {
+            entries[slot] = s;
+            return s;
+        }
+        return new String(bytes, off, len, StandardCharsets.UTF_8).toLowerCase();
+    }
+
+    private static boolean matches(String s, byte[] bytes, int off, int len, boolean lower) {
+        if (s.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            int b = lower ? toLower(bytes[off + i]) : bytes[off + i];
+            if (s.charAt(i) != b) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 纯 ASCII 内容直接按单字节解码；含非 ASCII 字节时返回 null（交给 UTF-8 解码，且不缓存）
+     */
+    private static String decode(byte[] bytes, int off, int len, boolean lower) {
+        boolean hasUpper = false;
+        for (int i = off; i < off + len; i++) {
+            byte b = bytes[i];
+            if (b < 0) return null;
+            if (b >= 'A' && b <= 'Z') hasUpper = true;
+        }
+        if (!lower || !hasUpper) {
+            return new String(bytes, off, len, StandardCharsets.ISO_8859_1);
+        }
+        byte[] copy = new byte[len];
+        for (int i = 0; i < len; i++) {
+            copy[i] = (byte) toLower(bytes[off + i]);
+        }
+        return new String(copy, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? b + ('a' - 'A') : b;
+    }
+}
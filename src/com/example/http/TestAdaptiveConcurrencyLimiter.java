@@ -0,0 +1,82 @@
+package com.example.http;
+
+/**
+ * AdaptiveConcurrencyLimiter Simulation Test
+ * Drive the limiter with a simulated server of fixed capacity and check the limit converges
+ */
+public class TestAdaptiveConcurrencyLimiter {
+    // Simulated server: CAPACITY requests run in parallel, the rest wait in a FIFO queue
+    private static final int CAPACITY = 8;
+    private static final long BASE_RTT_NANOS = 1_000_000;
+    private static final int OFFERED_CONCURRENCY = 200;
+
+    public static void main(String[] args) {
+        System.out.println("=== AdaptiveConcurrencyLimiter Simulation Test ===");
+        System.out.println();
+
+        // Test 1: Limit shrinks from an oversized start
+        System.out.println("1. Test convergence from a high initial limit:");
+        AdaptiveConcurrencyLimiter high = new AdaptiveConcurrencyLimiter(200, 1, 1000, 1.5, 50);
+        double throughputHigh = simulate(high, 2000);
+        System.out.println("   Final limit: " + high.getLimit());
+        System.out.println("   Throughput: " + String.format("%.2f", throughputHigh) + " req/ms (capacity " + CAPACITY + ")");
+        System.out.println("   Expected: limit between " + CAPACITY + " and " + (4 * CAPACITY));
+        System.out.println();
+
+        // Test 2: Limit grows from an undersized start
+        System.out.println("2. Test convergence from a low initial limit:");
+        AdaptiveConcurrencyLimiter low = new AdaptiveConcurrencyLimiter(2, 1, 1000, 1.5, 50);
+        double throughputLow = simulate(low, 2000);
+        System.out.println("   Final limit: " + low.getLimit());
+        System.out.println("   Throughput: " + String.format("%.2f", throughputLow) + " req/ms (capacity " + CAPACITY + ")");
+        System.out.println("   Expected: limit between " + CAPACITY + " and " + (4 * CAPACITY));
+        System.out.println();
+
+        // Test 3: Rejection when the limit is reached
+        System.out.println("3. Test rejection at the limit:");
+        AdaptiveConcurrencyLimiter fixed = new AdaptiveConcurrencyLimiter(2, 1, 2, 1.5, 50);
+        boolean first = fixed.tryAcquire();
+        boolean second = fixed.tryAcquire();
+        boolean third = fixed.tryAcquire();
+        System.out.println("   Acquire results: " + first + ", " + second + ", " + third);
+        System.out.println("   In flight: " + fixed.getInFlight() + ", rejected: " + fixed.getRejectedCount());
+        System.out.println("   Expected: true, true, false; in flight 2, rejected 1");
+        System.out.println();
+
+        boolean normal = inRange(high.getLimit()) && inRange(low.getLimit())
+                && throughputHigh > CAPACITY * 0.9 && throughputLow > CAPACITY * 0.9
+                && first && second && !third;
+        System.out.println("=== Simulation Test Completed ===");
+        System.out.println("AdaptiveConcurrencyLimiter functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    /**
+     * Run closed-loop rounds: admit as many requests as the limiter allows,
+     * then complete them with latencies from the simulated queue.
+     *
+     * @return throughput of the last rounds in requests per millisecond
+     */
+    private static double simulate(AdaptiveConcurrencyLimiter limiter, int rounds) {
+        long completed = 0;
+        long elapsedNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            int admitted = 0;
+            while (admitted < OFFERED_CONCURRENCY && limiter.tryAcquire()) {
+                admitted++;
+            }
+            for (int i = 0; i < admitted; i++) {
+                // The i-th request waits for i / CAPACITY batches ahead of it
+                limiter.release(BASE_RTT_NANOS * (1 + i / CAPACITY));
+            }
+            if (round >= rounds / 2) {
+                completed += admitted;
+                elapsedNanos += BASE_RTT_NANOS * ((admitted + CAPACITY - 1) / CAPACITY);
+            }
+        }
+        return completed / (elapsedNanos / 1_000_000.0);
+    }
+
+    private static boolean inRange(int limit) {
+        return limit >= CAPACITY && limit <= 4 * CAPACITY;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsyncRouter Integration Test
+ * Test that pipelined responses keep request order when handlers complete out of order,
+ * and that clients not reading their responses on one server do not hold another server's writer threads
+ */
+public class TestAsyncRouter {
+    public static void main(String[] args) throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+        // /slow completes 200ms later on another thread, /huge completes 50ms later with 8MB,
+        // everything else completes immediately
+        byte[] huge = new byte[8 * 1024 * 1024];
+        AsyncRouter router = request -> {
+            if ("/huge".equals(request.getPath())) {
+                CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+                HttpResponse response = new HttpResponse(200, "OK");
+                response.setBody(huge);
+                timer.schedule(() -> future.complete(response), 50, TimeUnit.MILLISECONDS);
+                return future;
+            }
+            if ("/slow".equals(request.getPath())) {
+                CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+                timer.schedule(() -> future.complete(HttpResponse.okText("slow")), 200, TimeUnit.MILLISECONDS);
+                return future;
+            }
+            if ("/fail".equals(request.getPath())) {
+                return CompletableFuture.failedFuture(new IllegalStateException("handler failed"));
+            }
+            return CompletableFuture.completedFuture(HttpResponse.okText("fast"));
+        };
+
+        HttpServer server = new HttpServer(0, 2);
+        server.setAsyncRouter(router);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+
+        System.out.println("=== AsyncRouter Integration Test ===");
+        System.out.println();
+
+        // Test 1: Pipelined requests, the first one completes last
+        System.out.println("1. Test pipelined response ordering:");
+        String responses;
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                    "GET /fail HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                    "GET /fast HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            responses = readAll(socket.getInputStream());
+        }
+        int slowAt = responses.indexOf("\r\n\r\nslow");
+        int failAt = responses.indexOf("500 Internal Server Error");
+        int fastAt = responses.indexOf("\r\n\r\nfast");
+        System.out.println("   Positions: slow=" + slowAt + ", error=" + failAt + ", fast=" + fastAt);
+        System.out.println("   Expected: slow < error < fast");
+        System.out.println();
+
+        // Test 2: Synchronous routers are adapted automatically
+        System.out.println("2. Test synchronous router adaptation:");
+        AsyncRouter adapted = AsyncRouter.adapt(new CompleteRouter());
+        HttpRequest request = new HttpRequest();
+        request.setMethod("GET");
+        request.setPath("/user/count");
+        request.setProtocol("HTTP/1.1");
+        CompletableFuture<HttpResponse> future = adapted.routeAsync(request);
+        System.out.println("   Completed immediately: " + future.isDone() + ", status: " + future.join().getStatusCode());
+        System.out.println("   Expected: true, 200");
+        System.out.println();
+
+        // Test 3: Clients that never read fill the first server's writer threads; a second server is not affected
+        System.out.println("3. Test writer threads per server:");
+        HttpServer other = new HttpServer(0, 2);
+        other.setAsyncRouter(router);
+        Thread otherThread = new Thread(() -> {
+            try {
+                other.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        otherThread.start();
+        while (other.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        List<Socket> stalled = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Socket socket = new Socket();
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new java.net.InetSocketAddress("localhost", server.getLocalPort()));
+            socket.getOutputStream().write("GET /huge HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            stalled.add(socket);
+        }
+        Thread.sleep(500);
+        long start = System.currentTimeMillis();
+        String otherResponse = get(other.getLocalPort(), "/slow");
+        long otherMs = System.currentTimeMillis() - start;
+        for (Socket socket : stalled) {
+            socket.close();
+        }
+        server.shutdown();
+        String afterShutdown = get(other.getLocalPort(), "/slow");
+        other.shutdown();
+        boolean isolated = otherResponse.endsWith("\r\n\r\nslow") && otherMs < 2000 && afterShutdown.endsWith("\r\n\r\nslow");
+        System.out.println("   Second server while the first is stalled: " + (otherResponse.endsWith("slow") ? "slow" : "no answer")
+                + " after " + otherMs + " ms, after the first shuts down: " + (afterShutdown.endsWith("slow") ? "slow" : "no answer"));
+        System.out.println("   Expected: slow after about 200 ms, slow");
+        System.out.println();
+
+        timer.shutdown();
+
+        boolean normal = slowAt >= 0 && slowAt < failAt && failAt < fastAt
+                && future.isDone() && future.join().getStatusCode() == 200
+                && isolated;
+        System.out.println("=== Integration Test Completed ===");
+        System.out.println("AsyncRouter functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static String get(int port, String path) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return readAll(socket.getInputStream());
+        }
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            buf.write(chunk, 0, n);
+        }
+        return buf.toString(StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BufferPool Unit Test
+ * Test size classes, reuse, direct memory cap and debug leak tracking
+ */
+public class TestBufferPool {
+    public static void main(String[] args) {
+        System.out.println("=== BufferPool Unit Test ===");
+        System.out.println();
+
+        // Test 1: Size classes
+        System.out.println("1. Test size classes:");
+        BufferPool pool = new BufferPool(new int[]{4, 4, 4}, 1024 * 1024, true);
+        ByteBuffer small = pool.acquire(100);
+        ByteBuffer medium = pool.acquire(5000);
+        ByteBuffer large = pool.acquire(20_000);
+        System.out.println("   Capacities: " + small.capacity() + ", " + medium.capacity() + ", " + large.capacity());
+        System.out.println("   Direct: " + (small.isDirect() && medium.isDirect() && large.isDirect()));
+        System.out.println("   Outstanding: " + pool.getOutstandingBytes());
+        System.out.println("   Expected: 4096, 16384, 65536; direct true; outstanding 86016");
+        System.out.println();
+        boolean classesOk = small.capacity() == BufferPool.SMALL && medium.capacity() == BufferPool.MEDIUM
+                && large.capacity() == BufferPool.LARGE && small.isDirect()
+                && pool.getOutstandingBytes() == 86016;
+
+        // Test 2: Reuse after release
+        System.out.println("2. Test reuse after release:");
+        int leaks = pool.reportLeaks();
+        pool.release(small);
+        pool.release(medium);
+        pool.release(large);
+        ByteBuffer again = pool.acquire(10);
+        System.out.println("   Leaks before release: " + leaks + ", same buffer reused: " + (again == small));
+        System.out.println("   Hit rate: " + String.format("%.2f", pool.getHitRate()));
+        System.out.println("   Expected: 3 leaks, reused true, hit rate 0.25");
+        System.out.println();
+        boolean reuseOk = leaks == 3 && again == small && Math.abs(pool.getHitRate() - 0.25) < 1e-9;
+
+        // Test 3: Double release is detected in debug mode
+        System.out.println("3. Test double release detection:");
+        pool.release(again);
+        boolean detected = false;
+        try {
+            pool.release(again);
+        } catch (IllegalStateException e) {
+            detected = true;
+        }
+        System.out.println("   Detected: " + detected);
+        System.out.println("   Expected: true");
+        System.out.println();
+
+        // Test 4: Direct memory cap falls back to heap buffers
+        System.out.println("4. Test direct memory cap:");
+        BufferPool capped = new BufferPool(new int[]{4, 4, 4}, 8192, false);
+        ByteBuffer first = capped.acquire(4096);
+        ByteBuffer second = capped.acquire(4096);
+        ByteBuffer third = capped.acquire(4096);
+        System.out.println("   Direct: " + first.isDirect() + ", " + second.isDirect() + ", " + third.isDirect());
+        System.out.println("   Fallbacks: " + capped.getFallbacks() + ", outstanding: " + capped.getOutstandingBytes());
+        System.out.println("   Expected: true, true, false; fallbacks 1, outstanding 8192");
+        System.out.println();
+        boolean capOk = first.isDirect() && second.isDirect() && !third.isDirect()
+                && capped.getFallbacks() == 1 && capped.getOutstandingBytes() == 8192;
+
+        boolean normal = classesOk && reuseOk && detected && capOk;
+        System.out.println("=== Unit Test Completed ===");
+        System.out.println("BufferPool functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bulk User Import Integration Test
+ * Test POST /users/import with chunked NDJSON and CSV bodies that are parsed while they stream in,
+ * the rate limit, the switch that enables the endpoint and the per-request account limit
+ */
+public class TestBulkImport {
+    private static final int NDJSON_ACCOUNTS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = new HttpServer(0, 4);
+        CompleteRouter router = new CompleteRouter();
+        router.setImportEnabled(true);
+        server.setRouter(router);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        int port = server.getLocalPort();
+        String prefix = "bulk" + System.nanoTime() + "_";
+
+        System.out.println("=== Bulk User Import Integration Test ===");
+        System.out.println();
+
+        // Test 1: 100k NDJSON accounts in chunked encoding, then a pipelined request on the same connection
+        System.out.println("1. Test chunked NDJSON import of " + NDJSON_ACCOUNTS + " accounts:");
+        long start = System.nanoTime();
+        String responses;
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /users/import HTTP/1.1\r\nHost: localhost\r\n" +
+                    "Content-Type: application/x-ndjson\r\nTransfer-Encoding: chunked\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            StringBuilder chunk = new StringBuilder();
+            for (int i = 0; i < NDJSON_ACCOUNTS; i++) {
+                chunk.append("{\"username\":\"").append(prefix).append(i).append("\",\"password\":\"p").append(i).append("\"}\n");
+                if (chunk.length() > 8000 || i == NDJSON_ACCOUNTS - 1) {
+                    byte[] data = chunk.toString().getBytes(StandardCharsets.UTF_8);
+                    out.write((Integer.toHexString(data.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(data);
+                    out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+                    chunk.setLength(0);
+                }
+            }
+            out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.write("GET /user/count HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            responses = readAll(socket.getInputStream());
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        boolean ndjsonOk = responses.contains("\"lines\":" + NDJSON_ACCOUNTS + ",\"imported\":" + NDJSON_ACCOUNTS
+                + ",\"duplicates\":0,\"invalid\":0") && responses.contains("Current user counts:");
+        System.out.println("   Summary: " + between(responses, "{\"lines\"", "}") + " in " + elapsedMs + " ms");
+        System.out.println("   Pipelined GET after the body answered: " + responses.contains("Current user counts:"));
+        System.out.println("   Expected: imported=" + NDJSON_ACCOUNTS + ", true");
+        System.out.println();
+
+        // Test 2: CSV with header, quoted fields, a duplicate and invalid lines (HttpClient sends it chunked)
+        System.out.println("2. Test CSV import:");
+        String csv = "username,password\r\n" +
+                prefix + "csv1,secret\r\n" +
+                "\"" + prefix + "csv2\",\"pa,ss\"\"word\"\r\n" +
+                prefix + "csv1,again\r\n" +
+                "only-one-field\r\n" +
+                "," + "\r\n" +
+                prefix + "csv3,last";
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        java.net.http.HttpResponse<String> csvResponse = client.send(
+                java.net.http.HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users/import"))
+                        .header("Content-Type", "text/csv")
+                        .expectContinue(true)
+                        .POST(BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))))
+                        .build(),
+                BodyHandlers.ofString());
+        UserService users = new UserService();
+        boolean csvOk = csvResponse.body().startsWith("{\"lines\":6,\"imported\":3,\"duplicates\":1,\"invalid\":2")
+                && users.login(prefix + "csv2", "pa,ss\"word");
+        System.out.println("   Status: " + csvResponse.statusCode() + ", summary: " + csvResponse.body());
+        System.out.println("   Quoted password stored correctly: " + users.login(prefix + "csv2", "pa,ss\"word"));
+        System.out.println("   Expected: 200, lines=6 imported=3 duplicates=1 invalid=2, true");
+        System.out.println();
+
+        // Test 3: JSON escapes and unknown keys in NDJSON lines
+        System.out.println("3. Test NDJSON line parsing:");
+        String[] parsed = BulkUserImporter.parseJsonAccount(
+                "{ \"id\": 7, \"username\": \"al\\u0069ce\", \"active\": true, \"password\": \"a\\\"b\" }");
+        String[] broken = BulkUserImporter.parseJsonAccount("{\"username\":\"x\"");
+        boolean parseOk = parsed != null && "alice".equals(parsed[0]) && "a\"b".equals(parsed[1]) && broken == null;
+        System.out.println("   Parsed: " + (parsed == null ? null : parsed[0] + " / " + parsed[1]) + ", broken line rejected: " + (broken == null));
+        System.out.println("   Expected: alice / a\"b, true");
+        System.out.println();
+
+        // Test 4: A third import from the same client within the window is rate limited
+        System.out.println("4. Test import rate limit:");
+        java.net.http.HttpResponse<String> limited = client.send(
+                java.net.http.HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/users/import"))
+                        .header("Content-Type", "text/csv")
+                        .POST(BodyPublishers.ofString(prefix + "late,secret\n"))
+                        .build(),
+                BodyHandlers.ofString());
+        String retryAfter = limited.headers().firstValue("Retry-After").orElse(null);
+        boolean limitOk = limited.statusCode() == 429 && "30".equals(retryAfter) && !users.isUsernameExists(prefix + "late");
+        System.out.println("   Status: " + limited.statusCode() + ", Retry-After: " + retryAfter
+                + ", user registered: " + users.isUsernameExists(prefix + "late"));
+        System.out.println("   Expected: 429, 30, false");
+        System.out.println();
+
+        // Test 5: The endpoint is off unless enabled, and one request can only import so many accounts
+        System.out.println("5. Test import switch and per-request account limit:");
+        HttpServer second = new HttpServer(0, 4);
+        CompleteRouter secondRouter = new CompleteRouter();
+        second.setRouter(secondRouter);
+        new Thread(() -> {
+            try {
+                second.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }).start();
+        while (second.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        StringBuilder five = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            five.append(prefix).append("cap").append(i).append(",secret\n");
+        }
+        java.net.http.HttpRequest capRequest = java.net.http.HttpRequest.newBuilder(
+                        URI.create("http://localhost:" + second.getLocalPort() + "/users/import"))
+                .header("Content-Type", "text/csv")
+                .POST(BodyPublishers.ofString(five.toString()))
+                .build();
+        int disabledStatus = client.send(capRequest, BodyHandlers.ofString()).statusCode();
+        secondRouter.setImportEnabled(true);
+        secondRouter.setMaxImportAccounts(3);
+        java.net.http.HttpResponse<String> capped = client.send(capRequest, BodyHandlers.ofString());
+        boolean capOk = disabledStatus == 404 && capped.statusCode() == 413
+                && capped.body().contains("\"lines\":3,\"imported\":3") && capped.body().contains("\"truncated\":true")
+                && users.isUsernameExists(prefix + "cap2") && !users.isUsernameExists(prefix + "cap3");
+        System.out.println("   Disabled: " + disabledStatus + ", over the limit: " + capped.statusCode() + " "
+                + between(capped.body(), "{\"lines\"", "[") + ", 4th account registered: "
+                + users.isUsernameExists(prefix + "cap3"));
+        System.out.println("   Expected: 404, 413 lines=3 imported=3 truncated=true, false");
+        second.shutdown();
+        System.out.println();
+
+        server.shutdown();
+
+        boolean normal = ndjsonOk && csvResponse.statusCode() == 200 && csvOk && parseOk && limitOk && capOk;
+        System.out.println("=== Integration Test Completed ===");
+        System.out.println("Bulk import functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static String between(String s, String from, String to) {
+        int a = s.indexOf(from);
+        if (a < 0) return "(missing)";
+        int b = s.indexOf(to, a);
+        return b < 0 ? s.substring(a) : s.substring(a, b + 1);
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) != -1) {
+            buf.write(chunk, 0, n);
+        }
+        return buf.toString(StandardCharsets.UTF_8.name());
+    }
+}
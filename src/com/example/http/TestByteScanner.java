@@ -0,0 +1,190 @@
+package com.example.http;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * ByteScanner Test
+ * Differential test of the 8-bytes-at-a-time delimiter search against a byte-by-byte scan,
+ * and a comparison of both on realistic request heads
+ */
+public class TestByteScanner {
+    private static final byte[] TARGETS = {'\r', '\n', ':', ' ', '?', '&', '=', 0, (byte) 0x80, (byte) 0xFF, 0x7F};
+
+    private static final String BROWSER_HEAD = "GET /search?q=http+server&lang=en&page=2&sort=recent HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "Connection: keep-alive\r\n" +
+            "sec-ch-ua: \"Chromium\";v=\"118\", \"Google Chrome\";v=\"118\", \"Not=A?Brand\";v=\"99\"\r\n" +
+            "sec-ch-ua-mobile: ?0\r\n" +
+            "sec-ch-ua-platform: \"Windows\"\r\n" +
+            "Upgrade-Insecure-Requests: 1\r\n" +
+            "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) " +
+            "Chrome/118.0.0.0 Safari/537.36\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n" +
+            "Sec-Fetch-Site: same-origin\r\n" +
+            "Sec-Fetch-Mode: navigate\r\n" +
+            "Sec-Fetch-Dest: document\r\n" +
+            "Referer: https://www.example.com/\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: zh-CN,zh;q=0.9,en;q=0.8\r\n" +
+            "Cookie: session=3f2a9c1e7b6d4a58; theme=dark; _ga=GA1.1.123456789.1697000000\r\n" +
+            "\r\n";
+
+    private static final String API_HEAD = "POST /login HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Content-Type: application/x-www-form-urlencoded\r\n" +
+            "Content-Length: 31\r\n" +
+            "\r\n";
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== ByteScanner Test ===");
+        System.out.println();
+
+        // Test 1: Random inputs over every offset and length agree with a byte-by-byte scan
+        System.out.println("1. Test differential against the scalar scan:");
+        Random random = new Random(42);
+        byte[] alphabet = {'a', 'Z', '0', '\r', '\n', ':', ' ', '?', '&', '=', 0, 1, (byte) 0x80, (byte) 0x81,
+                (byte) 0xFF, (byte) 0xFE, 0x7F, (byte) 0x8D, (byte) 0x8A};
+        long checks = 0;
+        int mismatches = 0;
+        for (int round = 0; round < 300; round++) {
+            int n = random.nextInt(80);
+            byte[] bytes = new byte[n];
+            for (int i = 0; i < n; i++) {
+                // mostly plain bytes, so matches appear at every position within a word
+                bytes[i] = random.nextInt(4) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) ('a' + random.nextInt(26));
+            }
+            ByteBuffer direct = ByteBuffer.allocateDirect(n);
+            direct.put(0, bytes);
+            ByteBuffer heapLittle = ByteBuffer.wrap(bytes.clone()).order(ByteOrder.LITTLE_ENDIAN);
+            for (int from = 0; from <= n; from++) {
+                for (int to = from; to <= n; to++) {
+                    for (byte target : TARGETS) {
+                        int expected = scalarIndexOf(bytes, from, to, target);
+                        if (ByteScanner.indexOf(bytes, from, to, target) != expected) mismatches++;
+                        if (ByteScanner.indexOf(direct, from, to, target) != expected) mismatches++;
+                        if (ByteScanner.indexOf(heapLittle, from, to, target) != expected) mismatches++;
+                        byte other = TARGETS[(target & 0xFF) % TARGETS.length];
+                        int expectedAny = scalarIndexOfAny(bytes, from, to, target, other);
+                        if (ByteScanner.indexOfAny(bytes, from, to, target, other) != expectedAny) mismatches++;
+                        checks += 4;
+                    }
+                }
+            }
+        }
+        System.out.println("   Comparisons: " + checks + ", mismatches: " + mismatches);
+        System.out.println("   Expected: 0 mismatches");
+        System.out.println();
+
+        // Test 2: The byte-level head parser agrees with the string parser on realistic heads
+        System.out.println("2. Test parsed heads against the string parser:");
+        boolean browserOk = sameParse(BROWSER_HEAD);
+        boolean apiOk = sameParse(API_HEAD);
+        boolean oddOk = sameParse("GET /a?x&=1&y=&&z=2=3&w HTTP/1.1\r\nX-Empty:\r\nX-Spaces: \t padded \t\r\n\r\n");
+        System.out.println("   Browser head: " + browserOk + ", API head: " + apiOk + ", odd query and spacing: " + oddOk);
+        System.out.println("   Expected: true, true, true");
+        System.out.println();
+
+        // Test 3: Delimiter scanning and head parsing, scalar vs 8 bytes at a time
+        System.out.println("3. Test scanning speed on realistic heads:");
+        byte[] browser = BROWSER_HEAD.getBytes(StandardCharsets.US_ASCII);
+        byte[] api = API_HEAD.getBytes(StandardCharsets.US_ASCII);
+        for (int warmup = 0; warmup < 5; warmup++) {
+            scanScalar(browser, 20_000);
+            scanSwar(browser, 20_000);
+            parseLoop(browser, 20_000);
+        }
+        double scalarBrowser = scanScalar(browser, 500_000);
+        double swarBrowser = scanSwar(browser, 500_000);
+        double scalarApi = scanScalar(api, 2_000_000);
+        double swarApi = scanSwar(api, 2_000_000);
+        double parseBrowser = parseLoop(browser, 500_000);
+        System.out.println(String.format("   Browser head (%d bytes) line/colon scan: scalar %.0f ns, SWAR %.0f ns (%.1fx)",
+                browser.length, scalarBrowser, swarBrowser, scalarBrowser / swarBrowser));
+        System.out.println(String.format("   API head (%d bytes) line/colon scan: scalar %.0f ns, SWAR %.0f ns (%.1fx)",
+                api.length, scalarApi, swarApi, scalarApi / swarApi));
+        System.out.println(String.format("   Full parseHead of the browser head: %.0f ns", parseBrowser));
+        System.out.println("   Expected: SWAR faster than scalar on the long head");
+        System.out.println();
+
+        boolean normal = mismatches == 0 && browserOk && apiOk && oddOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("ByteScanner functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static int scalarIndexOf(byte[] bytes, int from, int to, byte target) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == target) return i;
+        }
+        return -1;
+    }
+
+    private static int scalarIndexOfAny(byte[] bytes, int from, int to, byte a, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == a || bytes[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean sameParse(String head) throws Exception {
+        byte[] bytes = head.getBytes(StandardCharsets.US_ASCII);
+        HttpRequest fast = new HttpRequest();
+        fast.reset();
+        HttpRequestParser.parseHead(bytes, bytes.length, fast, new StringCache(64));
+        fast.finishReuse();
+        HttpRequest reference = HttpRequestParser.parse(head);
+        return fast.getMethod().equals(reference.getMethod()) && fast.getPath().equals(reference.getPath())
+                && fast.getProtocol().equals(reference.getProtocol())
+                && fast.getHeaders().equals(reference.getHeaders())
+                && fast.getParameters().equals(reference.getParameters());
+    }
+
+    /**
+     * Finds every line end and header colon the way parseHead does, byte by byte; ns per head
+     */
+    private static double scanScalar(byte[] head, int iterations) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int n = 0; n < iterations; n++) {
+            int pos = 0;
+            while (pos < head.length) {
+                int eol = scalarIndexOf(head, pos, head.length, (byte) '\n');
+                if (eol < 0) break;
+                sink += scalarIndexOf(head, pos, eol, (byte) ':');
+                pos = eol + 1;
+            }
+        }
+        double ns = (System.nanoTime() - start) / (double) iterations;
+        return sink == 42 ? -ns : ns;
+    }
+
+    private static double scanSwar(byte[] head, int iterations) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int n = 0; n < iterations; n++) {
+            int pos = 0;
+            while (pos < head.length) {
+                int eol = ByteScanner.indexOf(head, pos, head.length, (byte) '\n');
+                if (eol < 0) break;
+                sink += ByteScanner.indexOf(head, pos, eol, (byte) ':');
+                pos = eol + 1;
+            }
+        }
+        double ns = (System.nanoTime() - start) / (double) iterations;
+        return sink == 42 ? -ns : ns;
+    }
+
+    private static double parseLoop(byte[] head, int iterations) throws Exception {
+        HttpRequest request = new HttpRequest();
+        StringCache cache = new StringCache(128);
+        long start = System.nanoTime();
+        for (int n = 0; n < iterations; n++) {
+            request.reset();
+            HttpRequestParser.parseHead(head, head.length, request, cache);
+            request.finishReuse();
+        }
+        return (System.nanoTime() - start) / (double) iterations;
+    }
+}
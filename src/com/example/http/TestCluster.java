@@ -0,0 +1,240 @@
+package com.example.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cluster Test
+ * Test the consistent hash ring, then start three HttpServer processes in cluster mode and check that
+ * users are split across them, that any node can register and log in any user, and that requests for a
+ * stopped node's users fail with 503 while the other shards and the user count keep working
+ */
+public class TestCluster {
+    private static final int NODES = 3;
+    private static final int USERS = 3000;
+    private static final String SECRET = "test-cluster-secret";
+    private static final Pattern NAME = Pattern.compile("\"(cluster[0-9]+)\"");
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Cluster Test ===");
+        System.out.println();
+
+        // Test 1: Keys spread evenly, and adding a node only moves keys onto the new node
+        System.out.println("1. Test consistent hash ring:");
+        List<String> three = List.of("10.0.0.1:9100", "10.0.0.2:9100", "10.0.0.3:9100");
+        List<String> four = new ArrayList<>(three);
+        four.add("10.0.0.4:9100");
+        HashRing ring3 = new HashRing(three);
+        HashRing ring4 = new HashRing(four);
+        int keys = 100_000;
+        int[] perNode = new int[NODES];
+        int moved = 0;
+        int movedElsewhere = 0;
+        for (int i = 0; i < keys; i++) {
+            String key = "user" + i;
+            int before = ring3.ownerOf(key);
+            int after = ring4.ownerOf(key);
+            perNode[before]++;
+            if (before != after) {
+                moved++;
+                if (after != 3) movedElsewhere++;
+            }
+        }
+        double spread = (double) Math.max(perNode[0], Math.max(perNode[1], perNode[2]))
+                / Math.min(perNode[0], Math.min(perNode[1], perNode[2]));
+        double movedShare = moved / (double) keys;
+        boolean ringOk = spread < 1.3 && movedShare > 0.18 && movedShare < 0.32 && movedElsewhere == 0;
+        System.out.println(String.format("   Keys per node: %d / %d / %d (max/min %.2f)", perNode[0], perNode[1], perNode[2], spread));
+        System.out.println(String.format("   Adding a 4th node moved %.1f%% of keys, %d to an old node", movedShare * 100, movedElsewhere));
+        System.out.println("   Expected: max/min below 1.3, about 25% moved, 0 to an old node");
+        System.out.println();
+
+        // Start three nodes in separate JVMs (the user store is per process)
+        int[] httpPorts = new int[NODES];
+        List<String> shardNodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            httpPorts[i] = freePort();
+            shardNodes.add("127.0.0.1:" + freePort());
+        }
+        String spec = String.join(",", shardNodes);
+        Process[] processes = new Process[NODES];
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < NODES; i++) {
+            processes[i] = new ProcessBuilder(javaBin, "-cp", System.getProperty("java.class.path"),
+                    "-Dhttp.port=" + httpPorts[i], "-Dusers.listing=true", "-Dusers.import=true",
+                    "-Dcluster.nodes=" + spec, "-Dcluster.self=" + shardNodes.get(i), "-Dcluster.secret=" + SECRET,
+                    "com.example.http.HttpServer")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        }
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        HashRing ring = new HashRing(shardNodes);
+        try {
+            for (int i = 0; i < NODES; i++) {
+                awaitUp(client, httpPorts[i]);
+            }
+
+            // Test 2: A bulk import through one node lands on every shard; each node reports the cluster total
+            System.out.println("2. Test bulk import through node 0:");
+            StringBuilder csv = new StringBuilder("username,password\n");
+            for (int i = 0; i < USERS; i++) {
+                csv.append("cluster").append(i).append(",pw").append(i).append('\n');
+            }
+            java.net.http.HttpResponse<String> imported = client.send(java.net.http.HttpRequest.newBuilder(url(httpPorts[0], "/users/import"))
+                    .header("Content-Type", "text/csv").POST(BodyPublishers.ofString(csv.toString())).build(), BodyHandlers.ofString());
+            boolean countsOk = true;
+            StringBuilder counts = new StringBuilder();
+            for (int i = 0; i < NODES; i++) {
+                String body = get(client, httpPorts[i], "/user/count").body();
+                counts.append(i == 0 ? "" : ", ").append(body);
+                countsOk &= body.endsWith(": " + USERS);
+            }
+            System.out.println("   Import: " + imported.body());
+            System.out.println("   Counts: " + counts);
+            System.out.println("   Expected: " + USERS + " imported, every node reports " + USERS);
+            System.out.println();
+
+            // Test 3: Each node stores only the names it owns
+            System.out.println("3. Test shard contents:");
+            Set<String> all = new HashSet<>();
+            int misplaced = 0;
+            int smallest = USERS;
+            StringBuilder sizes = new StringBuilder();
+            for (int i = 0; i < NODES; i++) {
+                Matcher m = NAME.matcher(get(client, httpPorts[i], "/users?limit=10000").body());
+                int size = 0;
+                while (m.find()) {
+                    size++;
+                    all.add(m.group(1));
+                    if (ring.ownerOf(m.group(1)) != i) misplaced++;
+                }
+                smallest = Math.min(smallest, size);
+                sizes.append(i == 0 ? "" : " / ").append(size);
+            }
+            boolean shardsOk = all.size() == USERS && misplaced == 0 && smallest > USERS / 5;
+            System.out.println("   Local users per node: " + sizes + ", distinct: " + all.size() + ", on the wrong node: " + misplaced);
+            System.out.println("   Expected: roughly even, " + USERS + ", 0");
+            System.out.println();
+
+            // Test 4: Any node can log in or register any user
+            System.out.println("4. Test forwarded login and register:");
+            String remoteUser = userOwnedBy(ring, 2);
+            int n = Integer.parseInt(remoteUser.substring("cluster".length()));
+            int goodLogin = post(client, httpPorts[0], "/login", remoteUser, "pw" + n);
+            int badLogin = post(client, httpPorts[1], "/login", remoteUser, "wrong");
+            int unknownLogin = post(client, httpPorts[0], "/login", "nobody_here", "pw");
+            String fresh = "fresh_" + System.nanoTime();
+            int firstRegister = post(client, httpPorts[(ring.ownerOf(fresh) + 1) % NODES], "/register", fresh, "pw");
+            int secondRegister = post(client, httpPorts[(ring.ownerOf(fresh) + 2) % NODES], "/register", fresh, "pw");
+            int freshLogin = post(client, httpPorts[ring.ownerOf(fresh)], "/login", fresh, "pw");
+            boolean forwardOk = goodLogin == 200 && badLogin == 401 && unknownLogin == 401
+                    && firstRegister == 200 && secondRegister == 409 && freshLogin == 200;
+            System.out.println("   Login via another node: " + goodLogin + ", wrong password: " + badLogin + ", unknown user: " + unknownLogin);
+            System.out.println("   Register via non-owner: " + firstRegister + ", again via another node: " + secondRegister
+                    + ", login on owner: " + freshLogin);
+            System.out.println("   Expected: 200, 401, 401 / 200, 409, 200");
+            System.out.println();
+
+            // Test 5: Shard connections must prove the shared secret
+            System.out.println("5. Test shard authentication:");
+            Upstream node1 = Upstream.parse(shardNodes.get(1));
+            ShardPeer trusted = new ShardPeer(node1.host, node1.port, SECRET.getBytes(StandardCharsets.UTF_8));
+            ShardPeer intruder = new ShardPeer(node1.host, node1.port, "wrong-secret".getBytes(StandardCharsets.UTF_8));
+            boolean trustedSeen = trusted.exists(userOwnedBy(ring, 1));
+            String intruderResult;
+            try {
+                intruderResult = "answered " + intruder.exists(userOwnedBy(ring, 1));
+            } catch (IOException e) {
+                intruderResult = "refused";
+            }
+            trusted.close();
+            intruder.close();
+            boolean authOk = trustedSeen && intruderResult.equals("refused");
+            System.out.println("   Peer with the cluster secret sees the user: " + trustedSeen + ", peer with a wrong secret: " + intruderResult);
+            System.out.println("   Expected: true, refused");
+            System.out.println();
+
+            // Test 6: With node 2 stopped its users are unavailable, the others are not affected
+            System.out.println("6. Test a stopped node:");
+            String liveCount = get(client, httpPorts[0], "/user/count").body();
+            processes[2].destroyForcibly().waitFor();
+            String user0 = userOwnedBy(ring, 0);
+            String user1 = userOwnedBy(ring, 1);
+            int downLogin = post(client, httpPorts[0], "/login", remoteUser, "pw" + n);
+            int localLogin = post(client, httpPorts[0], "/login", user0, "pw" + user0.substring("cluster".length()));
+            int otherLogin = post(client, httpPorts[0], "/login", user1, "pw" + user1.substring("cluster".length()));
+            java.net.http.HttpResponse<String> downCount = get(client, httpPorts[0], "/user/count");
+            int downHome = get(client, httpPorts[0], "/").statusCode();
+            boolean failoverOk = downLogin == 503 && localLogin == 200 && otherLogin == 200
+                    && downCount.statusCode() == 200 && downCount.body().equals(liveCount) && downHome == 200;
+            System.out.println("   User on stopped node: " + downLogin + ", user on node 0: " + localLogin + ", user on node 1: " + otherLogin);
+            System.out.println("   User count: " + downCount.statusCode() + " " + downCount.body() + ", home page: " + downHome);
+            System.out.println("   Expected: 503, 200, 200 / 200 " + liveCount + " (last known total), 200");
+            System.out.println();
+
+            boolean normal = ringOk && imported.body().contains("\"imported\":" + USERS) && countsOk && shardsOk
+                    && forwardOk && authOk && failoverOk;
+            System.out.println("=== Test Completed ===");
+            System.out.println("Cluster functionality: " + (normal ? "Normal" : "Abnormal"));
+        } finally {
+            for (Process p : processes) {
+                p.destroyForcibly();
+            }
+        }
+    }
+
+    private static String userOwnedBy(HashRing ring, int node) {
+        for (int i = 0; ; i++) {
+            if (ring.ownerOf("cluster" + i) == node) return "cluster" + i;
+        }
+    }
+
+    private static URI url(int port, String path) {
+        return URI.create("http://127.0.0.1:" + port + path);
+    }
+
+    private static java.net.http.HttpResponse<String> get(HttpClient client, int port, String path) throws Exception {
+        return client.send(java.net.http.HttpRequest.newBuilder(url(port, path)).build(), BodyHandlers.ofString());
+    }
+
+    private static int post(HttpClient client, int port, String path, String username, String password) throws Exception {
+        return client.send(java.net.http.HttpRequest.newBuilder(url(port, path))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(BodyPublishers.ofString("username=" + username + "&password=" + password)).build(),
+                BodyHandlers.ofString()).statusCode();
+    }
+
+    private static void awaitUp(HttpClient client, int port) throws Exception {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (true) {
+            try {
+                if (get(client, port, "/user/count").statusCode() == 200) return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("node on port " + port + " did not start");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.http;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HTTP/2 (h2c) Integration Test
+ * Test Upgrade: h2c with the JDK HttpClient, stream multiplexing, flow control, prior knowledge
+ * and the limits on request bodies a peer can make the server buffer
+ */
+public class TestHttp2 {
+    private static final int LARGE_BODY_SIZE = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        // /large returns a body well beyond the default 64KB flow-control window
+        byte[] large = new byte[LARGE_BODY_SIZE];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) ('a' + i % 26);
+        }
+        CompleteRouter complete = new CompleteRouter();
+        Router router = request -> {
+            if ("/large".equals(request.getPath())) {
+                HttpResponse r = new HttpResponse(200, "OK");
+                r.setHeader("Content-Type", "text/plain");
+                r.setBody(large);
+                return r;
+            }
+            if (request.getPath().startsWith("/echo?")) {
+                return HttpResponse.okText(request.getParameter("q") + " " + request.getProtocol());
+            }
+            return complete.route(request);
+        };
+
+        HttpServer server = new HttpServer(0, 4);
+        server.setRouter(router);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        String base = "http://localhost:" + server.getLocalPort();
+
+        System.out.println("=== HTTP/2 (h2c) Integration Test ===");
+        System.out.println();
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        int openedBefore = Http2Connection.getOpenedCount();
+
+        // Test 1: The first request upgrades the connection with Upgrade: h2c
+        System.out.println("1. Test Upgrade: h2c:");
+        java.net.http.HttpResponse<String> first = client.send(
+                java.net.http.HttpRequest.newBuilder(URI.create(base + "/echo?q=hello")).build(),
+                BodyHandlers.ofString());
+        System.out.println("   Version: " + first.version() + ", status: " + first.statusCode() + ", body: " + first.body());
+        System.out.println("   Expected: HTTP_2, 200, hello HTTP/2.0");
+        System.out.println();
+
+        // Test 2: Concurrent requests are multiplexed on the same connection
+        System.out.println("2. Test stream multiplexing:");
+        List<CompletableFuture<java.net.http.HttpResponse<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(client.sendAsync(
+                    java.net.http.HttpRequest.newBuilder(URI.create(base + "/echo?q=" + i)).build(),
+                    BodyHandlers.ofString()));
+        }
+        int ok = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            java.net.http.HttpResponse<String> r = futures.get(i).join();
+            if (r.statusCode() == 200 && r.version() == HttpClient.Version.HTTP_2
+                    && r.body().equals(i + " HTTP/2.0")) {
+                ok++;
+            }
+        }
+        int opened = Http2Connection.getOpenedCount() - openedBefore;
+        System.out.println("   Successful responses: " + ok + "/50, HTTP/2 connections opened: " + opened);
+        System.out.println("   Expected: 50/50, 1");
+        System.out.println();
+
+        // Test 3: Form POST to the existing CompleteRouter over HTTP/2
+        System.out.println("3. Test POST /register over HTTP/2:");
+        String username = "h2user" + System.nanoTime();
+        java.net.http.HttpResponse<String> register = client.send(
+                java.net.http.HttpRequest.newBuilder(URI.create(base + "/register"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(BodyPublishers.ofString("username=" + username + "&password=secret"))
+                        .build(),
+                BodyHandlers.ofString());
+        System.out.println("   Status: " + register.statusCode());
+        System.out.println("   Expected: 200");
+        System.out.println();
+
+        // Test 4: A 1MB response needs WINDOW_UPDATE from the client to complete
+        System.out.println("4. Test flow control with a 1MB response:");
+        java.net.http.HttpResponse<byte[]> big = client.send(
+                java.net.http.HttpRequest.newBuilder(URI.create(base + "/large")).build(),
+                BodyHandlers.ofByteArray());
+        boolean sameBody = java.util.Arrays.equals(big.body(), large);
+        System.out.println("   Received bytes: " + big.body().length + ", content matches: " + sameBody);
+        System.out.println("   Expected: " + LARGE_BODY_SIZE + ", true");
+        System.out.println();
+
+        // Test 5: Prior knowledge with hand-written frames
+        System.out.println("5. Test prior knowledge:");
+        int priorStatus = priorKnowledgeGet(server.getLocalPort(), "/echo?q=prior");
+        System.out.println("   Status: " + priorStatus);
+        System.out.println("   Expected: 200");
+        System.out.println();
+
+        // Test 6: A peer that keeps sending past the stream window is stopped with FLOW_CONTROL_ERROR
+        System.out.println("6. Test a peer ignoring flow control:");
+        Map<Integer, Integer> ignored = blindUpload(server.getLocalPort(), new int[]{1}, 11 * 1024 * 1024, 10_000);
+        System.out.println("   Stream 1: " + describe(ignored.get(1)));
+        System.out.println("   Expected: RST_STREAM FLOW_CONTROL_ERROR (3)");
+        System.out.println();
+
+        // Test 7: Two 9MB uploads on one connection exceed the 16MB buffered body limit; one is refused
+        System.out.println("7. Test the per-connection request body limit:");
+        Map<Integer, Integer> capped = blindUpload(server.getLocalPort(), new int[]{1, 3}, 9 * 1024 * 1024, 16_384);
+        System.out.println("   Stream 1: " + describe(capped.get(1)) + ", stream 3: " + describe(capped.get(3)));
+        System.out.println("   Expected: one RST_STREAM REFUSED_STREAM (7), the other status 200");
+        boolean cappedOk = capped.size() == 2 && capped.containsValue(-7) && capped.containsValue(200);
+        System.out.println();
+
+        // Test 8: Streams waiting for window do not hold the stream threads (4 here) while the peer withholds it
+        System.out.println("8. Test 20 large responses stalled on flow control:");
+        long stallStart = System.currentTimeMillis();
+        int[] stalled = stalledDownloads(server.getLocalPort(), 20);
+        long stallMs = System.currentTimeMillis() - stallStart;
+        System.out.println("   Other connection while stalled: status " + stalled[0] + " after " + stalled[1] + " ms");
+        System.out.println("   Completed after the window opened: " + stalled[2] + " of 20 in " + stallMs + " ms");
+        System.out.println("   Expected: status 200 within a second, 20 of 20");
+        boolean stalledOk = stalled[0] == 200 && stalled[1] < 1000 && stalled[2] == 20;
+        System.out.println();
+
+        server.shutdown();
+
+        boolean normal = first.version() == HttpClient.Version.HTTP_2 && first.statusCode() == 200
+                && "hello HTTP/2.0".equals(first.body())
+                && ok == 50 && opened == 1
+                && register.statusCode() == 200
+                && sameBody
+                && priorStatus == 200
+                && Integer.valueOf(-3).equals(ignored.get(1))
+                && cappedOk
+                && stalledOk;
+        System.out.println("=== Integration Test Completed ===");
+        System.out.println("HTTP/2 functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    /**
+     * Send the connection preface, an empty SETTINGS frame and one GET on stream 1,
+     * then read frames until the response HEADERS for stream 1 arrive
+     */
+    private static int priorKnowledgeGet(int port, String path) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(30_000);
+            OutputStream out = socket.getOutputStream();
+            out.write(Http2Connection.CLIENT_PREFACE);
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+
+            Hpack.Encoder encoder = new Hpack.Encoder();
+            encoder.encode(":method", "GET");
+            encoder.encode(":scheme", "http");
+            encoder.encode(":path", path);
+            encoder.encode(":authority", "localhost");
+            // END_STREAM | END_HEADERS
+            writeFrame(out, 0x1, 0x5, 1, encoder.toByteArray());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            Hpack.Decoder decoder = new Hpack.Decoder(4096);
+            while (true) {
+                byte[] header = new byte[9];
+                in.readFully(header);
+                int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+                int type = header[3];
+                int flags = header[4];
+                int streamId = ((header[5] & 0x7F) << 24) | ((header[6] & 0xFF) << 16)
+                        | ((header[7] & 0xFF) << 8) | (header[8] & 0xFF);
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (type == 0x4 && (flags & 0x1) == 0) {
+                    writeFrame(out, 0x4, 0x1, 0, new byte[0]);
+                }
+                if (type == 0x1 && streamId == 1) {
+                    List<String[]> fields = new ArrayList<>();
+                    decoder.decode(payload, 0, length, fields);
+                    for (String[] field : fields) {
+                        if (":status".equals(field[0])) {
+                            return Integer.parseInt(field[1]);
+                        }
+                    }
+                    return -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Over prior knowledge, starts a POST on each stream and sends frameSize-byte DATA frames round-robin
+     * without waiting for WINDOW_UPDATE, then ends every stream. Returns what came back first per stream:
+     * the :status of the response, or minus the RST_STREAM error code
+     */
+    private static Map<Integer, Integer> blindUpload(int port, int[] streams, int bytesPerStream, int frameSize)
+            throws Exception {
+        Map<Integer, Integer> results = new ConcurrentHashMap<>();
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 65_536);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            Thread frameReader = new Thread(() -> {
+                Hpack.Decoder decoder = new Hpack.Decoder(4096);
+                try {
+                    while (results.size() < streams.length) {
+                        byte[] header = new byte[9];
+                        in.readFully(header);
+                        int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+                        int type = header[3];
+                        int streamId = ((header[5] & 0x7F) << 24) | ((header[6] & 0xFF) << 16)
+                                | ((header[7] & 0xFF) << 8) | (header[8] & 0xFF);
+                        byte[] payload = new byte[length];
+                        in.readFully(payload);
+                        if (type == 0x3) {
+                            int code = ((payload[0] & 0xFF) << 24) | ((payload[1] & 0xFF) << 16)
+                                    | ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+                            results.putIfAbsent(streamId, -code);
+                        } else if (type == 0x1) {
+                            List<String[]> fields = new ArrayList<>();
+                            decoder.decode(payload, 0, length, fields);
+                            for (String[] field : fields) {
+                                if (":status".equals(field[0])) results.putIfAbsent(streamId, Integer.parseInt(field[1]));
+                            }
+                        } else if (type == 0x7) {
+                            return;
+                        }
+                    }
+                } catch (Exception e) {
+                    // Connection closed
+                }
+            });
+            frameReader.start();
+            try {
+                synchronized (out) {
+                    out.write(Http2Connection.CLIENT_PREFACE);
+                    writeFrame(out, 0x4, 0, 0, new byte[0]);
+                    for (int streamId : streams) {
+                        Hpack.Encoder encoder = new Hpack.Encoder();
+                        encoder.encode(":method", "POST");
+                        encoder.encode(":scheme", "http");
+                        encoder.encode(":path", "/echo?q=upload");
+                        encoder.encode(":authority", "localhost");
+                        // END_HEADERS only: the body follows
+                        writeFrame(out, 0x1, 0x4, streamId, encoder.toByteArray());
+                    }
+                }
+                byte[] frame = new byte[frameSize];
+                for (int sent = 0; sent < bytesPerStream && frameReader.isAlive(); sent += frameSize) {
+                    for (int streamId : streams) {
+                        writeFrame(out, 0x0, 0, streamId, frame);
+                    }
+                }
+                for (int streamId : streams) {
+                    writeFrame(out, 0x0, 0x1, streamId, new byte[0]);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // The server closed the connection
+            }
+            frameReader.join(30_000);
+        }
+        return results;
+    }
+
+    /**
+     * Over prior knowledge, requests /large on count streams without granting more than the default 64KB
+     * window, times a GET on another connection meanwhile, then opens the windows. Returns the other
+     * connection's status, its time in ms and how many streams then received the whole body
+     */
+    private static int[] stalledDownloads(int port, int count) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(30_000);
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 65_536);
+            out.write(Http2Connection.CLIENT_PREFACE);
+            writeFrame(out, 0x4, 0, 0, new byte[0]);
+            for (int i = 0; i < count; i++) {
+                Hpack.Encoder encoder = new Hpack.Encoder();
+                encoder.encode(":method", "GET");
+                encoder.encode(":scheme", "http");
+                encoder.encode(":path", "/large");
+                encoder.encode(":authority", "localhost");
+                writeFrame(out, 0x1, 0x5, 2 * i + 1, encoder.toByteArray());
+            }
+            out.flush();
+            Thread.sleep(500);
+
+            long start = System.currentTimeMillis();
+            int probe = priorKnowledgeGet(port, "/echo?q=probe");
+            int probeMs = (int) (System.currentTimeMillis() - start);
+
+            // INITIAL_WINDOW_SIZE 2MB for every stream, and enough connection window for all bodies
+            writeFrame(out, 0x4, 0, 0, new byte[]{0, 4, 0, 0x20, 0, 0});
+            int total = count * LARGE_BODY_SIZE;
+            writeFrame(out, 0x8, 0, 0, new byte[]{(byte) (total >>> 24), (byte) (total >>> 16), (byte) (total >>> 8), (byte) total});
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            Map<Integer, Integer> received = new ConcurrentHashMap<>();
+            int completed = 0;
+            try {
+                while (completed < count) {
+                    byte[] header = new byte[9];
+                    in.readFully(header);
+                    int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+                    int type = header[3];
+                    int flags = header[4];
+                    int streamId = ((header[5] & 0x7F) << 24) | ((header[6] & 0xFF) << 16)
+                            | ((header[7] & 0xFF) << 8) | (header[8] & 0xFF);
+                    in.readFully(new byte[length]);
+                    if (type == 0x0) {
+                        int bytes = received.merge(streamId, length, Integer::sum);
+                        if ((flags & 0x1) != 0 && bytes == LARGE_BODY_SIZE) completed++;
+                    } else if (type == 0x3 || type == 0x7) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                // Connection closed or timed out
+            }
+            return new int[]{probe, probeMs, completed};
+        }
+    }
+
+    private static String describe(Integer result) {
+        if (result == null) return "no answer";
+        return result < 0 ? "RST_STREAM " + (-result) : "status " + result;
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int streamId, byte[] payload) throws Exception {
+        byte[] header = {
+                (byte) (payload.length >>> 16), (byte) (payload.length >>> 8), (byte) payload.length,
+                (byte) type, (byte) flags,
+                (byte) (streamId >>> 24), (byte) (streamId >>> 16), (byte) (streamId >>> 8), (byte) streamId
+        };
+        out.write(header);
+        out.write(payload);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Load Shedding Test
+ * Fill the only worker and the one-slot queue, then check that further connections get an immediate
+ * 503 with Retry-After, that a connection queued past the wait limit is answered 503 instead of being
+ * served, and that the server recovers once the worker is free
+ */
+public class TestLoadShedding {
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Load Shedding Test ===");
+        System.out.println();
+
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = new HttpServer(0, 1, 1, 300);
+        server.setRouter(request -> {
+            if (request.getPath().equals("/slow")) {
+                release.await();
+            }
+            return HttpResponse.okText("ok");
+        });
+        Thread acceptor = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        acceptor.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        Upstream upstream = new Upstream("127.0.0.1", server.getLocalPort());
+
+        // Test 1: With the worker busy and the queue full, a new connection is shed at once
+        System.out.println("1. Test queue full:");
+        Upstream.Connection busy = send(upstream, "/slow");
+        while (server.getActiveCount() < 1) {
+            Thread.sleep(5);
+        }
+        Upstream.Connection queued = send(upstream, "/fast");
+        while (server.getQueueDepth() < 1) {
+            Thread.sleep(5);
+        }
+        long start = System.nanoTime();
+        Upstream.Connection shed = send(upstream, "/fast");
+        List<String> shedHead = shed.readResponseHead();
+        long shedMillis = (System.nanoTime() - start) / 1_000_000;
+        String retryAfter = header(shedHead, "retry-after");
+        System.out.println("   Status: " + shedHead.get(1) + ", Retry-After: " + retryAfter + ", answered in " + shedMillis + " ms");
+        System.out.println("   Queue depth: " + server.getQueueDepth() + " of " + server.getQueueCapacity()
+                + ", rejected: " + server.getRejectedCount());
+        System.out.println("   Expected: 503, 1, well under the queue wait limit; 1 of 1, 1");
+        boolean rejectOk = shedHead.get(1).equals("503") && "1".equals(retryAfter) && shedMillis < 300
+                && server.getRejectedCount() == 1;
+        shed.close();
+        System.out.println();
+
+        // Test 2: The queued connection waited longer than 300 ms, so it is answered 503 instead of served
+        System.out.println("2. Test queue wait limit:");
+        Thread.sleep(400);
+        release.countDown();
+        String busyStatus = busy.readResponseHead().get(1);
+        String queuedStatus = queued.readResponseHead().get(1);
+        System.out.println("   Busy request: " + busyStatus + ", queued request: " + queuedStatus
+                + ", expired: " + server.getExpiredCount());
+        System.out.println("   Expected: 200, 503, 1");
+        boolean expireOk = busyStatus.equals("200") && queuedStatus.equals("503") && server.getExpiredCount() == 1;
+        busy.close();
+        queued.close();
+        System.out.println();
+
+        // Test 3: Once the worker is free new connections are served again
+        System.out.println("3. Test recovery:");
+        Upstream.Connection after = send(upstream, "/fast");
+        String afterStatus = after.readResponseHead().get(1);
+        after.close();
+        System.out.println("   Status: " + afterStatus + ", rejected: " + server.getRejectedCount());
+        System.out.println("   Expected: 200, 1");
+        boolean recoverOk = afterStatus.equals("200") && server.getRejectedCount() == 1;
+        System.out.println();
+
+        server.shutdown();
+        acceptor.join();
+
+        boolean normal = rejectOk && expireOk && recoverOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("Load shedding functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static Upstream.Connection send(Upstream upstream, String path) throws Exception {
+        Upstream.Connection conn = upstream.open();
+        conn.out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        conn.out.flush();
+        return conn;
+    }
+
+    private static String header(List<String> head, String name) {
+        for (int i = 3; i + 1 < head.size(); i += 2) {
+            if (head.get(i).equals(name)) return head.get(i + 1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Multipart Upload Test
+ * Test MultipartParser on split input, spilling large parts to disk, and streaming uploads to POST /upload
+ */
+public class TestMultipart {
+    private static final String BOUNDARY = "----FormBoundary7MA4YWxkTrZu0gW";
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Multipart Upload Test ===");
+        System.out.println();
+        Path tempDir = Files.createTempDirectory("multipart-test");
+
+        // Test 1: Fields and a small file, delivered one byte per read so every delimiter is split across reads
+        System.out.println("1. Test parsing with delimiters split across reads:");
+        byte[] small = "line1\r\n--not-a-boundary\r\nline2".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("preamble is ignored\r\n".getBytes(StandardCharsets.US_ASCII));
+        appendField(body, "username", "alice");
+        appendFile(body, "note", "näme.txt", small);
+        body.write(("--" + BOUNDARY + "--\r\nepilogue").getBytes(StandardCharsets.US_ASCII));
+        String username = null;
+        String filename = null;
+        byte[] content = null;
+        int partCount = 0;
+        try (MultipartParser parser = new MultipartParser(new OneByteInputStream(new ByteArrayInputStream(body.toByteArray())),
+                BOUNDARY, 1024, tempDir)) {
+            MultipartParser.Part part;
+            while ((part = parser.next()) != null) {
+                partCount++;
+                if ("username".equals(part.getName())) username = part.getString();
+                if ("note".equals(part.getName())) {
+                    filename = part.getFilename();
+                    content = part.getInputStream().readAllBytes();
+                }
+            }
+        }
+        boolean splitOk = partCount == 2 && "alice".equals(username) && "näme.txt".equals(filename)
+                && Arrays.equals(small, content);
+        System.out.println("   Parts: " + partCount + ", username: " + username + ", filename: " + filename
+                + ", file content intact: " + Arrays.equals(small, content));
+        System.out.println("   Expected: 2, alice, näme.txt, true");
+        System.out.println();
+
+        // Test 2: A part above the memory threshold is written to a temp file, which close() removes
+        System.out.println("2. Test spilling a large part to disk:");
+        byte[] large = pattern(300_000);
+        body.reset();
+        appendFile(body, "big", "big.bin", large);
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body.toByteArray()), BOUNDARY, 64 * 1024, tempDir);
+        MultipartParser.Part bigPart = parser.next();
+        boolean spilled = bigPart != null && !bigPart.isInMemory() && bigPart.getFile() != null;
+        boolean bigIntact = bigPart != null && Arrays.equals(large, bigPart.getInputStream().readAllBytes());
+        Path spillFile = bigPart == null ? null : bigPart.getFile();
+        boolean ended = parser.next() == null;
+        parser.close();
+        boolean cleaned = spillFile != null && !Files.exists(spillFile);
+        System.out.println("   Spilled to disk: " + spilled + ", content intact: " + bigIntact
+                + ", end reached: " + ended + ", temp file removed on close: " + cleaned);
+        System.out.println("   Expected: true, true, true, true");
+        System.out.println();
+
+        // Test 3: A 32MB upload streamed in chunked encoding to POST /upload, followed by a pipelined request
+        System.out.println("3. Test streaming a 32MB upload to POST /upload:");
+        HttpServer server = new HttpServer(0, 4);
+        CompleteRouter router = new CompleteRouter();
+        Path uploadDir = tempDir.resolve("uploads");
+        router.setUploadDirectory(uploadDir);
+        router.setUploadEnabled(true);
+        server.setRouter(router);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        int uploadSize = 32 * 1024 * 1024;
+        byte[] block = pattern(64 * 1024);
+        String responses;
+        long start = System.nanoTime();
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /upload HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n" +
+                    "Content-Type: multipart/form-data; boundary=\"" + BOUNDARY + "\"\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            ByteArrayOutputStream head = new ByteArrayOutputStream();
+            appendField(head, "title", "holiday");
+            head.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"../video.bin\"\r\n" +
+                    "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            writeChunk(out, head.toByteArray());
+            for (int sent = 0; sent < uploadSize; sent += block.length) {
+                writeChunk(out, block);
+            }
+            writeChunk(out, ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write("0\r\n\r\nGET /user/count HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            responses = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        server.shutdown();
+
+        Path stored = null;
+        try (Stream<Path> files = Files.list(uploadDir)) {
+            stored = files.filter(p -> p.getFileName().toString().endsWith("video.bin")).findFirst().orElse(null);
+        }
+        boolean storedOk = stored != null && Files.size(stored) == uploadSize && sameBlocks(stored, block);
+        boolean uploadOk = responses.contains("{\"name\":\"title\",\"size\":7,\"value\":\"holiday\"}")
+                && responses.contains("\"size\":" + uploadSize + ",\"filename\":\"../video.bin\"")
+                && responses.contains("Current user counts:");
+        System.out.println("   Response: " + between(responses, "{\"parts\"", "]}") + " in " + elapsedMs + " ms");
+        System.out.println("   Stored file size: " + (stored == null ? -1 : Files.size(stored))
+                + ", content intact: " + storedOk + ", inside upload dir: " + (stored != null && stored.startsWith(uploadDir)));
+        System.out.println("   Pipelined GET after the body answered: " + responses.contains("Current user counts:"));
+        System.out.println("   Expected: " + uploadSize + ", true, true, true");
+        System.out.println();
+
+        // Test 4: Uploads are off by default; size limits answer 413 (or 507 when the upload directory is full)
+        // and keep nothing on disk; expired files are removed by the periodic sweep
+        System.out.println("4. Test upload switch, size limits and retention:");
+        HttpServer limited = new HttpServer(0, 4);
+        CompleteRouter limitedRouter = new CompleteRouter();
+        Path limitedDir = tempDir.resolve("limited");
+        limitedRouter.setUploadDirectory(limitedDir);
+        limitedRouter.setUploadLimits(1024 * 1024, 3 * 1024 * 1024, 4 * 1024 * 1024);
+        limited.setRouter(limitedRouter);
+        new Thread(() -> {
+            try {
+                limited.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }).start();
+        while (limited.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        int port = limited.getLocalPort();
+        body.reset();
+        appendFile(body, "file", "small.bin", pattern(1000));
+        String disabledStatus = statusLine(upload(port, body));
+        limitedRouter.setUploadEnabled(true);
+        body.reset();
+        appendFile(body, "file", "big.bin", pattern(2 * 1024 * 1024));
+        String partStatus = statusLine(upload(port, body));
+        body.reset();
+        appendField(body, "comment", new String(new char[100_000]).replace('\0', 'x'));
+        String fieldStatus = statusLine(upload(port, body));
+        int filesAfterRejected = fileCount(limitedDir);
+        body.reset();
+        appendFile(body, "a", "a.bin", pattern(900_000));
+        appendFile(body, "b", "b.bin", pattern(900_000));
+        String okStatus = statusLine(upload(port, body));
+        body.reset();
+        appendFile(body, "c", "c.bin", pattern(900_000));
+        appendFile(body, "d", "d.bin", pattern(900_000));
+        appendFile(body, "e", "e.bin", pattern(900_000));
+        String fullStatus = statusLine(upload(port, body));
+        int filesAfterFull = fileCount(limitedDir);
+        limitedRouter.setUploadRetentionMs(0);
+        limitedRouter.setUploadSweepIntervalMs(50);
+        long sweepDeadline = System.currentTimeMillis() + 5000;
+        while (fileCount(limitedDir) > 0 && System.currentTimeMillis() < sweepDeadline) {
+            Thread.sleep(20);
+        }
+        int filesAfterSweep = fileCount(limitedDir);
+        limitedRouter.setUploadRetentionMs(60_000);
+        body.reset();
+        appendFile(body, "f", "f.bin", pattern(1000));
+
+        String sweptStatus = statusLine(upload(port, body));
+        int filesAfterUpload = fileCount(limitedDir);
+        limitedRouter.setUploadEnabled(false);
+        limited.shutdown();
+        System.out.println("   Before enabling: " + disabledStatus);
+        System.out.println("   2MB part: " + partStatus + ", 100KB field: " + fieldStatus + ", files kept: " + filesAfterRejected);
+        System.out.println("   Two 900KB files: " + okStatus + ", three more past the 4MB directory limit: " + fullStatus
+                + ", files kept: " + filesAfterFull);
+        System.out.println("   Files left after the sweep with retention 0: " + filesAfterSweep
+                + ", upload after the sweep: " + sweptStatus + ", files kept: " + filesAfterUpload);
+        System.out.println("   Expected: 404; 413, 413, 0; 200, 507, 2; 0, 200, 1");
+        boolean limitsOk = disabledStatus.contains(" 404 ") && partStatus.contains(" 413 ") && fieldStatus.contains(" 413 ") && filesAfterRejected == 0
+                && okStatus.contains(" 200 ") && fullStatus.contains(" 507 ") && filesAfterFull == 2
+                && filesAfterSweep == 0 && sweptStatus.contains(" 200 ") && filesAfterUpload == 1;
+        System.out.println();
+
+        deleteRecursively(tempDir);
+
+        boolean normal = splitOk && spilled && bigIntact && ended && cleaned && uploadOk && storedOk && limitsOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("Multipart upload functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    /**
+     * Posts a multipart body from a separate thread (the server may stop reading it) and returns the response
+     */
+    private static String upload(int port, ByteArrayOutputStream parts) throws Exception {
+        parts.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        byte[] data = parts.toByteArray();
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            Thread sender = new Thread(() -> {
+                try {
+                    out.write(("POST /upload HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + data.length + "\r\n" +
+                            "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\nConnection: close\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    out.write(data);
+                    out.flush();
+                } catch (IOException e) {
+                    // The server closed the connection after rejecting the body
+                }
+            });
+            sender.start();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            sender.join();
+            return response;
+        }
+    }
+
+    private static String statusLine(String response) {
+        int end = response.indexOf("\r\n");
+        return end < 0 ? response : response.substring(0, end);
+    }
+
+    private static int fileCount(Path dir) throws IOException {
+        if (!Files.exists(dir)) return 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            return (int) files.count();
+        }
+    }
+
+    private static void appendField(ByteArrayOutputStream body, String name, String value) throws IOException {
+        body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendFile(ByteArrayOutputStream body, String name, String filename, byte[] data) throws IOException {
+        body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + filename + "\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(data);
+        body.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void writeChunk(OutputStream out, byte[] data) throws IOException {
+        out.write((Integer.toHexString(data.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(data);
+        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Bytes that include CR, LF and '-' so partial delimiter matches occur in the content */
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) "\r\n--abc\r\n-".charAt(i % 10);
+            if (i % 97 == 0) data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private static boolean sameBlocks(Path file, byte[] block) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] read = new byte[block.length];
+            while (true) {
+                int n = in.readNBytes(read, 0, read.length);
+                if (n == 0) return true;
+                if (n != block.length || !Arrays.equals(read, block)) return false;
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static String between(String s, String from, String to) {
+        int a = s.indexOf(from);
+        if (a < 0) return "(missing)";
+        int b = s.indexOf(to, a);
+        return b < 0 ? s.substring(a) : s.substring(a, b + to.length());
+    }
+
+    private static final class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * PageTemplate Test
+ * Test template compilation and escaping, gathering writes against the plain buffered path,
+ * the templated homepage over HTTP/1.1 and HTTP/2, and the per-request cost against string concatenation
+ */
+public class TestPageTemplate {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== PageTemplate Test ===");
+        System.out.println();
+
+        // Test 1: Rendering matches the equivalent concatenated string
+        System.out.println("1. Test rendering and escaping:");
+        PageTemplate template = PageTemplate.compile(
+                "<p title=\"{{name}}\">Hello {{name}}, {{count:int}} items, {{ extra : raw }}</p>{{neg:int}}");
+        byte[] rendered = template.newPage()
+                .set("name", "<Tom & \"Jerry\"> 中文 😀")
+                .set("count", 1234567890123L)
+                .set("extra", "<b>bold</b>")
+                .set("neg", Long.MIN_VALUE)
+                .toBytes();
+        String expected = "<p title=\"&lt;Tom &amp; &quot;Jerry&quot;&gt; 中文 😀\">Hello &lt;Tom &amp; &quot;Jerry&quot;&gt; 中文 😀, " +
+                "1234567890123 items, <b>bold</b></p>-9223372036854775808";
+        boolean renderOk = Arrays.equals(expected.getBytes(StandardCharsets.UTF_8), rendered);
+        PageTemplate.Page lengthPage = template.newPage().set("name", "é'").set("count", 0).set("extra", "").set("neg", -7);
+        boolean lengthOk = lengthPage.length() == lengthPage.toBytes().length;
+        System.out.println("   Rendered matches concatenation: " + renderOk + ", length() matches bytes: " + lengthOk);
+        System.out.println("   Expected: true, true");
+        System.out.println();
+
+        // Test 2: Malformed templates and misuse are rejected
+        System.out.println("2. Test invalid templates and values:");
+        int rejected = 0;
+        rejected += throwsIllegalArgument(() -> PageTemplate.compile("<p>{{count</p>"));
+        rejected += throwsIllegalArgument(() -> PageTemplate.compile("<p>{{count:float}}</p>"));
+        rejected += throwsIllegalArgument(() -> PageTemplate.compile("<p>{{:int}}</p>"));
+        rejected += throwsIllegalArgument(() -> PageTemplate.compile("{{a:int}}{{a:text}}"));
+        rejected += throwsIllegalArgument(() -> template.newPage().set("count", "text"));
+        rejected += throwsIllegalArgument(() -> template.newPage().set("missing", 1));
+        boolean unsetRejected = false;
+        try {
+            template.newPage().set("name", "x").length();
+        } catch (IllegalStateException e) {
+            unsetRejected = true;
+        }
+        System.out.println("   Rejected: " + rejected + " of 6, unset placeholder rejected: " + unsetRejected);
+        System.out.println("   Expected: 6 of 6, true");
+        System.out.println();
+
+        // Test 3: Gathering writes produce the same bytes as the buffered stream path
+        System.out.println("3. Test gathering write against buffered write:");
+        HttpRequest request = new HttpRequest();
+        request.setMethod("GET");
+        request.setPath("/");
+        CompleteRouter router = new CompleteRouter();
+        String longName = "x".repeat(5000) + "<>";
+        boolean sameBytes = true;
+        for (HttpResponse response : new HttpResponse[]{router.route(request), withBody(template.newPage()
+                .set("name", longName).set("count", 42).set("extra", "").set("neg", 0))}) {
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            new ResponseWriter(streamed, 8192).write(response);
+            CapturingChannel gathered = new CapturingChannel(true);
+            new ResponseWriter(gathered, ByteBuffer.allocateDirect(8192)).write(response);
+            CapturingChannel small = new CapturingChannel(false);
+            new ResponseWriter(small, ByteBuffer.allocateDirect(256)).write(response);
+            sameBytes &= withoutDate(streamed.toByteArray()).equals(withoutDate(gathered.bytes.toByteArray()))
+                    && withoutDate(streamed.toByteArray()).equals(withoutDate(small.bytes.toByteArray()));
+        }
+        System.out.println("   Homepage and 5KB value identical across paths: " + sameBytes);
+        System.out.println("   Expected: true");
+        System.out.println();
+
+        // Test 4: The homepage over the server, HTTP/1.1 and HTTP/2
+        System.out.println("4. Test templated homepage over the server:");
+        HttpServer server = new HttpServer(0, 2);
+        server.setRouter(new CompleteRouter());
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        new UserService().register("template_user_" + System.nanoTime(), "pw");
+        String expectedHome = oldHomePage(new UserService().getUserCount());
+        URI home = URI.create("http://localhost:" + server.getLocalPort() + "/");
+        HttpClient http1 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        java.net.http.HttpResponse<String> r1 = http1.send(java.net.http.HttpRequest.newBuilder(home).build(), BodyHandlers.ofString());
+        HttpClient http2 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        http2.send(java.net.http.HttpRequest.newBuilder(home).build(), BodyHandlers.ofString());
+        java.net.http.HttpResponse<String> r2 = http2.send(java.net.http.HttpRequest.newBuilder(home).build(), BodyHandlers.ofString());
+        boolean serverOk = expectedHome.equals(r1.body()) && expectedHome.equals(r2.body())
+                && r1.headers().firstValue("content-length").orElse("").equals(
+                        String.valueOf(expectedHome.getBytes(StandardCharsets.UTF_8).length))
+                && r2.version() == HttpClient.Version.HTTP_2;
+        System.out.println("   HTTP/1.1 body matches: " + expectedHome.equals(r1.body())
+                + ", HTTP/2 body matches: " + expectedHome.equals(r2.body()) + " (" + r2.version() + ")");
+        System.out.println("   Expected: true, true (HTTP_2)");
+        server.shutdown();
+        System.out.println();
+
+        // Test 5: Rendering cost, template + gathering write vs concatenation + getBytes
+        System.out.println("5. Test per-request cost of the homepage:");
+        CapturingChannel discard = new CapturingChannel(true);
+        discard.keep = false;
+        ResponseWriter writer = new ResponseWriter(discard, ByteBuffer.allocateDirect(8192));
+        ResponseWriter stringWriter = new ResponseWriter(discard, ByteBuffer.allocateDirect(8192));
+        PageTemplate homeTemplate = PageTemplate.compile(oldHomePage(-1).replace("-1", "{{count:int}}"));
+        for (int i = 0; i < 200_000; i++) {
+            writer.write(withBody(homeTemplate.newPage().set("count", i)));
+            stringWriter.write(oldHomeResponse(i));
+        }
+        int iterations = 500_000;
+        long[] templated = measure(() -> writer.write(withBody(homeTemplate.newPage().set("count", 42))), iterations);
+        long[] concatenated = measure(() -> stringWriter.write(oldHomeResponse(42)), iterations);
+        System.out.println(String.format("   Template: %d ns, %d bytes allocated per request",
+                templated[0] / iterations, templated[1] / iterations));
+        System.out.println(String.format("   String concatenation: %d ns, %d bytes allocated per request",
+                concatenated[0] / iterations, concatenated[1] / iterations));
+        boolean cheaper = templated[1] < concatenated[1];
+        System.out.println("   Expected: template allocates less");
+        System.out.println();
+
+        boolean normal = renderOk && lengthOk && rejected == 6 && unsetRejected && sameBytes && serverOk && cheaper;
+        System.out.println("=== Test Completed ===");
+        System.out.println("PageTemplate functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static HttpResponse withBody(PageTemplate.Page page) {
+        HttpResponse response = new HttpResponse(200, "OK");
+        response.setHeader("Content-Type", "text/html; charset=utf-8");
+        response.setBody(page);
+        return response;
+    }
+
+    /**
+     * The homepage as it was built before templates
+     */
+    private static String oldHomePage(int count) {
+        return "<html><body>" +
+                "<h1>HTTP服务器 - 注册登录系统</h1>" +
+                "<p>用户总数: " + count + "</p>" +
+                "<h2>API接口:</h2>" +
+                "<ul>" +
+                "<li>POST /register - 用户注册 (参数: username, password)</li>" +
+                "<li>POST /login - 用户登录 (参数: username, password)</li>" +
+                "<li>GET /user/count - 获取用户总数</li>" +
+                "<li>GET /users - 分页列出用户名 (参数: limit, cursor；管理功能，默认关闭)</li>" +
+                "<li>WebSocket /ws/user-count - 推送用户总数</li>" +
+                "</ul>" +
+                "<h2>架构说明:</h2>" +
+                "<p>遵循模块分离原则，解析和业务逻辑分开处理</p>" +
+                "</body></html>";
+    }
+
+    private static HttpResponse oldHomeResponse(int count) {
+        HttpResponse response = new HttpResponse(200, "OK");
+        response.setHeader("Content-Type", "text/html; charset=utf-8");
+        response.setBody(oldHomePage(count).getBytes(StandardCharsets.UTF_8));
+        return response;
+    }
+
+    private static String withoutDate(byte[] wire) {
+        return new String(wire, StandardCharsets.UTF_8).replaceAll("Date: [^\r]*\r\n", "");
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    private static int throwsIllegalArgument(Action action) {
+        try {
+            action.run();
+            return 0;
+        } catch (IllegalArgumentException e) {
+            return 1;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns {elapsed ns, allocated bytes} for running the action the given number of times
+     */
+    private static long[] measure(Action action, int iterations) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            action.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new long[]{elapsed, threads.getThreadAllocatedBytes(id) - allocated};
+    }
+
+    /**
+     * In-memory channel; partial writes exercise the gathering loop
+     */
+    private static final class CapturingChannel implements GatheringByteChannel {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final boolean partial;
+        boolean keep = true;
+
+        CapturingChannel(boolean partial) {
+            this.partial = partial;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = partial ? Math.min(src.remaining(), 1000) : src.remaining();
+            if (keep) {
+                byte[] chunk = new byte[n];
+                src.get(chunk);
+                bytes.write(chunk, 0, n);
+            } else {
+                src.position(src.position() + n);
+            }
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+                if (partial && srcs[i].hasRemaining()) break;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
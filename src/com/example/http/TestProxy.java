@@ -0,0 +1,275 @@
+package com.example.http;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Reverse Proxy Integration Test
+ * Test prefix routing to local HttpServer backends, round-robin and least-outstanding balancing,
+ * pooled upstream connections, streamed bodies in both directions, passive health checks
+ * and repeated Set-Cookie headers
+ */
+public class TestProxy {
+
+    public static void main(String[] args) throws Exception {
+        HttpServer[] backends = new HttpServer[3];
+        String[] addresses = new String[3];
+        for (int i = 0; i < backends.length; i++) {
+            backends[i] = start(new HttpServer(0, 8), new Backend("backend-" + i, i == 0 ? 300 : 5));
+            addresses[i] = "127.0.0.1:" + backends[i].getLocalPort();
+        }
+        ProxyRouter proxy = new ProxyRouter(new CompleteRouter())
+                .addRoute("/api", ProxyRouter.Balancing.ROUND_ROBIN, List.of(addresses))
+                .addRoute("/work", ProxyRouter.Balancing.LEAST_OUTSTANDING, List.of(addresses[0], addresses[1]));
+        HttpServer edge = start(new HttpServer(0, 32), proxy);
+        String base = "http://localhost:" + edge.getLocalPort();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        System.out.println("=== Reverse Proxy Integration Test ===");
+        System.out.println();
+
+        // Test 1: Round-robin over three backends, reusing pooled upstream connections
+        System.out.println("1. Test round-robin balancing and connection reuse:");
+        Map<String, Integer> hits = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            String body = client.send(get(base + "/api/whoami?i=" + i), BodyHandlers.ofString()).body();
+            hits.merge(body, 1, Integer::sum);
+        }
+        long opened = 0;
+        for (String address : addresses) {
+            opened += proxy.getConnectionsOpened(address);
+        }
+        boolean roundRobinOk = hits.size() == 3 && hits.values().stream().allMatch(n -> n == 10) && opened <= 3;
+        System.out.println("   Hits: " + hits + ", upstream connections opened for 30 requests: " + opened);
+        System.out.println("   Expected: 10 per backend, <= 3");
+        System.out.println();
+
+        // Test 2: A 20MB chunked upload is streamed through to the backend
+        System.out.println("2. Test streaming a 20MB request body:");
+        int uploadSize = 20 * 1024 * 1024;
+        String uploaded = client.send(java.net.http.HttpRequest.newBuilder(URI.create(base + "/api/upload"))
+                        .POST(BodyPublishers.ofInputStream(() -> new PatternStream(uploadSize))).build(),
+                BodyHandlers.ofString()).body();
+        String expectedUpload = uploadSize + ":" + patternCrc(uploadSize);
+        boolean uploadOk = uploaded.endsWith(expectedUpload);
+        System.out.println("   Backend saw: " + uploaded);
+        System.out.println("   Expected: size:crc = " + expectedUpload);
+        System.out.println();
+
+        // Test 3: A 50MB chunked response is streamed back to the client
+        System.out.println("3. Test streaming a 50MB response body:");
+        int downloadSize = 50 * 1024 * 1024;
+        java.net.http.HttpResponse<InputStream> download = client.send(get(base + "/api/blob?size=" + downloadSize),
+                BodyHandlers.ofInputStream());
+        long received = 0;
+        CRC32 crc = new CRC32();
+        try (InputStream in = download.body()) {
+            byte[] chunk = new byte[65536];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                crc.update(chunk, 0, n);
+                received += n;
+            }
+        }
+        boolean downloadOk = download.statusCode() == 200 && received == downloadSize && crc.getValue() == patternCrc(downloadSize);
+        System.out.println("   Status: " + download.statusCode() + ", received: " + received + ", content intact: "
+                + (crc.getValue() == patternCrc(downloadSize)));
+        System.out.println("   Expected: 200, " + downloadSize + ", true");
+        System.out.println();
+
+        // Test 4: Least-outstanding sends most requests to the backend that answers quickly
+        System.out.println("4. Test least-outstanding balancing (backend-0 takes 300ms, backend-1 takes 5ms):");
+        Map<String, AtomicInteger> workHits = new HashMap<>();
+        workHits.put("backend-0", new AtomicInteger());
+        workHits.put("backend-1", new AtomicInteger());
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 25; i++) {
+                    try {
+                        String who = client.send(get(base + "/work"), BodyHandlers.ofString()).body();
+                        workHits.get(who).incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+        }
+        CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).join();
+        int slowHits = workHits.get("backend-0").get();
+        int fastHits = workHits.get("backend-1").get();
+        System.out.println("   backend-0: " + slowHits + ", backend-1: " + fastHits);
+        System.out.println("   Expected: backend-1 serves at least 4x as many");
+        System.out.println();
+
+        // Test 5: A stopped backend is taken out after failed attempts and requests keep succeeding
+        System.out.println("5. Test passive health check:");
+        backends[2].shutdown();
+        int ok = 0;
+        for (int i = 0; i < 30; i++) {
+            if (client.send(get(base + "/api/whoami"), BodyHandlers.ofString()).statusCode() == 200) ok++;
+        }
+        boolean downMarked = !proxy.isHealthy(addresses[2]);
+        System.out.println("   Successful requests: " + ok + "/30, backend-2 marked unhealthy: " + downMarked
+                + ", backend-0 healthy: " + proxy.isHealthy(addresses[0]));
+        System.out.println("   Expected: 30/30, true, true");
+        System.out.println();
+
+        // Test 6: Paths outside the proxied prefixes fall through to the local router
+        System.out.println("6. Test fallback routing:");
+        String local = client.send(get(base + "/user/count"), BodyHandlers.ofString()).body();
+        String apiLike = client.send(get(base + "/apis"), BodyHandlers.ofString()).body();
+        System.out.println("   /user/count: " + local + ", /apis (not under /api): " + apiLike);
+        System.out.println("   Expected: Current user counts..., 404 Not Found");
+        System.out.println();
+
+        // Test 7: Repeated Set-Cookie headers from the backend reach the client as separate lines
+        System.out.println("7. Test multiple Set-Cookie headers:");
+        List<String> cookies = client.send(get(base + "/api/cookies"), BodyHandlers.ofString()).headers().allValues("set-cookie");
+        boolean cookiesOk = cookies.equals(List.of("session=abc; Path=/; HttpOnly", "theme=dark; Expires=Wed, 21 Oct 2026 07:28:00 GMT"));
+        System.out.println("   Set-Cookie: " + cookies);
+        System.out.println("   Expected: [session=abc; Path=/; HttpOnly, theme=dark; Expires=Wed, 21 Oct 2026 07:28:00 GMT]");
+        System.out.println();
+
+        proxy.close();
+        edge.shutdown();
+        backends[0].shutdown();
+        backends[1].shutdown();
+
+        boolean normal = roundRobinOk && uploadOk && downloadOk && fastHits >= slowHits * 4 && ok == 30 && downMarked
+                && proxy.isHealthy(addresses[0]) && local.startsWith("Current user counts") && apiLike.contains("404") && cookiesOk;
+        System.out.println("=== Integration Test Completed ===");
+        System.out.println("Reverse proxy functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static java.net.http.HttpRequest get(String url) {
+        return java.net.http.HttpRequest.newBuilder(URI.create(url)).build();
+    }
+
+    private static HttpServer start(HttpServer server, Router router) throws InterruptedException {
+        server.setRouter(router);
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        return server;
+    }
+
+    private static long patternCrc(int length) throws Exception {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new PatternStream(length)) {
+            byte[] chunk = new byte[65536];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                crc.update(chunk, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Backend used behind the proxy; answers with its name, digests uploads and generates large downloads
+     */
+    private static final class Backend implements Router, AsyncRouter {
+        private final String name;
+        private final long workMillis;
+
+        Backend(String name, long workMillis) {
+            this.name = name;
+            this.workMillis = workMillis;
+        }
+
+        @Override
+        public HttpResponse route(HttpRequest request) throws Exception {
+            String path = request.getPath();
+            if (path.startsWith("/api/whoami")) {
+                return HttpResponse.okText(name);
+            } else if (path.equals("/api/cookies")) {
+                HttpResponse response = HttpResponse.okText(name);
+                response.addHeader("Set-Cookie", "session=abc; Path=/; HttpOnly");
+                response.addHeader("Set-Cookie", "theme=dark; Expires=Wed, 21 Oct 2026 07:28:00 GMT");
+                return response;
+            } else if (path.equals("/work")) {
+                Thread.sleep(workMillis);
+                return HttpResponse.okText(name);
+            } else if (path.equals("/api/upload")) {
+                CRC32 crc = new CRC32();
+                long size = 0;
+                try (InputStream in = request.getBodyStream()) {
+                    byte[] chunk = new byte[65536];
+                    int n;
+                    while ((n = in.read(chunk, 0, chunk.length)) > 0) {
+                        crc.update(chunk, 0, n);
+                        size += n;
+                    }
+                }
+                return HttpResponse.okText(name + " " + size + ":" + crc.getValue()
+                        + (request.isBodyStreamed() ? "" : " (buffered)"));
+            } else if (path.startsWith("/api/blob?size=")) {
+                HttpResponse response = new HttpResponse(200, "OK");
+                response.setHeader("Content-Type", "application/octet-stream");
+                response.setBodyStream(new PatternStream(Integer.parseInt(request.getParameter("size"))), -1);
+                return response;
+            }
+            return HttpResponse.notFound();
+        }
+
+        @Override
+        public CompletableFuture<HttpResponse> routeAsync(HttpRequest request) {
+            try {
+                return CompletableFuture.completedFuture(route(request));
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public boolean streamsRequestBody(HttpRequest request) {
+            return true;
+        }
+    }
+
+    /**
+     * Deterministic generated content, produced on the fly
+     */
+    private static final class PatternStream extends InputStream {
+        private final long length;
+        private long pos = 0;
+
+        PatternStream(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            return pos < length ? (int) (pos++ % 251) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= length) return -1;
+            int n = (int) Math.min(len, length - pos);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) (pos++ % 251);
+            }
+            return n;
+        }
+    }
+}
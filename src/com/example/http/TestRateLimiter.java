@@ -0,0 +1,74 @@
+package com.example.http;
+
+/**
+ * RateLimiter Unit Test
+ * Test token bucket behavior and route-level throttling
+ */
+public class TestRateLimiter {
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== RateLimiter Unit Test ===");
+        System.out.println();
+
+        // Test 1: Burst then throttle
+        System.out.println("1. Test burst capacity:");
+        RateLimiter limiter = new RateLimiter(10, 3);
+        int allowed = 0;
+        for (int i = 0; i < 5; i++) {
+            if (limiter.tryAcquire("10.0.0.1")) allowed++;
+        }
+        System.out.println("   Allowed: " + allowed + " of 5");
+        System.out.println("   Expected: 3");
+        System.out.println();
+
+        // Test 2: Clients are independent
+        System.out.println("2. Test independent clients:");
+        boolean other = limiter.tryAcquire("10.0.0.2");
+        System.out.println("   Other client allowed: " + other);
+        System.out.println("   Expected: true");
+        System.out.println();
+
+        // Test 3: Lazy refill
+        System.out.println("3. Test lazy refill:");
+        Thread.sleep(150);
+        boolean refilled = limiter.tryAcquire("10.0.0.1");
+        System.out.println("   Allowed after 150ms: " + refilled);
+        System.out.println("   Expected: true");
+        System.out.println();
+
+        // Test 4: Bounded memory
+        System.out.println("4. Test bucket count bound:");
+        RateLimiter bounded = new RateLimiter(1, 1, 4, 64);
+        for (int i = 0; i < 10_000; i++) {
+            bounded.tryAcquire("client-" + i);
+        }
+        System.out.println("   Buckets kept: " + bounded.getBucketCount());
+        System.out.println("   Expected: at most 64");
+        System.out.println();
+
+        // Test 5: Router answers 429 before touching the user store
+        System.out.println("5. Test route throttling:");
+        CompleteRouter router = new CompleteRouter();
+        router.setRateLimiter("/login", new RateLimiter(1, 1));
+        HttpResponse firstLogin = router.route(createLoginRequest());
+        HttpResponse secondLogin = router.route(createLoginRequest());
+        System.out.println("   Status codes: " + firstLogin.getStatusCode() + ", " + secondLogin.getStatusCode());
+        System.out.println("   Expected: 401, 429");
+        System.out.println();
+
+        boolean normal = allowed == 3 && other && refilled && bounded.getBucketCount() <= 64
+                && firstLogin.getStatusCode() == 401 && secondLogin.getStatusCode() == 429;
+        System.out.println("=== Unit Test Completed ===");
+        System.out.println("RateLimiter functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static HttpRequest createLoginRequest() {
+        HttpRequest request = new HttpRequest();
+        request.setMethod("POST");
+        request.setPath("/login");
+        request.setProtocol("HTTP/1.1");
+        request.setRemoteAddress("192.168.1.100");
+        request.addParameter("username", "nobody");
+        request.addParameter("password", "wrong");
+        return request;
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request Limits Test
+ * Test 414/431 for oversized request lines and headers, and 408 for clients that
+ * trickle the head, the body or a streamed body slower than the configured deadlines;
+ * 413 for Content-Length bodies too large to buffer, and release of large body buffers after the response
+ */
+public class TestRequestLimits {
+    private static int port;
+
+    public static void main(String[] args) throws Exception {
+        // two worker threads only, so slow clients would visibly block everyone else
+        HttpServer server = new HttpServer(0, 2);
+        server.setRequestLimits(new RequestLimits(4096, 8192, 50, 1000, 1000, 2000));
+        server.setRouter(new Router() {
+            @Override
+            public HttpResponse route(HttpRequest request) throws Exception {
+                if (request.getPath().equals("/stream")) {
+                    return HttpResponse.okText("read " + request.getBodyStream().readAllBytes().length);
+                }
+                return HttpResponse.okText("ok");
+            }
+
+            @Override
+            public boolean streamsRequestBody(HttpRequest request) {
+                return request.getPath().startsWith("/stream");
+            }
+        });
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        port = server.getLocalPort();
+
+        System.out.println("=== Request Limits Test ===");
+        System.out.println();
+
+        // Test 1: Oversized request line and headers are rejected before being buffered
+        System.out.println("1. Test size limits:");
+        String normal = statusLine(send("GET /ok HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+        String longLine = statusLine(send("GET /" + "a".repeat(5000) + " HTTP/1.1\r\nHost: localhost\r\n\r\n"));
+        StringBuilder many = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 60; i++) {
+            many.append("X-Header-").append(i).append(": v\r\n");
+        }
+        String tooMany = statusLine(send(many.append("\r\n").toString()));
+        String tooBig = statusLine(send("GET / HTTP/1.1\r\nCookie: " + "c".repeat(10_000) + "\r\n\r\n"));
+        System.out.println("   Normal: " + normal + ", 5000-byte request line: " + longLine);
+        System.out.println("   60 headers: " + tooMany + ", 10KB header: " + tooBig);
+        System.out.println("   Expected: 200, 414, 431, 431");
+        boolean sizeOk = normal.contains(" 200 ") && longLine.contains(" 414 ")
+                && tooMany.contains(" 431 ") && tooBig.contains(" 431 ");
+        System.out.println();
+
+        // Test 2: Slowloris clients trickling the head get 408 and free their worker threads
+        System.out.println("2. Test slow head (one byte every 200ms, head deadline 1s):");
+        List<Thread> slowClients = new ArrayList<>();
+        String[] slowResults = new String[2];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < slowResults.length; i++) {
+            int index = i;
+            Thread t = new Thread(() -> slowResults[index] = trickle("GET / HTTP/1.1\r\nHost: localhost\r\nX-Slow: " + "z".repeat(100)));
+            t.start();
+            slowClients.add(t);
+        }
+        for (Thread t : slowClients) {
+            t.join();
+        }
+        long slowMs = System.currentTimeMillis() - start;
+        String after = statusLine(send("GET /ok HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"));
+        System.out.println("   Slow clients: " + statusLine(slowResults[0]) + ", " + statusLine(slowResults[1])
+                + " after " + slowMs + " ms, next request: " + after);
+        System.out.println("   Expected: 408, 408 after about 1000 ms, 200");
+        boolean slowHeadOk = slowResults[0].contains(" 408 ") && slowResults[1].contains(" 408 ")
+                && slowMs < 3000 && after.contains(" 200 ");
+        System.out.println();
+
+        // Test 3: A body that stops arriving gets 408 after the body deadline, not the 30s idle timeout
+        System.out.println("3. Test stalled body (10 of 100 bytes sent):");
+        String stalled;
+        start = System.currentTimeMillis();
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /ok HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/plain\r\nContent-Length: 100\r\n\r\n"
+                    + "0123456789").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            stalled = readAll(socket.getInputStream());
+        }
+        long stalledMs = System.currentTimeMillis() - start;
+        System.out.println("   Response: " + statusLine(stalled) + " after " + stalledMs + " ms");
+        System.out.println("   Expected: 408 after about 1000 ms");
+        boolean bodyOk = stalled.contains(" 408 ") && stalledMs < 3000;
+        System.out.println();
+
+        // Test 4: The head deadline does not count the idle time between keep-alive requests
+        System.out.println("4. Test idle keep-alive connection:");
+        String second;
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            out.write("GET /ok HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            readResponse(in);
+            Thread.sleep(1500);
+            out.write("GET /ok HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            second = readAll(in);
+        }
+        System.out.println("   Second request after 1.5s idle: " + statusLine(second));
+        System.out.println("   Expected: 200");
+        boolean idleOk = second.contains(" 200 ");
+        System.out.println();
+
+        // Test 5: A streaming Content-Type does not exempt a body from the deadline; only the router decides
+        System.out.println("5. Test stalled CSV body on a non-streaming path:");
+        start = System.currentTimeMillis();
+        String csv = stall("/ok", "text/csv");
+        long csvMs = System.currentTimeMillis() - start;
+        System.out.println("   Response: " + statusLine(csv) + " after " + csvMs + " ms");
+        System.out.println("   Expected: 408 after about 1000 ms");
+        boolean csvOk = csv.contains(" 408 ") && csvMs < 3000;
+        System.out.println();
+
+        // Test 6: A body the router streams has its own deadline, both while routing and while draining
+        System.out.println("6. Test streamed body (stream deadline 2s):");
+        String whole = send("POST /stream HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10\r\nConnection: close\r\n\r\n0123456789");
+        start = System.currentTimeMillis();
+        String streamed = stall("/stream", "text/plain");
+        long streamedMs = System.currentTimeMillis() - start;
+        start = System.currentTimeMillis();
+        String drained = stall("/stream-unread", "text/plain");
+        long drainedMs = System.currentTimeMillis() - start;
+        System.out.println("   Complete body: " + statusLine(whole) + " (" + body(whole) + ")");
+        System.out.println("   Stalled while routing: " + statusLine(streamed) + " after " + streamedMs + " ms");
+        System.out.println("   Stalled while draining the unread body: " + statusLine(drained) + ", closed after " + drainedMs + " ms");
+        System.out.println("   Expected: 200 (read 10), 408 after about 2000 ms, 200 closed after about 2000 ms");
+        boolean streamOk = whole.contains(" 200 ") && body(whole).equals("read 10")
+                && streamed.contains(" 408 ") && streamedMs >= 1500 && streamedMs < 4000
+                && drained.contains(" 200 ") && drainedMs >= 1500 && drainedMs < 4000;
+        System.out.println();
+
+        // Test 7: Content-Length bodies above the 10MB buffer limit are refused without being read
+        System.out.println("7. Test oversized Content-Length:");
+        start = System.currentTimeMillis();
+        String twentyMb = send("POST /ok HTTP/1.1\r\nHost: localhost\r\nContent-Length: 20000000\r\n\r\n0123456789");
+        String beyondInt = send("POST /ok HTTP/1.1\r\nHost: localhost\r\nContent-Length: 3000000000\r\n\r\n0123456789");
+        long tooLargeMs = System.currentTimeMillis() - start;
+        String tenKb = send("POST /ok HTTP/1.1\r\nHost: localhost\r\nContent-Length: 10240\r\nConnection: close\r\n\r\n"
+                + "x".repeat(10240));
+        System.out.println("   20MB: " + statusLine(twentyMb) + ", 3GB: " + statusLine(beyondInt) + " in " + tooLargeMs
+                + " ms, 10KB: " + statusLine(tenKb));
+        System.out.println("   Expected: 413, 413 without waiting for the body, 200");
+        boolean tooLargeOk = twentyMb.contains(" 413 ") && beyondInt.contains(" 413 ") && tooLargeMs < 3000
+                && tenKb.contains(" 200 ");
+        System.out.println();
+
+        // Test 8: A reused request object drops a large body buffer once the response is written
+        System.out.println("8. Test body buffer release:");
+        HttpRequest slot = new HttpRequest();
+        slot.prepareBody(1024);
+        slot.trimBody();
+        int smallKept = slot.getBodyBytes().length;
+        slot.prepareBody(5 * 1024 * 1024);
+        slot.trimBody();
+        int largeKept = slot.getBodyBytes().length;
+        System.out.println("   Buffer kept after a 1KB body: " + smallKept + ", after a 5MB body: " + largeKept);
+        System.out.println("   Expected: 1024, 0");
+        boolean trimOk = smallKept == 1024 && largeKept == 0;
+        System.out.println();
+
+        server.shutdown();
+
+        boolean normalResult = sizeOk && slowHeadOk && bodyOk && idleOk && csvOk && streamOk && tooLargeOk && trimOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("Request limits functionality: " + (normalResult ? "Normal" : "Abnormal"));
+    }
+
+    private static String send(String request) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return readAll(socket.getInputStream());
+        }
+    }
+
+    /**
+     * Sends 10 of 100 body bytes and waits for the server to answer or close
+     */
+    private static String stall(String path, String contentType) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: " + contentType
+                    + "\r\nContent-Length: 100\r\n\r\n0123456789").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return readAll(socket.getInputStream());
+        }
+    }
+
+    /**
+     * Sends the text one byte every 200ms until the server answers or closes
+     */
+    private static String trickle(String text) {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            InputStream in = socket.getInputStream();
+            for (byte b : text.getBytes(StandardCharsets.US_ASCII)) {
+                if (in.available() > 0) break;
+                try {
+                    out.write(b);
+                    out.flush();
+                } catch (Exception e) {
+                    break;
+                }
+                Thread.sleep(200);
+            }
+            return readAll(in);
+        } catch (Exception e) {
+            return e.toString();
+        }
+    }
+
+    private static void readResponse(InputStream in) throws Exception {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            head.append((char) in.read());
+        }
+        String h = head.toString().toLowerCase();
+        int idx = h.indexOf("content-length:");
+        int length = Integer.parseInt(h.substring(idx + 15, h.indexOf("\r\n", idx)).trim());
+        in.readNBytes(length);
+    }
+
+    private static String readAll(InputStream in) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            in.transferTo(out);
+        } catch (Exception ignored) {
+            // connection reset after the response
+        }
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static String body(String response) {
+        int end = response.indexOf("\r\n\r\n");
+        return end < 0 ? "" : response.substring(end + 4);
+    }
+
+    private static String statusLine(String response) {
+        int end = response.indexOf("\r\n");
+        return end < 0 ? "(no response)" : response.substring(0, end);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.http;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Request Tracing Test
+ * Test the Server-Timing header and the JFR events emitted per request phase,
+ * and that tracing costs nothing measurable while no recording is running
+ */
+public class TestRequestTrace {
+    private static final String[] EVENTS = {
+            "com.example.http.ConnectionAccepted", "com.example.http.RequestRead", "com.example.http.RequestParsed",
+            "com.example.http.RequestRouted", "com.example.http.ResponseWritten"
+    };
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = new HttpServer(0, 4);
+        server.setRouter(request -> {
+            if (request.getPath().startsWith("/slow")) {
+                Thread.sleep(50);
+            } else if (request.getPath().startsWith("/missing")) {
+                return HttpResponse.notFound();
+            }
+            return HttpResponse.okText("ok");
+        });
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        String base = "http://localhost:" + server.getLocalPort();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        System.out.println("=== Request Tracing Test ===");
+        System.out.println();
+
+        // Test 1: Nothing is traced while no recording runs and Server-Timing is off
+        System.out.println("1. Test tracing disabled:");
+        Optional<String> noTiming = client.send(get(base + "/slow"), BodyHandlers.ofString()).headers()
+                .firstValue("Server-Timing");
+        boolean idle = RequestTrace.begin() == null;
+        int calls = 10_000_000;
+        long start = System.nanoTime();
+        int traced = 0;
+        for (int i = 0; i < calls; i++) {
+            if (RequestTrace.begin() != null) traced++;
+        }
+        double nsPerCall = (System.nanoTime() - start) / (double) calls;
+        boolean disabledOk = noTiming.isEmpty() && idle && traced == 0;
+        System.out.println("   Server-Timing present: " + noTiming.isPresent() + ", trace created: " + !idle
+                + ", cost of the disabled check: " + String.format("%.1f", nsPerCall) + " ns");
+        System.out.println("   Expected: false, false, a few ns");
+        System.out.println();
+
+        // Test 2: Server-Timing reports the phases, route includes the 50ms handler
+        System.out.println("2. Test Server-Timing header:");
+        RequestTrace.setServerTiming(true);
+        // a new connection: the idle keep-alive connection already decided not to trace its next request
+        HttpClient timed = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        String timing = timed.send(get(base + "/slow"), BodyHandlers.ofString()).headers()
+                .firstValue("Server-Timing").orElse("");
+        // pre-serialized responses get the header too, without changing the shared copy
+        java.net.http.HttpResponse<String> missing = timed.send(get(base + "/missing"), BodyHandlers.ofString());
+        boolean cannedTimed = missing.statusCode() == 404 && missing.headers().firstValue("Server-Timing").isPresent();
+        boolean sharedUntouched = !new String(HttpResponse.notFound().toBytes()).contains("Server-Timing");
+        // changing the body array of one 404 leaves the shared body alone
+        HttpResponse.notFound().getBody()[0] = 'X';
+        sharedUntouched &= new String(HttpResponse.notFound().getBody(), StandardCharsets.UTF_8).equals("404 Not Found")
+                && new String(HttpResponse.notFound().toBytes(), StandardCharsets.UTF_8).endsWith("\r\n404 Not Found");
+        RequestTrace.setServerTiming(false);
+        Map<String, Double> metrics = new HashMap<>();
+        for (String metric : timing.split(",")) {
+            String[] parts = metric.trim().split(";dur=");
+            if (parts.length == 2) metrics.put(parts[0], Double.parseDouble(parts[1]));
+        }
+        boolean timingOk = metrics.keySet().containsAll(java.util.List.of("read", "parse", "route"))
+                && metrics.get("route") >= 50 && metrics.get("parse") < 50 && cannedTimed && sharedUntouched;
+        System.out.println("   Server-Timing: " + timing);
+        System.out.println("   404 has Server-Timing: " + cannedTimed + ", shared 404 unchanged: " + sharedUntouched);
+        System.out.println("   Expected: read, parse and route metrics, route >= 50; true, true");
+        System.out.println();
+
+        // Test 3: A JFR recording receives one event per phase per request
+        System.out.println("3. Test JFR events:");
+        Path file = Files.createTempFile("http-trace", ".jfr");
+        int requests = 20;
+        try (Recording recording = new Recording()) {
+            for (String event : EVENTS) {
+                recording.enable(event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            HttpClient fresh = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            for (int i = 0; i < requests - 1; i++) {
+                fresh.send(get(base + "/fast?i=" + i + "&password=secret"), BodyHandlers.ofString());
+            }
+            fresh.send(get(base + "/slow"), BodyHandlers.ofString());
+            // ResponseWritten is committed after the last byte is written, possibly after the client has read it
+            Thread.sleep(200);
+            recording.stop();
+            recording.dump(file);
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        long slowRouteMs = -1;
+        boolean queryRecorded = false;
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            String name = event.getEventType().getName();
+            counts.merge(name, 1, Integer::sum);
+            if (event.hasField("path") && event.getString("path") != null && event.getString("path").contains("?")) {
+                queryRecorded = true;
+            }
+            if (name.equals("com.example.http.RequestRouted") && "/slow".equals(event.getString("path"))) {
+                slowRouteMs = event.getDuration().toMillis();
+            }
+        }
+        Files.deleteIfExists(file);
+        boolean eventsOk = counts.getOrDefault(EVENTS[0], 0) >= 1 && slowRouteMs >= 50 && !queryRecorded;
+        for (int i = 1; i < EVENTS.length; i++) {
+            eventsOk &= counts.getOrDefault(EVENTS[i], 0) == requests;
+        }
+        System.out.println("   Events: " + counts);
+        System.out.println("   RequestRouted duration for /slow: " + slowRouteMs + " ms, query string recorded: " + queryRecorded);
+        System.out.println("   Expected: ConnectionAccepted >= 1, " + requests + " of each phase, >= 50 ms, false");
+        System.out.println();
+
+        server.shutdown();
+
+        boolean normal = disabledOk && timingOk && eventsOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("Request tracing functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static java.net.http.HttpRequest get(String url) {
+        return java.net.http.HttpRequest.newBuilder(URI.create(url)).build();
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.http;
+
+/**
+ * ScalableBloomFilter Test
+ * Test no false negatives, the false positive rate after growing, and the UserService integration
+ */
+public class TestScalableBloomFilter {
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== ScalableBloomFilter Test ===");
+        System.out.println();
+
+        // Test 1: Members are always found, even after the filter grows well past its initial capacity
+        System.out.println("1. Test no false negatives while growing:");
+        ScalableBloomFilter filter = new ScalableBloomFilter(1_000, 0.01);
+        int members = 200_000;
+        for (int i = 0; i < members; i++) {
+            filter.add("user" + i);
+        }
+        int missing = 0;
+        for (int i = 0; i < members; i++) {
+            if (!filter.mightContain("user" + i)) missing++;
+        }
+        System.out.println("   Stages: " + filter.getStageCount() + ", false negatives: " + missing
+                + ", size: " + filter.getSizeInBytes() / 1024 + " KB");
+        System.out.println("   Expected: more than 1 stage, 0 false negatives");
+        System.out.println();
+
+        // Test 2: Measured false positive rate stays near the configured rate
+        System.out.println("2. Test false positive rate:");
+        int probes = 200_000;
+        int falsePositives = 0;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("absent" + i)) falsePositives++;
+        }
+        double rate = (double) falsePositives / probes;
+        System.out.println("   Configured: 0.01, measured: " + String.format("%.4f", rate));
+        System.out.println("   Expected: measured <= 0.015");
+        System.out.println();
+
+        // Test 3: UserService answers misses from the filter and registration is a single atomic step
+        System.out.println("3. Test UserService integration:");
+        UserService users = new UserService();
+        String name = "bloom" + System.nanoTime();
+        boolean before = users.isUsernameExists(name);
+        boolean first = users.register(name, "pw");
+        boolean second = users.register(name, "other");
+        boolean after = users.isUsernameExists(name);
+        boolean login = users.login(name, "pw");
+        System.out.println("   Exists before: " + before + ", register: " + first + ", register again: " + second
+                + ", exists after: " + after + ", login: " + login);
+        System.out.println("   Expected: false, true, false, true, true");
+        System.out.println();
+
+        // Test 4: Rebuilding from the store while registrations continue loses nobody
+        System.out.println("4. Test rebuild under concurrent registration:");
+        String prefix = "rebuild" + System.nanoTime() + "_";
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 50_000; i++) {
+                users.register(prefix + i, "pw");
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 5; i++) {
+            UserService.rebuildUsernameFilter(10_000, 0.001);
+        }
+        writer.join();
+        int lost = 0;
+        for (int i = 0; i < 50_000; i++) {
+            if (!users.isUsernameExists(prefix + i)) lost++;
+        }
+        System.out.println("   Registered users not found: " + lost);
+        System.out.println("   Expected: 0");
+        System.out.println();
+
+        // Test 5: Re-adding names that are already present neither counts nor grows the filter
+        System.out.println("5. Test duplicate adds:");
+        ScalableBloomFilter dup = new ScalableBloomFilter(1000, 0.01);
+        for (int i = 0; i < 500; i++) {
+            dup.add("dup" + i);
+        }
+        long sizeBefore = dup.size();
+        int stagesBefore = dup.getStageCount();
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 500; i++) {
+                dup.add("dup" + i);
+            }
+        }
+        System.out.println("   Size: " + sizeBefore + " -> " + dup.size() + ", stages: " + stagesBefore + " -> " + dup.getStageCount());
+        System.out.println("   Expected: unchanged, unchanged");
+        boolean dupOk = dup.size() == sizeBefore && dup.getStageCount() == stagesBefore;
+        System.out.println();
+
+        boolean normal = filter.getStageCount() > 1 && missing == 0 && rate <= 0.015
+                && !before && first && !second && after && login && lost == 0 && dupOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("ScalableBloomFilter functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+}
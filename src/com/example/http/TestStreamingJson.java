@@ -0,0 +1,186 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streaming JSON Test
+ * Test the JsonWriter encoding, chunked responses written straight into the connection buffer,
+ * and cursor pagination of GET /users over HTTP/1.1 and HTTP/2
+ */
+public class TestStreamingJson {
+    private static final int USERS = 25_000;
+    private static final Pattern NAME = Pattern.compile("\"(page[0-9]+)\"");
+    private static final Pattern NEXT = Pattern.compile("\"next\":(null|\"([A-Za-z0-9_-]+)\")");
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Streaming JSON Test ===");
+        System.out.println();
+
+        // Test 1: Escaping, UTF-8 and nesting match what a String-built document would contain
+        System.out.println("1. Test JsonWriter encoding:");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter json = new JsonWriter(bytes);
+        json.beginObject()
+                .name("text").value("quote \" backslash \\ newline \n tab \t bell \u0007")
+                .name("unicode").value("中文 é 😀")
+                .name("numbers").beginArray().value(0).value(-42).value(Long.MAX_VALUE).endArray()
+                .name("nested").beginArray().beginObject().name("ok").value(true).endObject().beginArray().endArray().endArray()
+                .name("none").nullValue()
+                .endObject();
+        json.finish();
+        String encoded = bytes.toString(StandardCharsets.UTF_8);
+        String expected = "{\"text\":\"quote \\\" backslash \\\\ newline \\n tab \\t bell \\u0007\"," +
+                "\"unicode\":\"中文 é 😀\",\"numbers\":[0,-42,9223372036854775807]," +
+                "\"nested\":[{\"ok\":true},[]],\"none\":null}";
+        boolean encodingOk = expected.equals(encoded);
+        System.out.println("   Encoded: " + encoded);
+        System.out.println("   Matches expected document: " + encodingOk);
+        System.out.println("   Expected: true");
+        System.out.println();
+
+        UserService users = new UserService();
+        for (int i = 0; i < USERS; i++) {
+            users.register(String.format("page%06d", i), "pw");
+        }
+        // GET /users is off by default
+        HttpRequest probe = new HttpRequest();
+        probe.setMethod("GET");
+        probe.setPath("/users");
+        int listingOff = new CompleteRouter().route(probe).getStatusCode();
+        HttpServer server = new HttpServer(0, 4);
+        CompleteRouter listing = new CompleteRouter();
+        listing.setUserListingEnabled(true);
+        server.setRouter(listing);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        String base = "http://localhost:" + server.getLocalPort();
+        HttpClient http1 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        // Test 2: Paging through every user with the cursor returns each name once, in order
+        System.out.println("2. Test cursor pagination over " + USERS + " users (HTTP/1.1, limit=1000):");
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        boolean chunked = true;
+        do {
+            java.net.http.HttpResponse<String> page = http1.send(
+                    get(base + "/users?limit=1000" + (cursor != null ? "&cursor=" + cursor : "")), BodyHandlers.ofString());
+            chunked &= page.headers().firstValue("transfer-encoding").orElse("").equals("chunked")
+                    && page.headers().firstValue("content-length").isEmpty();
+            Matcher m = NAME.matcher(page.body());
+            while (m.find()) {
+                seen.add(m.group(1));
+            }
+            Matcher next = NEXT.matcher(page.body());
+            cursor = next.find() ? next.group(2) : "missing";
+            pages++;
+        } while (cursor != null && !cursor.equals("missing") && pages < 100);
+        boolean ordered = true;
+        for (int i = 1; i < seen.size(); i++) {
+            ordered &= seen.get(i - 1).compareTo(seen.get(i)) < 0;
+        }
+        Set<String> unique = new HashSet<>(seen);
+        boolean pagingOk = seen.size() == USERS && unique.size() == USERS && ordered && pages == USERS / 1000 && chunked;
+        System.out.println("   Pages: " + pages + ", names: " + seen.size() + ", unique: " + unique.size()
+                + ", sorted: " + ordered + ", chunked without Content-Length: " + chunked);
+        System.out.println("   Expected: " + USERS / 1000 + ", " + USERS + ", " + USERS + ", true, true");
+        System.out.println();
+
+        // Test 3: The same endpoint over HTTP/2 is sent as DATA frames
+        System.out.println("3. Test HTTP/2 response:");
+        HttpClient http2 = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        http2.send(get(base + "/user/count"), BodyHandlers.ofString());
+        java.net.http.HttpResponse<String> h2 = http2.send(get(base + "/users?limit=3"), BodyHandlers.ofString());
+        String expectedPage = "{\"users\":[\"page000000\",\"page000001\",\"page000002\"],\"count\":3,\"next\":\"cGFnZTAwMDAwMg\"}";
+        boolean h2Ok = h2.version() == HttpClient.Version.HTTP_2 && expectedPage.equals(h2.body());
+        System.out.println("   Version: " + h2.version() + ", body: " + h2.body());
+        System.out.println("   Expected: HTTP_2, " + expectedPage);
+        System.out.println();
+
+        // Test 4: Invalid parameters
+        System.out.println("4. Test invalid parameters:");
+        int badLimit = http1.send(get(base + "/users?limit=0"), BodyHandlers.ofString()).statusCode();
+        int badCursor = http1.send(get(base + "/users?cursor=not*base64"), BodyHandlers.ofString()).statusCode();
+        System.out.println("   limit=0: " + badLimit + ", malformed cursor: " + badCursor
+                + ", listing not enabled: " + listingOff);
+        System.out.println("   Expected: 400, 400, 404");
+        System.out.println();
+
+        // Test 5: A 10000-name page allocates far less when streamed than when built as a String
+        System.out.println("5. Test allocation for a 10000-name page:");
+        CompleteRouter router = new CompleteRouter();
+        router.setUserListingEnabled(true);
+        HttpRequest request = new HttpRequest();
+        request.setMethod("GET");
+        request.setPath("/users?limit=10000");
+        request.addParameter("limit", "10000");
+        OutputStream discard = OutputStream.nullOutputStream();
+        for (int i = 0; i < 5; i++) {
+            new ResponseWriter(discard, 8192).write(router.route(request));
+            new ResponseWriter(discard, 8192).write(HttpResponse.okJson(buildPageString(users)));
+        }
+        long streamed = allocated(() -> new ResponseWriter(discard, 8192).write(router.route(request)));
+        long buffered = allocated(() -> new ResponseWriter(discard, 8192).write(HttpResponse.okJson(buildPageString(users))));
+        boolean allocationOk = streamed * 4 < buffered;
+        System.out.println("   Streamed: " + streamed / 1024 + " KB, String-built: " + buffered / 1024 + " KB");
+        System.out.println("   Expected: streamed well below String-built");
+        System.out.println();
+
+        server.shutdown();
+
+        boolean normal = encodingOk && pagingOk && h2Ok && badLimit == 400 && badCursor == 400 && listingOff == 404 && allocationOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("Streaming JSON functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static java.net.http.HttpRequest get(String url) {
+        return java.net.http.HttpRequest.newBuilder(URI.create(url)).build();
+    }
+
+    /**
+     * The same page built the old way: StringBuilder, then String, then bytes
+     */
+    private static String buildPageString(UserService users) {
+        StringBuilder sb = new StringBuilder("{\"users\":[");
+        int count = 0;
+        for (String name : users.usernamesAfter(null)) {
+            if (count == 10_000) break;
+            if (count++ > 0) sb.append(',');
+            sb.append('"').append(name).append('"');
+        }
+        return sb.append("],\"count\":").append(count).append('}').toString();
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    private static long allocated(Action action) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(id);
+        action.run();
+        return threads.getThreadAllocatedBytes(id) - before;
+    }
+}
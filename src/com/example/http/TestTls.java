@@ -0,0 +1,167 @@
+package com.example.http;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+
+/**
+ * TLS Integration Test
+ * Test the HTTPS listener with a self-signed keystore generated by keytool,
+ * session resumption for reconnecting clients and the handshake metrics
+ */
+public class TestTls {
+    private static final String PASSWORD = "changeit";
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("tls-test").toFile();
+        File keyStore = new File(dir, "server.p12");
+        generateKeyStore(keyStore);
+
+        TlsConfig tls = new TlsConfig(keyStore.getPath(), PASSWORD.toCharArray());
+        HttpServer server = new HttpServer(0, 4);
+        server.setTls(tls);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        int port = server.getLocalPort();
+
+        // Client side trusts the self-signed certificate
+        KeyStore trusted = KeyStore.getInstance(keyStore, PASSWORD.toCharArray());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trusted);
+
+        System.out.println("=== TLS Integration Test ===");
+        System.out.println();
+
+        // Test 1: HTTPS request with the JDK HttpClient
+        System.out.println("1. Test HTTPS GET /user/count:");
+        SSLContext clientContext = SSLContext.getInstance("TLS");
+        clientContext.init(null, tmf.getTrustManagers(), null);
+        HttpClient client = HttpClient.newBuilder().sslContext(clientContext)
+                .version(HttpClient.Version.HTTP_1_1).build();
+        java.net.http.HttpResponse<String> response = client.send(
+                java.net.http.HttpRequest.newBuilder(URI.create("https://localhost:" + port + "/user/count")).build(),
+                BodyHandlers.ofString());
+        System.out.println("   Status: " + response.statusCode() + ", body: " + response.body());
+        System.out.println("   Expected: 200, user count");
+        System.out.println();
+
+        // Test 2: Reconnecting clients resume the session (TLS 1.3 tickets and TLS 1.2 session cache)
+        System.out.println("2. Test session resumption:");
+        boolean resumedOk = true;
+        for (String protocol : new String[]{"TLSv1.3", "TLSv1.2"}) {
+            SSLContext reconnecting = SSLContext.getInstance("TLS");
+            reconnecting.init(null, tmf.getTrustManagers(), null);
+            long fullBefore = tls.getFullHandshakeCount();
+            long resumedBefore = tls.getResumedHandshakeCount();
+            int okResponses = 0;
+            for (int i = 0; i < 5; i++) {
+                if (rawGet(reconnecting, protocol, port).startsWith("HTTP/1.1 200")) {
+                    okResponses++;
+                }
+            }
+            long full = tls.getFullHandshakeCount() - fullBefore;
+            long resumed = tls.getResumedHandshakeCount() - resumedBefore;
+            System.out.println("   " + protocol + ": responses=" + okResponses + "/5, full=" + full + ", resumed=" + resumed);
+            resumedOk &= okResponses == 5 && full == 1 && resumed == 4;
+        }
+        System.out.println("   Expected: 5/5, full=1, resumed=4 for both protocols");
+        System.out.println();
+
+        // Test 3: Plain HTTP on the HTTPS port fails the handshake without affecting the listener
+        System.out.println("3. Test plain HTTP on the HTTPS port:");
+        long failedBefore = tls.getFailedHandshakeCount();
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            readAll(socket.getInputStream());
+        }
+        Thread.sleep(100);
+        long failed = tls.getFailedHandshakeCount() - failedBefore;
+        boolean stillServing = rawGet(clientContext, "TLSv1.3", port).startsWith("HTTP/1.1 200");
+        System.out.println("   Failed handshakes: " + failed + ", listener still serving: " + stillServing);
+        System.out.println("   Expected: 1, true");
+        System.out.println();
+
+        // Test 4: Metrics
+        System.out.println("4. Test handshake metrics:");
+        System.out.println("   Handshakes: " + tls.getHandshakeCount()
+                + ", resumption ratio: " + String.format("%.2f", tls.getResumptionRatio())
+                + ", average handshake: " + String.format("%.2f", tls.getAverageHandshakeMillis()) + " ms"
+                + ", rate: " + tls.getHandshakeRate() + "/s");
+        System.out.println("   Expected: 12 handshakes, ratio > 0.5");
+        System.out.println();
+
+        server.shutdown();
+        keyStore.delete();
+        dir.delete();
+
+        boolean normal = response.statusCode() == 200
+                && resumedOk
+                && failed == 1 && stillServing
+                && tls.getHandshakeCount() == 12 && tls.getResumptionRatio() > 0.5;
+        System.out.println("=== Integration Test Completed ===");
+        System.out.println("TLS functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static void generateKeyStore(File keyStore) throws Exception {
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair",
+                "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-validity", "1", "-storetype", "PKCS12",
+                "-keystore", keyStore.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException("keytool failed: " + output);
+        }
+    }
+
+    /**
+     * One GET /user/count on a fresh TLS connection created from the given client context
+     */
+    private static String rawGet(SSLContext context, String protocol, int port) throws Exception {
+        try (SSLSocket socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", port)) {
+            socket.setEnabledProtocols(new String[]{protocol});
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /user/count HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            return readAll(socket.getInputStream());
+        }
+    }
+
+    private static String readAll(InputStream in) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        try {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                buf.write(chunk, 0, n);
+            }
+        } catch (Exception e) {
+            // connection reset after a failed handshake
+        }
+        return buf.toString(StandardCharsets.UTF_8);
+    }
+}
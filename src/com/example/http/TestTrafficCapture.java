@@ -0,0 +1,200 @@
+package com.example.http;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Traffic Capture Test
+ * Record real connections to a capture file, check the file contents and password redaction,
+ * then replay the capture against a server at the original rate, at 4x and unthrottled
+ */
+public class TestTrafficCapture {
+    private static final int CONNECTIONS = 4;
+    private static final int ROUNDS = 4;
+    private static final long GAP_MS = 100;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Traffic Capture Test ===");
+        System.out.println();
+
+        Path file = Files.createTempFile("traffic", ".cap");
+        CompleteRouter router = new CompleteRouter();
+        router.setRateLimiter("/login", null);
+        router.setRateLimiter("/register", null);
+        router.setImportEnabled(true);
+        HttpServer server = start(router);
+        TrafficCapture capture = new TrafficCapture(file);
+        server.setTrafficCapture(capture);
+
+        // Test 1: Requests on several keep-alive connections are recorded with their timing
+        System.out.println("1. Test capture:");
+        String run = Long.toString(System.nanoTime(), 36);
+        List<Thread> clients = new ArrayList<>();
+        for (int c = 0; c < CONNECTIONS; c++) {
+            int id = c;
+            Thread t = new Thread(() -> {
+                try {
+                    Upstream.Connection conn = new Upstream("127.0.0.1", server.getLocalPort()).open();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        String user = "cap_" + run + "_" + id + "_" + round;
+                        exchange(conn, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n", "");
+                        exchange(conn, form("/register"), "username=" + user + "&password=S3cretPw" + round);
+                        String first = "username=" + user + "&password=";
+                        String second = "Hunter2Pw" + round;
+                        exchange(conn, "POST /login HTTP/1.1\r\nHost: localhost\r\nAuthorization: Basic dXNlcjpodW50ZXIy\r\n" +
+                                "Proxy-Authorization: Basic cHJveHk6c2VjcmV0\r\nCookie: session=AbcToken123; theme=dark\r\n" +
+                                "Content-Type: application/x-www-form-urlencoded\r\nTransfer-Encoding: chunked\r\n\r\n",
+                                chunk(first) + chunk(second) + "0\r\n\r\n");
+                        exchange(conn, "GET /users?limit=5&passwd=QueryPw" + round + " HTTP/1.1\r\nHost: localhost\r\n\r\n", "");
+                        Thread.sleep(GAP_MS);
+                    }
+                    conn.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            clients.add(t);
+            t.start();
+        }
+        for (Thread t : clients) {
+            t.join();
+        }
+        // A streamed upload: only its head is recorded
+        Upstream.Connection upload = new Upstream("127.0.0.1", server.getLocalPort()).open();
+        exchange(upload, "POST /users/import HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/csv\r\n",
+                "bulk_" + run.substring(0, 3) + ",BulkPw12345\n");
+        upload.close();
+        server.setTrafficCapture(null);
+        capture.close();
+
+        byte[] bytes = Files.readAllBytes(file);
+        int records = 0;
+        int chunked = 0;
+        int omitted = 0;
+        long payload = 0;
+        boolean lengthsIntact = true;
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(new ByteArrayInputStream(bytes))) {
+            TrafficCapture.Record r;
+            while ((r = reader.next()) != null) {
+                records++;
+                payload += r.head.length + r.body.length;
+                if ((r.flags & TrafficCapture.FLAG_CHUNKED) != 0) chunked++;
+                if ((r.flags & TrafficCapture.FLAG_BODY_OMITTED) != 0) omitted++;
+                String head = new String(r.head, StandardCharsets.ISO_8859_1);
+                int cl = head.toLowerCase().indexOf("content-length: ");
+                if (cl >= 0 && (r.flags & TrafficCapture.FLAG_BODY_OMITTED) == 0) {
+                    int end = head.indexOf('\r', cl);
+                    lengthsIntact &= Integer.parseInt(head.substring(cl + 16, end).trim()) == r.body.length;
+                }
+            }
+        }
+        int expectedRecords = CONNECTIONS * ROUNDS * 4 + 1;
+        double overhead = (bytes.length - 13 - payload) / (double) records;
+        System.out.println("   Records: " + records + " (chunked: " + chunked + ", body omitted: " + omitted + "), dropped: "
+                + capture.getDropped());
+        System.out.println(String.format("   File: %d bytes, %.1f bytes of framing per record, Content-Length matches body: %s",
+                bytes.length, overhead, lengthsIntact));
+        System.out.println("   Expected: " + expectedRecords + " (chunked: " + CONNECTIONS * ROUNDS + ", body omitted: 1), 0 dropped, "
+                + "under 12 bytes of framing, true");
+        boolean captureOk = records == expectedRecords && chunked == CONNECTIONS * ROUNDS && omitted == 1
+                && capture.getDropped() == 0 && overhead < 12 && lengthsIntact;
+        System.out.println();
+
+        // Test 2: Passwords in form bodies and query strings, credentials and cookie values are masked, usernames are not
+        System.out.println("2. Test password redaction:");
+        String text = new String(bytes, StandardCharsets.ISO_8859_1);
+        boolean leaked = text.contains("S3cretPw") || text.contains("Hunter2Pw") || text.contains("QueryPw")
+                || text.contains("dXNlcjpodW50ZXIy") || text.contains("cHJveHk6c2VjcmV0") || text.contains("AbcToken123");
+        boolean kept = text.contains("username=cap_" + run) && text.contains("password=*********")
+                && text.contains("Authorization: Basic ****************")
+                && text.contains("Proxy-Authorization: Basic ****************")
+                && text.contains("Cookie: session=***********; theme=****");
+        System.out.println("   Any password left in the file: " + leaked + ", usernames and masked values present: " + kept);
+        System.out.println("   Expected: false, true");
+        System.out.println();
+
+        // Test 3: Replay at the original rate, 4x and unthrottled against another server
+        System.out.println("3. Test replay:");
+        CompleteRouter replayRouter = new CompleteRouter();
+        replayRouter.setRateLimiter("/login", null);
+        replayRouter.setRateLimiter("/register", null);
+        HttpServer target = start(replayRouter);
+        TrafficReplayer.Report original = TrafficReplayer.replay(file, "127.0.0.1", target.getLocalPort(), 1);
+        TrafficReplayer.Report faster = TrafficReplayer.replay(file, "127.0.0.1", target.getLocalPort(), 4);
+        TrafficReplayer.Report unthrottled = TrafficReplayer.replay(file, "127.0.0.1", target.getLocalPort(), 0);
+        System.out.println("   1x:   " + original.toString().replace("\n", "\n         "));
+        System.out.println("   4x:   " + faster.toString().replace("\n", "\n         "));
+        System.out.println("   max:  " + unthrottled.toString().replace("\n", "\n         "));
+        long span = (ROUNDS - 1) * GAP_MS * 1_000_000;
+        int replayed = expectedRecords - 1;
+        boolean replayOk = original.getRequests() == replayed && faster.getRequests() == replayed
+                && unthrottled.getRequests() == replayed
+                && original.getErrors() + faster.getErrors() + unthrottled.getErrors() == 0
+                && original.getSkipped() == 1
+                && original.getElapsedNanos() >= span && faster.getElapsedNanos() < original.getElapsedNanos() / 2
+                && unthrottled.getElapsedNanos() < faster.getElapsedNanos()
+                && !original.getStatuses().containsKey(400) && original.percentile(99) > 0;
+        System.out.println("   Expected: " + replayed + " requests each, 0 errors, 1 skipped, 1x lasts at least "
+                + span / 1_000_000 + " ms, 4x well under 1x, max fastest");
+        System.out.println();
+
+        server.shutdown();
+        target.shutdown();
+        Files.deleteIfExists(file);
+
+        boolean normal = captureOk && !leaked && kept && replayOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("Traffic capture functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static HttpServer start(Router router) throws InterruptedException {
+        HttpServer server = new HttpServer(0, 16);
+        server.setRouter(router);
+        new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }).start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        return server;
+    }
+
+    private static String form(String path) {
+        return "POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n";
+    }
+
+    private static String chunk(String s) {
+        return Integer.toHexString(s.length()) + "\r\n" + s + "\r\n";
+    }
+
+    /**
+     * Sends one request and reads the whole response; a head not yet terminated gets its Content-Length here
+     */
+    private static void exchange(Upstream.Connection conn, String head, String body) throws Exception {
+        if (!head.endsWith("\r\n\r\n")) {
+            head += "Content-Length: " + body.length() + "\r\n\r\n";
+        }
+        conn.out.write((head + body).getBytes(StandardCharsets.ISO_8859_1));
+        conn.out.flush();
+        List<String> response = conn.readResponseHead();
+        String length = null;
+        String encoding = null;
+        for (int i = 3; i + 1 < response.size(); i += 2) {
+            if (response.get(i).equals("content-length")) length = response.get(i + 1);
+            if (response.get(i).equals("transfer-encoding")) encoding = response.get(i + 1);
+        }
+        if (encoding != null) {
+            new RequestBodyStream(conn.in, -1).drain();
+        } else if (length != null && Long.parseLong(length) > 0) {
+            new RequestBodyStream(conn.in, Long.parseLong(length)).drain();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * JIT Warm-up Test
+ * Check that the server port opens only after the warm-up, that the warm-up stabilizes without touching
+ * the shared user store, that recorded traffic can drive it, and that a warmed-up server answers its
+ * first requests faster than a cold one
+ */
+public class TestWarmup {
+    private static final int FIRST_REQUESTS = 300;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== JIT Warm-up Test ===");
+        System.out.println();
+
+        // Test 1: The port stays closed while the warm-up runs, and the warm-up reports stabilization
+        System.out.println("1. Test synthetic warm-up before start:");
+        UserService shared = new UserService();
+        int usersBefore = shared.getUserCount();
+        HttpServer server = new HttpServer(0, 16);
+        server.setRouter(new CompleteRouter());
+        server.setWarmup(Warmup.synthetic(100_000));
+        new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }).start();
+        boolean openedEarly = false;
+        while (server.getWarmupResult() == null) {
+            openedEarly |= server.getLocalPort() > 0;
+            Thread.sleep(5);
+        }
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(5);
+        }
+        Warmup.Result result = server.getWarmupResult();
+        System.out.println("   " + result);
+        System.out.println("   Port opened before the warm-up finished: " + openedEarly);
+        System.out.println("   Expected: stabilized, per-request cost lower at the end, 0 errors, false");
+        boolean warmupOk = !openedEarly && result.isStabilized() && result.getErrors() == 0
+                && result.getRequests() < 100_000 && result.getLastNanosPerRequest() < result.getFirstNanosPerRequest();
+        System.out.println();
+
+        // Test 2: The warm-up registered its users in a scratch store only
+        System.out.println("2. Test shared user store is untouched:");
+        int usersAfter = shared.getUserCount();
+        boolean leaked = shared.isUsernameExists("warmup0_0") || shared.isUsernameExists("warmup1_0");
+        String count = get(server.getLocalPort(), "/user/count");
+        System.out.println("   Users before: " + usersBefore + ", after: " + usersAfter + ", warm-up user visible: " + leaked);
+        System.out.println("   GET /user/count after start: " + count);
+        System.out.println("   Expected: unchanged, false, " + usersBefore);
+        boolean isolatedOk = usersAfter == usersBefore && !leaked && count.endsWith(": " + usersBefore);
+        server.shutdown();
+        System.out.println();
+
+        // Test 3: Recorded traffic drives the warm-up; streamed and upgrade requests are skipped
+        System.out.println("3. Test warm-up from a capture file:");
+        Path file = Files.createTempFile("warmup", ".cap");
+        try (TrafficCapture capture = new TrafficCapture(file)) {
+            long conn = capture.newConnection();
+            record(capture, conn, "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n", "", 0);
+            String login = "username=recorded&password=Secret1";
+            record(capture, conn, "POST /register HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n"
+                    + "Content-Length: " + login.length() + "\r\n\r\n", login, 0);
+            record(capture, conn, "POST /login HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n"
+                    + "Transfer-Encoding: chunked\r\n\r\n", login, TrafficCapture.FLAG_CHUNKED);
+            record(capture, conn, "POST /users/import HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/csv\r\n"
+                    + "Content-Length: 100\r\n\r\n", "", TrafficCapture.FLAG_BODY_OMITTED);
+            record(capture, conn, "GET /ws/user-count HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: 13\r\n\r\n", "", 0);
+            record(capture, conn, "GET /users?limit=10 HTTP/1.1\r\nHost: localhost\r\n\r\n", "", 0);
+        }
+        Warmup recorded = Warmup.fromCapture(file, 4000);
+        recorded.setConnections(2);
+        Warmup.Result replayed = recorded.run(RequestLimits.DEFAULT);
+        System.out.println("   " + replayed);
+        System.out.println("   Shared store has the recorded user: " + shared.isUsernameExists("recorded"));
+        System.out.println("   Expected: 4000 requests or fewer if stabilized, 0 errors, false");
+        boolean recordedOk = replayed.getRequests() > 0 && replayed.getRequests() <= 4000 && replayed.getErrors() == 0
+                && !shared.isUsernameExists("recorded");
+        Files.deleteIfExists(file);
+        System.out.println();
+
+        // Test 4: First requests after start, cold JVM vs warmed-up JVM (JIT state is per process)
+        System.out.println("4. Test first-request latency in a fresh JVM:");
+        long cold = firstRequestsNanos(false);
+        long warm = firstRequestsNanos(true);
+        System.out.println(String.format("   First %d requests: cold %.1f ms, warmed up %.1f ms", FIRST_REQUESTS, cold / 1e6, warm / 1e6));
+        System.out.println("   Expected: warmed up faster");
+        boolean fasterOk = warm < cold;
+        System.out.println();
+
+        boolean normal = warmupOk && isolatedOk && recordedOk && fasterOk;
+        System.out.println("=== Test Completed ===");
+        System.out.println("JIT warm-up functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static void record(TrafficCapture capture, long conn, String head, String body, int flags) {
+        byte[] h = head.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] b = body.getBytes(StandardCharsets.ISO_8859_1);
+        capture.record(conn, h, h.length, "application/x-www-form-urlencoded", b, b.length, flags);
+    }
+
+    /**
+     * Starts HttpServer in a child JVM and times its first requests on one keep-alive connection
+     */
+    private static long firstRequestsNanos(boolean warmup) throws Exception {
+        int port;
+        try (java.net.ServerSocket s = new java.net.ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = warmup
+                ? new ProcessBuilder(javaBin, "-cp", System.getProperty("java.class.path"), "-Dhttp.port=" + port,
+                        "-Dwarmup.requests=100000", "com.example.http.HttpServer")
+                : new ProcessBuilder(javaBin, "-cp", System.getProperty("java.class.path"), "-Dhttp.port=" + port,
+                        "com.example.http.HttpServer");
+        Process process = builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            awaitPort(port);
+            Upstream.Connection conn = new Upstream("127.0.0.1", port).open();
+            long start = System.nanoTime();
+            for (int i = 0; i < FIRST_REQUESTS; i++) {
+                String path = i % 3 == 0 ? "/" : i % 3 == 1 ? "/user/count" : "/users?limit=20";
+                conn.out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                conn.out.flush();
+                readBody(conn);
+            }
+            long elapsed = System.nanoTime() - start;
+            conn.close();
+            return elapsed;
+        } finally {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    private static void awaitPort(int port) throws Exception {
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (true) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) throw e;
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private static String get(int port, String path) throws Exception {
+        Upstream.Connection conn = new Upstream("127.0.0.1", port).open();
+        conn.out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        conn.out.flush();
+        String body = readBody(conn);
+        conn.close();
+        return body;
+    }
+
+    private static String readBody(Upstream.Connection conn) throws IOException {
+        List<String> head = conn.readResponseHead();
+        String length = null;
+        String encoding = null;
+        for (int i = 3; i + 1 < head.size(); i += 2) {
+            if (head.get(i).equals("content-length")) length = head.get(i + 1);
+            if (head.get(i).equals("transfer-encoding")) encoding = head.get(i + 1);
+        }
+        if (encoding != null) {
+            return new String(new RequestBodyStream(conn.in, -1).readAllBytes(), StandardCharsets.UTF_8);
+        }
+        if (length == null || Long.parseLong(length) == 0) {
+            return "";
+        }
+        return new String(new RequestBodyStream(conn.in, Long.parseLong(length)).readAllBytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.http;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WebSocket Integration Test
+ * Test the upgrade handshake, user count push on registration, fragmentation and ping,
+ * slow consumer dropping, protocol errors, the closing handshake, the session limit
+ * and closing the sessions on shutdown
+ */
+public class TestWebSocket {
+    private static final int SUBSCRIBERS = 200;
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = new HttpServer(0, 8);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        serverThread.start();
+        while (server.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        int port = server.getLocalPort();
+        CompleteRouter router = new CompleteRouter();
+        server.setRouter(router);
+        WebSocketHub hub = WebSocketHub.shared();
+        hub.addEndpoint(CompleteRouter.USER_COUNT_SOCKET, router.userCountSocket());
+        HttpClient client = HttpClient.newHttpClient();
+
+        System.out.println("=== WebSocket Integration Test ===");
+        System.out.println();
+
+        // Test 1: Subscribers receive the current count on connect and a push after each registration
+        System.out.println("1. Test user count push to " + SUBSCRIBERS + " subscribers:");
+        List<Collector> subscribers = new ArrayList<>();
+        List<WebSocket> sockets = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            Collector collector = new Collector();
+            sockets.add(client.newWebSocketBuilder()
+                    .buildAsync(URI.create("ws://localhost:" + port + CompleteRouter.USER_COUNT_SOCKET), collector).join());
+            subscribers.add(collector);
+        }
+        boolean initialOk = awaitAll(subscribers, 1);
+        long start = System.nanoTime();
+        String username = "ws" + System.nanoTime();
+        java.net.http.HttpResponse<String> registered = client.send(
+                java.net.http.HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/register"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(BodyPublishers.ofString("username=" + username + "&password=pw")).build(),
+                BodyHandlers.ofString());
+        boolean pushOk = awaitAll(subscribers, 2);
+        long pushMs = (System.nanoTime() - start) / 1_000_000;
+        String expectedPush = "{\"users\":" + new UserService().getUserCount() + "}";
+        int matching = 0;
+        for (Collector c : subscribers) {
+            if (c.messages.size() == 2 && expectedPush.equals(new ArrayList<>(c.messages).get(1))) matching++;
+        }
+        System.out.println("   Sessions open: " + hub.getSessionCount(CompleteRouter.USER_COUNT_SOCKET)
+                + ", initial count received by all: " + initialOk);
+        System.out.println("   Register status: " + registered.statusCode() + ", subscribers with push " + expectedPush
+                + ": " + matching + " in " + pushMs + " ms");
+        System.out.println("   Expected: " + SUBSCRIBERS + ", true, 200, " + SUBSCRIBERS);
+        System.out.println();
+
+        // Test 2: Fragmented messages are reassembled, pings are answered
+        System.out.println("2. Test fragmentation and ping on an echo endpoint:");
+        hub.addEndpoint("/ws/echo", new WebSocketListener() {
+            @Override
+            public void onText(WebSocketSession session, String text) {
+                session.send(text);
+            }
+        });
+        Collector echo = new Collector();
+        WebSocket echoSocket = client.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + "/ws/echo?client=test"), echo).join();
+        String half = "ü".repeat(40_000);
+        echoSocket.sendText(half, false).join();
+        echoSocket.sendText(half, true).join();
+        echoSocket.sendPing(ByteBuffer.wrap("are-you-there".getBytes(StandardCharsets.US_ASCII))).join();
+        boolean echoOk = echo.await(1) && (half + half).equals(echo.messages.peek());
+        boolean pongOk = echo.pong.get(5, TimeUnit.SECONDS).equals("are-you-there");
+        System.out.println("   160KB fragmented message echoed intact: " + echoOk + ", pong payload matches: " + pongOk);
+        System.out.println("   Expected: true, true");
+        System.out.println();
+
+        // Test 3: A client that stops reading is dropped while a fast client keeps receiving everything
+        System.out.println("3. Test slow consumer dropping:");
+        hub.addEndpoint("/ws/firehose", new WebSocketListener() {});
+        Socket slow = new Socket();
+        slow.setReceiveBufferSize(4096);
+        slow.connect(new java.net.InetSocketAddress("localhost", port));
+        String slowHandshake = handshake(slow, "/ws/firehose", "13");
+        Collector fast = new Collector();
+        client.newWebSocketBuilder().buildAsync(URI.create("ws://localhost:" + port + "/ws/firehose"), fast).join();
+        while (hub.getSessionCount("/ws/firehose") < 2) {
+            Thread.sleep(10);
+        }
+        long droppedBefore = hub.getSlowConsumersDropped();
+        String payload = "x".repeat(16 * 1024);
+        int broadcasts = 2000;
+        for (int i = 0; i < broadcasts; i += 100) {
+            for (int j = 0; j < 100; j++) {
+                hub.broadcast("/ws/firehose", payload);
+            }
+            // let the fast client catch up so only the stalled one overflows its queue
+            fast.await(i + 100);
+        }
+        boolean fastOk = fast.await(broadcasts);
+        long dropped = hub.getSlowConsumersDropped() - droppedBefore;
+        System.out.println("   Slow client handshake: " + slowHandshake.startsWith("HTTP/1.1 101")
+                + ", fast client received: " + fast.messages.size() + "/" + broadcasts
+                + ", slow consumers dropped: " + dropped + ", sessions left: " + hub.getSessionCount("/ws/firehose"));
+        System.out.println("   Expected: true, " + broadcasts + "/" + broadcasts + ", 1, 1");
+        slow.close();
+        System.out.println();
+
+        // Test 4: Unsupported versions and unmasked client frames are rejected
+        System.out.println("4. Test protocol errors:");
+        String versionResponse;
+        try (Socket raw = new Socket("localhost", port)) {
+            versionResponse = handshake(raw, "/ws/echo", "8");
+        }
+        int closeCode;
+        try (Socket raw = new Socket("localhost", port)) {
+            handshake(raw, "/ws/echo", "13");
+            OutputStream out = raw.getOutputStream();
+            out.write(new byte[]{(byte) 0x81, 0x02, 'h', 'i'});
+            out.flush();
+            InputStream in = raw.getInputStream();
+            int b0 = in.read();
+            int len = in.read();
+            closeCode = b0 == 0x88 && len >= 2 ? (in.read() << 8) | in.read() : -1;
+        }
+        System.out.println("   Version 8: " + versionResponse.substring(0, versionResponse.indexOf('\r'))
+                + ", unmasked frame closed with: " + closeCode);
+        System.out.println("   Expected: HTTP/1.1 426 Upgrade Required, 1002");
+        System.out.println();
+
+        // Test 5: Closing handshake from the client removes the sessions
+        System.out.println("5. Test closing handshake:");
+        List<CompletableFuture<WebSocket>> closing = new ArrayList<>();
+        for (WebSocket socket : sockets) {
+            closing.add(socket.sendClose(WebSocket.NORMAL_CLOSURE, "bye"));
+        }
+        CompletableFuture.allOf(closing.toArray(new CompletableFuture<?>[0])).join();
+        int closedCodeOk = 0;
+        for (Collector c : subscribers) {
+            Integer code = c.closed.get(5, TimeUnit.SECONDS);
+            if (code == WebSocket.NORMAL_CLOSURE) closedCodeOk++;
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hub.getSessionCount(CompleteRouter.USER_COUNT_SOCKET) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        int remaining = hub.getSessionCount(CompleteRouter.USER_COUNT_SOCKET);
+        System.out.println("   Close frames echoed with 1000: " + closedCodeOk + ", sessions remaining: " + remaining);
+        System.out.println("   Expected: " + SUBSCRIBERS + ", 0");
+        System.out.println();
+
+        // Test 6: Upgrades beyond the session limit are answered with 503
+        System.out.println("6. Test session limit:");
+        int maxSessions = hub.getMaxSessions();
+        hub.setMaxSessions(hub.getSessionCount() + 1);
+        Collector last = new Collector();
+        WebSocket lastSocket = client.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + port + CompleteRouter.USER_COUNT_SOCKET), last).join();
+        String fullResponse;
+        try (Socket raw = new Socket("localhost", port)) {
+            fullResponse = handshake(raw, CompleteRouter.USER_COUNT_SOCKET, "13");
+        }
+        String fullStatus = fullResponse.substring(0, fullResponse.indexOf('\r'));
+        System.out.println("   Session up to the limit opened: " + last.await(1) + ", one more: " + fullStatus);
+        System.out.println("   Expected: true, HTTP/1.1 503 Service Unavailable");
+        boolean limitOk = last.await(1) && fullStatus.equals("HTTP/1.1 503 Service Unavailable");
+        hub.setMaxSessions(maxSessions);
+        System.out.println();
+
+        // Test 7: Stopping the server closes its open sessions with 1001 Going Away,
+        // sessions on another server in the same process stay open
+        System.out.println("7. Test sessions closed on shutdown:");
+        HttpServer other = new HttpServer(0, 4);
+        new Thread(() -> {
+            try {
+                other.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }).start();
+        while (other.getLocalPort() <= 0) {
+            Thread.sleep(10);
+        }
+        Collector otherEcho = new Collector();
+        WebSocket otherSocket = client.newWebSocketBuilder()
+                .buildAsync(URI.create("ws://localhost:" + other.getLocalPort() + "/ws/echo"), otherEcho).join();
+        server.shutdown();
+        Integer shutdownCode = last.closed.get(5, TimeUnit.SECONDS);
+        Integer echoCode = echo.closed.get(5, TimeUnit.SECONDS);
+        otherSocket.sendText("still here", true).join();
+        boolean otherOpen = otherEcho.await(1) && !otherEcho.closed.isDone();
+        System.out.println("   Close codes received: " + shutdownCode + ", " + echoCode
+                + ", session on the other server still echoing: " + otherOpen);
+        System.out.println("   Expected: 1001, 1001, true");
+        other.shutdown();
+        Integer otherCode = otherEcho.closed.get(5, TimeUnit.SECONDS);
+        System.out.println("   Close code after stopping the other server: " + otherCode);
+        System.out.println("   Expected: 1001");
+        boolean shutdownOk = shutdownCode == 1001 && echoCode == 1001 && otherOpen && otherCode == 1001;
+        lastSocket.abort();
+        echoSocket.abort();
+        otherSocket.abort();
+        System.out.println();
+
+        boolean normal = initialOk && registered.statusCode() == 200 && pushOk && matching == SUBSCRIBERS
+                && echoOk && pongOk && fastOk && dropped == 1 && versionResponse.startsWith("HTTP/1.1 426")
+                && closeCode == 1002 && closedCodeOk == SUBSCRIBERS && remaining == 0 && limitOk && shutdownOk;
+        System.out.println("=== Integration Test Completed ===");
+        System.out.println("WebSocket functionality: " + (normal ? "Normal" : "Abnormal"));
+    }
+
+    private static boolean awaitAll(List<Collector> collectors, int count) throws InterruptedException {
+        for (Collector c : collectors) {
+            if (!c.await(count)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Raw handshake on a plain socket; returns the response head
+     */
+    private static String handshake(Socket socket, String path, String version) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nSec-WebSocket-Version: " + version + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) break;
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    /**
+     * Collects whole text messages and records pong and close events
+     */
+    private static final class Collector implements WebSocket.Listener {
+        final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<>();
+        final AtomicInteger count = new AtomicInteger();
+        final CompletableFuture<String> pong = new CompletableFuture<>();
+        final CompletableFuture<Integer> closed = new CompletableFuture<>();
+        private final StringBuilder partial = new StringBuilder();
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                messages.add(partial.toString());
+                partial.setLength(0);
+                synchronized (this) {
+                    count.incrementAndGet();
+                    notifyAll();
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+            pong.complete(StandardCharsets.US_ASCII.decode(message).toString());
+            webSocket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            closed.complete(statusCode);
+            return null;
+        }
+
+        synchronized boolean await(int expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (count.get() < expected) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) return false;
+                wait(left);
+            }
+            return true;
+        }
+    }
+}
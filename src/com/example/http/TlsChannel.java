@@ -0,0 +1,254 @@
+package com.example.http;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 基于 SSLEngine 的阻塞 TLS 通道
+ * 包装阻塞模式的 SocketChannel，read 解密、write 加密，对 RequestReader / ResponseWriter
+ * 而言与普通通道相同，读超时仍由看门狗关闭底层通道实现。
+ *
+ * 握手在第一次 read 时进行（位于 RequestReader 的读截止时间之内）。
+ * 读和写可以由不同线程同时进行（SSLEngine 允许 wrap 与 unwrap 并发），
+ * 各自由一把锁串行化。密文缓冲从 BufferPool 借出，连接结束后由 release() 归还。
+ */
+final class TlsChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final TlsConfig config;
+
+    // netIn 常态为写模式（存放已读入、尚未解密的密文）；appIn 存放已解密、尚未交给调用方的明文
+    private final ByteBuffer netIn;
+    private final ByteBuffer netOut;
+    private final ByteBuffer appIn;
+
+    private final Object readLock = new Object();
+    private final Object writeLock = new Object();
+    private final Object handshakeLock = new Object();
+    private volatile boolean handshakeDone = false;
+    private boolean inboundClosed = false;
+
+    TlsChannel(SocketChannel channel, TlsConfig config) {
+        this.channel = channel;
+        this.config = config;
+        this.engine = config.createEngine();
+        int packetSize = engine.getSession().getPacketBufferSize();
+        BufferPool pool = BufferPool.shared();
+        this.netIn = pool.acquire(packetSize);
+        this.netOut = pool.acquire(packetSize);
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureHandshake();
+        synchronized (readLock) {
+            while (true) {
+                if (appIn.position() > 0) {
+                    appIn.flip();
+                    int n = Math.min(appIn.remaining(), dst.remaining());
+                    ByteBuffer slice = appIn.slice();
+                    slice.limit(n);
+                    dst.put(slice);
+                    appIn.position(appIn.position() + n);
+                    appIn.compact();
+                    return n;
+                }
+                if (inboundClosed) {
+                    return -1;
+                }
+                netIn.flip();
+                SSLEngineResult result;
+                try {
+                    result = engine.unwrap(netIn, appIn);
+                } finally {
+                    netIn.compact();
+                }
+                switch (result.getStatus()) {
+                    case OK:
+                        handlePostHandshake(result.getHandshakeStatus());
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        if (channel.read(netIn) < 0) {
+                            // 对端未发送 close_notify 直接断开，按连接关闭处理
+                            inboundClosed = true;
+                        }
+                        break;
+                    case CLOSED:
+                        // 收到 close_notify，回复后不再读取
+                        inboundClosed = true;
+                        handlePostHandshake(result.getHandshakeStatus());
+                        break;
+                    default:
+                        throw new SSLException("Unexpected unwrap status: " + result.getStatus());
+                }
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureHandshake();
+        synchronized (writeLock) {
+            int written = 0;
+            while (src.hasRemaining()) {
+                netOut.clear();
+                SSLEngineResult result = engine.wrap(src, netOut);
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new ClosedChannelException();
+                }
+                written += result.bytesConsumed();
+                flushNetOut();
+            }
+            return written;
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * 直接关闭底层通道（看门狗超时也走这里，不能在此阻塞写 close_notify）
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 尽力发送 close_notify，连接正常结束时在关闭前调用
+     */
+    void closeOutbound() {
+        if (!handshakeDone || !channel.isOpen()) return;
+        synchronized (writeLock) {
+            try {
+                engine.closeOutbound();
+                netOut.clear();
+                engine.wrap(EMPTY, netOut);
+                flushNetOut();
+            } catch (IOException ignored) {
+                // 连接已不可用
+            }
+        }
+    }
+
+    /**
+     * 归还密文缓冲，必须在读写都已结束后调用
+     */
+    void release() {
+        BufferPool.shared().release(netIn);
+        BufferPool.shared().release(netOut);
+    }
+
+    /**
+     * 完成握手（只在第一次读写时进行），委派任务在当前线程执行
+     */
+    private void ensureHandshake() throws IOException {
+        if (handshakeDone) return;
+        synchronized (handshakeLock) {
+            if (handshakeDone) return;
+            long startMillis = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            try {
+                engine.beginHandshake();
+                handshake();
+            } catch (IOException e) {
+                config.handshakeFailed();
+                throw e;
+            }
+            handshakeDone = true;
+            config.handshakeCompleted(engine.getSession(), startMillis, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void handshake() throws IOException {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while (true) {
+            switch (status) {
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN: {
+                    netIn.flip();
+                    SSLEngineResult result;
+                    try {
+                        result = engine.unwrap(netIn, appIn);
+                    } finally {
+                        netIn.compact();
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        if (channel.read(netIn) < 0) {
+                            throw new EOFException("Connection closed during TLS handshake");
+                        }
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new EOFException("Connection closed during TLS handshake");
+                    }
+                    status = result.getHandshakeStatus();
+                    break;
+                }
+                case NEED_WRAP: {
+                    netOut.clear();
+                    SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                    flushNetOut();
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new EOFException("Connection closed during TLS handshake");
+                    }
+                    status = result.getHandshakeStatus();
+                    break;
+                }
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    status = engine.getHandshakeStatus();
+                    break;
+                default:
+                    // FINISHED / NOT_HANDSHAKING
+                    return;
+            }
+        }
+    }
+
+    /**
+     * 握手完成后 unwrap 可能要求回写（TLS 1.3 KeyUpdate、close_notify 回复等）
+     */
+    private void handlePostHandshake(SSLEngineResult.HandshakeStatus status) throws IOException {
+        while (true) {
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+                status = engine.getHandshakeStatus();
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                synchronized (writeLock) {
+                    netOut.clear();
+                    SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                    flushNetOut();
+                    status = result.getStatus() == SSLEngineResult.Status.CLOSED
+                            ? SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING : result.getHandshakeStatus();
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void flushNetOut() throws IOException {
+        netOut.flip();
+        while (netOut.hasRemaining()) {
+            channel.write(netOut);
+        }
+    }
+}
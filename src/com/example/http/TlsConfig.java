@@ -0,0 +1,150 @@
+package com.example.http;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HTTPS 监听的 TLS 配置与统计
+ * 从 keystore（PKCS12 / JKS，自动识别）加载服务器证书，创建服务端 SSLContext。
+ * 会话复用两种方式都开启：服务端会话缓存（TLS 1.2 会话 ID）和无状态会话票据
+ * （TLS 1.3 PSK / TLS 1.2 session ticket），重连的客户端可以跳过完整握手。
+ * 会话票据由 JDK 13+ 默认开启；它是进程级的 JSSE 配置，只能在启动时用
+ * -Djdk.tls.server.enableSessionTicketExtension=true|false 设置，这里不修改。
+ *
+ * 同时统计握手次数、完整握手与复用握手的比例、失败次数和最近 10 秒的握手速率。
+ */
+public final class TlsConfig {
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20_000;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    // 握手速率的统计窗口（秒），按秒分桶
+    private static final int RATE_WINDOW_SECONDS = 10;
+
+    // 桶中 "秒 << COUNT_BITS | 该秒的握手数" 打包为一个 long，换秒和计数在同一次 CAS 中完成
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final SSLContext context;
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong failedHandshakes = new AtomicLong();
+    private final AtomicLong handshakeNanos = new AtomicLong();
+    // 每秒一个桶，记录桶对应的秒和该秒的握手数；
+    // 多一个桶给当前这一秒，使窗口内的完整秒数据不被覆盖
+    private final AtomicLongArray rateBuckets = new AtomicLongArray(RATE_WINDOW_SECONDS + 1);
+
+    public TlsConfig(String keyStorePath, char[] password) throws IOException {
+        this(keyStorePath, password, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * @param keyStorePath          keystore 文件路径（类型自动识别），私钥密码与 keystore 密码相同
+     * @param sessionCacheSize      服务端会话缓存的最大条目数（0 表示不限）
+     * @param sessionTimeoutSeconds 缓存会话与会话票据的有效期
+     * @throws IOException keystore 无法读取或内容无效
+     */
+    public TlsConfig(String keyStorePath, char[] password, int sessionCacheSize, int sessionTimeoutSeconds)
+            throws IOException {
+        try {
+            KeyStore keyStore = KeyStore.getInstance(new File(keyStorePath), password);
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, password);
+            context = SSLContext.getInstance("TLS");
+            context.init(kmf.getKeyManagers(), null, null);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("无法加载 keystore: " + keyStorePath, e);
+        }
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+    }
+
+    /**
+     * 为新连接创建服务端模式的 SSLEngine
+     */
+    SSLEngine createEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    /**
+     * 记录一次成功的握手
+     * 复用的会话沿用最初完整握手时的创建时间，早于本次握手开始即为复用
+     */
+    void handshakeCompleted(SSLSession session, long startMillis, long elapsedNanos) {
+        if (session.getCreationTime() < startMillis) {
+            resumedHandshakes.incrementAndGet();
+        } else {
+            fullHandshakes.incrementAndGet();
+        }
+        handshakeNanos.addAndGet(elapsedNanos);
+        recordRate(System.currentTimeMillis() / 1000);
+    }
+
+    void handshakeFailed() {
+        failedHandshakes.incrementAndGet();
+    }
+
+    private void recordRate(long second) {
+        int slot = (int) (second % rateBuckets.length());
+        // 桶还属于更早的一秒时从 1 重新计数，否则加一
+        rateBuckets.getAndUpdate(slot, bucket -> (bucket >>> COUNT_BITS) == second
+                ? bucket + 1 : second << COUNT_BITS | 1);
+    }
+
+    // ==================== 监控 ====================
+
+    /** 成功握手总数（完整 + 复用） */
+    public long getHandshakeCount() {
+        return fullHandshakes.get() + resumedHandshakes.get();
+    }
+
+    public long getFullHandshakeCount() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakeCount() {
+        return resumedHandshakes.get();
+    }
+
+    public long getFailedHandshakeCount() {
+        return failedHandshakes.get();
+    }
+
+    /** 复用握手占成功握手的比例 */
+    public double getResumptionRatio() {
+        long total = getHandshakeCount();
+        return total == 0 ? 0 : (double) resumedHandshakes.get() / total;
+    }
+
+    /** 平均握手耗时（毫秒），从收到 ClientHello 开始计算 */
+    public double getAverageHandshakeMillis() {
+        long total = getHandshakeCount();
+        return total == 0 ? 0 : handshakeNanos.get() / 1e6 / total;
+    }
+
+    /** 最近 10 秒（不含当前不完整的一秒）的平均每秒握手数 */
+    public double getHandshakeRate() {
+        long now = System.currentTimeMillis() / 1000;
+        long count = 0;
+        for (int i = 0; i < rateBuckets.length(); i++) {
+            long bucket = rateBuckets.get(i);
+            long second = bucket >>> COUNT_BITS;
+            if (second < now && now - second <= RATE_WINDOW_SECONDS) {
+                count += bucket & COUNT_MASK;
+            }
+        }
+        return (double) count / RATE_WINDOW_SECONDS;
+    }
+}
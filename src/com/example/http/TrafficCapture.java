@@ -0,0 +1,418 @@
+package com.example.http;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 流量录制：把收到的 HTTP/1.1 请求按原始字节和到达时间写入紧凑的二进制文件，供 TrafficReplayer 回放
+ *
+ * 工作线程只把请求复制成一条记录放入有界队列，由后台线程经 64KB 缓冲写入文件，队列空时 flush；
+ * 队列满时丢弃记录（计入 getDropped），录制不会阻塞请求处理。
+ * 写入前把密码类字段替换为等长的 '*'（表单和 JSON 请求体、查询串中名称含 password 或为 passwd/pwd 的值，
+ * Authorization / Proxy-Authorization 头的凭据以及 Cookie 头中各 cookie 的值），长度不变，Content-Length 仍然正确。
+ * 只录制读入内存的请求体；流式上传（批量导入、multipart 等）只录制请求头并标记 FLAG_BODY_OMITTED，回放时跳过。
+ * HTTP/2 和 WebSocket 连接上的后续流量不录制。
+ *
+ * 文件格式（变长整数为无符号 LEB128）：
+ * <pre>
+ * 文件头：MAGIC(4) + VERSION(1) + 录制开始时间 epoch 毫秒(8)
+ * 记录：  距开始的微秒数(varint) + 连接编号(varint) + flags(1)
+ *         + 请求头长度(varint) + 请求头 + 请求体长度(varint) + 请求体
+ * </pre>
+ * 启用方式：HttpServer.setTrafficCapture，或启动时 -Dcapture.file=traffic.cap
+ */
+public final class TrafficCapture implements AutoCloseable {
+    static final int MAGIC = 0x48544350; // "HTCP"
+    static final int VERSION = 1;
+    /** 请求体原为 chunked 编码，记录的是解码后的内容 */
+    static final int FLAG_CHUNKED = 1;
+    /** 请求体是流式读取的，没有录制 */
+    static final int FLAG_BODY_OMITTED = 2;
+
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] STOP = new byte[0];
+
+    private final long startNanos = System.nanoTime();
+    private final OutputStream out;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+    private volatile IOException failure;
+
+    /**
+     * 创建（覆盖）录制文件并启动后台写线程
+     */
+    public TrafficCapture(Path file) throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), FILE_BUFFER_SIZE);
+        long epochMillis = System.currentTimeMillis();
+        out.write(new byte[]{(byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC, VERSION});
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (epochMillis >>> shift));
+        }
+        this.writerThread = new Thread(this::writeLoop, "traffic-capture");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 为新连接分配编号，回放时同一编号的请求在同一条连接上按顺序发送
+     */
+    long newConnection() {
+        return connections.incrementAndGet();
+    }
+
+    /**
+     * 录制一个请求（工作线程调用，只复制和脱敏，不做 IO）
+     *
+     * @param head        请求行和请求头（含结尾空行）的原始字节
+     * @param contentType 请求的 Content-Type，决定请求体的脱敏方式
+     * @param body        读入内存的请求体，可为 null
+     */
+    void record(long connection, byte[] head, int headLength, String contentType,
+                byte[] body, int bodyLength, int flags) {
+        if (closed) {
+            return;
+        }
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int size = varintSize(micros) + varintSize(connection) + 1
+                + varintSize(headLength) + headLength + varintSize(bodyLength) + bodyLength;
+        byte[] rec = new byte[size];
+        int pos = putVarint(rec, 0, micros);
+        pos = putVarint(rec, pos, connection);
+        rec[pos++] = (byte) flags;
+        pos = putVarint(rec, pos, headLength);
+        System.arraycopy(head, 0, rec, pos, headLength);
+        redactHead(rec, pos, pos + headLength);
+        pos += headLength;
+        pos = putVarint(rec, pos, bodyLength);
+        if (bodyLength > 0) {
+            System.arraycopy(body, 0, rec, pos, bodyLength);
+            redactBody(rec, pos, pos + bodyLength, contentType);
+        }
+        if (queue.offer(rec)) {
+            recorded.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /** 已放入写队列的记录数 */
+    public long getRecorded() {
+        return recorded.get();
+    }
+
+    /** 因写队列已满而丢弃的记录数 */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * 停止录制，写完队列中的记录后关闭文件
+     *
+     * @throws IOException 后台写入文件时出错
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // 写线程已因 IO 错误退出时队列可能一直是满的
+            while (writerThread.isAlive() && !queue.offer(STOP, 100, TimeUnit.MILLISECONDS)) {
+                // 等待写线程腾出空间
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        out.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                byte[] rec = queue.poll();
+                if (rec == null) {
+                    // 队列已空：把缓冲中的记录写入文件后再阻塞等待
+                    out.flush();
+                    rec = queue.poll(1, TimeUnit.SECONDS);
+                    if (rec == null) continue;
+                }
+                if (rec == STOP) {
+                    out.flush();
+                    return;
+                }
+                out.write(rec);
+            }
+        } catch (IOException e) {
+            failure = e;
+            closed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==================== 脱敏 ====================
+
+    /**
+     * Cookie 头：保留各 cookie 的名称，替换值（会话令牌等）
+     */
+    private static void redactCookies(byte[] b, int from, int to) {
+        for (int pair = from; pair < to; ) {
+            int end = indexOf(b, pair, to, (byte) ';');
+            if (end < 0) end = to;
+            int eq = indexOf(b, pair, end, (byte) '=');
+            if (eq >= 0) {
+                mask(b, eq + 1, end);
+            }
+            pair = end + 1;
+        }
+    }
+
+    /**
+     * 请求行中的查询串和 Authorization 头
+     */
+    private static void redactHead(byte[] b, int from, int to) {
+        int lineEnd = indexOf(b, from, to, (byte) '\n');
+        if (lineEnd < 0) return;
+        int query = indexOf(b, from, lineEnd, (byte) '?');
+        if (query >= 0) {
+            int end = indexOf(b, query, lineEnd, (byte) ' ');
+            redactForm(b, query + 1, end < 0 ? lineEnd : end);
+        }
+        for (int line = lineEnd + 1; line < to; ) {
+            int end = indexOf(b, line, to, (byte) '\n');
+            if (end < 0) end = to;
+            int colon = indexOf(b, line, end, (byte) ':');
+            boolean credentials = colon > 0 && (equalsIgnoreCase(b, line, colon, "authorization")
+                    || equalsIgnoreCase(b, line, colon, "proxy-authorization"));
+            boolean cookie = colon > 0 && equalsIgnoreCase(b, line, colon, "cookie");
+            if (credentials || cookie) {
+                int value = colon + 1;
+                while (value < end && b[value] == ' ') value++;
+                int valueEnd = end > line && b[end - 1] == '\r' ? end - 1 : end;
+                if (credentials) {
+                    // 保留认证方案（如 Basic），只替换凭据
+                    int space = indexOf(b, value, valueEnd, (byte) ' ');
+                    mask(b, space >= 0 ? space + 1 : value, valueEnd);
+                } else {
+                    redactCookies(b, value, valueEnd);
+                }
+            }
+            line = end + 1;
+        }
+    }
+
+    private static void redactBody(byte[] b, int from, int to, String contentType) {
+        if (contentType == null) return;
+        String type = contentType.toLowerCase();
+        if (type.startsWith("application/x-www-form-urlencoded")) {
+            redactForm(b, from, to);
+        } else if (type.startsWith("application/json")) {
+            redactJson(b, from, to);
+        }
+    }
+
+    /**
+     * name=value&amp;... 中密码类名称的值
+     */
+    private static void redactForm(byte[] b, int from, int to) {
+        int pos = from;
+        while (pos < to) {
+            int amp = indexOf(b, pos, to, (byte) '&');
+            int end = amp < 0 ? to : amp;
+            int eq = indexOf(b, pos, end, (byte) '=');
+            if (eq > 0 && isSecretName(b, pos, eq)) {
+                mask(b, eq + 1, end);
+            }
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * "name": "value" 中密码类名称的字符串值（只处理字符串值，不解析完整 JSON）
+     */
+    private static void redactJson(byte[] b, int from, int to) {
+        int pos = from;
+        while (pos < to) {
+            int open = indexOf(b, pos, to, (byte) '"');
+            if (open < 0) return;
+            int close = stringEnd(b, open + 1, to);
+            if (close < 0) return;
+            int next = close + 1;
+            while (next < to && (b[next] == ' ' || b[next] == '\t' || b[next] == '\r' || b[next] == '\n')) next++;
+            if (next < to && b[next] == ':') {
+                int value = next + 1;
+                while (value < to && (b[value] == ' ' || b[value] == '\t' || b[value] == '\r' || b[value] == '\n')) value++;
+                if (value < to && b[value] == '"') {
+                    int valueEnd = stringEnd(b, value + 1, to);
+                    if (valueEnd < 0) return;
+                    if (isSecretName(b, open + 1, close)) {
+                        mask(b, value + 1, valueEnd);
+                    }
+                    pos = valueEnd + 1;
+                    continue;
+                }
+                pos = value;
+                continue;
+            }
+            pos = close + 1;
+        }
+    }
+
+    /** 从 from 开始的 JSON 字符串内容的结束引号位置 */
+    private static int stringEnd(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == '\\') {
+                i++;
+            } else if (b[i] == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** 名称中含 password（不区分大小写），或为 passwd / pwd */
+    private static boolean isSecretName(byte[] b, int from, int to) {
+        if (equalsIgnoreCase(b, from, to, "passwd") || equalsIgnoreCase(b, from, to, "pwd")) {
+            return true;
+        }
+        String target = "password";
+        for (int i = from; i + target.length() <= to; i++) {
+            if (equalsIgnoreCase(b, i, i + target.length(), target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] b, int from, int to, String ascii) {
+        if (to - from != ascii.length()) return false;
+        for (int i = 0; i < ascii.length(); i++) {
+            int c = b[from + i];
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != ascii.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static void mask(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            b[i] = '*';
+        }
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte target) {
+        return ByteScanner.indexOf(b, from, to, target);
+    }
+
+    // ==================== 文件格式 ====================
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) size++;
+        return size;
+    }
+
+    private static int putVarint(byte[] b, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            b[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        b[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * 录制文件中的一条请求
+     */
+    static final class Record {
+        final long micros;
+        final long connection;
+        final int flags;
+        final byte[] head;
+        final byte[] body;
+
+        Record(long micros, long connection, int flags, byte[] head, byte[] body) {
+            this.micros = micros;
+            this.connection = connection;
+            this.flags = flags;
+            this.head = head;
+            this.body = body;
+        }
+    }
+
+    /**
+     * 按顺序读取录制文件
+     */
+    static final class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        final long startEpochMillis;
+
+        Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("Not a traffic capture file");
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported capture version " + version);
+            }
+            this.startEpochMillis = this.in.readLong();
+        }
+
+        /**
+         * 下一条记录，文件结束时返回 null
+         */
+        Record next() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            long micros = readVarint(first);
+            long connection = readVarint(in.readUnsignedByte());
+            int flags = in.readUnsignedByte();
+            byte[] head = new byte[(int) readVarint(in.readUnsignedByte())];
+            in.readFully(head);
+            byte[] body = new byte[(int) readVarint(in.readUnsignedByte())];
+            in.readFully(body);
+            return new Record(micros, connection, flags, head, body);
+        }
+
+        private long readVarint(int first) throws IOException {
+            long value = first & 0x7F;
+            int shift = 7;
+            int b = first;
+            while ((b & 0x80) != 0) {
+                b = in.read();
+                if (b < 0) throw new EOFException("Truncated capture record");
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
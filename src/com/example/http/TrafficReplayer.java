@@ -0,0 +1,298 @@
+package com.example.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 流量回放：把 TrafficCapture 录制的请求按原来的节奏（或按倍速）发给一个 HttpServer，统计延迟分位数
+ *
+ * 录制中同一连接上的请求在回放时也走同一条连接、按顺序发送，每条录制连接一个线程，
+ * 因此并发连接数和长连接复用与录制时一致。
+ * 按节奏回放时延迟从计划发送时间算起：服务器变慢导致后面的请求推迟发送，推迟的时间也计入延迟，
+ * 不会因为发送端跟着变慢而低估（coordinated omission）。不限速（speed &lt;= 0）时从实际发送时间算起。
+ * 请求体未录制的记录（流式上传）跳过。
+ *
+ * <pre>
+ * java com.example.http.TrafficReplayer traffic.cap 127.0.0.1:8080 [speed]
+ * </pre>
+ * speed 默认 1（原速），2 表示两倍速，0 表示不限速。
+ */
+public final class TrafficReplayer {
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private TrafficReplayer() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: TrafficReplayer <capture-file> <host:port> [speed]");
+            System.exit(2);
+        }
+        Upstream target = Upstream.parse(args[1]);
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        Report report = replay(Paths.get(args[0]), target.host, target.port, speed);
+        System.out.println(report);
+    }
+
+    /**
+     * 回放录制文件，全部请求完成后返回统计
+     *
+     * @param speed 相对录制时的速度倍数，&lt;= 0 表示不等待、尽快发送
+     */
+    public static Report replay(Path file, String host, int port, double speed) throws IOException {
+        Map<Long, List<TrafficCapture.Record>> byConnection = new LinkedHashMap<>();
+        long firstMicros = -1;
+        int skipped = 0;
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            TrafficCapture.Record record;
+            while ((record = reader.next()) != null) {
+                if ((record.flags & TrafficCapture.FLAG_BODY_OMITTED) != 0) {
+                    skipped++;
+                    continue;
+                }
+                if (firstMicros < 0 || record.micros < firstMicros) {
+                    firstMicros = record.micros;
+                }
+                byConnection.computeIfAbsent(record.connection, k -> new ArrayList<>()).add(record);
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        long base = firstMicros;
+        ExecutorService threads = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "replay-connection");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<ConnectionResult>> futures = new ArrayList<>();
+        for (List<TrafficCapture.Record> records : byConnection.values()) {
+            futures.add(threads.submit(() -> replayConnection(records, host, port, startNanos, base, speed)));
+        }
+        Report report = new Report(skipped);
+        try {
+            for (Future<ConnectionResult> f : futures) {
+                report.add(f.get());
+            }
+        } catch (Exception e) {
+            throw new IOException("Replay failed", e);
+        } finally {
+            threads.shutdownNow();
+        }
+        report.finish(System.nanoTime() - startNanos);
+        return report;
+    }
+
+    /**
+     * 在一条连接上按顺序回放一个录制连接的请求；连接出错或被关闭时为后续请求重新建立连接
+     */
+    private static ConnectionResult replayConnection(List<TrafficCapture.Record> records, String host, int port,
+                                                     long startNanos, long baseMicros, double speed) {
+        ConnectionResult result = new ConnectionResult(records.size());
+        Upstream upstream = new Upstream(host, port);
+        Upstream.Connection connection = null;
+        for (TrafficCapture.Record record : records) {
+            long scheduled = speed > 0
+                    ? startNanos + (long) ((record.micros - baseMicros) * 1000 / speed)
+                    : System.nanoTime();
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long sent = System.nanoTime();
+            try {
+                if (connection == null) {
+                    connection = upstream.open();
+                }
+                send(connection, record);
+                boolean keepAlive = readResponse(connection, record, result);
+                result.latencies[result.count++] = System.nanoTime() - (speed > 0 ? scheduled : sent);
+                if (!keepAlive) {
+                    connection.close();
+                    connection = null;
+                }
+            } catch (IOException e) {
+                result.errors++;
+                if (connection != null) {
+                    connection.close();
+                    connection = null;
+                }
+            }
+        }
+        if (connection != null) {
+            connection.close();
+        }
+        return result;
+    }
+
+    private static void send(Upstream.Connection connection, TrafficCapture.Record record) throws IOException {
+        connection.out.write(record.head);
+        if ((record.flags & TrafficCapture.FLAG_CHUNKED) != 0) {
+            // 录制的是解码后的请求体，按一个块重新编码（请求头中仍是 Transfer-Encoding: chunked）
+            if (record.body.length > 0) {
+                connection.out.write((Integer.toHexString(record.body.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                connection.out.write(record.body);
+                connection.out.write('\r');
+                connection.out.write('\n');
+            }
+            connection.out.write(LAST_CHUNK);
+        } else {
+            connection.out.write(record.body);
+        }
+        connection.out.flush();
+    }
+
+    /**
+     * 读完一个响应（跳过 100 Continue），返回连接能否继续使用
+     */
+    private static boolean readResponse(Upstream.Connection connection, TrafficCapture.Record record,
+                                        ConnectionResult result) throws IOException {
+        List<String> head;
+        int status;
+        do {
+            head = connection.readResponseHead();
+            status = Integer.parseInt(head.get(1));
+        } while (status == 100);
+        result.statuses.merge(status, 1, Integer::sum);
+
+        String contentLength = null;
+        String transferEncoding = null;
+        String connectionHeader = null;
+        for (int i = 3; i + 1 < head.size(); i += 2) {
+            switch (head.get(i)) {
+                case "content-length": contentLength = head.get(i + 1); break;
+                case "transfer-encoding": transferEncoding = head.get(i + 1); break;
+                case "connection": connectionHeader = head.get(i + 1); break;
+                default:
+            }
+        }
+        if (status == 101) {
+            // 协议升级（WebSocket、h2c）之后的流量没有录制，结束这条连接
+            return false;
+        }
+        boolean keepAlive = !"close".equalsIgnoreCase(connectionHeader) && "HTTP/1.1".equals(head.get(0));
+        boolean isHead = record.head.length >= 5 && new String(record.head, 0, 5, StandardCharsets.US_ASCII).equals("HEAD ");
+        if (isHead || status == 204 || status == 304) {
+            return keepAlive;
+        }
+        boolean chunked = transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+        if (chunked || contentLength != null) {
+            long length = chunked ? -1 : Long.parseLong(contentLength.trim());
+            if (length != 0) {
+                new RequestBodyStream(connection.in, length).drain();
+            }
+            return keepAlive;
+        }
+        // 既没有长度也不是 chunked：读到服务器关闭连接为止
+        InputStream in = connection.in;
+        byte[] discard = new byte[8192];
+        while (in.read(discard) >= 0) {
+            // 丢弃
+        }
+        return false;
+    }
+
+    private static final class ConnectionResult {
+        final long[] latencies;
+        int count = 0;
+        int errors = 0;
+        final Map<Integer, Integer> statuses = new TreeMap<>();
+
+        ConnectionResult(int capacity) {
+            this.latencies = new long[capacity];
+        }
+    }
+
+    /**
+     * 回放结果：请求数、错误数、状态码分布和延迟分位数
+     */
+    public static final class Report {
+        private long[] latencies = new long[0];
+        private int requests = 0;
+        private int errors = 0;
+        private final int skipped;
+        private final Map<Integer, Integer> statuses = new TreeMap<>();
+        private long elapsedNanos;
+
+        private Report(int skipped) {
+            this.skipped = skipped;
+        }
+
+        private void add(ConnectionResult result) {
+            latencies = Arrays.copyOf(latencies, requests + result.count);
+            System.arraycopy(result.latencies, 0, latencies, requests, result.count);
+            requests += result.count;
+            errors += result.errors;
+            result.statuses.forEach((status, n) -> statuses.merge(status, n, Integer::sum));
+        }
+
+        private void finish(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+            Arrays.sort(latencies);
+        }
+
+        /** 收到完整响应的请求数 */
+        public int getRequests() {
+            return requests;
+        }
+
+        /** 发送或读取响应时出错的请求数 */
+        public int getErrors() {
+            return errors;
+        }
+
+        /** 请求体未录制而跳过的记录数 */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /** 各状态码的响应数 */
+        public Map<Integer, Integer> getStatuses() {
+            return statuses;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * 延迟分位数（纳秒），没有请求时返回 0
+         *
+         * @param percentile 0~100，如 99.9
+         */
+        public long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("Requests: %d, errors: %d, skipped: %d, %.1f s, %.0f req/s%n" +
+                            "Latency (ms): p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n" +
+                            "Status codes: %s",
+                    requests, errors, skipped, seconds, seconds > 0 ? requests / seconds : 0,
+                    percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, percentile(99.9) / 1e6,
+                    percentile(100) / 1e6, statuses);
+        }
+    }
+}
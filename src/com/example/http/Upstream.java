@@ -0,0 +1,244 @@
+package com.example.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 反向代理的一个上游（host:port）
+ * 持有该上游的空闲长连接池、进行中的请求数和被动健康状态：
+ * 连续失败（连接失败、读写出错、502/503/504）达到阈值后摘除一段冷却时间，
+ * 冷却结束后放回一个请求试探，仍失败则冷却时间加倍（上限 30 秒），成功一次即恢复。
+ */
+final class Upstream {
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final int IO_BUFFER_SIZE = 8192;
+    private static final int MAX_IDLE_CONNECTIONS = 32;
+    // 需短于上游的空闲超时（本服务器为 30 秒），避免取到已被上游关闭的连接
+    private static final long IDLE_TIMEOUT_NANOS = 15_000_000_000L;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long INITIAL_COOLDOWN_MS = 1000;
+    private static final long MAX_COOLDOWN_MS = 30_000;
+    // 上游响应头的长度上限
+    private static final int MAX_RESPONSE_HEAD = 64 * 1024;
+
+    final String host;
+    final int port;
+    private final String name;
+
+    // 后进先出：最近归还的连接最先复用，多余的连接自然空闲超时
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+    private int consecutiveFailures = 0;
+    private long cooldownMs = INITIAL_COOLDOWN_MS;
+    private volatile long downUntil = 0;
+
+    Upstream(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.name = host + ":" + port;
+    }
+
+    /**
+     * 解析 host:port
+     */
+    static Upstream parse(String hostPort) {
+        int colon = hostPort.lastIndexOf(':');
+        if (colon <= 0 || colon == hostPort.length() - 1) {
+            throw new IllegalArgumentException("upstream must be host:port: " + hostPort);
+        }
+        return new Upstream(hostPort.substring(0, colon).trim(), Integer.parseInt(hostPort.substring(colon + 1).trim()));
+    }
+
+    // ==================== 连接池 ====================
+
+    /**
+     * 取一个空闲连接，没有可用的空闲连接时新建
+     *
+     * @throws IOException 连接失败
+     */
+    Connection acquire() throws IOException {
+        long now = System.nanoTime();
+        Connection c;
+        while ((c = idle.pollFirst()) != null) {
+            if (now - c.lastUsed < IDLE_TIMEOUT_NANOS && !c.socket.isClosed()) {
+                c.reused = true;
+                return c;
+            }
+            c.close();
+        }
+        return open();
+    }
+
+    /**
+     * 新建连接（不取空闲连接，用于重试复用连接失败的请求）
+     */
+    Connection open() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(READ_TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        connectionsOpened.incrementAndGet();
+        return new Connection(socket);
+    }
+
+    /**
+     * 归还可复用的连接（响应已完整读取且上游没有要求关闭）
+     */
+    void release(Connection c) {
+        if (idle.size() >= MAX_IDLE_CONNECTIONS) {
+            c.close();
+            return;
+        }
+        c.lastUsed = System.nanoTime();
+        idle.offerFirst(c);
+    }
+
+    void closeIdle() {
+        Connection c;
+        while ((c = idle.pollFirst()) != null) {
+            c.close();
+        }
+    }
+
+    // ==================== 负载与健康 ====================
+
+    void begin() {
+        outstanding.incrementAndGet();
+        requests.incrementAndGet();
+    }
+
+    void end() {
+        outstanding.decrementAndGet();
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /** 未被摘除（或冷却已结束、可以试探） */
+    boolean isAvailable(long nowMillis) {
+        return downUntil <= nowMillis;
+    }
+
+    long getDownUntil() {
+        return downUntil;
+    }
+
+    synchronized void success() {
+        consecutiveFailures = 0;
+        cooldownMs = INITIAL_COOLDOWN_MS;
+        downUntil = 0;
+    }
+
+    synchronized void failure() {
+        if (++consecutiveFailures < FAILURE_THRESHOLD) return;
+        if (downUntil != 0) {
+            // 冷却后的试探请求仍失败
+            cooldownMs = Math.min(cooldownMs * 2, MAX_COOLDOWN_MS);
+        }
+        downUntil = System.currentTimeMillis() + cooldownMs;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * 到上游的一条 HTTP/1.1 连接
+     */
+    static final class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        long lastUsed;
+        // 从连接池取出（而非新建）：请求失败时可能只是连接已被上游关闭，可换新连接重试
+        boolean reused = false;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), IO_BUFFER_SIZE);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), IO_BUFFER_SIZE);
+        }
+
+        /**
+         * 读取响应状态行和头部，返回 [协议, 状态码, 原因短语, 名1, 值1, 名2, 值2 ...]（名称为小写）
+         *
+         * @throws IOException 连接在响应头读完前关闭或格式错误
+         */
+        List<String> readResponseHead() throws IOException {
+            List<String> head = new ArrayList<>();
+            StringBuilder line = new StringBuilder();
+            int total = 0;
+            boolean statusLine = true;
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Upstream closed connection before response head");
+                }
+                if (++total > MAX_RESPONSE_HEAD) {
+                    throw new IOException("Upstream response head too large");
+                }
+                if (b != '\n') {
+                    line.append((char) b);
+                    continue;
+                }
+                int len = line.length();
+                if (len > 0 && line.charAt(len - 1) == '\r') line.setLength(--len);
+                String text = new String(line.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+                line.setLength(0);
+                if (statusLine) {
+                    String[] parts = text.split(" ", 3);
+                    if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                        throw new IOException("Invalid upstream status line: " + text);
+                    }
+                    head.add(parts[0]);
+                    head.add(parts[1]);
+                    head.add(parts.length > 2 ? parts[2] : "");
+                    statusLine = false;
+                    continue;
+                }
+                if (text.isEmpty()) return head;
+                int colon = text.indexOf(':');
+                if (colon > 0) {
+                    head.add(text.substring(0, colon).trim().toLowerCase());
+                    head.add(text.substring(colon + 1).trim());
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -1,15 +1,47 @@
 package com.example.http;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * 用户服务类
  * C部分：注册登录业务逻辑（内存存储）
+ * 无参构造的实例共享进程内唯一的用户存储；isolated() 创建使用独立存储的实例（预热、测试等不应触及真实数据的场景）。
  */
 public class UserService {
-    private static final Map<String, String> users = new ConcurrentHashMap<>();
+    // 用户名布隆过滤器：判定"一定不存在"时不访问存储（-Duser.filter.capacity / -Duser.filter.fpp 可配置）
+    private static final long DEFAULT_FILTER_CAPACITY = Long.getLong("user.filter.capacity", 100_000);
+    private static final double DEFAULT_FILTER_FPP = Double.parseDouble(System.getProperty("user.filter.fpp", "0.01"));
+    private static final Store SHARED = new Store(DEFAULT_FILTER_CAPACITY, DEFAULT_FILTER_FPP);
+
+    private final Map<String, String> users;
+    // 按用户名排序的索引，分页列出用户时从游标处开始遍历，不复制整个存储
+    private final NavigableSet<String> usernameIndex;
+    private final Store store;
+
+    /**
+     * 使用进程内共享的用户存储
+     */
+    public UserService() {
+        this(SHARED);
+    }
+
+    private UserService(Store store) {
+        this.store = store;
+        this.users = store.users;
+        this.usernameIndex = store.usernameIndex;
+    }
+
+    /**
+     * 使用独立的空存储（过滤器容量较小），与共享存储互不影响
+     */
+    public static UserService isolated() {
+        return new UserService(new Store(1024, DEFAULT_FILTER_FPP));
+    }
 
     /**
      * 用户注册
@@ -24,8 +56,62 @@ public class UserService {
             return false;
         }
 
-        // 如果用户名不存在，则添加
-        return users.putIfAbsent(username, password) == null;
+        // 检查与插入合并为一次原子的 putIfAbsent；先写过滤器，保证存储中的用户名一定能被过滤器命中
+        // 先读 pendingFilter 再读 usernameFilter：重建完成时先切换 usernameFilter 再清空 pendingFilter
+        ScalableBloomFilter pending = store.pendingFilter;
+        ScalableBloomFilter filter = store.usernameFilter;
+        if (pending != null) {
+            pending.add(username);
+        }
+        filter.add(username);
+        if (users.putIfAbsent(username, password) != null) {
+            return false;
+        }
+        usernameIndex.add(username);
+        store.recheckFilters(filter, pending, username);
+        return true;
+    }
+
+    /**
+     * 批量注册（批量导入使用）
+     * 每个账号的校验和结果与 register 相同。整批只读一次过滤器、做一次重建复查，
+     * 存储本身仍是逐个 putIfAbsent（ConcurrentHashMap 没有批量的条件插入）
+     *
+     * @param usernames 用户名
+     * @param passwords 密码，与 usernames 一一对应
+     * @param count     本批有效的账号数
+     * @return 每个账号的注册结果：true表示成功，false表示参数无效或用户名已存在
+     */
+    public boolean[] registerBatch(String[] usernames, String[] passwords, int count) {
+        boolean[] results = new boolean[count];
+        ScalableBloomFilter pending = store.pendingFilter;
+        ScalableBloomFilter filter = store.usernameFilter;
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            String username = usernames[i];
+            String password = passwords[i];
+            if (username == null || username.isEmpty() || password == null || password.isEmpty()) {
+                continue;
+            }
+            if (pending != null) {
+                pending.add(username);
+            }
+            filter.add(username);
+            if (users.putIfAbsent(username, password) == null) {
+                usernameIndex.add(username);
+                results[i] = true;
+                added++;
+            }
+        }
+        if (added > 0 && (store.usernameFilter != filter || store.pendingFilter != pending)) {
+            // 整批期间开始或完成了重建：逐个补写本批新注册的用户名
+            for (int i = 0; i < count; i++) {
+                if (results[i]) {
+                    store.recheckFilters(filter, pending, usernames[i]);
+                }
+            }
+        }
+        return results;
     }
 
     /**
@@ -41,7 +127,10 @@ public class UserService {
             return false;
         }
 
-        // 验证用户名和密码
+        // 验证用户名和密码（过滤器判定不存在时不访问存储）
+        if (!store.usernameFilter.mightContain(username)) {
+            return false;
+        }
         String storedPassword = users.get(username);
         return password.equals(storedPassword);
     }
@@ -55,6 +144,16 @@ public class UserService {
         return users.size();
     }
 
+    /**
+     * 按用户名顺序排在 after 之后（不含 after）的用户名
+     * 返回排序索引的只读视图，遍历时才逐个读取；视图是弱一致的，遍历期间新注册的用户可能出现也可能不出现
+     *
+     * @param after 上一页的最后一个用户名，null 表示从头开始
+     */
+    public NavigableSet<String> usernamesAfter(String after) {
+        return Collections.unmodifiableNavigableSet(after == null ? usernameIndex : usernameIndex.tailSet(after, false));
+    }
+
     /**
      * 检查用户名是否已存在
      * 
@@ -62,6 +161,69 @@ public class UserService {
      * @return true表示已存在，false表示不存在
      */
     public boolean isUsernameExists(String username) {
+        if (username == null || !store.usernameFilter.mightContain(username)) {
+            return false;
+        }
         return users.containsKey(username);
     }
+
+    /**
+     * 按新的容量和误判率从共享存储重建用户名过滤器（启动时调用；存储从外部加载后也应调用）
+     *
+     * @param expectedUsers     预计用户数（过滤器第一级的容量，超出后自动扩容）
+     * @param falsePositiveRate 目标误判率
+     */
+    public static void rebuildUsernameFilter(long expectedUsers, double falsePositiveRate) {
+        SHARED.rebuildFilter(expectedUsers, falsePositiveRate);
+    }
+
+    ScalableBloomFilter getUsernameFilter() {
+        return store.usernameFilter;
+    }
+
+    /**
+     * 一份用户存储：账号、排序索引和用户名过滤器
+     */
+    private static final class Store {
+        final Map<String, String> users = new ConcurrentHashMap<>();
+        final NavigableSet<String> usernameIndex = new ConcurrentSkipListSet<>();
+        volatile ScalableBloomFilter usernameFilter;
+        // 重建期间新注册的用户名同时写入新过滤器
+        volatile ScalableBloomFilter pendingFilter;
+
+        Store(long expectedUsers, double falsePositiveRate) {
+            rebuildFilter(expectedUsers, falsePositiveRate);
+        }
+
+        synchronized void rebuildFilter(long expectedUsers, double falsePositiveRate) {
+            ScalableBloomFilter rebuilt = new ScalableBloomFilter(
+                    Math.max(expectedUsers, users.size()), falsePositiveRate);
+            pendingFilter = rebuilt;
+            // 此后读到过滤器的注册会写入 rebuilt；更早的注册由 recheckFilters 补写，或已在存储中被遍历看到
+            for (String username : users.keySet()) {
+                rebuilt.add(username);
+            }
+            usernameFilter = rebuilt;
+            pendingFilter = null;
+        }
+
+        /**
+         * 注册成功后调用：写过滤器之后若开始了（或完成了）重建，把用户名补写进新的过滤器
+         * 注册读过滤器时重建还没开始、而插入又晚于重建对存储的遍历时，新过滤器会漏掉这个用户名；
+         * 这种情况下再读到的过滤器一定与写过的不同。只比较两个 volatile 字段，注册路径上不加锁。
+         *
+         * @param filter  注册时写过的 usernameFilter
+         * @param pending 注册时写过的 pendingFilter（可为 null）
+         */
+        void recheckFilters(ScalableBloomFilter filter, ScalableBloomFilter pending, String username) {
+            ScalableBloomFilter currentPending = pendingFilter;
+            if (currentPending != null && currentPending != pending && currentPending != filter) {
+                currentPending.add(username);
+            }
+            ScalableBloomFilter current = usernameFilter;
+            if (current != filter && current != pending) {
+                current.add(username);
+            }
+        }
+    }
 }
@@ -0,0 +1,458 @@
+package com.example.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * JIT 预热：在打开服务端口之前，用合成请求或录制的请求把请求处理的热点路径跑到编译完成
+ *
+ * 预热在回环地址的临时端口上进行，请求经过与正式连接相同的 ClientHandler（读取、解析、路由、写回响应），
+ * 路由为 CompleteRouter.standalone()：用户存储是独立的，注册、登录不会触及真实数据，也不推送 WebSocket 消息。
+ * 请求按轮发送，每轮每条连接发送固定数量的请求；最近几轮的单请求耗时相差在容差以内、
+ * 且该轮中 JIT 编译时间占比很小时认为热点路径已经稳定，提前结束，否则发送到请求数上限为止。
+ *
+ * <pre>
+ * java -Dwarmup.requests=20000 com.example.http.HttpServer
+ * java -Dwarmup.capture=traffic.cap com.example.http.HttpServer
+ * </pre>
+ */
+public final class Warmup {
+    // 每轮每条连接发送的请求数
+    private static final int REQUESTS_PER_ROUND = 200;
+    // 至少跑这么多轮才判断是否稳定（前几轮解释执行与编译交替，耗时波动大）
+    private static final int MIN_ROUNDS = 5;
+    // 连续这么多轮耗时接近才算稳定
+    private static final int STABLE_ROUNDS = 3;
+    // 一轮中 JIT 编译时间超过该比例时仍认为在编译热点
+    private static final double MAX_COMPILE_SHARE = 0.1;
+    private static final int MAX_RECORDED = 10_000;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // 合成流量按这个周期轮换请求类型
+    private static final int MIX = 8;
+
+    // 非 null 时按顺序循环发送录制的请求，否则发送合成请求
+    private final List<byte[]> recorded;
+    private final int maxRequests;
+    private int connections = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private double tolerance = 0.15;
+
+    private Warmup(List<byte[]> recorded, int maxRequests) {
+        if (maxRequests <= 0) {
+            throw new IllegalArgumentException("maxRequests must be positive: " + maxRequests);
+        }
+        this.recorded = recorded;
+        this.maxRequests = maxRequests;
+    }
+
+    /**
+     * 使用合成流量：首页、注册、登录（含 chunked 请求体和错误密码）、用户数、分页列表和 404
+     *
+     * @param maxRequests 请求数上限，未稳定时发送到此为止
+     */
+    public static Warmup synthetic(int maxRequests) {
+        return new Warmup(null, maxRequests);
+    }
+
+    /**
+     * 使用 TrafficCapture 录制的请求（循环发送）；请求体未录制的记录和协议升级请求跳过
+     *
+     * @param maxRequests 请求数上限，未稳定时发送到此为止
+     * @throws IOException 文件无法读取或其中没有可发送的请求
+     */
+    public static Warmup fromCapture(Path file, int maxRequests) throws IOException {
+        List<byte[]> requests = new ArrayList<>();
+        try (TrafficCapture.Reader reader = new TrafficCapture.Reader(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            TrafficCapture.Record record;
+            while (requests.size() < MAX_RECORDED && (record = reader.next()) != null) {
+                if ((record.flags & TrafficCapture.FLAG_BODY_OMITTED) == 0 && !isUpgrade(record.head)) {
+                    requests.add(encode(record));
+                }
+            }
+        }
+        if (requests.isEmpty()) {
+            throw new IOException("No replayable requests in " + file);
+        }
+        return new Warmup(requests, maxRequests);
+    }
+
+    /**
+     * 并发的预热连接数，默认 min(4, CPU 数)
+     */
+    public void setConnections(int connections) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("connections must be positive: " + connections);
+        }
+        this.connections = connections;
+    }
+
+    /**
+     * 判定稳定时最近几轮单请求耗时允许的相对差，默认 0.15
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * 执行预热，结束后关闭临时端口和全部预热连接
+     *
+     * @param limits 与正式连接相同的请求限制
+     */
+    public Result run(RequestLimits limits) throws IOException {
+        AsyncRouter router = AsyncRouter.adapt(CompleteRouter.standalone());
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        boolean jitTimed = jit != null && jit.isCompilationTimeMonitoringSupported();
+        long jitStart = jitTimed ? jit.getTotalCompilationTime() : 0;
+        long start = System.nanoTime();
+
+        ServerSocket listener = ServerSocketChannel.open().socket();
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        List<Thread> handlers = new ArrayList<>();
+        Thread acceptor = new Thread(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    Socket socket = listener.accept();
+                    Thread handler = new Thread(new ClientHandler(socket, router, null, limits, null), "warmup-handler");
+                    handler.setDaemon(true);
+                    synchronized (handlers) {
+                        handlers.add(handler);
+                    }
+                    handler.start();
+                } catch (IOException e) {
+                    // 预热结束时关闭监听
+                }
+            }
+        }, "warmup-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Upstream upstream = new Upstream(InetAddress.getLoopbackAddress().getHostAddress(), listener.getLocalPort());
+        Client[] clients = new Client[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new Client(i, upstream);
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(connections, r -> {
+            Thread t = new Thread(r, "warmup-client");
+            t.setDaemon(true);
+            return t;
+        });
+
+        Result result = new Result();
+        List<Double> roundCosts = new ArrayList<>();
+        try {
+            while (result.requests < maxRequests) {
+                int perConnection = Math.min(REQUESTS_PER_ROUND,
+                        Math.max(1, (maxRequests - result.requests) / connections));
+                long jitBefore = jitTimed ? jit.getTotalCompilationTime() : 0;
+                long roundStart = System.nanoTime();
+                List<Future<?>> futures = new ArrayList<>();
+                for (Client client : clients) {
+                    futures.add(threads.submit(() -> client.send(perConnection)));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+                long roundNanos = System.nanoTime() - roundStart;
+                long jitMillis = jitTimed ? jit.getTotalCompilationTime() - jitBefore : 0;
+                result.requests += perConnection * connections;
+                result.rounds++;
+                double cost = roundNanos / (double) (perConnection * connections);
+                roundCosts.add(cost);
+                if (result.rounds == 1) {
+                    result.firstNanosPerRequest = cost;
+                }
+                result.lastNanosPerRequest = cost;
+                if (isStable(roundCosts) && jitMillis <= roundNanos / 1e6 * MAX_COMPILE_SHARE) {
+                    result.stabilized = true;
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            throw new IOException("Warm-up failed", e);
+        } finally {
+            threads.shutdownNow();
+            for (Client client : clients) {
+                result.errors += client.errors;
+                client.close();
+            }
+            listener.close();
+            // 客户端关闭后处理线程读到连接结束，归还缓冲后退出
+            List<Thread> started;
+            synchronized (handlers) {
+                started = new ArrayList<>(handlers);
+            }
+            for (Thread handler : started) {
+                try {
+                    handler.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.compilationMillis = jitTimed ? jit.getTotalCompilationTime() - jitStart : -1;
+        return result;
+    }
+
+    private boolean isStable(List<Double> roundCosts) {
+        int n = roundCosts.size();
+        if (n < Math.max(MIN_ROUNDS, STABLE_ROUNDS)) {
+            return false;
+        }
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (int i = n - STABLE_ROUNDS; i < n; i++) {
+            min = Math.min(min, roundCosts.get(i));
+            max = Math.max(max, roundCosts.get(i));
+        }
+        return max <= min * (1 + tolerance);
+    }
+
+    /**
+     * 一条预热连接：按顺序发送请求并读完响应，连接被关闭或出错时重新建立
+     */
+    private final class Client {
+        private final int id;
+        private final Upstream upstream;
+        private Upstream.Connection connection;
+        private long sent = 0;
+        int errors = 0;
+
+        Client(int id, Upstream upstream) {
+            this.id = id;
+            this.upstream = upstream;
+        }
+
+        void send(int count) {
+            for (int i = 0; i < count; i++) {
+                byte[] request = nextRequest();
+                try {
+                    if (connection == null) {
+                        connection = upstream.open();
+                    }
+                    connection.out.write(request);
+                    connection.out.flush();
+                    if (!readResponse(connection, request)) {
+                        close();
+                    }
+                } catch (IOException e) {
+                    errors++;
+                    close();
+                }
+            }
+        }
+
+        private byte[] nextRequest() {
+            long n = sent++;
+            if (recorded != null) {
+                return recorded.get((int) ((id + n * connections) % recorded.size()));
+            }
+            return synthetic(id, n);
+        }
+
+        /**
+         * 读完一个响应（跳过 100 Continue），返回连接能否继续使用；5xx 计为错误
+         */
+        private boolean readResponse(Upstream.Connection connection, byte[] request) throws IOException {
+            List<String> head;
+            int status;
+            do {
+                head = connection.readResponseHead();
+                status = Integer.parseInt(head.get(1));
+            } while (status == 100);
+            if (status >= 500) {
+                errors++;
+            }
+            String contentLength = null;
+            String transferEncoding = null;
+            String connectionHeader = null;
+            for (int i = 3; i + 1 < head.size(); i += 2) {
+                switch (head.get(i)) {
+                    case "content-length": contentLength = head.get(i + 1); break;
+                    case "transfer-encoding": transferEncoding = head.get(i + 1); break;
+                    case "connection": connectionHeader = head.get(i + 1); break;
+                    default:
+                }
+            }
+            boolean keepAlive = !"close".equalsIgnoreCase(connectionHeader) && "HTTP/1.1".equals(head.get(0));
+            boolean isHead = request.length >= 5 && new String(request, 0, 5, StandardCharsets.US_ASCII).equals("HEAD ");
+            if (isHead || status == 204 || status == 304) {
+                return keepAlive;
+            }
+            boolean chunked = transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+            if (chunked || contentLength != null) {
+                long length = chunked ? -1 : Long.parseLong(contentLength.trim());
+                if (length != 0) {
+                    new RequestBodyStream(connection.in, length).drain();
+                }
+                return keepAlive;
+            }
+            InputStream in = connection.in;
+            byte[] discard = new byte[8192];
+            while (in.read(discard) >= 0) {
+                // 丢弃
+            }
+            return false;
+        }
+
+        void close() {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * 第 n 个合成请求；每个周期注册一个新用户，之后用它登录，覆盖定长与 chunked 请求体、查询参数和各类响应
+     */
+    private static byte[] synthetic(int client, long n) {
+        String username = "warmup" + client + "_" + n / MIX;
+        String password = "Warm" + n / MIX + "pw";
+        String request;
+        switch ((int) (n % MIX)) {
+            case 0:
+                request = "GET / HTTP/1.1\r\nHost: localhost\r\nUser-Agent: warmup\r\nAccept: text/html\r\n"
+                        + "Accept-Encoding: gzip, deflate\r\n\r\n";
+                break;
+            case 1:
+                request = form("/register", "username=" + username + "&password=" + password);
+                break;
+            case 2:
+                request = form("/login", "username=" + username + "&password=" + password);
+                break;
+            case 3:
+                request = "GET /user/count HTTP/1.1\r\nHost: localhost\r\n\r\n";
+                break;
+            case 4: {
+                String body = "username=" + username + "&password=wrong";
+                request = "POST /login HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n"
+                        + "Transfer-Encoding: chunked\r\n\r\n" + Integer.toHexString(body.length()) + "\r\n" + body + "\r\n0\r\n\r\n";
+                break;
+            }
+            case 5:
+                request = "GET /users?limit=20 HTTP/1.1\r\nHost: localhost\r\nAccept: application/json\r\n\r\n";
+                break;
+            case 6:
+                request = "GET /missing?from=warmup HTTP/1.1\r\nHost: localhost\r\n\r\n";
+                break;
+            default:
+                request = "GET /index HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\nCache-Control: no-cache\r\n\r\n";
+        }
+        return request.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String form(String path, String body) {
+        return "POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/x-www-form-urlencoded\r\n"
+                + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    /**
+     * 录制的请求还原为线上字节；录制的是解码后的请求体，chunked 请求按一个块重新编码
+     */
+    private static byte[] encode(TrafficCapture.Record record) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(record.head.length + record.body.length + 16);
+        out.writeBytes(record.head);
+        if ((record.flags & TrafficCapture.FLAG_CHUNKED) != 0) {
+            if (record.body.length > 0) {
+                out.writeBytes((Integer.toHexString(record.body.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.writeBytes(record.body);
+                out.write('\r');
+                out.write('\n');
+            }
+            out.writeBytes(LAST_CHUNK);
+        } else {
+            out.writeBytes(record.body);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * HTTP/2 连接前言和 h2c / WebSocket 升级请求：之后的流量没有录制，不能按 HTTP/1.1 回放
+     */
+    private static boolean isUpgrade(byte[] head) {
+        String text = new String(head, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        return text.startsWith("pri ") || text.contains("\nupgrade:");
+    }
+
+    /**
+     * 预热结果：请求数、轮数、是否稳定以及首轮和末轮的单请求耗时
+     */
+    public static final class Result {
+        private int requests = 0;
+        private int rounds = 0;
+        private int errors = 0;
+        private boolean stabilized = false;
+        private double firstNanosPerRequest;
+        private double lastNanosPerRequest;
+        private long elapsedNanos;
+        private long compilationMillis;
+
+        private Result() {
+        }
+
+        public int getRequests() {
+            return requests;
+        }
+
+        public int getRounds() {
+            return rounds;
+        }
+
+        /** 发送或读取响应出错、以及返回 5xx 的请求数 */
+        public int getErrors() {
+            return errors;
+        }
+
+        /** 是否在请求数上限之前达到稳定 */
+        public boolean isStabilized() {
+            return stabilized;
+        }
+
+        /** 第一轮的单请求耗时（纳秒，按轮的墙钟时间除以请求数） */
+        public double getFirstNanosPerRequest() {
+            return firstNanosPerRequest;
+        }
+
+        /** 最后一轮的单请求耗时（纳秒） */
+        public double getLastNanosPerRequest() {
+            return lastNanosPerRequest;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /** 预热期间的 JIT 编译时间（毫秒），JVM 不支持统计时为 -1 */
+        public long getCompilationMillis() {
+            return compilationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Warm-up: %d requests in %d rounds, %.2f s, %s; %.1f us -> %.1f us per request, "
+                            + "JIT compilation %d ms, errors %d",
+                    requests, rounds, elapsedNanos / 1e9, stabilized ? "stabilized" : "not stabilized",
+                    firstNanosPerRequest / 1e3, lastNanosPerRequest / 1e3, compilationMillis, errors);
+        }
+    }
+}
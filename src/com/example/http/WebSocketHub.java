@@ -0,0 +1,286 @@
+package com.example.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocket 端点注册与广播
+ * 端点按路径注册，ClientHandler 收到该路径的升级请求后完成握手，连接交给 WebSocketSession 的读线程。
+ * 广播时消息只编码一次，同一个帧数组放入每个订阅连接的发送队列。
+ * 每 15 秒向所有连接发送 ping：客户端的 pong 刷新连接的读超时，不回应的连接在读超时后关闭。
+ * 打开的连接数有上限（-Dws.maxSessions，默认 1024），已满时升级请求返回 503；
+ * 每个连接占用一个读线程，读线程池与连接上限同样大小，发送线程池大小固定。
+ */
+public final class WebSocketHub {
+    private static final long PING_INTERVAL_SECONDS = 15;
+    private static final int DEFAULT_MAX_SESSIONS = Integer.getInteger("ws.maxSessions", 1024);
+    // 连接数已满时建议客户端重试的间隔
+    private static final int FULL_RETRY_AFTER_SECONDS = 5;
+    // 放在常量之后初始化：构造时要用到 DEFAULT_MAX_SESSIONS
+    private static final WebSocketHub SHARED = new WebSocketHub();
+
+    private final Map<String, WebSocketListener> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, Set<WebSocketSession>> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong slowConsumersDropped = new AtomicLong();
+    private final AtomicInteger openSessions = new AtomicInteger();
+    private volatile int maxSessions = DEFAULT_MAX_SESSIONS;
+    // 读线程池：每个连接一个线程，服务到连接结束；连接数受 maxSessions 限制，所以不会排队
+    private final ThreadPoolExecutor readExecutor = newExecutor(DEFAULT_MAX_SESSIONS, "ws-read-");
+    // 发送线程池：每个连接同一时刻最多一个发送任务，排队的任务数不超过连接数
+    private final ThreadPoolExecutor sendExecutor = newExecutor(
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2), "ws-send-");
+
+    private WebSocketHub() {
+        ScheduledExecutorService pinger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-ping");
+            t.setDaemon(true);
+            return t;
+        });
+        pinger.scheduleAtFixedRate(this::pingAll, PING_INTERVAL_SECONDS, PING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 服务器共享的实例（ClientHandler 按它判断哪些路径接受升级）
+     */
+    public static WebSocketHub shared() {
+        return SHARED;
+    }
+
+    /**
+     * 注册端点，同一路径重复注册时替换回调（已建立的连接仍使用原来的回调）
+     *
+     * @param path 不含查询参数的路径，如 /ws/user-count
+     */
+    public void addEndpoint(String path, WebSocketListener listener) {
+        endpoints.put(path, listener);
+    }
+
+    /**
+     * 移除端点并以 1001 关闭该路径上的所有连接
+     */
+    public void removeEndpoint(String path) {
+        endpoints.remove(path);
+        Set<WebSocketSession> set = sessions.get(path);
+        if (set != null) {
+            for (WebSocketSession session : set) {
+                session.close(WebSocketSession.CLOSE_GOING_AWAY, "endpoint removed");
+            }
+        }
+    }
+
+    public boolean hasEndpoint(String path) {
+        return endpoints.containsKey(path);
+    }
+
+    /**
+     * 路径当前是否由这个回调服务（同一路径可能已被重新注册）
+     */
+    public boolean hasEndpoint(String path, WebSocketListener listener) {
+        return endpoints.get(path) == listener;
+    }
+
+    /**
+     * 设置同时打开的连接数上限，读线程池随之调整
+     */
+    public void setMaxSessions(int maxSessions) {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions must be positive: " + maxSessions);
+        }
+        this.maxSessions = maxSessions;
+        if (maxSessions > readExecutor.getMaximumPoolSize()) {
+            readExecutor.setMaximumPoolSize(maxSessions);
+            readExecutor.setCorePoolSize(maxSessions);
+        } else {
+            readExecutor.setCorePoolSize(maxSessions);
+            readExecutor.setMaximumPoolSize(maxSessions);
+        }
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /** 所有路径上当前打开的连接数 */
+    public int getSessionCount() {
+        return openSessions.get();
+    }
+
+    /**
+     * 以指定状态码关闭所有路径上的连接，端点保留
+     */
+    public void closeAll(int code, String reason) {
+        for (Set<WebSocketSession> set : sessions.values()) {
+            for (WebSocketSession session : set) {
+                session.close(code, reason);
+            }
+        }
+    }
+
+    /**
+     * 只关闭经由指定监听端口建立的连接（HttpServer 停止时使用 1001，同一进程中其他监听上的连接不受影响）
+     */
+    public void closeAll(int localPort, int code, String reason) {
+        for (Set<WebSocketSession> set : sessions.values()) {
+            for (WebSocketSession session : set) {
+                if (session.getLocalPort() == localPort) {
+                    session.close(code, reason);
+                }
+            }
+        }
+    }
+
+    /**
+     * 向路径上的所有连接广播文本消息
+     *
+     * @return 成功入队的连接数（发送队列已满的连接被丢弃，不计入）
+     */
+    public int broadcast(String path, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        return broadcastFrame(path, WebSocketSession.encodeFrame(WebSocketSession.OP_TEXT, payload, 0, payload.length));
+    }
+
+    /**
+     * 向路径上的所有连接广播二进制消息
+     */
+    public int broadcast(String path, byte[] data) {
+        return broadcastFrame(path, WebSocketSession.encodeFrame(WebSocketSession.OP_BINARY, data, 0, data.length));
+    }
+
+    private int broadcastFrame(String path, byte[] frame) {
+        Set<WebSocketSession> set = sessions.get(path);
+        if (set == null) return 0;
+        int delivered = 0;
+        for (WebSocketSession session : set) {
+            if (session.sendFrame(frame)) delivered++;
+        }
+        return delivered;
+    }
+
+    /** 路径上当前打开的连接数 */
+    public int getSessionCount(String path) {
+        Set<WebSocketSession> set = sessions.get(path);
+        return set == null ? 0 : set.size();
+    }
+
+    /** 因发送队列溢出被断开的连接总数 */
+    public long getSlowConsumersDropped() {
+        return slowConsumersDropped.get();
+    }
+
+    void slowConsumerDropped() {
+        slowConsumersDropped.incrementAndGet();
+    }
+
+    void remove(WebSocketSession session) {
+        Set<WebSocketSession> set = sessions.get(session.getPath());
+        if (set != null && set.remove(session)) {
+            openSessions.decrementAndGet();
+        }
+    }
+
+    Executor readExecutor() {
+        return readExecutor;
+    }
+
+    Executor sendExecutor() {
+        return sendExecutor;
+    }
+
+    private void pingAll() {
+        for (Set<WebSocketSession> set : sessions.values()) {
+            for (WebSocketSession session : set) {
+                session.ping();
+            }
+        }
+    }
+
+    /**
+     * 完成升级握手，返回注册好的会话（由调用方 start）
+     * 之前的 HTTP/1.1 响应已全部写出；握手失败时写出错误响应并返回 null，由调用方关闭连接
+     *
+     * @param connection 关闭它即断开连接（丢弃慢消费者时使用）
+     * @param localPort  接受连接的监听端口
+     */
+    WebSocketSession accept(HttpRequest request, String path, RequestReader reader, ResponseWriter writer,
+                            Closeable connection, String remoteAddress, int localPort) throws IOException {
+        WebSocketListener listener = endpoints.get(path);
+        if (listener == null) {
+            writer.write(HttpResponse.notFound());
+            return null;
+        }
+        String version = request.getHeader("sec-websocket-version");
+        if (version == null || !"13".equals(version.trim())) {
+            HttpResponse response = new HttpResponse(426, "Upgrade Required");
+            response.setHeader("Sec-WebSocket-Version", "13");
+            response.setHeader("Connection", "close");
+            response.setBody("Unsupported WebSocket version".getBytes(StandardCharsets.UTF_8));
+            writer.write(response);
+            return null;
+        }
+        String key = request.getHeader("sec-websocket-key");
+        if (!isValidKey(key)) {
+            writer.write(HttpResponse.badRequest("invalid Sec-WebSocket-Key"));
+            return null;
+        }
+        // 先占用名额再握手，并发的升级请求不会超过上限
+        if (openSessions.incrementAndGet() > maxSessions) {
+            openSessions.decrementAndGet();
+            HttpResponse response = HttpResponse.serviceUnavailable(FULL_RETRY_AFTER_SECONDS);
+            response.setHeader("Connection", "close");
+            writer.write(response);
+            return null;
+        }
+        String handshake = "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + WebSocketSession.acceptKey(key.trim()) + "\r\n\r\n";
+        byte[] head = handshake.getBytes(StandardCharsets.US_ASCII);
+        try {
+            writer.writeRaw(head, 0, head.length, true);
+        } catch (IOException e) {
+            openSessions.decrementAndGet();
+            throw e;
+        }
+
+        WebSocketSession session = new WebSocketSession(this, path, remoteAddress, localPort, listener, reader, writer, connection);
+        sessions.computeIfAbsent(path, p -> ConcurrentHashMap.newKeySet()).add(session);
+        return session;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int threads, String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, prefix + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Sec-WebSocket-Key 必须是 16 字节随机数的 base64 编码
+     */
+    private static boolean isValidKey(String key) {
+        if (key == null) return false;
+        try {
+            return Base64.getDecoder().decode(key.trim()).length == 16;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
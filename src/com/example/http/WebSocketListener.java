@@ -0,0 +1,26 @@
+package com.example.http;
+
+/**
+ * WebSocket 端点的回调，注册到 WebSocketHub
+ * 回调在连接的读线程上执行（onOpen 在握手完成后、开始读取帧之前调用），不应长时间阻塞。
+ * 回调抛出的异常会以 1011 关闭该连接。
+ */
+public interface WebSocketListener {
+
+    default void onOpen(WebSocketSession session) {
+    }
+
+    default void onText(WebSocketSession session, String text) {
+    }
+
+    default void onBinary(WebSocketSession session, byte[] data) {
+    }
+
+    /**
+     * 连接关闭（收到关闭帧、连接断开或因发送队列溢出被丢弃）后调用一次
+     *
+     * @param code 关闭码，连接异常断开时为 1006
+     */
+    default void onClose(WebSocketSession session, int code, String reason) {
+    }
+}
@@ -0,0 +1,456 @@
+package com.example.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个 WebSocket 连接（RFC 6455）
+ * 读：连接的读线程在 serve() 中解析客户端帧（必须带掩码），处理分片、ping/pong 和关闭握手。
+ * 写：send 只把编码好的帧放入本连接的有界发送队列，由 WebSocketHub 的发送线程池写出；
+ * 队列超过帧数或字节数上限说明客户端读得太慢，直接断开连接（慢消费者丢弃），
+ * 不会阻塞广播方或拖慢其他连接。
+ */
+public final class WebSocketSession {
+    static final int OP_CONTINUATION = 0x0;
+    static final int OP_TEXT = 0x1;
+    static final int OP_BINARY = 0x2;
+    static final int OP_CLOSE = 0x8;
+    static final int OP_PING = 0x9;
+    static final int OP_PONG = 0xA;
+
+    public static final int CLOSE_NORMAL = 1000;
+    public static final int CLOSE_GOING_AWAY = 1001;
+    public static final int CLOSE_PROTOCOL_ERROR = 1002;
+    public static final int CLOSE_INVALID_DATA = 1007;
+    public static final int CLOSE_POLICY_VIOLATION = 1008;
+    public static final int CLOSE_TOO_BIG = 1009;
+    public static final int CLOSE_INTERNAL_ERROR = 1011;
+    private static final int CLOSE_NO_STATUS = 1005;
+    private static final int CLOSE_ABNORMAL = 1006;
+
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    // 单条消息（含所有分片）的大小上限
+    private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+    // 发送队列上限：超过任一项即视为慢消费者
+    private static final int MAX_QUEUED_FRAMES = 256;
+    private static final long MAX_QUEUED_BYTES = 4L * 1024 * 1024;
+    private static final byte[] PING = encodeFrame(OP_PING, new byte[0], 0, 0);
+
+    private final WebSocketHub hub;
+    private final String path;
+    private final String remoteAddress;
+    // 接受这个连接的监听端口，区分同一进程中的多个 HttpServer
+    private final int localPort;
+    private final WebSocketListener listener;
+    private final RequestReader reader;
+    private final ResponseWriter writer;
+    private final Closeable connection;
+
+    private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    // 同一时刻最多一个发送任务在写这个连接，保证帧按入队顺序写出
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean closeSent = new AtomicBoolean();
+    private volatile boolean open = true;
+    private int closeCode = CLOSE_ABNORMAL;
+    private String closeReason = "";
+
+    WebSocketSession(WebSocketHub hub, String path, String remoteAddress, int localPort, WebSocketListener listener,
+                     RequestReader reader, ResponseWriter writer, Closeable connection) {
+        this.hub = hub;
+        this.localPort = localPort;
+        this.path = path;
+        this.remoteAddress = remoteAddress;
+        this.listener = listener;
+        this.reader = reader;
+        this.writer = writer;
+        this.connection = connection;
+    }
+
+    // ==================== 发送 ====================
+
+    /**
+     * 发送一条文本消息
+     *
+     * @return false 表示连接已关闭，或发送队列已满、连接因此被丢弃
+     */
+    public boolean send(String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        return sendFrame(encodeFrame(OP_TEXT, payload, 0, payload.length));
+    }
+
+    /**
+     * 发送一条二进制消息
+     */
+    public boolean send(byte[] data) {
+        return sendFrame(encodeFrame(OP_BINARY, data, 0, data.length));
+    }
+
+    /**
+     * 发起关闭握手：已入队的消息写出后发送关闭帧，之后不再接受 send；
+     * 连接在收到客户端的关闭帧（或读超时）后断开
+     */
+    public void close(int code, String reason) {
+        if (closeSent.compareAndSet(false, true)) {
+            enqueue(closeFrame(code, reason), true);
+        }
+        open = false;
+    }
+
+    /**
+     * 发送已编码的帧（广播时所有连接共享同一个数组，只编码一次）
+     */
+    boolean sendFrame(byte[] frame) {
+        return open && enqueue(frame, false);
+    }
+
+    void ping() {
+        sendFrame(PING);
+    }
+
+    private boolean enqueue(byte[] frame, boolean force) {
+        int frames = queuedFrames.incrementAndGet();
+        long bytes = queuedBytes.addAndGet(frame.length);
+        if (!force && (frames > MAX_QUEUED_FRAMES || bytes > MAX_QUEUED_BYTES)) {
+            queuedFrames.decrementAndGet();
+            queuedBytes.addAndGet(-frame.length);
+            hub.slowConsumerDropped();
+            abort();
+            return false;
+        }
+        queue.offer(frame);
+        if (draining.compareAndSet(false, true)) {
+            hub.sendExecutor().execute(this::drain);
+        }
+        return true;
+    }
+
+    /**
+     * 写出队列中的所有帧，连续的帧合并在写缓冲中，队列取空时才 flush
+     */
+    private void drain() {
+        try {
+            while (true) {
+                byte[] frame = queue.poll();
+                if (frame == null) {
+                    draining.set(false);
+                    // 置位前可能有新帧入队但没有抢到发送权
+                    if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                writer.writeRaw(frame, 0, frame.length, queue.isEmpty());
+                queuedFrames.decrementAndGet();
+                queuedBytes.addAndGet(-frame.length);
+            }
+        } catch (IOException e) {
+            draining.set(false);
+            abort();
+        }
+    }
+
+    /**
+     * 不经过关闭握手直接断开（慢消费者、写失败），读线程随之退出 serve()
+     */
+    void abort() {
+        open = false;
+        closeSent.set(true);
+        queue.clear();
+        try {
+            connection.close();
+        } catch (IOException ignored) {}
+    }
+
+    // ==================== 接收 ====================
+
+    /**
+     * 在会话自己的读线程（来自 WebSocketHub 的读线程池，不占用 HttpServer 的工作线程）上调用 onOpen 并读取帧，连接结束后执行 release 关闭连接、归还缓冲
+     */
+    void start(Runnable release) {
+        hub.readExecutor().execute(() -> {
+            try {
+                try {
+                    listener.onOpen(this);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    close(CLOSE_INTERNAL_ERROR, "internal error");
+                }
+                serve();
+            } catch (IOException e) {
+                ClientHandler.handleIOException(e);
+            } finally {
+                release.run();
+            }
+        });
+    }
+
+    /**
+     * 读取并处理客户端帧，直到关闭握手完成或连接断开
+     */
+    private void serve() throws IOException {
+        ByteArrayOutputStream fragments = null;
+        int messageOpcode = 0;
+        try {
+            while (true) {
+                int b0 = reader.read();
+                if (b0 < 0) break;
+                int b1 = readByte();
+                boolean fin = (b0 & 0x80) != 0;
+                int opcode = b0 & 0x0F;
+                if ((b0 & 0x70) != 0) {
+                    fail(CLOSE_PROTOCOL_ERROR, "reserved bits set");
+                    break;
+                }
+                if ((b1 & 0x80) == 0) {
+                    fail(CLOSE_PROTOCOL_ERROR, "client frames must be masked");
+                    break;
+                }
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = (readByte() << 8) | readByte();
+                } else if (length == 127) {
+                    length = 0;
+                    for (int i = 0; i < 8; i++) {
+                        length = (length << 8) | readByte();
+                    }
+                }
+                byte[] mask = new byte[4];
+                reader.readFully(mask, 0, 4);
+
+                if (opcode >= OP_CLOSE) {
+                    // 控制帧：不分片，负载不超过 125 字节，可以插在数据消息的分片之间
+                    if (!fin || length > 125) {
+                        fail(CLOSE_PROTOCOL_ERROR, "invalid control frame");
+                        break;
+                    }
+                    byte[] payload = readPayload((int) length, mask);
+                    if (opcode == OP_PING) {
+                        sendFrame(encodeFrame(OP_PONG, payload, 0, payload.length));
+                    } else if (opcode == OP_CLOSE) {
+                        onCloseFrame(payload);
+                        break;
+                    } else if (opcode != OP_PONG) {
+                        fail(CLOSE_PROTOCOL_ERROR, "unknown opcode");
+                        break;
+                    }
+                    continue;
+                }
+
+                boolean continuation = opcode == OP_CONTINUATION;
+                if (continuation ? fragments == null
+                        : fragments != null || (opcode != OP_TEXT && opcode != OP_BINARY)) {
+                    fail(CLOSE_PROTOCOL_ERROR, "unexpected frame");
+                    break;
+                }
+                long total = length + (fragments == null ? 0 : fragments.size());
+                if (length < 0 || total > MAX_MESSAGE_SIZE) {
+                    fail(CLOSE_TOO_BIG, "message too big");
+                    break;
+                }
+                byte[] payload = readPayload((int) length, mask);
+                if (!continuation) {
+                    messageOpcode = opcode;
+                }
+                if (fin && fragments == null) {
+                    // 未分片的消息（最常见）不经过拼接缓冲
+                    if (!deliver(messageOpcode, payload)) break;
+                    continue;
+                }
+                if (fragments == null) {
+                    fragments = new ByteArrayOutputStream();
+                }
+                fragments.write(payload, 0, payload.length);
+                if (fin) {
+                    byte[] message = fragments.toByteArray();
+                    fragments = null;
+                    if (!deliver(messageOpcode, message)) break;
+                }
+            }
+        } catch (IOException e) {
+            // abort() 关闭连接后阻塞中的读取会失败，属于正常结束
+            if (open) throw e;
+        } finally {
+            open = false;
+            hub.remove(this);
+            try {
+                listener.onClose(this, closeCode, closeReason);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 把完整的消息交给回调；文本不是合法 UTF-8 或回调抛出异常时关闭连接并返回 false
+     */
+    private boolean deliver(int opcode, byte[] message) throws IOException {
+        try {
+            if (opcode == OP_TEXT) {
+                String text;
+                try {
+                    text = StandardCharsets.UTF_8.newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPORT)
+                            .onUnmappableCharacter(CodingErrorAction.REPORT)
+                            .decode(ByteBuffer.wrap(message)).toString();
+                } catch (CharacterCodingException e) {
+                    fail(CLOSE_INVALID_DATA, "invalid UTF-8");
+                    return false;
+                }
+                listener.onText(this, text);
+            } else {
+                listener.onBinary(this, message);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            fail(CLOSE_INTERNAL_ERROR, "internal error");
+            return false;
+        }
+    }
+
+    private void onCloseFrame(byte[] payload) throws IOException {
+        int code = CLOSE_NO_STATUS;
+        String reason = "";
+        if (payload.length >= 2) {
+            code = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+            reason = new String(payload, 2, payload.length - 2, StandardCharsets.UTF_8);
+        }
+        closeCode = code;
+        closeReason = reason;
+        open = false;
+        if (closeSent.compareAndSet(false, true)) {
+            // 回应关闭帧后由 ClientHandler 关闭连接；此后入队的帧不再写出
+            byte[] reply = payload.length == 1 ? closeFrame(CLOSE_PROTOCOL_ERROR, "") : closeFrame(code, "");
+            writer.writeRaw(reply, 0, reply.length, true);
+        }
+    }
+
+    /**
+     * 因协议错误关闭：直接在读线程上写出关闭帧，不再等待客户端回应
+     */
+    private void fail(int code, String reason) throws IOException {
+        closeCode = code;
+        closeReason = reason;
+        open = false;
+        if (closeSent.compareAndSet(false, true)) {
+            byte[] frame = closeFrame(code, reason);
+            writer.writeRaw(frame, 0, frame.length, true);
+        }
+    }
+
+    private byte[] readPayload(int length, byte[] mask) throws IOException {
+        byte[] payload = new byte[length];
+        reader.readFully(payload, 0, length);
+        for (int i = 0; i < length; i++) {
+            payload[i] ^= mask[i & 3];
+        }
+        return payload;
+    }
+
+    private int readByte() throws IOException {
+        int b = reader.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected EOF when reading WebSocket frame");
+        }
+        return b;
+    }
+
+    // ==================== 编码与握手 ====================
+
+    /**
+     * 编码一个不带掩码的服务端帧（FIN 置位）
+     */
+    static byte[] encodeFrame(int opcode, byte[] payload, int off, int len) {
+        int headerLength = len < 126 ? 2 : len <= 0xFFFF ? 4 : 10;
+        byte[] frame = new byte[headerLength + len];
+        frame[0] = (byte) (0x80 | opcode);
+        if (len < 126) {
+            frame[1] = (byte) len;
+        } else if (len <= 0xFFFF) {
+            frame[1] = 126;
+            frame[2] = (byte) (len >>> 8);
+            frame[3] = (byte) len;
+        } else {
+            frame[1] = 127;
+            for (int i = 0; i < 8; i++) {
+                frame[2 + i] = (byte) ((long) len >>> (56 - 8 * i));
+            }
+        }
+        System.arraycopy(payload, off, frame, headerLength, len);
+        return frame;
+    }
+
+    private static byte[] closeFrame(int code, String reason) {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        int textLength = Math.min(text.length, 123);
+        byte[] payload = new byte[2 + textLength];
+        payload[0] = (byte) (code >>> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, textLength);
+        return encodeFrame(OP_CLOSE, payload, 0, payload.length);
+    }
+
+    /**
+     * 是否为 WebSocket 升级请求（GET + Upgrade: websocket + Connection: Upgrade）
+     */
+    static boolean isUpgrade(HttpRequest request) {
+        String upgrade = request.getHeader("upgrade");
+        String connection = request.getHeader("connection");
+        return "GET".equals(request.getMethod())
+                && upgrade != null && upgrade.toLowerCase(Locale.ROOT).contains("websocket")
+                && connection != null && connection.toLowerCase(Locale.ROOT).contains("upgrade");
+    }
+
+    /**
+     * Sec-WebSocket-Accept = base64(SHA-1(Sec-WebSocket-Key + GUID))
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ==================== 访问器 ====================
+
+    /** 连接的端点路径（不含查询参数） */
+    public String getPath() {
+        return path;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    int getLocalPort() {
+        return localPort;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /** 发送队列中尚未写出的帧数 */
+    public int getQueuedFrames() {
+        return queuedFrames.get();
+    }
+}